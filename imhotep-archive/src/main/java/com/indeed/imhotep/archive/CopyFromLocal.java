@@ -28,20 +28,24 @@ import java.io.IOException;
 public class CopyFromLocal {
     public static void main(String[] args) throws IOException {
         if (args.length < 2) {
-            System.err.println("ARGS: from to [--overwrite]");
+            System.err.println("ARGS: from to [--overwrite] [--compressor none|gzip|snappy|block-deflate|block-deflate-fast]");
             System.exit(1);
         }
 
         boolean overwrite = false;
+        SquallArchiveCompressor compressor = SquallArchiveCompressor.GZIP;
         for (int i = 2; i < args.length; ++i) {
             if (args[i].equals("--overwrite")) {
                 overwrite = true;
+            } else if (args[i].equals("--compressor") && i + 1 < args.length) {
+                compressor = SquallArchiveCompressor.fromKey(args[++i]);
             } else {
                 throw new IllegalArgumentException("unrecognized arg: " + args[i]);
             }
         }
 
-        copy(new File(args[0]), new Path(args[1]), overwrite);
+        final Path to = new Path(args[1]);
+        copy(to.getFileSystem(new Configuration()), new File(args[0]), to, overwrite, compressor);
     }
 
     public static void copy(File from, Path to, boolean overwrite) throws IOException {
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.archive;
+
+import com.google.common.io.ByteStreams;
+import com.indeed.imhotep.archive.compression.BlockCompressionInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The compressed blocks that hold a byte range of an archived file with a block index. Callers fetch
+ * [{@link #getCompressedStart}, {@link #getCompressedStart} + {@link #getCompressedLength}) of the archive file and
+ * pass it to {@link #decompress}, which is how a single field file can be read without inflating everything before it.
+ */
+public final class FileBlockRange {
+    private final FileMetadata file;
+    private final long offset;
+    private final long length;
+    private final int firstBlock;
+    private final int endBlock;
+
+    private FileBlockRange(FileMetadata file, long offset, long length, int firstBlock, int endBlock) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.firstBlock = firstBlock;
+        this.endBlock = endBlock;
+    }
+
+    /**
+     * @param length number of bytes to read, or -1 to read until the end of the file
+     */
+    public static FileBlockRange of(FileMetadata file, long offset, long length) {
+        if (!file.hasBlockIndex()) {
+            throw new IllegalArgumentException(file.getFilename() + " has no block index");
+        }
+        if (offset < 0 || offset > file.getSize()) {
+            throw new IllegalArgumentException("offset " + offset + " is outside of " + file.getFilename() + " of size " + file.getSize());
+        }
+        final long end = length < 0 ? file.getSize() : Math.min(file.getSize(), offset + length);
+        final int blockSize = file.getBlockSize();
+        final int firstBlock = (int) (offset / blockSize);
+        final int endBlock = end == offset ? firstBlock : (int) ((end + blockSize - 1) / blockSize);
+        return new FileBlockRange(file, offset, end - offset, firstBlock, endBlock);
+    }
+
+    /**
+     * @return offset of the first block in the archive file
+     */
+    public long getCompressedStart() {
+        return file.getStartOffset() + file.getBlockOffsets()[firstBlock];
+    }
+
+    public long getCompressedLength() {
+        final long[] blockOffsets = file.getBlockOffsets();
+        return blockOffsets[endBlock] - blockOffsets[firstBlock];
+    }
+
+    /**
+     * @param compressed stream positioned at {@link #getCompressedStart}, it is read no further than the range
+     * @return the decompressed range, which closes compressed when closed
+     */
+    public InputStream decompress(InputStream compressed) throws IOException {
+        final InputStream in;
+        if (length > 0) {
+            in = new BlockCompressionInputStream(compressed, endBlock - firstBlock);
+            ByteStreams.skipFully(in, offset - (long) firstBlock * file.getBlockSize());
+        } else {
+            in = compressed;
+        }
+        return new FilterInputStream(in) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining == 0) return -1;
+                final int ret = in.read();
+                if (ret >= 0) remaining--;
+                return ret;
+            }
+
+            @Override
+            public int read(byte[] bytes, int off, int len) throws IOException {
+                if (remaining == 0) return -1;
+                final int n = in.read(bytes, off, (int) Math.min(len, remaining));
+                if (n > 0) remaining -= n;
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                final long skipped = in.skip(Math.min(n, remaining));
+                remaining -= skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(in.available(), remaining);
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+}
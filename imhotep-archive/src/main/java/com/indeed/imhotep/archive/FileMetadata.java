@@ -13,8 +13,13 @@
  */
  package com.indeed.imhotep.archive;
 
+import com.google.common.base.Joiner;
+import com.google.common.primitives.Longs;
 import com.indeed.imhotep.archive.compression.SquallArchiveCompressor;
 
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
 /**
  * @author jsgroth
  */
@@ -26,6 +31,10 @@ public class FileMetadata {
     private final long startOffset;
     private final SquallArchiveCompressor compressor;
     private String archiveFilename;
+    // 0 and null for files that can only be decompressed from the start
+    private final int blockSize;
+    @Nullable
+    private final long[] blockOffsets;
 
     public FileMetadata(String filename,
                         long size,
@@ -34,6 +43,22 @@ public class FileMetadata {
                         long startOffset,
                         SquallArchiveCompressor compressor,
                         String archiveFilename) {
+        this(filename, size, timestamp, checksum, startOffset, compressor, archiveFilename, 0, null);
+    }
+
+    /**
+     * @param blockSize decompressed size of every block but the last one
+     * @param blockOffsets offset of every compressed block relative to startOffset, followed by the end of the last one
+     */
+    public FileMetadata(String filename,
+                        long size,
+                        long timestamp,
+                        String checksum,
+                        long startOffset,
+                        SquallArchiveCompressor compressor,
+                        String archiveFilename,
+                        int blockSize,
+                        @Nullable long[] blockOffsets) {
         this.filename = filename;
         this.size = size;
         this.timestamp = timestamp;
@@ -41,6 +66,8 @@ public class FileMetadata {
         this.startOffset = startOffset;
         this.compressor = compressor;
         this.archiveFilename = archiveFilename;
+        this.blockSize = blockSize;
+        this.blockOffsets = blockOffsets;
     }
 
     public String getFilename() {
@@ -71,6 +98,47 @@ public class FileMetadata {
         return archiveFilename;
     }
 
+    /**
+     * @return true if the file is stored as independently compressed blocks that can be read from any block on
+     */
+    public boolean hasBlockIndex() {
+        return blockOffsets != null;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Nullable
+    public long[] getBlockOffsets() {
+        return blockOffsets;
+    }
+
+    /**
+     * @return the block index column of the metadata file: the block size followed by the compressed length of every block
+     */
+    public String formatBlockIndex() {
+        final long[] values = new long[blockOffsets.length];
+        values[0] = blockSize;
+        for (int i = 1; i < blockOffsets.length; i++) {
+            values[i] = blockOffsets[i] - blockOffsets[i - 1];
+        }
+        return Joiner.on(',').join(Longs.asList(values));
+    }
+
+    /**
+     * @return a copy of metadata with the block index column of its metadata line, as written by {@link #formatBlockIndex}
+     */
+    public static FileMetadata withBlockIndex(FileMetadata metadata, String blockIndex) {
+        final String[] split = blockIndex.split(",");
+        final long[] blockOffsets = new long[split.length];
+        for (int i = 1; i < split.length; i++) {
+            blockOffsets[i] = blockOffsets[i - 1] + Long.parseLong(split[i]);
+        }
+        return new FileMetadata(metadata.filename, metadata.size, metadata.timestamp, metadata.checksum, metadata.startOffset,
+                metadata.compressor, metadata.archiveFilename, Integer.parseInt(split[0]), blockOffsets);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -87,6 +155,8 @@ public class FileMetadata {
         if (checksum != null ? !checksum.equals(that.checksum) : that.checksum != null) return false;
         if (compressor != that.compressor) return false;
         if (filename != null ? !filename.equals(that.filename) : that.filename != null) return false;
+        if (blockSize != that.blockSize) return false;
+        if (!Arrays.equals(blockOffsets, that.blockOffsets)) return false;
 
         return true;
     }
@@ -100,6 +170,7 @@ public class FileMetadata {
         result = 31 * result + (int) (startOffset ^ (startOffset >>> 32));
         result = 31 * result + (compressor != null ? compressor.hashCode() : 0);
         result = 31 * result + (archiveFilename != null ? archiveFilename.hashCode() : 0);
+        result = 31 * result + Arrays.hashCode(blockOffsets);
         return result;
     }
 
@@ -112,6 +183,7 @@ public class FileMetadata {
                 ", checksum='" + checksum + '\'' +
                 ", startOffset=" + startOffset +
                 ", compressor=" + compressor +
+                ", blocks=" + (blockOffsets != null ? blockOffsets.length - 1 : 0) +
                 '}';
     }
 
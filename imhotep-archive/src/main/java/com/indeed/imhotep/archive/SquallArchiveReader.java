@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.security.DigestInputStream;
@@ -99,7 +100,8 @@ public class SquallArchiveReader {
         final SquallArchiveCompressor compressor = split.length > 5 ?
                 SquallArchiveCompressor.fromKey(split[5]) : SquallArchiveCompressor.NONE;
         final String archiveFilename = split.length > 6 ? split[6] : "archive.bin";
-        return new FileMetadata(filename, size, timestamp, checksum, startOffset, compressor, archiveFilename);
+        final FileMetadata metadata = new FileMetadata(filename, size, timestamp, checksum, startOffset, compressor, archiveFilename);
+        return split.length > 7 ? FileMetadata.withBlockIndex(metadata, split[7]) : metadata;
     }
 
     /**
@@ -179,6 +181,27 @@ public class SquallArchiveReader {
         }
     }
 
+    /**
+     * read a byte range of a file from this archive without decompressing the blocks before it
+     *
+     * @param file the metadata for the file to read, which must have a block index
+     * @param offset the first byte to read
+     * @param length the number of bytes to read, or -1 to read until the end of the file
+     * @return a stream over the range, which the caller has to close
+     * @throws IOException if there is an IO problem
+     */
+    public InputStream openFileRange(FileMetadata file, long offset, long length) throws IOException {
+        final FileBlockRange range = FileBlockRange.of(file, offset, length);
+        final FSDataInputStream is = fs.open(new Path(path, file.getArchiveFilename()));
+        try {
+            is.seek(range.getCompressedStart());
+            return range.decompress(is);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+    }
+
     public void tryCopyToLocal(FileMetadata file, File localDir) throws IOException {
         if (!localDir.exists() && !localDir.mkdirs()) {
             throw new IOException("could not create directory " + localDir);
@@ -18,6 +18,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
+import com.indeed.imhotep.archive.compression.BlockCompressionOutputStream;
 import com.indeed.imhotep.archive.compression.SquallArchiveCompressor;
 
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -279,17 +280,24 @@ public class SquallArchiveWriter {
 
         final InputStream is = new BufferedInputStream(new FileInputStream(file));
         final String checksum;
+        int blockSize = 0;
+        long[] blockOffsets = null;
         try {
             final CompressionOutputStream cos = compressor.newOutputStream(os);
             final DigestOutputStream dos = new DigestOutputStream(cos, ArchiveUtils.getMD5Digest());
             ByteStreams.copy(is, dos);
             checksum = ArchiveUtils.toHex(dos.getMessageDigest().digest());
             cos.finish();
+            if (cos instanceof BlockCompressionOutputStream) {
+                final BlockCompressionOutputStream blocks = (BlockCompressionOutputStream) cos;
+                blockSize = blocks.getBlockSize();
+                blockOffsets = blocks.getBlockOffsets();
+            }
         } finally {
             is.close();
         }
 
-        pendingMetadataWrites.add(new FileMetadata(filename, size, timestamp, checksum, startOffset, compressor, archiveFilename));
+        pendingMetadataWrites.add(new FileMetadata(filename, size, timestamp, checksum, startOffset, compressor, archiveFilename, blockSize, blockOffsets));
     }
 
     /**
@@ -312,7 +320,9 @@ public class SquallArchiveWriter {
                     w.println(line);
                 }
                 for (final FileMetadata file : pendingMetadataWrites) {
-                    w.println(TAB.join(file.getFilename(), file.getSize(), file.getTimestamp(), file.getChecksum(), file.getStartOffset(), file.getCompressor().getKey(), file.getArchiveFilename()));
+                    final String line = TAB.join(file.getFilename(), file.getSize(), file.getTimestamp(), file.getChecksum(), file.getStartOffset(), file.getCompressor().getKey(), file.getArchiveFilename());
+                    // readers that predate block indexes ignore the extra column
+                    w.println(file.hasBlockIndex() ? line + "\t" + file.formatBlockIndex() : line);
                 }
             } finally {
                 w.close();
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.archive.compression;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Shared parts of the block compressed streams: a file is cut into blocks of {@link #BLOCK_SIZE} bytes that are
+ * deflated independently, so that all cores can work on one file, both when archiving and when extracting.
+ *
+ * Every block is an int decompressed length, an int compressed length and the raw deflate data. A decompressed length
+ * of 0 ends the file.
+ */
+final class BlockCompression {
+    static final int BLOCK_SIZE = 1 << 20;
+    static final int HEADER_SIZE = 8;
+
+    static final int NUM_THREADS = Integer.getInteger("com.indeed.imhotep.archive.compression.threads", Runtime.getRuntime().availableProcessors());
+    // enough blocks in flight to keep every thread busy while the oldest block gets written or read
+    static final int MAX_PENDING_BLOCKS = 2 * NUM_THREADS;
+
+    static final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SquallBlockCompression-%d").build());
+
+    private BlockCompression() {}
+
+    static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.archive.compression;
+
+import com.google.common.io.ByteStreams;
+import com.indeed.util.compress.CompressionInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.indeed.imhotep.archive.compression.BlockCompression.HEADER_SIZE;
+import static com.indeed.imhotep.archive.compression.BlockCompression.MAX_PENDING_BLOCKS;
+
+/**
+ * Reads the blocks written by {@link BlockCompressionOutputStream} ahead of the caller and inflates them on the shared
+ * compression threads. It never reads past the end of the file, so files can follow each other in an archive.
+ */
+public class BlockCompressionInputStream extends CompressionInputStream {
+    private final Queue<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+    private final byte[] header = new byte[HEADER_SIZE];
+    private final int maxBlocks;
+    private int numBlocks = 0;
+    private boolean sawEnd = false;
+    private byte[] block = new byte[0];
+    private int blockPosition = 0;
+
+    public BlockCompressionInputStream(InputStream in) throws IOException {
+        this(in, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBlocks number of blocks after which the stream ends, for reading a range of blocks out of the middle of a file
+     */
+    public BlockCompressionInputStream(InputStream in, int maxBlocks) throws IOException {
+        super(in);
+        this.maxBlocks = maxBlocks;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (blockPosition == block.length && !nextBlock()) return -1;
+        final int n = Math.min(len, block.length - blockPosition);
+        System.arraycopy(block, blockPosition, bytes, off, n);
+        blockPosition += n;
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (blockPosition == block.length && !nextBlock()) return -1;
+        return block[blockPosition++] & 0xFF;
+    }
+
+    private boolean nextBlock() throws IOException {
+        while (!sawEnd && pendingBlocks.size() < MAX_PENDING_BLOCKS) {
+            readAhead();
+        }
+        if (pendingBlocks.isEmpty()) return false;
+        block = BlockCompression.get(pendingBlocks.remove());
+        blockPosition = 0;
+        return true;
+    }
+
+    private void readAhead() throws IOException {
+        if (numBlocks == maxBlocks) {
+            sawEnd = true;
+            return;
+        }
+        ByteStreams.readFully(in, header);
+        final int blockLength = BlockCompression.readInt(header, 0);
+        if (blockLength == 0) {
+            sawEnd = true;
+            return;
+        }
+        final byte[] compressed = new byte[BlockCompression.readInt(header, 4)];
+        ByteStreams.readFully(in, compressed);
+        numBlocks++;
+        pendingBlocks.add(BlockCompression.executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return inflate(compressed, blockLength);
+            }
+        }));
+    }
+
+    static byte[] inflate(byte[] compressed, int blockLength) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            // raw deflate data needs one extra byte of input to finish
+            final byte[] input = new byte[compressed.length + 1];
+            System.arraycopy(compressed, 0, input, 0, compressed.length);
+            inflater.setInput(input);
+            final byte[] ret = new byte[blockLength];
+            int length = 0;
+            while (length < blockLength) {
+                final int n = inflater.inflate(ret, length, blockLength - length);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("truncated block, expected " + blockLength + " bytes but got " + length);
+                }
+                length += n;
+            }
+            return ret;
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public void resetState() throws IOException {
+        for (final Future<byte[]> pending : pendingBlocks) {
+            pending.cancel(false);
+        }
+        pendingBlocks.clear();
+        numBlocks = 0;
+        sawEnd = false;
+        block = new byte[0];
+        blockPosition = 0;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.archive.compression;
+
+import com.indeed.util.compress.CompressionOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import static com.indeed.imhotep.archive.compression.BlockCompression.BLOCK_SIZE;
+import static com.indeed.imhotep.archive.compression.BlockCompression.HEADER_SIZE;
+import static com.indeed.imhotep.archive.compression.BlockCompression.MAX_PENDING_BLOCKS;
+
+/**
+ * Deflates blocks of {@link BlockCompression#BLOCK_SIZE} bytes on the shared compression threads and writes them in order.
+ */
+public class BlockCompressionOutputStream extends CompressionOutputStream {
+    private final int level;
+    private final Queue<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private int bufferLength = 0;
+    private long[] blockOffsets = new long[16];
+    private int numBlocks = 0;
+
+    public BlockCompressionOutputStream(OutputStream out, int level) {
+        super(out);
+        this.level = level;
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        while (len > 0) {
+            final int n = Math.min(len, BLOCK_SIZE - bufferLength);
+            System.arraycopy(bytes, off, buffer, bufferLength, n);
+            bufferLength += n;
+            off += n;
+            len -= n;
+            if (bufferLength == BLOCK_SIZE) {
+                submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[bufferLength++] = (byte) b;
+        if (bufferLength == BLOCK_SIZE) {
+            submitBlock();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] block = buffer;
+        final int blockLength = bufferLength;
+        buffer = new byte[BLOCK_SIZE];
+        bufferLength = 0;
+        pendingBlocks.add(BlockCompression.executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return deflate(block, blockLength, level);
+            }
+        }));
+        while (pendingBlocks.size() >= MAX_PENDING_BLOCKS) {
+            writeOldestBlock();
+        }
+    }
+
+    private void writeOldestBlock() throws IOException {
+        final byte[] compressed = BlockCompression.get(pendingBlocks.remove());
+        out.write(compressed);
+        if (numBlocks + 1 == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, 2 * blockOffsets.length);
+        }
+        blockOffsets[numBlocks + 1] = blockOffsets[numBlocks] + compressed.length;
+        numBlocks++;
+    }
+
+    static byte[] deflate(byte[] block, int blockLength, int level) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            // incompressible data grows by a few bytes per 16k
+            byte[] compressed = new byte[HEADER_SIZE + blockLength + (blockLength >> 12) + 64];
+            int compressedLength = HEADER_SIZE;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            BlockCompression.writeInt(compressed, 0, blockLength);
+            BlockCompression.writeInt(compressed, 4, compressedLength - HEADER_SIZE);
+            return compressedLength == compressed.length ? compressed : Arrays.copyOf(compressed, compressedLength);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (bufferLength > 0) {
+            submitBlock();
+        }
+        while (!pendingBlocks.isEmpty()) {
+            writeOldestBlock();
+        }
+        out.write(new byte[HEADER_SIZE]);
+    }
+
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    /**
+     * @return the offsets of the blocks written since the last reset relative to the first one, followed by the end of
+     * the last one, which is where the end marker starts. Only complete after {@link #finish}.
+     */
+    public long[] getBlockOffsets() {
+        return Arrays.copyOf(blockOffsets, numBlocks + 1);
+    }
+
+    @Override
+    public void resetState() throws IOException {
+        for (final Future<byte[]> block : pendingBlocks) {
+            block.cancel(false);
+        }
+        pendingBlocks.clear();
+        bufferLength = 0;
+        numBlocks = 0;
+    }
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 /**
  * @author jsgroth
@@ -65,6 +66,32 @@ public enum SquallArchiveCompressor {
             final SnappyCodec codec = new SnappyCodec();
             return codec;
         }
+    },
+    /**
+     * Deflate in independent 1MB blocks, compressed and decompressed by all cores at once.
+     */
+    BLOCK_DEFLATE("block-deflate") {
+        @Override
+        public CompressionInputStream newInputStream(InputStream is) throws IOException {
+            return new BlockCompressionInputStream(is);
+        }
+        @Override
+        public CompressionOutputStream newOutputStream(OutputStream os) throws IOException {
+            return new BlockCompressionOutputStream(os, Deflater.DEFAULT_COMPRESSION);
+        }
+    },
+    /**
+     * Same format as BLOCK_DEFLATE at the fastest deflate level, for shard builds that are bound on compression.
+     */
+    BLOCK_DEFLATE_FAST("block-deflate-fast") {
+        @Override
+        public CompressionInputStream newInputStream(InputStream is) throws IOException {
+            return new BlockCompressionInputStream(is);
+        }
+        @Override
+        public CompressionOutputStream newOutputStream(OutputStream os) throws IOException {
+            return new BlockCompressionOutputStream(os, Deflater.BEST_SPEED);
+        }
     };
 
     private static final Map<String, SquallArchiveCompressor> lookup;
@@ -19,6 +19,7 @@ import org.junit.Test;
 
 import com.indeed.imhotep.archive.FileMetadata;
 
+import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.BLOCK_DEFLATE;
 import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.NONE;
 
 /**
@@ -40,4 +41,19 @@ public class TestFileMetadata extends TestCase {
         FileMetadata fm3 = new FileMetadata("a", 0, 0, "a", 0, NONE, "a");
         assertTrue(fm3.equals(fm));
     }
+
+    @Test
+    public void testBlockIndex() {
+        final FileMetadata fm = new FileMetadata("a", 2500, 0, "a", 100, BLOCK_DEFLATE, "a", 1000, new long[]{0, 300, 650, 700});
+        assertEquals("1000,300,350,50", fm.formatBlockIndex());
+        final FileMetadata parsed = FileMetadata.withBlockIndex(new FileMetadata("a", 2500, 0, "a", 100, BLOCK_DEFLATE, "a"), fm.formatBlockIndex());
+        assertEquals(fm, parsed);
+        assertEquals(fm.hashCode(), parsed.hashCode());
+
+        final FileBlockRange range = FileBlockRange.of(fm, 1500, 1000);
+        assertEquals(400, range.getCompressedStart());
+        assertEquals(400, range.getCompressedLength());
+        assertEquals(650, FileBlockRange.of(fm, 999, 2).getCompressedLength());
+        assertEquals(0, FileBlockRange.of(fm, 2500, -1).getCompressedLength());
+    }
 }
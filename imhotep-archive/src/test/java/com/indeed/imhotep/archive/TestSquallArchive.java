@@ -29,6 +29,7 @@ import org.junit.Test;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -36,9 +37,11 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
+import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.BLOCK_DEFLATE;
 import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.GZIP;
 import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.NONE;
 import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.SNAPPY;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -52,7 +55,7 @@ public class TestSquallArchive {
         final Path tempDir = new Path(getTempDir());
         fs.mkdirs(tempDir);
         try {
-            for (SquallArchiveCompressor compressor : Arrays.asList(NONE, GZIP, SNAPPY)) {
+            for (SquallArchiveCompressor compressor : Arrays.asList(NONE, GZIP, SNAPPY, BLOCK_DEFLATE)) {
                 final String localTempDir = getTempDir();
                 try {
                     doTheTest(fs, tempDir, new File(localTempDir), compressor);
@@ -77,6 +80,49 @@ public class TestSquallArchive {
         }
     }
 
+    @Test
+    public void testFileRanges() throws IOException {
+        final FileSystem fs = new NicerLocalFileSystem();
+        final Path tempDir = new Path(getTempDir());
+        final String localTempDir = getTempDir();
+        try {
+            final Random rand = new Random(0);
+            final byte[] data = new byte[3 * (1 << 20) + 12345];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (i % 4096 < 2048 ? i % 13 : rand.nextInt(256));
+            }
+            final File tempFile = new File(localTempDir, "tempfile");
+            com.google.common.io.Files.write(data, tempFile);
+            final File smallFile = new File(localTempDir, "smallfile");
+            com.google.common.io.Files.write(new byte[]{1, 2, 3}, smallFile);
+
+            final SquallArchiveWriter writer = new SquallArchiveWriter(fs, tempDir, true, BLOCK_DEFLATE);
+            writer.batchAppend(Arrays.asList(smallFile, tempFile));
+
+            final SquallArchiveReader reader = new SquallArchiveReader(fs, tempDir);
+            final List<FileMetadata> metadata = reader.readMetadata();
+            assertEquals(2, metadata.size());
+            final FileMetadata file = metadata.get(1);
+            assertEquals("tempfile", file.getFilename());
+            assertTrue(file.hasBlockIndex());
+            assertEquals(5, file.getBlockOffsets().length);
+
+            final long[][] ranges = {{0, 10}, {0, -1}, {(1 << 20) - 5, 10}, {2 * (1 << 20), 1 << 20}, {data.length - 7, 100}, {data.length, 10}};
+            for (final long[] range : ranges) {
+                final int end = range[1] < 0 ? data.length : (int) Math.min(data.length, range[0] + range[1]);
+                final InputStream is = reader.openFileRange(file, range[0], range[1]);
+                try {
+                    assertArrayEquals(Arrays.copyOfRange(data, (int) range[0], end), ByteStreams.toByteArray(is));
+                } finally {
+                    is.close();
+                }
+            }
+        } finally {
+            fs.delete(tempDir, true);
+            Files.delete(localTempDir);
+        }
+    }
+
     private static String getTempDir() {
         return com.google.common.io.Files.createTempDir().getAbsolutePath();
     }
@@ -27,6 +27,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Random;
 
+import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.BLOCK_DEFLATE;
+import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.BLOCK_DEFLATE_FAST;
 import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.GZIP;
 import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.NONE;
 
@@ -40,6 +42,25 @@ public class TestSquallArchiveCompressor extends TestCase {
     public void testCompressors() throws IOException {
         compressorTestCase(NONE);
         compressorTestCase(GZIP);
+        compressorTestCase(BLOCK_DEFLATE);
+        compressorTestCase(BLOCK_DEFLATE_FAST);
+    }
+
+    @Test
+    public void testMultiBlockFiles() throws IOException {
+        // several blocks per file, the last one partial, and an empty file in between
+        final int[][] data = new int[3][];
+        final Random rand = new Random(0);
+        data[0] = new int[3 * BlockCompression.BLOCK_SIZE + 1234];
+        data[1] = new int[0];
+        data[2] = new int[BlockCompression.BLOCK_SIZE];
+        for (final int[] array : data) {
+            for (int j = 0; j < array.length; ++j) {
+                array[j] = j % 1000 < 500 ? j % 7 : rand.nextInt(256);
+            }
+        }
+        compressorTestCase(BLOCK_DEFLATE, data);
+        compressorTestCase(BLOCK_DEFLATE_FAST, data);
     }
 
     private void compressorTestCase(SquallArchiveCompressor compressor) throws IOException {
@@ -72,8 +93,8 @@ public class TestSquallArchiveCompressor extends TestCase {
 
     private void compressorTestCase(SquallArchiveCompressor compressor, int[][] data) throws IOException {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        final int[] offsets = new int[1000];
-        for (int i = 0; i < 1000; ++i) {
+        final int[] offsets = new int[data.length];
+        for (int i = 0; i < data.length; ++i) {
             offsets[i] = baos.size();
             final CompressionOutputStream os = compressor.newOutputStream(baos);
             for (int j = 0; j < data[i].length; ++j) {
@@ -88,7 +109,7 @@ public class TestSquallArchiveCompressor extends TestCase {
         }
         log.info(compressor.getKey() + " compressor compressed " + numBytes + " bytes to " + bytes.length + " bytes");
         final SeekableByteArrayInputStream bais = new SeekableByteArrayInputStream(bytes);
-        for (int i = 0; i < 1000; ++i) {
+        for (int i = 0; i < data.length; ++i) {
             bais.seek(offsets[i]);
             final CompressionInputStream is = compressor.newInputStream(bais);
             for (int j = 0; j < data[i].length; ++j) {
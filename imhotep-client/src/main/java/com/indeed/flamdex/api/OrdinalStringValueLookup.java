@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.api;
+
+/**
+ * A {@link StringValueLookup} over a dictionary of the distinct terms of the field. Every doc maps to the ordinal
+ * of its term, so callers that see the same term many times can deal in ordinals and decode each term once.
+ */
+public interface OrdinalStringValueLookup extends StringValueLookup {
+    /**
+     * @return the number of ordinals, ordinal 0 is the empty string that docs without a term have
+     */
+    int getNumOrdinals();
+
+    int getOrdinal(int docId);
+
+    /**
+     * @return the utf-8 bytes of the term with the given ordinal
+     */
+    byte[] getTermBytes(int ordinal);
+}
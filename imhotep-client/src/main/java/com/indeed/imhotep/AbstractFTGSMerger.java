@@ -30,16 +30,17 @@ public abstract class AbstractFTGSMerger implements FTGSIterator {
 
     protected final FTGSIterator[] iterators;
     private final int numIterators;
-    protected final int[] fieldIterators;
-    protected int numFieldIterators;
-    protected final int[] termIterators;
-    protected final int[] termIteratorIndexes;
-    protected int numTermIterators;
-    protected int termIteratorsRemaining;
+    private final int[] termIterators;
+    private int numTermIterators;
+    private int termIteratorsRemaining;
+
+    // the int term, or a prefix of the string term from termPrefix(), of every iterator still in the tournament
+    private final long[] termKeys;
+    private final TournamentTree tree;
 
     private String fieldName;
-    protected boolean fieldIsIntType;
-    protected long termIntVal;
+    private boolean fieldIsIntType;
+    private long termIntVal;
 
     private boolean done;
 
@@ -51,20 +52,43 @@ public abstract class AbstractFTGSMerger implements FTGSIterator {
         this.doneCallback = doneCallback;
         numIterators = iterators.size();
         this.iterators = iterators.toArray(new FTGSIterator[numIterators]);
-        fieldIterators = new int[numIterators];
-        numFieldIterators = 0;
         termIterators = new int[numIterators];
-        termIteratorIndexes = new int[numIterators];
         numTermIterators = 0;
+        termKeys = new long[numIterators];
+        tree = new TournamentTree(Math.max(numIterators, 1)) {
+            @Override
+            protected boolean lessThan(int a, int b) {
+                final long keyA = termKeys[a];
+                final long keyB = termKeys[b];
+                if (fieldIsIntType) return keyA < keyB;
+                // the prefixes decide unless they are equal or one of them is not comparable
+                if (keyA != keyB && (keyA | keyB) >= 0) return keyA < keyB;
+                return compareStringTerms(a, b) < 0;
+            }
+        };
         done = false;
         accumulatedVec = new GSVector(numStats);
     }
 
+    /**
+     * @return a non-negative number that orders the current string terms of iterators the same way
+     * compareStringTerms does whenever two of them differ, or -1 if there is no such number for this term
+     */
+    protected abstract long termPrefix(int index);
+
+    protected abstract int compareStringTerms(int a, int b);
+
+    /**
+     * makes the current string term of the iterator at index the current term of the merger
+     */
+    protected abstract void setStringTerm(int index);
+
     @Override
     public final boolean nextField() {
         if (done) return false;
 
-        numFieldIterators = 0;
+        numTermIterators = 0;
+        tree.clear();
 
         final FTGSIterator first = iterators[0];
         final boolean firstHasNextField = first.nextField();
@@ -79,9 +103,10 @@ public abstract class AbstractFTGSMerger implements FTGSIterator {
         }
         fieldName = first.fieldName();
         fieldIsIntType = first.fieldIsIntType();
-        numFieldIterators = 0;
         if (first.nextTerm()) {
-            fieldIterators[numFieldIterators++] = 0;
+            loadTermKey(0);
+        } else {
+            tree.markRemoved(0);
         }
 
         for (int i = 1; i < numIterators; ++i) {
@@ -90,13 +115,67 @@ public abstract class AbstractFTGSMerger implements FTGSIterator {
                 throw new IllegalArgumentException("sub iterator fields do not match");
             }
             if (itr.nextTerm()) {
-                fieldIterators[numFieldIterators++] = i;
+                loadTermKey(i);
+            } else {
+                tree.markRemoved(i);
+            }
+        }
+        tree.init();
+        return true;
+    }
+
+    @Override
+    public final boolean nextTerm() {
+        // advance the iterators of the previous term and put the ones with terms left back into the tournament
+        for (int i = 0; i < numTermIterators; ++i) {
+            final int index = termIterators[i];
+            if (iterators[index].nextTerm()) {
+                loadTermKey(index);
+                tree.update(index);
             }
         }
+
         numTermIterators = 0;
+        if (tree.isEmpty()) return false;
+
+        // take every iterator positioned on the smallest term out of the tournament
+        final int first = tree.top();
+        do {
+            final int index = tree.top();
+            tree.remove(index);
+            termIterators[numTermIterators++] = index;
+        } while (!tree.isEmpty() && termEquals(tree.top(), first));
+
+        if (fieldIsIntType) {
+            termIntVal = termKeys[first];
+        } else {
+            setStringTerm(first);
+        }
+
+        termIteratorsRemaining = numTermIterators;
+        for (int i = 0; i < termIteratorsRemaining; ++i) {
+            final FTGSIterator itr = iterators[termIterators[i]];
+            if (!itr.nextGroup()) {
+                swap(termIterators, i, --termIteratorsRemaining);
+                --i;
+            }
+        }
+        accumulatedVec.reset();
         return true;
     }
 
+    private void loadTermKey(int index) {
+        termKeys[index] = fieldIsIntType ? iterators[index].termIntVal() : termPrefix(index);
+    }
+
+    private boolean termEquals(int a, int b) {
+        final long keyA = termKeys[a];
+        final long keyB = termKeys[b];
+        if (fieldIsIntType) return keyA == keyB;
+        if (keyA != keyB && (keyA | keyB) >= 0) return false;
+        return compareStringTerms(a, b) == 0;
+    }
+
     @Override
     public final String fieldName() {
         return fieldName;
@@ -149,7 +228,6 @@ public abstract class AbstractFTGSMerger implements FTGSIterator {
             if ((itr.group()&0xFFFFF000) == baseGroup) {
                 if (!accumulatedVec.mergeFromFtgs(itr)) {
                     swap(termIterators, i, --termIteratorsRemaining);
-                    swap(termIteratorIndexes, i, termIteratorsRemaining);
                     --i;
                 }
             }
@@ -174,7 +252,7 @@ public abstract class AbstractFTGSMerger implements FTGSIterator {
         }
     }
 
-    protected static void swap(final int[] a, final int b, final int e) {
+    private static void swap(final int[] a, final int b, final int e) {
         final int t = a[b];
         a[b] = a[e];
         a[e] = t;
@@ -232,8 +310,9 @@ public abstract class AbstractFTGSMerger implements FTGSIterator {
             group -= baseGroup;
             do {
                 ftgs.groupStats(statBuf);
+                final int offset = group*numStats;
                 for (int i = 0; i < numStats; i++) {
-                    metrics[group*numStats+i] += statBuf[i];
+                    metrics[offset+i] += statBuf[i];
                 }
                 final int bitset2index = group>>>6;
                 bitset1 |= 1L<<bitset2index;
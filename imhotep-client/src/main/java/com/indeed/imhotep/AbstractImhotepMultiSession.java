@@ -42,6 +42,7 @@ import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 
 import org.apache.log4j.Logger;
 
+import javax.annotation.Nullable;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -79,10 +80,20 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
 
     private final List<TermCount>[] termCountListBuf;
 
+    private final HyperLogLog[][] distinctTermsBuf;
+
+    private final QuantileSketch[][] quantileSketchesBuf;
+
     private FTGSIterator lastIterator;
 
     protected final AtomicLong tempFileSizeBytesLeft;
 
+    @Nullable
+    private final MemoryReserver sessionMemory;
+
+    // bytes claimed for the merged sketches returned last, held until the next sketch request or close
+    private long sketchMemory = 0;
+
     private final ExecutorService getSplitBufferThreads = Executors.newCachedThreadPool(
             new ThreadFactoryBuilder().setDaemon(true)
                     .setNameFormat("FTGS-Buffer-Thread-getSplit-%d")
@@ -105,9 +116,17 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
         this(sessions, null);
     }
 
-    @SuppressWarnings({"unchecked"})
     protected AbstractImhotepMultiSession(ImhotepSession[] sessions, AtomicLong tempFileSizeBytesLeft) {
+        this(sessions, tempFileSizeBytesLeft, null);
+    }
+
+    /**
+     * @param sessionMemory where the FTGS splits of merges and the per-shard sketches claim the bytes they keep in memory from
+     */
+    @SuppressWarnings({"unchecked"})
+    protected AbstractImhotepMultiSession(ImhotepSession[] sessions, AtomicLong tempFileSizeBytesLeft, @Nullable MemoryReserver sessionMemory) {
         this.tempFileSizeBytesLeft = tempFileSizeBytesLeft;
+        this.sessionMemory = sessionMemory;
         if (sessions == null || sessions.length == 0) {
             throw new IllegalArgumentException("at least one session is required");
         }
@@ -119,6 +138,8 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
         nullBuf = new Object[sessions.length];
         groupStatsBuf = new long[sessions.length][];
         termCountListBuf = new List[sessions.length];
+        distinctTermsBuf = new HyperLogLog[sessions.length][];
+        quantileSketchesBuf = new QuantileSketch[sessions.length][];
     }
 
     @Override
@@ -161,6 +182,53 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
         return totalStats;
     }
 
+    @Override
+    public QuantileSketch[] getGroupQuantileSketches(final int stat, final int k) throws ImhotepOutOfMemoryException {
+        releaseSketchMemory(sketchMemory);
+        try {
+            executeMemoryException(quantileSketchesBuf, new ThrowingFunction<ImhotepSession, QuantileSketch[]>() {
+                @Override
+                public QuantileSketch[] apply(ImhotepSession session) throws Exception {
+                    return session.getGroupQuantileSketches(stat, k);
+                }
+            });
+
+            int numGroups = 0;
+            long shardMemory = 0;
+            for (final QuantileSketch[] sketches : quantileSketchesBuf) {
+                numGroups = Math.max(numGroups, sketches.length);
+                for (final QuantileSketch sketch : sketches) {
+                    shardMemory += QuantileSketch.memoryUsage(k, sketch.getCount());
+                }
+            }
+            final long[] groupCounts = new long[numGroups];
+            for (final QuantileSketch[] sketches : quantileSketchesBuf) {
+                for (int group = 1; group < sketches.length; ++group) {
+                    groupCounts[group] += sketches[group].getCount();
+                }
+            }
+            long mergedMemory = 0;
+            for (final long groupCount : groupCounts) {
+                mergedMemory += QuantileSketch.memoryUsage(k, groupCount);
+            }
+            claimSketchMemory(shardMemory + mergedMemory);
+
+            final QuantileSketch[] merged = new QuantileSketch[numGroups];
+            for (int group = 0; group < numGroups; ++group) {
+                merged[group] = new QuantileSketch(k);
+            }
+            for (final QuantileSketch[] sketches : quantileSketchesBuf) {
+                for (int group = 1; group < sketches.length; ++group) {
+                    merged[group].merge(sketches[group]);
+                }
+            }
+            releaseSketchMemory(shardMemory);
+            return merged;
+        } finally {
+            Arrays.fill(quantileSketchesBuf, null);
+        }
+    }
+
     @Override
     public int regroup(final GroupMultiRemapRule[] rawRules, final boolean errorOnCollisions) throws ImhotepOutOfMemoryException {
         executeMemoryException(integerBuf, new ThrowingFunction<ImhotepSession, Integer>() {
@@ -338,6 +406,60 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
         return mergeTermCountLists(termCountListBuf, field, isIntField, k);
     }
 
+    @Override
+    public HyperLogLog[] approximateDistinctTerms(final String field, final boolean isIntField, final int precision) throws ImhotepOutOfMemoryException {
+        releaseSketchMemory(sketchMemory);
+        try {
+            executeMemoryException(distinctTermsBuf, new ThrowingFunction<ImhotepSession, HyperLogLog[]>() {
+                @Override
+                public HyperLogLog[] apply(ImhotepSession session) throws Exception {
+                    return session.approximateDistinctTerms(field, isIntField, precision);
+                }
+            });
+
+            int numGroups = 0;
+            long shardMemory = 0;
+            for (final HyperLogLog[] sketches : distinctTermsBuf) {
+                numGroups = Math.max(numGroups, sketches.length);
+                shardMemory += HyperLogLog.memoryUsage(precision) * sketches.length;
+            }
+            claimSketchMemory(shardMemory + HyperLogLog.memoryUsage(precision) * numGroups);
+
+            final HyperLogLog[] merged = new HyperLogLog[numGroups];
+            for (int group = 0; group < numGroups; ++group) {
+                merged[group] = new HyperLogLog(precision);
+            }
+            for (final HyperLogLog[] sketches : distinctTermsBuf) {
+                for (int group = 1; group < sketches.length; ++group) {
+                    merged[group].merge(sketches[group]);
+                }
+            }
+            releaseSketchMemory(shardMemory);
+            return merged;
+        } finally {
+            Arrays.fill(distinctTermsBuf, null);
+        }
+    }
+
+    /**
+     * Charges sketches to the session memory. The per-shard sketches are charged once they have come back and
+     * released once merged, the merged ones stay charged until the caller has serialized them.
+     */
+    private void claimSketchMemory(long bytes) throws ImhotepOutOfMemoryException {
+        if (sessionMemory != null && !sessionMemory.claimMemory(bytes)) {
+            throw new ImhotepOutOfMemoryException();
+        }
+        sketchMemory += bytes;
+    }
+
+    private void releaseSketchMemory(long bytes) {
+        if (bytes == 0) return;
+        if (sessionMemory != null) {
+            sessionMemory.releaseMemory(bytes);
+        }
+        sketchMemory -= bytes;
+    }
+
     private static List<TermCount> mergeTermCountLists(List<TermCount>[] termCountListBuf, String field, boolean isIntField, int k) {
         final List<TermCount> ret;
         if (isIntField) {
@@ -493,15 +615,17 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
     }
 
     @Override
-    public FTGSIterator getFTGSIterator(final String[] intFields, final String[] stringFields) {
-        if (sessions.length == 1) return sessions[0].getFTGSIterator(intFields, stringFields);
+    public FTGSIterator getFTGSIterator(final String[] intFields, final String[] stringFields, final List<FTGSStatFilter> statFilters) {
+        if (sessions.length == 1) return sessions[0].getFTGSIterator(intFields, stringFields, statFilters);
+        FTGSStatFilter.validate(statFilters, numStats);
         final RawFTGSIterator[] iterators = new RawFTGSIterator[sessions.length];
         executeRuntimeException(iterators, new ThrowingFunction<ImhotepSession, RawFTGSIterator>() {
             public RawFTGSIterator apply(final ImhotepSession imhotepSession) throws Exception {
                 return persist(imhotepSession.getFTGSIterator(intFields, stringFields));
             }
         });
-        return new RawFTGSMerger(Arrays.asList(iterators), numStats, null);
+        // per session stats are partial sums so the filters can only be applied after merging
+        return StatFilteringFTGSIterator.wrap(new RawFTGSMerger(Arrays.asList(iterators), numStats, null), numStats, statFilters);
     }
 
     @Override
@@ -530,19 +654,26 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
         }
     }
 
-    public RawFTGSIterator getFTGSIteratorSplit(final String[] intFields, final String[] stringFields, final int splitIndex, final int numSplits) {
+    /**
+     * when numSplits > 1 the split is merged with the splits of the other nodes before its rows are complete,
+     * so the filters are left for {@link #mergeFTGSSplit} to apply
+     */
+    public RawFTGSIterator getFTGSIteratorSplit(final String[] intFields, final String[] stringFields, final int splitIndex, final int numSplits, final List<FTGSStatFilter> statFilters) {
+        final boolean rowsComplete = numSplits == 1;
+        final List<FTGSStatFilter> sessionFilters = rowsComplete && sessions.length == 1 ? statFilters : Collections.<FTGSStatFilter>emptyList();
         final RawFTGSIterator[] splits = new RawFTGSIterator[sessions.length];
         try {
             executeSessions(splits, new ThrowingFunction<ImhotepSession, RawFTGSIterator>() {
                 public RawFTGSIterator apply(final ImhotepSession imhotepSession) throws Exception {
-                    return imhotepSession.getFTGSIteratorSplit(intFields, stringFields, splitIndex, numSplits);
+                    return imhotepSession.getFTGSIteratorSplit(intFields, stringFields, splitIndex, numSplits, sessionFilters);
                 }
             });
         } catch (Throwable t) {
             Closeables2.closeAll(log, splits);
             throw Throwables.propagate(t);
         }
-        return new RawFTGSMerger(Arrays.asList(splits), numStats, null);
+        final RawFTGSIterator merger = new RawFTGSMerger(Arrays.asList(splits), numStats, null);
+        return rowsComplete && sessions.length > 1 ? StatFilteringFTGSIterator.wrap(merger, numStats, statFilters) : merger;
     }
 
     @Override
@@ -566,21 +697,22 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
         throw new UnsupportedOperationException();
     }
 
-    public RawFTGSIterator mergeFTGSSplit(final String[] intFields, final String[] stringFields, final String sessionId, final InetSocketAddress[] nodes, final int splitIndex) {
+    public RawFTGSIterator mergeFTGSSplit(final String[] intFields, final String[] stringFields, final String sessionId, final InetSocketAddress[] nodes, final int splitIndex, final List<FTGSStatFilter> statFilters) {
+        FTGSStatFilter.validate(statFilters, numStats);
         final RawFTGSIterator[] splits = new RawFTGSIterator[nodes.length];
         try {
             execute(splits, nodes, new ThrowingFunction<InetSocketAddress, RawFTGSIterator>() {
                 public RawFTGSIterator apply(final InetSocketAddress node) throws Exception {
                     final ImhotepRemoteSession remoteSession = new ImhotepRemoteSession(node.getHostName(), node.getPort(), sessionId, tempFileSizeBytesLeft);
                     remoteSession.setNumStats(numStats);
-                    return remoteSession.getFTGSIteratorSplit(intFields, stringFields, splitIndex, nodes.length);
+                    return remoteSession.getFTGSIteratorSplit(intFields, stringFields, splitIndex, nodes.length, statFilters);
                 }
             });
         } catch (Throwable t) {
             Closeables2.closeAll(log, splits);
             throw Throwables.propagate(t);
         }
-        return mergeFTGSSplits(splits);
+        return mergeFTGSSplits(splits, statFilters);
     }
 
     @Override
@@ -598,16 +730,16 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
             Closeables2.closeAll(log, splits);
             throw Throwables.propagate(t);
         }
-        return mergeFTGSSplits(splits);
+        return mergeFTGSSplits(splits, Collections.<FTGSStatFilter>emptyList());
     }
 
-    private RawFTGSIterator mergeFTGSSplits(RawFTGSIterator[] splits) {
+    private RawFTGSIterator mergeFTGSSplits(RawFTGSIterator[] splits, List<FTGSStatFilter> statFilters) {
         final Closer closer = Closer.create();
         try {
             final RawFTGSIterator[][] iteratorSplits = new RawFTGSIterator[splits.length][];
             final int numSplits = Math.max(1, Runtime.getRuntime().availableProcessors()/2);
             for (int i = 0; i < splits.length; i++) {
-                final FTGSSplitter splitter = closer.register(new FTGSSplitter(splits[i], numSplits, numStats, "mergeFtgsSplit", 981044833, tempFileSizeBytesLeft));
+                final FTGSSplitter splitter = closer.register(new FTGSSplitter(splits[i], numSplits, numStats, "mergeFtgsSplit", 981044833, tempFileSizeBytesLeft, FTGSSplitter.DEFAULT_SPLIT_MEMORY_LIMIT, sessionMemory));
                 iteratorSplits[i] = splitter.getFtgsIterators();
             }
             final RawFTGSIterator[] mergers = new RawFTGSIterator[numSplits];
@@ -616,7 +748,7 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
                 for (int i = 0; i < splits.length; i++) {
                     iterators.add(iteratorSplits[i][j]);
                 }
-                mergers[j] = closer.register(new RawFTGSMerger(iterators, numStats, null));
+                mergers[j] = closer.register(StatFilteringFTGSIterator.wrap(new RawFTGSMerger(iterators, numStats, null), numStats, statFilters));
             }
             final RawFTGSIterator[] iterators = new RawFTGSIterator[numSplits];
             execute(iterators, mergers, new ThrowingFunction<RawFTGSIterator, RawFTGSIterator>() {
@@ -684,6 +816,30 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
         });
     }
     
+    @Override
+    public void checkpoint(final String checkpointId) {
+        executeRuntimeException(nullBuf, new ThrowingFunction<ImhotepSession, Object>() {
+            @Override
+            public Object apply(ImhotepSession imhotepSession) throws Exception {
+                imhotepSession.checkpoint(checkpointId);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public int restore(final String checkpointId) throws ImhotepOutOfMemoryException {
+        executeMemoryException(integerBuf, new ThrowingFunction<ImhotepSession, Integer>() {
+            @Override
+            public Integer apply(ImhotepSession imhotepSession) throws Exception {
+                return imhotepSession.restore(checkpointId);
+            }
+        });
+
+        numStats = validateNumStats(integerBuf);
+        return numStats;
+    }
+
     @Override
     public final void close() {
         try {
@@ -716,6 +872,7 @@ public abstract class AbstractImhotepMultiSession extends AbstractImhotepSession
 
     protected void preClose() {
         try {
+            releaseSketchMemory(sketchMemory);
             if (lastIterator != null) {
                 Closeables2.closeQuietly(lastIterator, log);
                 lastIterator = null;
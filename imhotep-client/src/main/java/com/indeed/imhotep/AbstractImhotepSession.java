@@ -13,9 +13,13 @@
  */
  package com.indeed.imhotep;
 
+import com.indeed.imhotep.api.FTGSIterator;
 import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
 import com.indeed.imhotep.api.ImhotepSession;
+import com.indeed.imhotep.api.RawFTGSIterator;
 
+import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.Iterator;
 
 /**
@@ -54,4 +58,19 @@ public abstract class AbstractImhotepSession implements ImhotepSession {
     public int metricRegroup(int stat, long min, long max, long intervalSize) throws ImhotepOutOfMemoryException {
         return metricRegroup(stat, min, max, intervalSize, false);
     }
+
+    @Override
+    public FTGSIterator getFTGSIterator(String[] intFields, String[] stringFields) {
+        return getFTGSIterator(intFields, stringFields, Collections.<FTGSStatFilter>emptyList());
+    }
+
+    @Override
+    public RawFTGSIterator getFTGSIteratorSplit(String[] intFields, String[] stringFields, int splitIndex, int numSplits) {
+        return getFTGSIteratorSplit(intFields, stringFields, splitIndex, numSplits, Collections.<FTGSStatFilter>emptyList());
+    }
+
+    @Override
+    public RawFTGSIterator mergeFTGSSplit(String[] intFields, String[] stringFields, String sessionId, InetSocketAddress[] nodes, int splitIndex) {
+        return mergeFTGSSplit(intFields, stringFields, sessionId, nodes, splitIndex, Collections.<FTGSStatFilter>emptyList());
+    }
 }
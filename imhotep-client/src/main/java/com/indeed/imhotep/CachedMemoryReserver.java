@@ -49,6 +49,21 @@ public class CachedMemoryReserver extends MemoryReserver {
         return cache.memoryUsed();
     }
 
+    @Export(name = "cache-hits", doc = "number of metrics taken back out of the cache")
+    public long cacheHits() {
+        return cache.getHits();
+    }
+
+    @Export(name = "cache-misses", doc = "number of metrics looked up in the cache and built because they were not in it")
+    public long cacheMisses() {
+        return cache.getMisses();
+    }
+
+    @Export(name = "cache-evictions", doc = "number of metrics evicted from the cache to make room for claimed memory")
+    public long cacheEvictions() {
+        return cache.getEvictions();
+    }
+
     @Override
     public synchronized long totalMemory() {
         if (closed) {
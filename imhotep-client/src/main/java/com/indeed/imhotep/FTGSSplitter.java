@@ -17,7 +17,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
-import com.indeed.imhotep.io.LimitedBufferedOutputStream;
+import com.indeed.imhotep.io.SpillingOutputStream;
 import com.indeed.imhotep.io.TempFileSizeLimitExceededException;
 import com.indeed.imhotep.io.WriteLimitExceededException;
 import com.indeed.util.core.Throwables2;
@@ -28,14 +28,9 @@ import com.indeed.imhotep.service.FTGSOutputStreamWriter;
 import com.indeed.util.core.io.Closeables2;
 import org.apache.log4j.Logger;
 
-import java.io.BufferedInputStream;
+import javax.annotation.Nullable;
 import java.io.Closeable;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -47,13 +42,17 @@ import java.util.concurrent.atomic.AtomicLong;
 public final class FTGSSplitter implements Runnable, Closeable {
     private static final Logger log = Logger.getLogger(FTGSSplitter.class);
 
+    /**
+     * bytes of each split that are kept in memory before the rest is spilled to a temp file
+     */
+    public static final long DEFAULT_SPLIT_MEMORY_LIMIT = Long.getLong("com.indeed.imhotep.FTGSSplitter.splitMemoryLimit", 256 * 1024);
+
     private final FTGSIterator iterator;
 
     private final int numSplits;
 
     private final FTGSOutputStreamWriter[] outputs;
-    private final File[] files;
-    private final OutputStream[] outputStreams;
+    private final SpillingOutputStream[] outputStreams;
     private final RawFTGSIterator[] ftgsIterators;
 
     private final AtomicBoolean done = new AtomicBoolean(false);
@@ -64,23 +63,32 @@ public final class FTGSSplitter implements Runnable, Closeable {
     private final int largePrime;
 
     public FTGSSplitter(FTGSIterator ftgsIterator, final int numSplits, final int numStats, final String threadNameSuffix, final int largePrime, final AtomicLong tempFileSizeBytesLeft) throws IOException {
+        this(ftgsIterator, numSplits, numStats, threadNameSuffix, largePrime, tempFileSizeBytesLeft, DEFAULT_SPLIT_MEMORY_LIMIT);
+    }
+
+    public FTGSSplitter(FTGSIterator ftgsIterator, final int numSplits, final int numStats, final String threadNameSuffix, final int largePrime, final AtomicLong tempFileSizeBytesLeft, final long splitMemoryLimit) throws IOException {
+        this(ftgsIterator, numSplits, numStats, threadNameSuffix, largePrime, tempFileSizeBytesLeft, splitMemoryLimit, null);
+    }
+
+    /**
+     * @param memory where the bytes the splits keep in memory are claimed from, splits spill once it runs out
+     */
+    public FTGSSplitter(FTGSIterator ftgsIterator, final int numSplits, final int numStats, final String threadNameSuffix, final int largePrime, final AtomicLong tempFileSizeBytesLeft, final long splitMemoryLimit, @Nullable final MemoryReserver memory) throws IOException {
         this.iterator = ftgsIterator;
         this.numSplits = numSplits;
         this.numStats = numStats;
         this.largePrime = largePrime;
         outputs = new FTGSOutputStreamWriter[numSplits];
-        files = new File[numSplits];
-        outputStreams = new OutputStream[numSplits];
+        outputStreams = new SpillingOutputStream[numSplits];
         ftgsIterators = new RawFTGSIterator[numSplits];
         final AtomicInteger doneCounter = new AtomicInteger();
         runThread = new Thread(this, "FTGSSplitterThread-"+threadNameSuffix);
         runThread.setDaemon(true);
         try {
             for (int i = 0; i < numSplits; i++) {
-                files[i] = File.createTempFile("ftgsSplitter", ".tmp");
-                outputStreams[i] = new LimitedBufferedOutputStream(new FileOutputStream(files[i]), tempFileSizeBytesLeft, 65536);
+                outputStreams[i] = new SpillingOutputStream(splitMemoryLimit, tempFileSizeBytesLeft, memory);
                 outputs[i] = new FTGSOutputStreamWriter(outputStreams[i]);
-                ftgsIterators[i] = new SplitterRawFTGSIterator(i, numStats, doneCounter, numSplits);
+                ftgsIterators[i] = new SplitterRawFTGSIterator(i, doneCounter);
             }
         } catch (Throwable t) {
             try {
@@ -143,6 +151,9 @@ public final class FTGSSplitter implements Runnable, Closeable {
             for (final FTGSOutputStreamWriter output : outputs) {
                 output.close();
             }
+            for (final SpillingOutputStream outputStream : outputStreams) {
+                outputStream.close();
+            }
         } catch (Throwable t) {
             close();
             if(t instanceof WriteLimitExceededException) {
@@ -174,15 +185,17 @@ public final class FTGSSplitter implements Runnable, Closeable {
                     }
                 }
             } finally {
-                Closeables2.closeAll(log, iterator, Closeables2.forIterable(log, Iterables.transform(Arrays.asList(files), new Function<File, Closeable>() {
-                    public Closeable apply(final File input) {
+                Closeables2.closeAll(log, iterator, Closeables2.forArray(log, outputs), Closeables2.forArray(log, ftgsIterators), Closeables2.forIterable(log, Iterables.transform(Arrays.asList(outputStreams), new Function<SpillingOutputStream, Closeable>() {
+                    public Closeable apply(final SpillingOutputStream input) {
                         return new Closeable() {
                             public void close() throws IOException {
-                                input.delete();
+                                if (input != null) {
+                                    input.release();
+                                }
                             }
                         };
                     }
-                })), Closeables2.forArray(log, outputs), Closeables2.forArray(log, ftgsIterators), Closeables2.forArray(log, outputStreams));
+                })));
             }
         }
     }
@@ -193,35 +206,26 @@ public final class FTGSSplitter implements Runnable, Closeable {
 
     private class SplitterRawFTGSIterator implements RawFTGSIterator {
 
-        private final InputStreamFTGSIterator delegate;
-        private boolean initialized = false;
-
-        public SplitterRawFTGSIterator(int splitIndex, int numStats, final AtomicInteger doneCounter, final int numSplits) throws FileNotFoundException {
-            delegate = new InputStreamFTGSIterator(new BufferedInputStream(new FileInputStream(files[splitIndex]), 65536), numStats) {
-                boolean closed = false;
+        private final int splitIndex;
+        private final AtomicInteger doneCounter;
+        private InputStreamFTGSIterator delegate = null;
+        private boolean closed = false;
 
-                @Override
-                public void close() {
-                    if (!closed) {
-                        closed = true;
-                        super.close();
-                        if (doneCounter.incrementAndGet() == numSplits) {
-                            FTGSSplitter.this.close();
-                        }
-                    }
-                }
-            };
-            files[splitIndex].delete();
+        public SplitterRawFTGSIterator(int splitIndex, final AtomicInteger doneCounter) {
+            this.splitIndex = splitIndex;
+            this.doneCounter = doneCounter;
         }
 
         private InputStreamFTGSIterator getDelegate() {
-            if (!initialized) {
+            if (delegate == null) {
                 try {
                     runThread.join();
+                    delegate = new InputStreamFTGSIterator(outputStreams[splitIndex].getInputStream(), numStats);
                 } catch (InterruptedException e) {
                     throw Throwables.propagate(e);
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
                 }
-                initialized = true;
             }
             return delegate;
         }
@@ -288,7 +292,15 @@ public final class FTGSSplitter implements Runnable, Closeable {
 
         @Override
         public void close() {
-            delegate.close();
+            if (!closed) {
+                closed = true;
+                if (delegate != null) {
+                    delegate.close();
+                }
+                if (doneCounter.incrementAndGet() == numSplits) {
+                    FTGSSplitter.this.close();
+                }
+            }
         }
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep;
+
+import java.util.List;
+
+/**
+ * A HAVING-style predicate on a single FTGS stat: a (term, group) row is kept iff min <= stats[stat] <= max.
+ *
+ * Stats are sums over documents, so a predicate can only be evaluated once every partial sum for a row has
+ * been added up. Sessions therefore apply filters at the point where their output rows are complete and pass
+ * them along unevaluated otherwise.
+ */
+public final class FTGSStatFilter {
+    public final int stat;
+    public final long min;
+    public final long max;
+
+    public FTGSStatFilter(int stat, long min, long max) {
+        if (stat < 0) {
+            throw new IllegalArgumentException("stat index must be non-negative: " + stat);
+        }
+        if (min > max) {
+            throw new IllegalArgumentException("min must be less than or equal to max, min = " + min + ", max = " + max);
+        }
+        this.stat = stat;
+        this.min = min;
+        this.max = max;
+    }
+
+    public static FTGSStatFilter atLeast(int stat, long min) {
+        return new FTGSStatFilter(stat, min, Long.MAX_VALUE);
+    }
+
+    public static FTGSStatFilter atMost(int stat, long max) {
+        return new FTGSStatFilter(stat, Long.MIN_VALUE, max);
+    }
+
+    public boolean matches(final long[] stats) {
+        final long value = stats[stat];
+        return value >= min && value <= max;
+    }
+
+    public static boolean matchesAll(final FTGSStatFilter[] filters, final long[] stats) {
+        for (final FTGSStatFilter filter : filters) {
+            if (!filter.matches(stats)) return false;
+        }
+        return true;
+    }
+
+    public static void validate(final List<FTGSStatFilter> filters, final int numStats) {
+        for (final FTGSStatFilter filter : filters) {
+            if (filter.stat >= numStats) {
+                throw new IllegalArgumentException("stat filter references stat " + filter.stat + " but only " + numStats + " stats are pushed");
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final FTGSStatFilter that = (FTGSStatFilter) o;
+
+        return stat == that.stat && min == that.min && max == that.max;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = stat;
+        result = 31 * result + (int) (min ^ (min >>> 32));
+        result = 31 * result + (int) (max ^ (max >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "FTGSStatFilter{stat=" + stat + ", min=" + min + ", max=" + max + "}";
+    }
+}
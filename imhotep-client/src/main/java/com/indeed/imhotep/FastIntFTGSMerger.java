@@ -31,6 +31,10 @@ public final class FastIntFTGSMerger implements FTGSIterator {
     protected final FTGSIterator[] iterators;
     private int numFieldIterators = 0;
 
+    // the 4096 aligned (term, group) block each iterator still in the tournament is positioned in
+    private final long[] baseTermGroups;
+    private final TournamentTree tree;
+
     private String fieldName;
     protected boolean fieldIsIntType;
     protected long termIntVal;
@@ -48,6 +52,13 @@ public final class FastIntFTGSMerger implements FTGSIterator {
         this.iterators = iterators.toArray(new FTGSIterator[iterators.size()]);
         done = false;
         accumulatedVec = new GSVector(numStats, numGroups);
+        baseTermGroups = new long[this.iterators.length];
+        tree = new TournamentTree(Math.max(this.iterators.length, 1)) {
+            @Override
+            protected boolean lessThan(int a, int b) {
+                return baseTermGroups[a] < baseTermGroups[b];
+            }
+        };
     }
 
     @Override
@@ -74,31 +85,28 @@ public final class FastIntFTGSMerger implements FTGSIterator {
                 throw new IllegalArgumentException("sub iterator fields do not match");
             }
         }
+        tree.clear();
         for (int i = iterators.length-1; i >= 0; i--) {
             while (true) {
                 if (!iterators[i].nextTerm()) {
                     numFieldIterators--;
-                    swap(iterators, i, numFieldIterators);
+                    tree.markRemoved(i);
                     break;
                 }
                 if (!iterators[i].nextGroup()) {
                     continue;
                 }
+                baseTermGroups[i] = baseTermGroup(iterators[i]);
                 break;
             }
         }
+        tree.init();
 
         accumulatedVec.resetNewField();
 
         return true;
     }
 
-    private static void swap(Object[] array, int indexA, int indexB) {
-        final Object a = array[indexA];
-        array[indexA] = array[indexB];
-        array[indexB] = a;
-    }
-
     @Override
     public final String fieldName() {
         return fieldName;
@@ -109,24 +117,24 @@ public final class FastIntFTGSMerger implements FTGSIterator {
         return fieldIsIntType;
     }
 
+    private long baseTermGroup(FTGSIterator itr) {
+        return (itr.termIntVal()*numGroups+itr.group())&~0xFFF;
+    }
+
     private void refill() {
-        long minBaseTermGroup = Long.MAX_VALUE;
-        for (int i = 0; i < numFieldIterators; i++) {
-            final long baseTermGroup = (iterators[i].termIntVal()*numGroups+iterators[i].group())&~0xFFF;
-            if (baseTermGroup < minBaseTermGroup) {
-                minBaseTermGroup = baseTermGroup;
-            }
-        }
+        final long minBaseTermGroup = baseTermGroups[tree.top()];
         accumulatedVec.reset();
-        for (int i = numFieldIterators-1; i >= 0; i--) {
-            final long baseTermGroup = (iterators[i].termIntVal()*numGroups+iterators[i].group())&~0xFFF;
-            if (baseTermGroup == minBaseTermGroup) {
-                if (!accumulatedVec.mergeFromFtgs(iterators[i])) {
-                    numFieldIterators--;
-                    swap(iterators, i, numFieldIterators);
-                }
+        // merging moves an iterator past the current block, so it goes right back into the tournament
+        do {
+            final int index = tree.top();
+            if (accumulatedVec.mergeFromFtgs(iterators[index])) {
+                baseTermGroups[index] = baseTermGroup(iterators[index]);
+                tree.update(index);
+            } else {
+                numFieldIterators--;
+                tree.remove(index);
             }
-        }
+        } while (!tree.isEmpty() && baseTermGroups[tree.top()] == minBaseTermGroup);
     }
 
     @Override
@@ -251,8 +259,9 @@ public final class FastIntFTGSMerger implements FTGSIterator {
             int termGroupOffset = (int)(termGroup-base);
             do {
                 ftgs.groupStats(statBuf);
+                final int offset = termGroupOffset*numStats;
                 for (int i = 0; i < numStats; i++) {
-                    metrics[termGroupOffset*numStats+i] += statBuf[i];
+                    metrics[offset+i] += statBuf[i];
                 }
                 final int bitset2index = termGroupOffset>>>6;
                 bitset1 |= 1L<<bitset2index;
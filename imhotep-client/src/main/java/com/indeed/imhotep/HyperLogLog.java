@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch of a set of terms with 2^precision one byte registers.
+ * Standard error is about 1.04 / sqrt(2^precision), e.g. 0.8% with the default precision of 14.
+ *
+ * Sketches with the same precision can be merged, so each shard builds one per group and
+ * the sketches are combined on the way back to the client instead of shipping the terms.
+ */
+public final class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    public static final int DEFAULT_PRECISION = 14;
+
+    // keeps mix() away from its fixed point at zero
+    private static final long INT_HASH_SEED = 0x9e3779b97f4a7c15L;
+    private static final long STRING_HASH_OFFSET = 0xcbf29ce484222325L;
+    private static final long STRING_HASH_PRIME = 0x100000001b3L;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        this(precision, new byte[1 << checkPrecision(precision)]);
+    }
+
+    public HyperLogLog(int precision, byte[] registers) {
+        checkPrecision(precision);
+        if (registers.length != 1 << precision) {
+            throw new IllegalArgumentException("expected " + (1 << precision) + " registers for precision " + precision + ", got " + registers.length);
+        }
+        this.precision = precision;
+        this.registers = registers;
+    }
+
+    private static int checkPrecision(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ", got " + precision);
+        }
+        return precision;
+    }
+
+    public static long memoryUsage(int precision) {
+        return (1L << checkPrecision(precision)) + 16;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public byte[] getRegisters() {
+        return registers;
+    }
+
+    public void offerHash(long hash) {
+        final int index = (int) (hash >>> (64 - precision));
+        // the sentinel bit caps the rank at 64 - precision + 1 when the remaining bits are all zero
+        final long remaining = (hash << precision) | (1L << (precision - 1));
+        final byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    public void offerIntTerm(long term) {
+        offerHash(hashIntTerm(term));
+    }
+
+    public void offerStringTerm(byte[] termBytes, int termLength) {
+        offerHash(hashStringTerm(termBytes, termLength));
+    }
+
+    public static long hashIntTerm(long term) {
+        return mix(term ^ INT_HASH_SEED);
+    }
+
+    /**
+     * hashes the utf-8 bytes of a term so raw and non-raw readers agree
+     */
+    public static long hashStringTerm(byte[] termBytes, int termLength) {
+        long hash = STRING_HASH_OFFSET;
+        for (int i = 0; i < termLength; i++) {
+            hash ^= termBytes[i] & 0xFF;
+            hash *= STRING_HASH_PRIME;
+        }
+        return mix(hash);
+    }
+
+    // murmur3 64 bit finalizer
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("cannot merge sketches with precision " + precision + " and " + other.precision);
+        }
+        final byte[] otherRegisters = other.registers;
+        for (int i = 0; i < registers.length; i++) {
+            if (otherRegisters[i] > registers[i]) {
+                registers[i] = otherRegisters[i];
+            }
+        }
+    }
+
+    public long cardinality() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (final byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) zeros++;
+        }
+        final double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate while many registers are still empty
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final HyperLogLog that = (HyperLogLog) o;
+
+        return precision == that.precision && Arrays.equals(registers, that.registers);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * precision + Arrays.hashCode(registers);
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog{precision=" + precision + ", cardinality=" + cardinality() + "}";
+    }
+}
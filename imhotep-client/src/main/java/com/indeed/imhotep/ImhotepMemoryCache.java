@@ -13,38 +13,131 @@
  */
  package com.indeed.imhotep;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
 import javax.annotation.Nullable;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
+ * Values that are no longer in use but kept around in case they are asked for again, evicted with
+ * GreedyDual-Size-Frequency. The priority of an entry is clock + hits * cost / memoryUsed, where cost is the time it
+ * took to build the value (see {@link #recordLoad}) and hits the number of times it was used. {@link #poll} evicts the
+ * entry of lowest priority and advances the clock to its priority, so entries that stop being reused age out however
+ * expensive they were, while cheap or big ones go first.
+ *
  * @author jsadun
  */
 public class ImhotepMemoryCache<K, V extends MemoryMeasured> implements MemoryMeasured {
-    private final Map<K, V> cache = new LinkedHashMap<K, V>();
+    private final Map<K, Entry<K, V>> cache = Maps.newHashMap();
+    private final TreeSet<Entry<K, V>> byPriority = new TreeSet<Entry<K, V>>(PRIORITY_ORDER);
+    // stats of values that are in use, they are picked up again when the value is put back
+    private final Map<K, Stats> inUse = Maps.newHashMap();
+    // values put under a key that was already cached, they are evicted first
+    private final List<V> displaced = Lists.newArrayList();
     private long memoryUsed = 0;
+    private double clock = 0;
+    private long nextSequence = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private static final class Stats {
+        final long costNanos;
+        long hits;
+
+        Stats(long costNanos, long hits) {
+            this.costNanos = costNanos;
+            this.hits = hits;
+        }
+    }
+
+    private static final class Entry<K, V> {
+        final K key;
+        final V value;
+        final Stats stats;
+        final double priority;
+        // breaks ties between equal priorities in insertion order
+        final long sequence;
+
+        Entry(K key, V value, Stats stats, double priority, long sequence) {
+            this.key = key;
+            this.value = value;
+            this.stats = stats;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry<?, ?>> PRIORITY_ORDER = new Comparator<Entry<?, ?>>() {
+        @Override
+        public int compare(Entry<?, ?> o1, Entry<?, ?> o2) {
+            final int ret = Double.compare(o1.priority, o2.priority);
+            if (ret != 0) return ret;
+            return o1.sequence < o2.sequence ? -1 : o1.sequence > o2.sequence ? 1 : 0;
+        }
+    };
+
+    /**
+     * Records that the value for key was just built, which took costNanos. Its cost is remembered until the
+     * value is put into the cache.
+     */
+    public synchronized void recordLoad(K key, long costNanos) {
+        inUse.put(key, new Stats(Math.max(1, costNanos), 1));
+    }
 
     public synchronized @Nullable V tryRemove(K key) {
-        final V val = cache.remove(key);
-        if (val != null) {
-            memoryUsed -= val.memoryUsed();
+        final Entry<K, V> entry = cache.remove(key);
+        if (entry == null) {
+            misses++;
+            return null;
         }
-        return val;
+        hits++;
+        byPriority.remove(entry);
+        memoryUsed -= entry.value.memoryUsed();
+        entry.stats.hits++;
+        inUse.put(key, entry.stats);
+        return entry.value;
     }
 
     public synchronized void put(K key, V value)  {
         memoryUsed += value.memoryUsed();
-        cache.put(key, value);
+        Stats stats = inUse.remove(key);
+        if (stats == null) {
+            // cost unknown, take it as proportional to size which makes the priority clock + hits
+            stats = new Stats(Math.max(1, value.memoryUsed()), 1);
+        }
+        final Entry<K, V> entry = new Entry<K, V>(key, value, stats, priority(stats, value), nextSequence++);
+        final Entry<K, V> previous = cache.put(key, entry);
+        if (previous != null) {
+            byPriority.remove(previous);
+            displaced.add(previous.value);
+        }
+        byPriority.add(entry);
+    }
+
+    private double priority(Stats stats, V value) {
+        return clock + (double) stats.hits * stats.costNanos / Math.max(1, value.memoryUsed());
     }
 
     public synchronized @Nullable V poll() {
-        final Iterator<V> iterator = cache.values().iterator();
-        if (!iterator.hasNext()) {
-            return null;
+        final V val;
+        if (!displaced.isEmpty()) {
+            val = displaced.remove(displaced.size() - 1);
+        } else {
+            final Entry<K, V> entry = byPriority.pollFirst();
+            if (entry == null) {
+                return null;
+            }
+            cache.remove(entry.key);
+            clock = entry.priority;
+            val = entry.value;
         }
-        final V val = iterator.next();
-        iterator.remove();
+        evictions++;
         memoryUsed -= val.memoryUsed();
         return val;
     }
@@ -54,12 +147,43 @@ public class ImhotepMemoryCache<K, V extends MemoryMeasured> implements MemoryMe
         return memoryUsed;
     }
 
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the cached entries in eviction order, the first one is evicted next
+     */
+    public synchronized List<ImhotepStatusDump.CacheEntryDump> getCacheDump() {
+        final List<ImhotepStatusDump.CacheEntryDump> ret = Lists.newArrayListWithCapacity(byPriority.size());
+        for (final Entry<K, V> entry : byPriority) {
+            ret.add(new ImhotepStatusDump.CacheEntryDump(String.valueOf(entry.key), entry.value.memoryUsed(),
+                    entry.stats.hits, entry.stats.costNanos / 1000000, entry.priority - clock));
+        }
+        return ret;
+    }
+
     @Override
     public synchronized void close() {
-        for (final V val : cache.values()) {
+        for (final V val : displaced) {
             val.close();
         }
+        for (final Entry<K, V> entry : cache.values()) {
+            entry.value.close();
+        }
+        displaced.clear();
         cache.clear();
+        byPriority.clear();
+        // stats of values that were taken out and never put back
+        inUse.clear();
         memoryUsed = 0;
     }
 
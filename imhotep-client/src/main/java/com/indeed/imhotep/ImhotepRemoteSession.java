@@ -42,6 +42,7 @@ import com.indeed.imhotep.protobuf.QueryRemapMessage;
 import com.indeed.imhotep.protobuf.RegroupConditionMessage;
 import com.indeed.imhotep.protobuf.ShardInfoMessage;
 import com.indeed.imhotep.protobuf.StringFieldAndTerms;
+import com.indeed.imhotep.service.ColumnarInputStreamDocIterator;
 import com.indeed.imhotep.service.InputStreamDocIterator;
 
 import com.indeed.util.core.Throwables2;
@@ -61,6 +62,8 @@ import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -152,6 +155,16 @@ public class ImhotepRemoteSession extends AbstractImhotepSession {
     public static ImhotepRemoteSession openSession(final String host, final int port, final String dataset, final List<String> shards,
                                                    final int mergeThreadLimit, final String username,
                                                    final boolean optimizeGroupZeroLookups, final int socketTimeout, @Nullable String sessionId, final long tempFileSizeLimit, @Nullable final AtomicLong tempFileSizeBytesLeft) throws ImhotepOutOfMemoryException, IOException {
+        return openSession(host, port, dataset, shards, mergeThreadLimit, username, optimizeGroupZeroLookups, socketTimeout, sessionId, tempFileSizeLimit, tempFileSizeBytesLeft, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param requestedMetrics metrics the session is going to push, the daemon starts loading them in the background
+     */
+    public static ImhotepRemoteSession openSession(final String host, final int port, final String dataset, final List<String> shards,
+                                                   final int mergeThreadLimit, final String username,
+                                                   final boolean optimizeGroupZeroLookups, final int socketTimeout, @Nullable String sessionId, final long tempFileSizeLimit, @Nullable final AtomicLong tempFileSizeBytesLeft,
+                                                   final Collection<String> requestedMetrics) throws ImhotepOutOfMemoryException, IOException {
         final Socket socket = newSocket(host, port, socketTimeout);
         final OutputStream os = Streams.newBufferedOutputStream(socket.getOutputStream());
         final InputStream is = Streams.newBufferedInputStream(socket.getInputStream());
@@ -167,6 +180,7 @@ public class ImhotepRemoteSession extends AbstractImhotepSession {
                     .setClientVersion(CURRENT_CLIENT_VERSION)
                     .setSessionId(sessionId == null ? "" : sessionId)
                     .setTempFileSizeLimit(tempFileSizeLimit)
+                    .addAllRequestedMetrics(requestedMetrics)
                     .build();
             try {
                 ImhotepProtobufShipping.sendProtobuf(openSessionRequest, os);
@@ -232,11 +246,28 @@ public class ImhotepRemoteSession extends AbstractImhotepSession {
     }
 
     @Override
-    public FTGSIterator getFTGSIterator(String[] intFields, String[] stringFields) {
+    public QuantileSketch[] getGroupQuantileSketches(int stat, int k) throws ImhotepOutOfMemoryException {
+        final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.GET_GROUP_QUANTILE_SKETCHES)
+                .setSessionId(sessionId)
+                .setStat(stat)
+                .setQuantileSketchK(k)
+                .build();
+
+        try {
+            final ImhotepResponse response = sendRequestWithMemoryException(request, host, port, socketTimeout);
+            return ImhotepClientMarshaller.marshalQuantileSketchMessageList(response.getQuantileSketchesList());
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public FTGSIterator getFTGSIterator(String[] intFields, String[] stringFields, List<FTGSStatFilter> statFilters) {
         final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.GET_FTGS_ITERATOR)
                 .setSessionId(sessionId)
                 .addAllIntFields(Arrays.asList(intFields))
                 .addAllStringFields(Arrays.asList(stringFields))
+                .addAllStatFilters(ImhotepClientMarshaller.marshalStatFilters(statFilters))
                 .build();
 
         return fileBufferedFTGSRequest(request);
@@ -272,18 +303,25 @@ public class ImhotepRemoteSession extends AbstractImhotepSession {
                 .setSessionId(sessionId)
                 .addAllIntFields(Arrays.asList(intFields))
                 .addAllStringFields(Arrays.asList(stringFields))
+                .setStringOrdinals(true)
+                .setColumnarDocs(true)
                 .build();
         try {
             final Socket socket = newSocket(host, port, socketTimeout);
             final InputStream is = Streams.newBufferedInputStream(socket.getInputStream());
             final OutputStream os = Streams.newBufferedOutputStream(socket.getOutputStream());
+            final ImhotepResponse response;
             try {
-                sendRequest(request, is, os, host, port);
+                response = sendRequest(request, is, os, host, port);
             } catch (IOException e) {
                 closeSocket(socket, is, os);
                 throw e;
             }
-            return new InputStreamDocIterator(is, intFields.length, stringFields.length);
+            if (response.getColumnarDocs()) {
+                return new ColumnarInputStreamDocIterator(is, intFields.length, stringFields.length);
+            }
+            // daemons that predate columnar docs or string ordinals ignore the request flags and fall back to the older layouts
+            return new InputStreamDocIterator(is, intFields.length, stringFields.length, response.getStringOrdinals());
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
@@ -293,13 +331,14 @@ public class ImhotepRemoteSession extends AbstractImhotepSession {
         throw new UnsupportedOperationException();
     }
 
-    public RawFTGSIterator getFTGSIteratorSplit(final String[] intFields, final String[] stringFields, final int splitIndex, final int numSplits) {
+    public RawFTGSIterator getFTGSIteratorSplit(final String[] intFields, final String[] stringFields, final int splitIndex, final int numSplits, final List<FTGSStatFilter> statFilters) {
         final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.GET_FTGS_SPLIT)
                 .setSessionId(sessionId)
                 .addAllIntFields(Arrays.asList(intFields))
                 .addAllStringFields(Arrays.asList(stringFields))
                 .setSplitIndex(splitIndex)
                 .setNumSplits(numSplits)
+                .addAllStatFilters(ImhotepClientMarshaller.marshalStatFilters(statFilters))
                 .build();
 
         return sendGetFTGSIteratorSplit(request);
@@ -337,12 +376,13 @@ public class ImhotepRemoteSession extends AbstractImhotepSession {
         }
     }
 
-    public RawFTGSIterator mergeFTGSSplit(final String[] intFields, final String[] stringFields, final String sessionId, final InetSocketAddress[] nodes, final int splitIndex) {
+    public RawFTGSIterator mergeFTGSSplit(final String[] intFields, final String[] stringFields, final String sessionId, final InetSocketAddress[] nodes, final int splitIndex, final List<FTGSStatFilter> statFilters) {
         final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.MERGE_FTGS_SPLIT)
                 .setSessionId(sessionId)
                 .addAllIntFields(Arrays.asList(intFields))
                 .addAllStringFields(Arrays.asList(stringFields))
                 .setSplitIndex(splitIndex)
+                .addAllStatFilters(ImhotepClientMarshaller.marshalStatFilters(statFilters))
                 .addAllNodes(Iterables.transform(Arrays.asList(nodes), new Function<InetSocketAddress, HostAndPort>() {
                     public HostAndPort apply(final InetSocketAddress input) {
                         return HostAndPort.newBuilder().setHost(input.getHostName()).setPort(input.getPort()).build();
@@ -641,6 +681,23 @@ public class ImhotepRemoteSession extends AbstractImhotepSession {
         }
     }
 
+    @Override
+    public HyperLogLog[] approximateDistinctTerms(String field, boolean isIntField, int precision) throws ImhotepOutOfMemoryException {
+        final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.APPROXIMATE_DISTINCT_TERMS)
+                .setSessionId(sessionId)
+                .setField(field)
+                .setIsIntField(isIntField)
+                .setHllPrecision(precision)
+                .build();
+
+        try {
+            final ImhotepResponse response = sendRequestWithMemoryException(request, host, port, socketTimeout);
+            return ImhotepClientMarshaller.marshalHyperLogLogMessageList(response.getDistinctTermsList());
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
     @Override
     public int pushStat(String statName) throws ImhotepOutOfMemoryException {
         final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.PUSH_STAT)
@@ -781,6 +838,61 @@ public class ImhotepRemoteSession extends AbstractImhotepSession {
         }
     }
 
+    @Override
+    public ImhotepRemoteSession fork() throws ImhotepOutOfMemoryException {
+        return fork(null);
+    }
+
+    /**
+     * @param forkedSessionId id of the forked session, generated by the daemon if null
+     */
+    public ImhotepRemoteSession fork(@Nullable String forkedSessionId) throws ImhotepOutOfMemoryException {
+        final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.FORK_SESSION)
+                .setSessionId(sessionId)
+                .setForkedSessionId(forkedSessionId != null ? forkedSessionId : "")
+                .build();
+
+        try {
+            final ImhotepResponse response = sendRequestWithMemoryException(request, host, port, socketTimeout);
+            final ImhotepRemoteSession forked =
+                    new ImhotepRemoteSession(host, port, response.getSessionId(), tempFileSizeBytesLeft, socketTimeout);
+            forked.setNumStats(numStats);
+            return forked;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void checkpoint(String checkpointId) {
+        final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.CHECKPOINT_SESSION)
+                .setSessionId(sessionId)
+                .setCheckpointId(checkpointId)
+                .build();
+
+        try {
+            sendRequest(request, host, port, socketTimeout);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int restore(String checkpointId) throws ImhotepOutOfMemoryException {
+        final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.RESTORE_SESSION)
+                .setSessionId(sessionId)
+                .setCheckpointId(checkpointId)
+                .build();
+
+        try {
+            final ImhotepResponse response = sendRequestWithMemoryException(request, host, port, socketTimeout);
+            numStats = response.getNumStats();
+            return numStats;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void close() {
         final ImhotepRequest request = getBuilderForType(ImhotepRequest.RequestType.CLOSE_SESSION)
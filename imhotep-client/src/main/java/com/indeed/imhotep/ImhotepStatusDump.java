@@ -13,12 +13,14 @@
  */
  package com.indeed.imhotep;
 
+import com.indeed.imhotep.protobuf.CacheEntryDumpMessage;
 import com.indeed.imhotep.protobuf.MetricDumpMessage;
 import com.indeed.imhotep.protobuf.SessionDumpMessage;
 import com.indeed.imhotep.protobuf.ShardDumpMessage;
 import com.indeed.imhotep.protobuf.StatusDumpMessage;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -29,12 +31,18 @@ public class ImhotepStatusDump {
     public final long totalMemory;
     public final List<SessionDump> openSessions;
     public final List<ShardDump> shards;
+    public final List<CacheEntryDump> cacheEntries;
 
     public ImhotepStatusDump(long usedMemory, long totalMemory, List<SessionDump> openSessions, List<ShardDump> shards) {
+        this(usedMemory, totalMemory, openSessions, shards, Collections.<CacheEntryDump>emptyList());
+    }
+
+    public ImhotepStatusDump(long usedMemory, long totalMemory, List<SessionDump> openSessions, List<ShardDump> shards, List<CacheEntryDump> cacheEntries) {
         this.usedMemory = usedMemory;
         this.totalMemory = totalMemory;
         this.openSessions = openSessions;
         this.shards = shards;
+        this.cacheEntries = cacheEntries;
     }
 
     public long getUsedMemory() {
@@ -53,6 +61,10 @@ public class ImhotepStatusDump {
         return shards;
     }
 
+    public List<CacheEntryDump> getCacheEntries() {
+        return cacheEntries;
+    }
+
     public StatusDumpMessage toProto() {
         final StatusDumpMessage.Builder builder = StatusDumpMessage.newBuilder()
                 .setUsedMemory(usedMemory)
@@ -66,6 +78,10 @@ public class ImhotepStatusDump {
             builder.addLoadedShard(shardDump.toProto());
         }
 
+        for (final CacheEntryDump cacheEntryDump : cacheEntries) {
+            builder.addCacheEntry(cacheEntryDump.toProto());
+        }
+
         return builder.build();
     }
 
@@ -80,7 +96,11 @@ public class ImhotepStatusDump {
         for (final ShardDumpMessage shardDump : protoDump.getLoadedShardList()) {
             shards.add(ShardDump.fromProto(shardDump));
         }
-        return new ImhotepStatusDump(usedMemory, totalMemory, openSessions, shards);
+        final List<CacheEntryDump> cacheEntries = new ArrayList<CacheEntryDump>(protoDump.getCacheEntryCount());
+        for (final CacheEntryDumpMessage cacheEntryDump : protoDump.getCacheEntryList()) {
+            cacheEntries.add(CacheEntryDump.fromProto(cacheEntryDump));
+        }
+        return new ImhotepStatusDump(usedMemory, totalMemory, openSessions, shards, cacheEntries);
     }
 
     public static class SessionDump {
@@ -237,4 +257,59 @@ public class ImhotepStatusDump {
             return new ShardDump(protoDump.getShardId(), protoDump.getDataset(), protoDump.getNumDocs(), loadedMetrics);
         }
     }
+
+    /**
+     * An unused metric kept in the daemon's cache. Priority is relative to the cache's eviction clock,
+     * entries are evicted lowest priority first.
+     */
+    public static class CacheEntryDump {
+        public final String key;
+        public final long memoryUsed;
+        public final long hits;
+        public final long costMillis;
+        public final double priority;
+
+        public CacheEntryDump(String key, long memoryUsed, long hits, long costMillis, double priority) {
+            this.key = key;
+            this.memoryUsed = memoryUsed;
+            this.hits = hits;
+            this.costMillis = costMillis;
+            this.priority = priority;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getMemoryUsed() {
+            return memoryUsed;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getCostMillis() {
+            return costMillis;
+        }
+
+        public double getPriority() {
+            return priority;
+        }
+
+        public CacheEntryDumpMessage toProto() {
+            return CacheEntryDumpMessage.newBuilder()
+                    .setKey(key)
+                    .setMemoryUsed(memoryUsed)
+                    .setHits(hits)
+                    .setCostMillis(costMillis)
+                    .setPriority(priority)
+                    .build();
+        }
+
+        public static CacheEntryDump fromProto(CacheEntryDumpMessage protoDump) {
+            return new CacheEntryDump(protoDump.getKey(), protoDump.getMemoryUsed(), protoDump.getHits(),
+                    protoDump.getCostMillis(), protoDump.getPriority());
+        }
+    }
 }
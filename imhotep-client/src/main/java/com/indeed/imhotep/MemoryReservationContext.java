@@ -73,6 +73,13 @@ public final class MemoryReservationContext extends MemoryReserver {
         reservationSize += numBytes;
     }
 
+    /**
+     * @return a new, empty context that reserves from the same place as this one
+     */
+    public MemoryReservationContext newSibling() {
+        return new MemoryReservationContext(memoryReserver);
+    }
+
     @Override
     public synchronized void close() {
         if (reservationSize > 0) {
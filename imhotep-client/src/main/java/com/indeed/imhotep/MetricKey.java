@@ -53,6 +53,11 @@ public class MetricKey {
         return true;
     }
 
+    @Override
+    public String toString() {
+        return indexName + "/" + shardName + "/" + metricName;
+    }
+
     @Override
     public int hashCode() {
         int result = indexName.hashCode();
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep;
+
+import com.google.common.collect.Lists;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * KLL quantile sketch over long values.
+ *
+ * Values are kept in levels where an item on level h stands for 2^h inputs. When the sketch is over capacity
+ * the lowest full level is sorted and every other item is promoted, alternating between odd and even offsets.
+ * Level capacities shrink geometrically towards the bottom, so a sketch retains O(k) items and the rank error
+ * is roughly 1.65 / k (about 1% for the default k of 200). Until the first compaction the sketch is exact.
+ *
+ * Sketches with the same k can be merged, so each shard builds one per group and they are combined
+ * on the way back to the client.
+ */
+public final class QuantileSketch {
+    public static final int DEFAULT_K = 200;
+    public static final int MIN_K = 8;
+
+    private static final int MIN_LEVEL_CAPACITY = 8;
+    private static final double LEVEL_CAPACITY_DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private final List<LongArrayList> levels;
+    private long count;
+    private int retained;
+    private int capacity;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private boolean promoteOdd;
+
+    public QuantileSketch(int k) {
+        this.k = checkK(k);
+        this.levels = Lists.newArrayList();
+        this.levels.add(new LongArrayList());
+        this.capacity = computeCapacity();
+    }
+
+    public QuantileSketch(int k, long count, long min, long max, long[][] levels) {
+        this.k = checkK(k);
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.levels = Lists.newArrayListWithCapacity(Math.max(1, levels.length));
+        for (final long[] level : levels) {
+            this.levels.add(new LongArrayList(level));
+            this.retained += level.length;
+        }
+        if (this.levels.isEmpty()) {
+            this.levels.add(new LongArrayList());
+        }
+        this.capacity = computeCapacity();
+    }
+
+    private static int checkK(int k) {
+        if (k < MIN_K) {
+            throw new IllegalArgumentException("k must be at least " + MIN_K + ", got " + k);
+        }
+        return k;
+    }
+
+    /**
+     * upper bound on the bytes used by a sketch that has seen at most numValues values
+     */
+    public static long memoryUsage(int k, long numValues) {
+        final long maxRetained = 3L * checkK(k) + 64 * MIN_LEVEL_CAPACITY;
+        return 8 * Math.min(numValues, maxRetained) + 64;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long[][] getLevels() {
+        final long[][] ret = new long[levels.size()][];
+        for (int h = 0; h < ret.length; h++) {
+            ret[h] = levels.get(h).toLongArray();
+        }
+        return ret;
+    }
+
+    public void update(long value) {
+        levels.get(0).add(value);
+        retained++;
+        count++;
+        if (value < min) min = value;
+        if (value > max) max = value;
+        if (retained >= capacity) {
+            compress();
+        }
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("cannot merge sketches with k " + k + " and " + other.k);
+        }
+        if (other.count == 0) return;
+        while (levels.size() < other.levels.size()) {
+            levels.add(new LongArrayList());
+        }
+        capacity = computeCapacity();
+        for (int h = 0; h < other.levels.size(); h++) {
+            levels.get(h).addAll(other.levels.get(h));
+        }
+        retained += other.retained;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        compress();
+    }
+
+    /**
+     * @param fraction a number between 0 and 1
+     * @return the value whose rank is approximately fraction * count, or 0 if the sketch is empty
+     */
+    public long quantile(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be between 0 and 1, got " + fraction);
+        }
+        if (count == 0) return 0;
+        if (fraction == 0) return min;
+        if (fraction == 1) return max;
+
+        final long targetRank = Math.max(1, (long) Math.ceil(fraction * count));
+        final long[][] sortedLevels = getLevels();
+        final int[] positions = new int[sortedLevels.length];
+        for (final long[] level : sortedLevels) {
+            Arrays.sort(level);
+        }
+        long rank = 0;
+        while (true) {
+            // merge the sorted levels, adding 2^h to the rank for each item taken from level h
+            int minLevel = -1;
+            for (int h = 0; h < sortedLevels.length; h++) {
+                if (positions[h] < sortedLevels[h].length
+                        && (minLevel < 0 || sortedLevels[h][positions[h]] < sortedLevels[minLevel][positions[minLevel]])) {
+                    minLevel = h;
+                }
+            }
+            if (minLevel < 0) return max;
+            final long value = sortedLevels[minLevel][positions[minLevel]++];
+            rank += 1L << minLevel;
+            if (rank >= targetRank) return value;
+        }
+    }
+
+    private int levelCapacity(int level) {
+        final int depth = levels.size() - 1 - level;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(LEVEL_CAPACITY_DECAY, depth)));
+    }
+
+    private int computeCapacity() {
+        int ret = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            ret += levelCapacity(h);
+        }
+        return ret;
+    }
+
+    private void compress() {
+        while (retained >= capacity) {
+            // some level must be at capacity since the total is
+            int level = 0;
+            while (levels.get(level).size() < levelCapacity(level)) {
+                level++;
+            }
+            if (level + 1 == levels.size()) {
+                levels.add(new LongArrayList());
+                capacity = computeCapacity();
+            }
+            compact(levels.get(level), levels.get(level + 1));
+        }
+    }
+
+    private void compact(LongArrayList level, LongArrayList nextLevel) {
+        final long[] items = level.toLongArray();
+        Arrays.sort(items);
+        final int evenSize = items.length & ~1;
+        retained -= evenSize / 2;
+        for (int i = promoteOdd ? 1 : 0; i < evenSize; i += 2) {
+            nextLevel.add(items[i]);
+        }
+        promoteOdd = !promoteOdd;
+        level.clear();
+        if (evenSize < items.length) {
+            // the leftover item keeps its weight on this level so the total weight stays equal to count
+            level.add(items[evenSize]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch{k=" + k + ", count=" + count + ", min=" + min + ", max=" + max + ", levels=" + levels.size() + "}";
+    }
+}
@@ -14,7 +14,6 @@
  package com.indeed.imhotep;
 
 import com.google.common.base.Charsets;
-import com.indeed.imhotep.api.FTGSIterator;
 import com.indeed.imhotep.api.RawFTGSIterator;
 
 import javax.annotation.Nullable;
@@ -70,82 +69,41 @@ public final class RawFTGSMerger extends AbstractFTGSMerger implements RawFTGSIt
     }
 
     @Override
-    public boolean nextTerm() {
-        for (int i = 0; i < numTermIterators; ++i) {
-            final FTGSIterator itr = iterators[termIterators[i]];
-            if (!itr.nextTerm()) {
-                final int fi = termIteratorIndexes[i];
-                swap(fieldIterators, fi, --numFieldIterators);
-                for (int j = 0; j < numTermIterators; ++j) {
-                    if (termIteratorIndexes[j] == numFieldIterators) {
-                        termIteratorIndexes[j] = fi;
-                    }
-                }
-            }
+    protected long termPrefix(int index) {
+        final RawFTGSIterator itr = rawIteratorRefs[index];
+        final byte[] termBytes = itr.termStringBytes();
+        final int termLength = itr.termStringLength();
+        // the first four bytes compared as an unsigned number, padded with zeros so shorter terms come first.
+        // compareBytes orders 4 byte sequences like the utf-16 surrogates they turn into, so those have no prefix
+        long prefix = 0;
+        for (int i = 0; i < 4; i++) {
+            final int b = i < termLength ? termBytes[i] & 0xFF : 0;
+            if ((b & 0xF0) == 0xF0) return -1;
+            prefix = (prefix << 8) | b;
         }
+        return prefix;
+    }
 
-        numTermIterators = 0;
-        if (numFieldIterators == 0) return false;
-
-        int newNumTermIterators = 0;
-        if (fieldIsIntType) {
-            long min = Long.MAX_VALUE;
-            for (int i = 0; i < numFieldIterators; ++i) {
-                final FTGSIterator itr = iterators[fieldIterators[i]];
-                final long term = itr.termIntVal();
-                if (term < min) {
-                    newNumTermIterators = 1;
-                    termIteratorIndexes[0] = i;
-                    min = term;
-                } else if (term == min) {
-                    termIteratorIndexes[newNumTermIterators++] = i;
-                }
-            }
-            termIntVal = min;
-        } else {
-            byte[] minTermBytes = null;
-            int minTermLength = -1;
-            for (int i = 0; i < numFieldIterators; ++i) {
-                final RawFTGSIterator itr = rawIteratorRefs[fieldIterators[i]];
-                final byte[] termBytes = itr.termStringBytes();
-                final int termLength = itr.termStringLength();
-                final int c;
-                if (minTermBytes == null || (c = compareBytes(termBytes, termLength, minTermBytes, minTermLength)) < 0) {
-                    newNumTermIterators = 1;
-                    termIteratorIndexes[0] = i;
-                    minTermBytes = termBytes;
-                    minTermLength = termLength;
-                } else if (c == 0) {
-                    termIteratorIndexes[newNumTermIterators++] = i;
-                }
-            }
-            if (currentTermBytes.length < minTermLength) {
-                currentTermBytes = Arrays.copyOf(minTermBytes, Math.max(minTermLength, 2 * currentTermBytes.length));
-                byteBuffer = ByteBuffer.wrap(currentTermBytes);
-            } else {
-                System.arraycopy(minTermBytes, 0, currentTermBytes, 0, minTermLength);
-            }
-            currentTermLength = minTermLength;
-            termStringVal = null;
-        }
+    @Override
+    protected int compareStringTerms(int a, int b) {
+        final RawFTGSIterator itrA = rawIteratorRefs[a];
+        final RawFTGSIterator itrB = rawIteratorRefs[b];
+        return compareBytes(itrA.termStringBytes(), itrA.termStringLength(), itrB.termStringBytes(), itrB.termStringLength());
+    }
 
-        for (int i = 0; i < newNumTermIterators; ++i) {
-            final int fi = termIteratorIndexes[i];
-            final int index = fieldIterators[fi];
-            termIterators[numTermIterators] = index;
-            termIteratorIndexes[numTermIterators++] = fi;
-        }
-        termIteratorsRemaining = numTermIterators;
-        for (int i = 0; i < termIteratorsRemaining; ++i) {
-            final FTGSIterator itr = iterators[termIterators[i]];
-            if (!itr.nextGroup()) {
-                swap(termIterators, i, --termIteratorsRemaining);
-                swap(termIteratorIndexes, i, termIteratorsRemaining);
-                --i;
-            }
+    @Override
+    protected void setStringTerm(int index) {
+        final RawFTGSIterator itr = rawIteratorRefs[index];
+        final byte[] minTermBytes = itr.termStringBytes();
+        final int minTermLength = itr.termStringLength();
+        if (currentTermBytes.length < minTermLength) {
+            currentTermBytes = Arrays.copyOf(minTermBytes, Math.max(minTermLength, 2 * currentTermBytes.length));
+            byteBuffer = ByteBuffer.wrap(currentTermBytes);
+        } else {
+            System.arraycopy(minTermBytes, 0, currentTermBytes, 0, minTermLength);
         }
-        accumulatedVec.reset();
-        return true;
+        currentTermLength = minTermLength;
+        termStringVal = null;
     }
 
     // this is a comparison of UTF-8 bytes that is wrong in the same way String.compareTo(String) is wrong
@@ -16,15 +16,19 @@
 import com.google.common.base.Throwables;
 import com.indeed.util.core.Pair;
 import com.indeed.imhotep.api.FTGSIterator;
+import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
 import com.indeed.imhotep.api.ImhotepSession;
 import com.indeed.imhotep.api.RawFTGSIterator;
 import com.indeed.util.core.Throwables2;
+import com.indeed.util.core.io.Closeables2;
 import org.apache.log4j.Logger;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -74,15 +78,19 @@ public class RemoteImhotepMultiSession extends AbstractImhotepMultiSession {
     }
 
     @Override
-    public FTGSIterator getFTGSIterator(final String[] intFields, final String[] stringFields) {
+    public FTGSIterator getFTGSIterator(final String[] intFields, final String[] stringFields, final List<FTGSStatFilter> statFilters) {
         if (sessions.length == 1) {
-            return sessions[0].getFTGSIterator(intFields, stringFields);
+            return sessions[0].getFTGSIterator(intFields, stringFields, statFilters);
         }
-        final RawFTGSIterator[] mergers = getFTGSIteratorSplits(intFields, stringFields);
+        final RawFTGSIterator[] mergers = getFTGSIteratorSplits(intFields, stringFields, statFilters);
         return new FTGSInterleaver(mergers);
     }
 
     public RawFTGSIterator[] getFTGSIteratorSplits(final String[] intFields, final String[] stringFields) {
+        return getFTGSIteratorSplits(intFields, stringFields, Collections.<FTGSStatFilter>emptyList());
+    }
+
+    public RawFTGSIterator[] getFTGSIteratorSplits(final String[] intFields, final String[] stringFields, final List<FTGSStatFilter> statFilters) {
         final Pair<Integer, ImhotepSession>[] indexesAndSessions = new Pair[sessions.length];
         for (int i = 0; i < sessions.length; i++) {
             indexesAndSessions[i] = Pair.of(i, sessions[i]);
@@ -93,7 +101,7 @@ public class RemoteImhotepMultiSession extends AbstractImhotepMultiSession {
                 public RawFTGSIterator apply(final Pair<Integer, ImhotepSession> indexSessionPair) throws Exception {
                     final ImhotepSession session = indexSessionPair.getSecond();
                     final int index = indexSessionPair.getFirst();
-                    return session.mergeFTGSSplit(intFields, stringFields, sessionId, nodes, index);
+                    return session.mergeFTGSSplit(intFields, stringFields, sessionId, nodes, index, statFilters);
                 }
             });
         } catch (ExecutionException e) {
@@ -132,6 +140,40 @@ public class RemoteImhotepMultiSession extends AbstractImhotepMultiSession {
         return mergers;
     }
 
+    /**
+     * Forks the session on every daemon under one new session id, mergeFTGSSplit needs the same id everywhere.
+     */
+    @Override
+    public RemoteImhotepMultiSession fork() throws ImhotepOutOfMemoryException {
+        final String forkedSessionId = UUID.randomUUID().toString();
+        final ImhotepSession[] forked = new ImhotepSession[sessions.length];
+        boolean success = false;
+        try {
+            executeMemoryException(forked, new ThrowingFunction<ImhotepSession, ImhotepSession>() {
+                @Override
+                public ImhotepSession apply(ImhotepSession imhotepSession) throws Exception {
+                    if (imhotepSession instanceof ImhotepRemoteSession) {
+                        return ((ImhotepRemoteSession)imhotepSession).fork(forkedSessionId);
+                    }
+                    return imhotepSession.fork();
+                }
+            });
+            final RemoteImhotepMultiSession ret =
+                    new RemoteImhotepMultiSession(forked, forkedSessionId, nodes, localTempFileSizeLimit, tempFileSizeBytesLeft);
+            ret.numStats = numStats;
+            success = true;
+            return ret;
+        } finally {
+            if (!success) {
+                for (final ImhotepSession session : forked) {
+                    if (session != null) {
+                        Closeables2.closeQuietly(session, log);
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     protected void postClose() {
         if (shutDownExecutorOnClose) {
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep;
+
+import com.indeed.imhotep.api.RawFTGSIterator;
+
+import java.util.List;
+
+/**
+ * Drops every group whose stats do not satisfy all of the given {@link FTGSStatFilter}s.
+ * Only wrap iterators whose rows are complete, i.e. not partial sums that still need to be merged.
+ *
+ * Terms left without any groups are still visited by nextTerm() but FTGSOutputStreamWriter does not emit them.
+ */
+public final class StatFilteringFTGSIterator implements RawFTGSIterator {
+    private final RawFTGSIterator iterator;
+    private final FTGSStatFilter[] filters;
+    private final long[] stats;
+
+    public StatFilteringFTGSIterator(RawFTGSIterator iterator, int numStats, List<FTGSStatFilter> filters) {
+        FTGSStatFilter.validate(filters, numStats);
+        this.iterator = iterator;
+        this.filters = filters.toArray(new FTGSStatFilter[filters.size()]);
+        this.stats = new long[numStats];
+    }
+
+    public static RawFTGSIterator wrap(RawFTGSIterator iterator, int numStats, List<FTGSStatFilter> filters) {
+        if (filters.isEmpty()) return iterator;
+        return new StatFilteringFTGSIterator(iterator, numStats, filters);
+    }
+
+    @Override
+    public boolean nextField() {
+        return iterator.nextField();
+    }
+
+    @Override
+    public String fieldName() {
+        return iterator.fieldName();
+    }
+
+    @Override
+    public boolean fieldIsIntType() {
+        return iterator.fieldIsIntType();
+    }
+
+    @Override
+    public boolean nextTerm() {
+        return iterator.nextTerm();
+    }
+
+    @Override
+    public long termDocFreq() {
+        return iterator.termDocFreq();
+    }
+
+    @Override
+    public long termIntVal() {
+        return iterator.termIntVal();
+    }
+
+    @Override
+    public String termStringVal() {
+        return iterator.termStringVal();
+    }
+
+    @Override
+    public byte[] termStringBytes() {
+        return iterator.termStringBytes();
+    }
+
+    @Override
+    public int termStringLength() {
+        return iterator.termStringLength();
+    }
+
+    @Override
+    public boolean nextGroup() {
+        while (iterator.nextGroup()) {
+            iterator.groupStats(stats);
+            if (FTGSStatFilter.matchesAll(filters, stats)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int group() {
+        return iterator.group();
+    }
+
+    @Override
+    public void groupStats(long[] stats) {
+        System.arraycopy(this.stats, 0, stats, 0, this.stats.length);
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep;
+
+import java.util.Arrays;
+
+/**
+ * Tournament tree for k-way merges. Sources are identified by their index and subclasses compare
+ * whatever keys they cache for them.
+ *
+ * Every internal node stores the winner of its match, so changing the key of any source, removing it or
+ * putting it back only replays the ceil(log2(k)) matches on its path to the root instead of scanning all k
+ * sources for the minimum. Unlike a loser tree this also works for sources other than the current winner,
+ * which the FTGS mergers need because they take every source positioned on the minimum term out at once.
+ * Removed sources lose every match, so they sink to the bottom without restructuring the tree.
+ */
+abstract class TournamentTree {
+    private final int size;
+    // nodes[1] is the overall winner, nodes[n] is the winner of nodes[2n] and nodes[2n + 1], leaves start at size
+    private final int[] nodes;
+    private final boolean[] removed;
+    private int numRemoved;
+
+    TournamentTree(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("a tournament tree needs at least one source, got " + size);
+        }
+        this.size = size;
+        nodes = new int[2 * size];
+        removed = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            nodes[size + i] = i;
+        }
+    }
+
+    /**
+     * @return true iff source a must be emitted before source b. Only called for sources that have not been removed.
+     */
+    protected abstract boolean lessThan(int a, int b);
+
+    /**
+     * Rebuilds the whole tree. Sources passed to {@link #markRemoved} since the last {@link #clear} are out of
+     * the tournament, every other source must have a valid key.
+     */
+    final void init() {
+        for (int node = size - 1; node > 0; node--) {
+            play(node);
+        }
+    }
+
+    /**
+     * Puts every source back into the tournament without rebuilding the tree, call {@link #init} afterwards.
+     */
+    final void clear() {
+        Arrays.fill(removed, false);
+        numRemoved = 0;
+    }
+
+    /**
+     * Takes a source out of the tournament without rebuilding the tree, call {@link #init} afterwards.
+     */
+    final void markRemoved(int source) {
+        if (!removed[source]) {
+            removed[source] = true;
+            numRemoved++;
+        }
+    }
+
+    final boolean isEmpty() {
+        return numRemoved == size;
+    }
+
+    /**
+     * @return the source with the smallest key, only meaningful if the tree is not empty
+     */
+    final int top() {
+        return nodes[1];
+    }
+
+    final void remove(int source) {
+        markRemoved(source);
+        replay(source);
+    }
+
+    /**
+     * Puts a removed source back into the tournament, or moves a source whose key changed to its new position.
+     */
+    final void update(int source) {
+        if (removed[source]) {
+            removed[source] = false;
+            numRemoved--;
+        }
+        replay(source);
+    }
+
+    private void replay(int source) {
+        for (int node = (source + size) >>> 1; node > 0; node >>>= 1) {
+            play(node);
+        }
+    }
+
+    private void play(int node) {
+        final int a = nodes[2 * node];
+        final int b = nodes[2 * node + 1];
+        nodes[node] = beats(b, a) ? b : a;
+    }
+
+    private boolean beats(int a, int b) {
+        if (removed[a]) return false;
+        if (removed[b]) return true;
+        return lessThan(a, b);
+    }
+}
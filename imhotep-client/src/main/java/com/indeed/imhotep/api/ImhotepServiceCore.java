@@ -14,9 +14,12 @@
  package com.indeed.imhotep.api;
 
 import com.indeed.imhotep.DatasetInfo;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.GroupMultiRemapRule;
 import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
 import com.indeed.imhotep.ImhotepStatusDump;
+import com.indeed.imhotep.QuantileSketch;
 import com.indeed.imhotep.QueryRemapRule;
 import com.indeed.imhotep.RegroupCondition;
 import com.indeed.imhotep.ShardInfo;
@@ -49,20 +52,24 @@ public interface ImhotepServiceCore {
     int handleMetricRegroup2D(String sessionId, int xStat, long xMin, long xMax, long xIntervalSize, int yStat, long yMin, long yMax, long yIntervalSize) throws ImhotepOutOfMemoryException;
     int handleMetricFilter(String sessionId, int stat, long min, long max, boolean negate) throws ImhotepOutOfMemoryException;
     List<TermCount> handleApproximateTopTerms(String sessionId, String field, boolean isIntField, int k);
+    HyperLogLog[] handleApproximateDistinctTerms(String sessionId, String field, boolean isIntField, int precision) throws ImhotepOutOfMemoryException;
     int handlePushStat(String sessionId, String metric) throws ImhotepOutOfMemoryException;
     int handlePopStat(String sessionId);
-    void handleGetFTGSIterator(String sessionId, String[] intFields, String[] stringFields, OutputStream os) throws IOException;
+    void handleGetFTGSIterator(String sessionId, String[] intFields, String[] stringFields, List<FTGSStatFilter> statFilters, OutputStream os) throws IOException;
     void handleGetSubsetFTGSIterator(String sessionId, Map<String, long[]> intFields, Map<String, String[]> stringFields, OutputStream os) throws IOException;
-    void handleGetFTGSIteratorSplit(String sessionId, String[] intFields, String[] stringFields, OutputStream os, int splitIndex, int numSplits) throws IOException;
+    void handleGetFTGSIteratorSplit(String sessionId, String[] intFields, String[] stringFields, OutputStream os, int splitIndex, int numSplits, List<FTGSStatFilter> statFilters) throws IOException;
     void handleGetSubsetFTGSIteratorSplit(String sessionId, Map<String, long[]> intFields, Map<String, String[]> stringFields, OutputStream os, int splitIndex, int numSplits) throws IOException;
-    void handleMergeFTGSIteratorSplit(String sessionId, String[] intFields, String[] stringFields, OutputStream os, InetSocketAddress[] nodes, int splitIndex) throws IOException;
+    void handleMergeFTGSIteratorSplit(String sessionId, String[] intFields, String[] stringFields, OutputStream os, InetSocketAddress[] nodes, int splitIndex, List<FTGSStatFilter> statFilters) throws IOException;
     void handleMergeSubsetFTGSIteratorSplit(String sessionId, Map<String, long[]> intFields, Map<String, String[]> stringFields, OutputStream os, InetSocketAddress[] nodes, int splitIndex) throws IOException;
-    void handleGetDocIterator(String sessionId, String[] intFields, String[] stringFields, OutputStream os) throws ImhotepOutOfMemoryException, IOException;
+    void handleGetDocIterator(String sessionId, String[] intFields, String[] stringFields, boolean stringOrdinals, boolean columnarDocs, OutputStream os) throws ImhotepOutOfMemoryException, IOException;
     long handleGetTotalDocFreq(String sessionId, String[] intFields, String[] stringFields);
     long[] handleGetGroupStats(String sessionId, int stat);
+    QuantileSketch[] handleGetGroupQuantileSketches(String sessionId, int stat, int k) throws ImhotepOutOfMemoryException;
     List<String> getShardIdsForSession(String sessionId);
     boolean sessionIsValid(String sessionId);
     void handleCloseSession(String sessionId);
+    void handleCheckpoint(String sessionId, String checkpointId);
+    int handleRestore(String sessionId, String checkpointId) throws ImhotepOutOfMemoryException;
     void handleCloseSession(String sessionId, Exception e);
     void handleCreateDynamicMetric(String sessionId, String dynamicMetricName) throws ImhotepOutOfMemoryException;
     void handleUpdateDynamicMetric(String sessionId, String dynamicMetricName, int[] deltas) throws ImhotepOutOfMemoryException;
@@ -73,7 +80,8 @@ public interface ImhotepServiceCore {
     int handleGetNumGroups(String sessionId);
 
     // open session methods return session id
-    String handleOpenSession(String dataset, List<String> shardRequestList, String username, String ipAddress, int clientVersion, int mergeThreadLimit, boolean optimizeGroupZeroLookups, String sessionId, AtomicLong tempFileSizeBytesLeft) throws ImhotepOutOfMemoryException;
+    String handleOpenSession(String dataset, List<String> shardRequestList, List<String> requestedMetrics, String username, String ipAddress, int clientVersion, int mergeThreadLimit, boolean optimizeGroupZeroLookups, String sessionId, AtomicLong tempFileSizeBytesLeft) throws ImhotepOutOfMemoryException;
+    String handleForkSession(String sessionId, String forkedSessionId) throws ImhotepOutOfMemoryException;
 
     // non-session-based methods
     @Deprecated List<ShardInfo> handleGetShardList();
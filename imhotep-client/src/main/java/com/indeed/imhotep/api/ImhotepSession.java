@@ -13,8 +13,11 @@
  */
  package com.indeed.imhotep.api;
 
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.GroupMultiRemapRule;
 import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
+import com.indeed.imhotep.QuantileSketch;
 import com.indeed.imhotep.QueryRemapRule;
 import com.indeed.imhotep.RegroupCondition;
 import com.indeed.imhotep.TermCount;
@@ -45,6 +48,15 @@ public interface ImhotepSession extends Closeable {
      */
     long[] getGroupStats(int stat);
 
+    /**
+     * get a mergeable quantile sketch per group of the values of a stat, e.g. for percentiles of a latency metric
+     * @param stat the index of the stat
+     * @param k the accuracy parameter of the sketches, rank error is roughly 1.65 / k, see {@link QuantileSketch#DEFAULT_K}
+     * @return one sketch per group, indexed by group
+     * @throws ImhotepOutOfMemoryException if the sketches would cause imhotep to run out of memory
+     */
+    QuantileSketch[] getGroupQuantileSketches(int stat, int k) throws ImhotepOutOfMemoryException;
+
     /**
      * get an iterator over all (field, term, group, stat) tuples for the given fields
      * @param intFields list of int fields
@@ -53,6 +65,17 @@ public interface ImhotepSession extends Closeable {
      */
     FTGSIterator getFTGSIterator(String[] intFields, String[] stringFields);
 
+    /**
+     * get an iterator over the (field, term, group, stat) tuples for the given fields whose stats satisfy every one
+     * of the given filters. Filters are evaluated on fully merged rows, so the result is the same as filtering the
+     * output of {@link #getFTGSIterator(String[], String[])} on the client, without shipping the dropped rows.
+     * @param intFields list of int fields
+     * @param stringFields list of string fields
+     * @param statFilters per-stat min/max predicates, empty to keep every row
+     * @return an iterator
+     */
+    FTGSIterator getFTGSIterator(String[] intFields, String[] stringFields, List<FTGSStatFilter> statFilters);
+
     FTGSIterator getSubsetFTGSIterator(Map<String, long[]> intFields, Map<String, String[]> stringFields);
 
     RawFTGSIterator[] getSubsetFTGSIteratorSplits(Map<String, long[]> intFields, Map<String, String[]> stringFields);
@@ -77,6 +100,13 @@ public interface ImhotepSession extends Closeable {
      */
     RawFTGSIterator getFTGSIteratorSplit(String[] intFields, String[] stringFields, int splitIndex, int numSplits);
 
+    /**
+     * same as {@link #getFTGSIteratorSplit(String[], String[], int, int)}, but rows of the split that are known to be
+     * complete are filtered with statFilters. Rows that still have to be merged with other splits are left alone,
+     * the filters are applied to them in {@link #mergeFTGSSplit(String[], String[], String, InetSocketAddress[], int, List)}.
+     */
+    RawFTGSIterator getFTGSIteratorSplit(String[] intFields, String[] stringFields, int splitIndex, int numSplits, List<FTGSStatFilter> statFilters);
+
     RawFTGSIterator getSubsetFTGSIteratorSplit(Map<String, long[]> intFields, Map<String, String[]> stringFields, int splitIndex, int numSplits);
 
     /**
@@ -84,6 +114,8 @@ public interface ImhotepSession extends Closeable {
      */
     RawFTGSIterator mergeFTGSSplit(String[] intFields, String[] stringFields, String sessionId, InetSocketAddress[] nodes, int splitIndex);
 
+    RawFTGSIterator mergeFTGSSplit(String[] intFields, String[] stringFields, String sessionId, InetSocketAddress[] nodes, int splitIndex, List<FTGSStatFilter> statFilters);
+
     RawFTGSIterator mergeSubsetFTGSSplit(Map<String, long[]> intFields, Map<String, String[]> stringFields, String sessionId, InetSocketAddress[] nodes, int splitIndex);
 
     /**
@@ -260,6 +292,20 @@ public interface ImhotepSession extends Closeable {
      */
     List<TermCount> approximateTopTerms(String field, boolean isIntField, int k);
 
+    /**
+     * Build a HyperLogLog sketch per group of the distinct terms of a field that occur in the group's documents.
+     *
+     * The sketches are merged across shards rather than the terms, so this is much cheaper than counting rows
+     * of an FTGS iteration, at the cost of a standard error of about 1.04 / sqrt(2^precision).
+     *
+     * @param field the field whose terms are counted
+     * @param isIntField whether or not the field is an int field
+     * @param precision log2 of the number of registers per sketch, see {@link HyperLogLog#DEFAULT_PRECISION}
+     * @return one sketch per group, indexed by group, use {@link HyperLogLog#cardinality()} for the estimate
+     * @throws ImhotepOutOfMemoryException if the sketches would cause imhotep to run out of memory
+     */
+    HyperLogLog[] approximateDistinctTerms(String field, boolean isIntField, int precision) throws ImhotepOutOfMemoryException;
+
     /**
      * push the metric specified by statName
      * @param statName the metric to push
@@ -336,4 +382,29 @@ public interface ImhotepSession extends Closeable {
      * @throws ImhotepOutOfMemoryException 
      */
     void rebuildAndFilterIndexes(List<String> intFields, List<String> stringFields) throws ImhotepOutOfMemoryException;
+
+    /**
+     * Creates a new session over the same shards that starts out with the groups, stats and dynamic metrics of this one.
+     * Groups and dynamic metric values are shared copy-on-write, so forking costs little memory until either session
+     * changes them. Both sessions have to be closed independently.
+     * @return the forked session
+     * @throws ImhotepOutOfMemoryException in case there's not enough memory
+     */
+    ImhotepSession fork() throws ImhotepOutOfMemoryException;
+
+    /**
+     * Saves the groups, dynamic metrics and pushed stats of the session to local disk on the daemons, where they
+     * outlive the session and daemon restarts. Checkpoints expire after a while.
+     * @param checkpointId id to restore the checkpoint by, letters, digits, '_', '-' and '.'
+     */
+    void checkpoint(String checkpointId);
+
+    /**
+     * Brings a session on the same shards back to the state it had at {@link #checkpoint}, without replaying the
+     * regroups that led to it. The session must not have any stats or dynamic metrics yet.
+     * @param checkpointId id the checkpoint was saved under
+     * @return the number of stats after the restore
+     * @throws ImhotepOutOfMemoryException in case there's not enough memory
+     */
+    int restore(String checkpointId) throws ImhotepOutOfMemoryException;
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.api;
+
+/**
+ * A {@link DocIterator} that exposes the dictionary ordinals of its string values, which lets doc streams send every
+ * distinct string once instead of once per doc.
+ */
+public interface OrdinalDocIterator extends DocIterator {
+    /**
+     * @return the number of ordinals of the string field at index, or -1 if it has no ordinals
+     */
+    int getNumStringOrdinals(int index);
+
+    /**
+     * @return the ordinal of the current doc's value of the string field at index, only valid if the field has ordinals
+     */
+    int getStringOrdinal(int index);
+
+    /**
+     * @return the utf-8 bytes of the current doc's value of the string field at index
+     */
+    byte[] getStringBytes(int index);
+}
@@ -0,0 +1,748 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.client;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.indeed.imhotep.AbstractImhotepSession;
+import com.indeed.imhotep.FTGSStatFilter;
+import com.indeed.imhotep.GroupMultiRemapRule;
+import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
+import com.indeed.imhotep.InputStreamFTGSIterator;
+import com.indeed.imhotep.QuantileSketch;
+import com.indeed.imhotep.QueryRemapRule;
+import com.indeed.imhotep.RegroupCondition;
+import com.indeed.imhotep.TermCount;
+import com.indeed.imhotep.api.DocIterator;
+import com.indeed.imhotep.api.FTGSIterator;
+import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
+import com.indeed.imhotep.api.ImhotepSession;
+import com.indeed.imhotep.api.RawFTGSIterator;
+import com.indeed.imhotep.marshal.ImhotepClientMarshaller;
+import com.indeed.imhotep.service.FTGSOutputStreamWriter;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session that answers group stats, top terms and FTGS requests from an {@link ImhotepResultCache} when the same
+ * dataset, shard versions and sequence of operations have been seen before. The daemons are only contacted on the
+ * first cache miss: until then regroups and stat pushes are recorded, and replayed on a newly opened session once a
+ * result has to be computed. As a consequence invalid operations fail on the first cache miss, not when they are made.
+ *
+ * Operations whose effect cannot be described by their arguments, like restore, turn the cache off for the rest of
+ * the session. Everything else is passed through to the opened session.
+ */
+final class CachingImhotepSession extends AbstractImhotepSession {
+    interface SessionOpener {
+        ImhotepSession open();
+    }
+
+    private abstract static class Operation {
+        final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+
+        @Nullable
+        abstract Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException;
+    }
+
+    private static final class CachedFTGS {
+        final byte[] bytes;
+        final int numStats;
+
+        CachedFTGS(byte[] bytes, int numStats) {
+            this.bytes = bytes;
+            this.numStats = numStats;
+        }
+    }
+
+    private final ImhotepResultCache cache;
+    private final SessionOpener opener;
+    private final List<Operation> history = Lists.newArrayList();
+
+    // hash of the dataset, the shard versions and the operations so far
+    private String historyKey;
+    private boolean cacheable = true;
+
+    @Nullable
+    private ImhotepSession session = null;
+
+    CachingImhotepSession(ImhotepResultCache cache, String dataset, List<ShardIdWithVersion> shards, SessionOpener opener) {
+        this.cache = cache;
+        this.opener = opener;
+        final StringBuilder shardKey = new StringBuilder(dataset);
+        for (final ShardIdWithVersion shard : shards) {
+            shardKey.append(' ').append(shard.getShardId()).append('.').append(shard.getVersion());
+        }
+        historyKey = hash("", shardKey.toString());
+    }
+
+    private ImhotepSession session() throws ImhotepOutOfMemoryException {
+        if (session == null) {
+            final ImhotepSession opened = opener.open();
+            boolean success = false;
+            try {
+                for (final Operation operation : history) {
+                    operation.apply(opened);
+                }
+                success = true;
+            } finally {
+                if (!success) {
+                    opened.close();
+                }
+            }
+            session = opened;
+        }
+        return session;
+    }
+
+    private ImhotepSession sessionRuntimeException() {
+        try {
+            return session();
+        } catch (ImhotepOutOfMemoryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Records an operation without a result, it is only run once the session is open.
+     */
+    private void record(Operation operation) throws ImhotepOutOfMemoryException {
+        if (session != null) {
+            operation.apply(session);
+        }
+        recorded(operation);
+    }
+
+    private void recordRuntimeException(Operation operation) {
+        try {
+            record(operation);
+        } catch (ImhotepOutOfMemoryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Records an operation whose result is taken from the cache if possible. Once the session is open it has to see
+     * every operation, so the cache only spares running the operation while nothing has been opened yet.
+     */
+    private int recordWithResult(Operation operation) throws ImhotepOutOfMemoryException {
+        final int ret;
+        if (session != null) {
+            ret = (Integer) operation.apply(session);
+            if (cacheable) {
+                cache.put(hash(historyKey, operation.key), ret, estimateBytes(ret));
+            }
+        } else {
+            ret = (Integer) cached(operation);
+        }
+        recorded(operation);
+        return ret;
+    }
+
+    private void recorded(Operation operation) {
+        if (cacheable) {
+            history.add(operation);
+            historyKey = hash(historyKey, operation.key);
+        }
+    }
+
+    /**
+     * @return the result of the operation in the current state of the session, from the cache if possible
+     */
+    private Object cached(Operation operation) throws ImhotepOutOfMemoryException {
+        if (!cacheable) {
+            return operation.apply(session());
+        }
+        final String key = hash(historyKey, operation.key);
+        Object ret = cache.get(key);
+        if (ret == null) {
+            ret = operation.apply(session());
+            cache.put(key, ret, estimateBytes(ret));
+        }
+        return ret;
+    }
+
+    private Object cachedRuntimeException(Operation operation) {
+        try {
+            return cached(operation);
+        } catch (ImhotepOutOfMemoryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long estimateBytes(Object result) {
+        if (result instanceof long[]) {
+            return 16 + 8L * ((long[]) result).length;
+        }
+        if (result instanceof List) {
+            long ret = 16;
+            for (final Object termCount : (List<?>) result) {
+                final String term = ((TermCount) termCount).getTerm().getTermStringVal();
+                ret += 64 + (term != null ? 2L * term.length() : 0);
+            }
+            return ret;
+        }
+        return 16;
+    }
+
+    private static String hash(String prefix, String key) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw Throwables.propagate(e);
+        }
+        digest.update(prefix.getBytes(Charsets.UTF_8));
+        digest.update((byte) '\n');
+        final byte[] bytes = digest.digest(key.getBytes(Charsets.UTF_8));
+        final StringBuilder ret = new StringBuilder(2 * bytes.length);
+        for (final byte b : bytes) {
+            ret.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return ret.toString();
+    }
+
+    @Override
+    public long getTotalDocFreq(final String[] intFields, final String[] stringFields) {
+        return (Long) cachedRuntimeException(new Operation("getTotalDocFreq " + Arrays.toString(intFields) + " " + Arrays.toString(stringFields)) {
+            @Override
+            Object apply(ImhotepSession session) {
+                return session.getTotalDocFreq(intFields, stringFields);
+            }
+        });
+    }
+
+    @Override
+    public long[] getGroupStats(final int stat) {
+        return ((long[]) cachedRuntimeException(new Operation("getGroupStats " + stat) {
+            @Override
+            Object apply(ImhotepSession session) {
+                return session.getGroupStats(stat);
+            }
+        })).clone();
+    }
+
+    @Override
+    public List<TermCount> approximateTopTerms(final String field, final boolean isIntField, final int k) {
+        // TermCounts are immutable, a copy of the list is all that is needed
+        return (List<TermCount>) cachedRuntimeException(new Operation("approximateTopTerms " + field + " " + isIntField + " " + k) {
+            @Override
+            Object apply(ImhotepSession session) {
+                return ImmutableList.copyOf(session.approximateTopTerms(field, isIntField, k));
+            }
+        });
+    }
+
+    @Override
+    public int getNumStats() {
+        return (Integer) cachedRuntimeException(new Operation("getNumStats") {
+            @Override
+            Object apply(ImhotepSession session) {
+                return session.getNumStats();
+            }
+        });
+    }
+
+    @Override
+    public int getNumGroups() {
+        return (Integer) cachedRuntimeException(new Operation("getNumGroups") {
+            @Override
+            Object apply(ImhotepSession session) {
+                return session.getNumGroups();
+            }
+        });
+    }
+
+    /**
+     * Replays FTGS results of up to {@link ImhotepResultCache#getMaxFTGSBytes} bytes from the cache, anything else
+     * is recorded while the caller iterates over it and cached if the caller gets to the end. Groups and terms the
+     * caller skips are still recorded, so the cached results are always complete.
+     */
+    @Override
+    public FTGSIterator getFTGSIterator(String[] intFields, String[] stringFields, List<FTGSStatFilter> statFilters) {
+        if (!cacheable) {
+            return sessionRuntimeException().getFTGSIterator(intFields, stringFields, statFilters);
+        }
+        final String key = hash(historyKey, "getFTGSIterator " + Arrays.toString(intFields) + " " + Arrays.toString(stringFields) +
+                " " + ImhotepClientMarshaller.marshalStatFilters(statFilters));
+        final CachedFTGS cached = (CachedFTGS) cache.get(key);
+        if (cached != null) {
+            return new InputStreamFTGSIterator(new ByteArrayInputStream(cached.bytes), cached.numStats);
+        }
+        final int numStats = getNumStats();
+        return new RecordingFTGSIterator(sessionRuntimeException().getFTGSIterator(intFields, stringFields, statFilters), numStats, key);
+    }
+
+    private final class RecordingFTGSIterator implements FTGSIterator {
+        private final FTGSIterator iterator;
+        private final int numStats;
+        private final String key;
+        private final long[] stats;
+
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private FTGSOutputStreamWriter writer = new FTGSOutputStreamWriter(bytes);
+        // whether the caller has seen every term of the current field and every group of the current term
+        private boolean termsDone = true;
+        private boolean groupsDone = true;
+
+        RecordingFTGSIterator(FTGSIterator iterator, int numStats, String key) {
+            this.iterator = iterator;
+            this.numStats = numStats;
+            this.key = key;
+            stats = new long[numStats];
+        }
+
+        @Override
+        public boolean nextField() {
+            drainTerms();
+            final boolean ret = iterator.nextField();
+            termsDone = !ret;
+            groupsDone = true;
+            if (writer != null) {
+                try {
+                    if (ret) {
+                        writer.switchField(iterator.fieldName(), iterator.fieldIsIntType());
+                    } else {
+                        writer.close();
+                        cache.put(key, new CachedFTGS(bytes.toByteArray(), numStats), 16 + bytes.size());
+                        stopRecording();
+                    }
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public String fieldName() {
+            return iterator.fieldName();
+        }
+
+        @Override
+        public boolean fieldIsIntType() {
+            return iterator.fieldIsIntType();
+        }
+
+        @Override
+        public boolean nextTerm() {
+            drainGroups();
+            final boolean ret = iterator.nextTerm();
+            termsDone = !ret;
+            groupsDone = !ret;
+            if (ret && writer != null) {
+                try {
+                    if (iterator.fieldIsIntType()) {
+                        writer.switchIntTerm(iterator.termIntVal(), iterator.termDocFreq());
+                    } else {
+                        final byte[] termBytes = iterator.termStringVal().getBytes(Charsets.UTF_8);
+                        writer.switchBytesTerm(termBytes, termBytes.length, iterator.termDocFreq());
+                    }
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public long termDocFreq() {
+            return iterator.termDocFreq();
+        }
+
+        @Override
+        public long termIntVal() {
+            return iterator.termIntVal();
+        }
+
+        @Override
+        public String termStringVal() {
+            return iterator.termStringVal();
+        }
+
+        @Override
+        public boolean nextGroup() {
+            final boolean ret = iterator.nextGroup();
+            groupsDone = !ret;
+            if (ret) {
+                // the stats are recorded whether or not the caller asks for them
+                iterator.groupStats(stats);
+                if (writer != null) {
+                    try {
+                        writer.switchGroup(iterator.group());
+                        for (final long stat : stats) {
+                            writer.addStat(stat);
+                        }
+                    } catch (IOException e) {
+                        throw Throwables.propagate(e);
+                    }
+                    if (bytes.size() > cache.getMaxFTGSBytes()) {
+                        stopRecording();
+                    }
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public int group() {
+            return iterator.group();
+        }
+
+        @Override
+        public void groupStats(long[] stats) {
+            System.arraycopy(this.stats, 0, stats, 0, numStats);
+        }
+
+        // records the groups of the current term the caller skips, up to the size limit
+        private void drainGroups() {
+            while (writer != null && !groupsDone) {
+                nextGroup();
+            }
+        }
+
+        // records the terms of the current field the caller skips, up to the size limit
+        private void drainTerms() {
+            while (writer != null && !termsDone) {
+                nextTerm();
+            }
+            drainGroups();
+        }
+
+        private void stopRecording() {
+            writer = null;
+            bytes = null;
+        }
+
+        @Override
+        public void close() {
+            stopRecording();
+            iterator.close();
+        }
+    }
+
+    @Override
+    public int regroup(final GroupMultiRemapRule[] rawRules, final boolean errorOnCollisions) throws ImhotepOutOfMemoryException {
+        final GroupMultiRemapRule[] rules = rawRules.clone();
+        return recordWithResult(new Operation("regroup " + ImhotepClientMarshaller.marshal(rules) + " " + errorOnCollisions) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.regroup(rules, errorOnCollisions);
+            }
+        });
+    }
+
+    @Override
+    public int regroup(final GroupRemapRule[] rawRules) throws ImhotepOutOfMemoryException {
+        final GroupRemapRule[] rules = rawRules.clone();
+        return recordWithResult(new Operation("regroup " + ImhotepClientMarshaller.marshal(rules)) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.regroup(rules);
+            }
+        });
+    }
+
+    @Override
+    public int regroup(final QueryRemapRule rule) throws ImhotepOutOfMemoryException {
+        return recordWithResult(new Operation("regroup " + ImhotepClientMarshaller.marshal(rule)) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.regroup(rule);
+            }
+        });
+    }
+
+    @Override
+    public void intOrRegroup(final String field, long[] terms, final int targetGroup, final int negativeGroup, final int positiveGroup) throws ImhotepOutOfMemoryException {
+        final long[] termsCopy = terms.clone();
+        record(new Operation("intOrRegroup " + field + " " + Arrays.toString(termsCopy) + " " + targetGroup + " " + negativeGroup + " " + positiveGroup) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                session.intOrRegroup(field, termsCopy, targetGroup, negativeGroup, positiveGroup);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void stringOrRegroup(final String field, String[] terms, final int targetGroup, final int negativeGroup, final int positiveGroup) throws ImhotepOutOfMemoryException {
+        final String[] termsCopy = terms.clone();
+        record(new Operation("stringOrRegroup " + field + " " + Arrays.toString(termsCopy) + " " + targetGroup + " " + negativeGroup + " " + positiveGroup) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                session.stringOrRegroup(field, termsCopy, targetGroup, negativeGroup, positiveGroup);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void regexRegroup(final String field, final String regex, final int targetGroup, final int negativeGroup, final int positiveGroup) throws ImhotepOutOfMemoryException {
+        record(new Operation("regexRegroup " + field + " " + regex + " " + targetGroup + " " + negativeGroup + " " + positiveGroup) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                session.regexRegroup(field, regex, targetGroup, negativeGroup, positiveGroup);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void randomRegroup(final String field, final boolean isIntField, final String salt, final double p, final int targetGroup, final int negativeGroup, final int positiveGroup) throws ImhotepOutOfMemoryException {
+        record(new Operation("randomRegroup " + field + " " + isIntField + " " + salt + " " + p + " " + targetGroup + " " + negativeGroup + " " + positiveGroup) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                session.randomRegroup(field, isIntField, salt, p, targetGroup, negativeGroup, positiveGroup);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void randomMultiRegroup(final String field, final boolean isIntField, final String salt, final int targetGroup, double[] percentages, int[] resultGroups) throws ImhotepOutOfMemoryException {
+        final double[] percentagesCopy = percentages.clone();
+        final int[] resultGroupsCopy = resultGroups.clone();
+        record(new Operation("randomMultiRegroup " + field + " " + isIntField + " " + salt + " " + targetGroup + " " + Arrays.toString(percentagesCopy) + " " + Arrays.toString(resultGroupsCopy)) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                session.randomMultiRegroup(field, isIntField, salt, targetGroup, percentagesCopy, resultGroupsCopy);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public int metricRegroup(final int stat, final long min, final long max, final long intervalSize, final boolean noGutters) throws ImhotepOutOfMemoryException {
+        return recordWithResult(new Operation("metricRegroup " + stat + " " + min + " " + max + " " + intervalSize + " " + noGutters) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.metricRegroup(stat, min, max, intervalSize, noGutters);
+            }
+        });
+    }
+
+    @Override
+    public int metricRegroup2D(final int xStat, final long xMin, final long xMax, final long xIntervalSize, final int yStat, final long yMin, final long yMax, final long yIntervalSize) throws ImhotepOutOfMemoryException {
+        return recordWithResult(new Operation("metricRegroup2D " + xStat + " " + xMin + " " + xMax + " " + xIntervalSize + " " + yStat + " " + yMin + " " + yMax + " " + yIntervalSize) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.metricRegroup2D(xStat, xMin, xMax, xIntervalSize, yStat, yMin, yMax, yIntervalSize);
+            }
+        });
+    }
+
+    @Override
+    public int metricFilter(final int stat, final long min, final long max, final boolean negate) throws ImhotepOutOfMemoryException {
+        return recordWithResult(new Operation("metricFilter " + stat + " " + min + " " + max + " " + negate) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.metricFilter(stat, min, max, negate);
+            }
+        });
+    }
+
+    @Override
+    public int pushStat(final String statName) throws ImhotepOutOfMemoryException {
+        return recordWithResult(new Operation("pushStat " + statName) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.pushStat(statName);
+            }
+        });
+    }
+
+    @Override
+    public int pushStats(List<String> statNames) throws ImhotepOutOfMemoryException {
+        final List<String> statNamesCopy = ImmutableList.copyOf(statNames);
+        return recordWithResult(new Operation("pushStats " + statNamesCopy) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.pushStats(statNamesCopy);
+            }
+        });
+    }
+
+    @Override
+    public int popStat() {
+        try {
+            return recordWithResult(new Operation("popStat") {
+                @Override
+                Object apply(ImhotepSession session) {
+                    return session.popStat();
+                }
+            });
+        } catch (ImhotepOutOfMemoryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void createDynamicMetric(final String name) throws ImhotepOutOfMemoryException {
+        record(new Operation("createDynamicMetric " + name) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                session.createDynamicMetric(name);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void updateDynamicMetric(final String name, int[] deltas) throws ImhotepOutOfMemoryException {
+        final int[] deltasCopy = deltas.clone();
+        record(new Operation("updateDynamicMetric " + name + " " + Arrays.toString(deltasCopy)) {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                session.updateDynamicMetric(name, deltasCopy);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void conditionalUpdateDynamicMetric(final String name, RegroupCondition[] conditions, int[] deltas) {
+        final RegroupCondition[] conditionsCopy = conditions.clone();
+        final int[] deltasCopy = deltas.clone();
+        recordRuntimeException(new Operation("conditionalUpdateDynamicMetric " + name + " " + ImhotepClientMarshaller.marshal(conditionsCopy) + " " + Arrays.toString(deltasCopy)) {
+            @Override
+            Object apply(ImhotepSession session) {
+                session.conditionalUpdateDynamicMetric(name, conditionsCopy, deltasCopy);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void groupConditionalUpdateDynamicMetric(final String name, int[] groups, RegroupCondition[] conditions, int[] deltas) {
+        final int[] groupsCopy = groups.clone();
+        final RegroupCondition[] conditionsCopy = conditions.clone();
+        final int[] deltasCopy = deltas.clone();
+        recordRuntimeException(new Operation("groupConditionalUpdateDynamicMetric " + name + " " + Arrays.toString(groupsCopy) + " " + ImhotepClientMarshaller.marshal(conditionsCopy) + " " + Arrays.toString(deltasCopy)) {
+            @Override
+            Object apply(ImhotepSession session) {
+                session.groupConditionalUpdateDynamicMetric(name, groupsCopy, conditionsCopy, deltasCopy);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void resetGroups() throws ImhotepOutOfMemoryException {
+        record(new Operation("resetGroups") {
+            @Override
+            Object apply(ImhotepSession session) throws ImhotepOutOfMemoryException {
+                session.resetGroups();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void rebuildAndFilterIndexes(List<String> intFields, List<String> stringFields) throws ImhotepOutOfMemoryException {
+        // leaves the results of later operations unchanged, so it does not need to be part of the history
+        session().rebuildAndFilterIndexes(intFields, stringFields);
+    }
+
+    @Override
+    public int restore(String checkpointId) throws ImhotepOutOfMemoryException {
+        final int ret = session().restore(checkpointId);
+        cacheable = false;
+        history.clear();
+        return ret;
+    }
+
+    @Override
+    public void checkpoint(String checkpointId) {
+        sessionRuntimeException().checkpoint(checkpointId);
+    }
+
+    @Override
+    public ImhotepSession fork() throws ImhotepOutOfMemoryException {
+        return session().fork();
+    }
+
+    @Override
+    public QuantileSketch[] getGroupQuantileSketches(int stat, int k) throws ImhotepOutOfMemoryException {
+        return session().getGroupQuantileSketches(stat, k);
+    }
+
+    @Override
+    public HyperLogLog[] approximateDistinctTerms(String field, boolean isIntField, int precision) throws ImhotepOutOfMemoryException {
+        return session().approximateDistinctTerms(field, isIntField, precision);
+    }
+
+    @Override
+    public FTGSIterator getSubsetFTGSIterator(Map<String, long[]> intFields, Map<String, String[]> stringFields) {
+        return sessionRuntimeException().getSubsetFTGSIterator(intFields, stringFields);
+    }
+
+    @Override
+    public RawFTGSIterator[] getSubsetFTGSIteratorSplits(Map<String, long[]> intFields, Map<String, String[]> stringFields) {
+        return sessionRuntimeException().getSubsetFTGSIteratorSplits(intFields, stringFields);
+    }
+
+    @Override
+    public DocIterator getDocIterator(String[] intFields, String[] stringFields) throws ImhotepOutOfMemoryException {
+        return session().getDocIterator(intFields, stringFields);
+    }
+
+    @Override
+    public RawFTGSIterator[] getFTGSIteratorSplits(String[] intFields, String[] stringFields) {
+        return sessionRuntimeException().getFTGSIteratorSplits(intFields, stringFields);
+    }
+
+    @Override
+    public RawFTGSIterator getFTGSIteratorSplit(String[] intFields, String[] stringFields, int splitIndex, int numSplits, List<FTGSStatFilter> statFilters) {
+        return sessionRuntimeException().getFTGSIteratorSplit(intFields, stringFields, splitIndex, numSplits, statFilters);
+    }
+
+    @Override
+    public RawFTGSIterator getSubsetFTGSIteratorSplit(Map<String, long[]> intFields, Map<String, String[]> stringFields, int splitIndex, int numSplits) {
+        return sessionRuntimeException().getSubsetFTGSIteratorSplit(intFields, stringFields, splitIndex, numSplits);
+    }
+
+    @Override
+    public RawFTGSIterator mergeFTGSSplit(String[] intFields, String[] stringFields, String sessionId, InetSocketAddress[] nodes, int splitIndex, List<FTGSStatFilter> statFilters) {
+        return sessionRuntimeException().mergeFTGSSplit(intFields, stringFields, sessionId, nodes, splitIndex, statFilters);
+    }
+
+    @Override
+    public RawFTGSIterator mergeSubsetFTGSSplit(Map<String, long[]> intFields, Map<String, String[]> stringFields, String sessionId, InetSocketAddress[] nodes, int splitIndex) {
+        return sessionRuntimeException().mergeSubsetFTGSSplit(intFields, stringFields, sessionId, nodes, splitIndex);
+    }
+
+    @Override
+    public void close() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+    }
+}
@@ -71,6 +71,35 @@ public class ImhotepClient implements Closeable {
     private final ScheduledExecutorService reloader;
     private final ImhotepClientShardListReloader shardListReloader;
 
+    // dataset -> rollup datasets that can serve its sessions
+    private final Multimap<String, Rollup> rollups = HashMultimap.create();
+
+    // identified by dataset and count field, the metric fields do not take part in equals
+    private static final class Rollup {
+        final String dataset;
+        final String countField;
+        final Set<String> metricFields;
+
+        Rollup(String dataset, String countField, Collection<String> metricFields) {
+            this.dataset = dataset;
+            this.countField = countField;
+            this.metricFields = ImmutableSet.copyOf(metricFields);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Rollup)) return false;
+            final Rollup other = (Rollup) o;
+            return dataset.equals(other.dataset) && countField.equals(other.countField);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * dataset.hashCode() + countField.hashCode();
+        }
+    }
+
     /**
      * create an imhotep client that will periodically reload its list of hosts from a text file
      * @param hostsFile hosts file
@@ -188,6 +217,34 @@ public class ImhotepClient implements Closeable {
         return ret;
     }
 
+    /**
+     * Lets rollupDataset, built from dataset with com.indeed.flamdex.writer.RollupFlamdexDocWriter, serve sessions
+     * over dataset that declare their fields with {@link SessionBuilder#fields}. A rollup is used when it has every
+     * declared field and its shards cover exactly the time spans the shards of dataset cover.
+     * @param countField field of the rollup that holds the number of original docs, pushed in place of "count()"
+     * @param metricFields the metrics the rollup was written with, the only fields that can be pushed as stats.
+     *                     Dimensions hold one value per rollup doc, and summing them would be wrong.
+     */
+    public void addRollup(String dataset, String rollupDataset, String countField, Collection<String> metricFields) {
+        final Rollup rollup = new Rollup(rollupDataset, countField, metricFields);
+        synchronized (rollups) {
+            rollups.remove(dataset, rollup);
+            rollups.put(dataset, rollup);
+        }
+    }
+
+    public void removeRollup(String dataset, String rollupDataset, String countField) {
+        synchronized (rollups) {
+            rollups.remove(dataset, new Rollup(rollupDataset, countField, Collections.<String>emptySet()));
+        }
+    }
+
+    private List<Rollup> getRollups(String dataset) {
+        synchronized (rollups) {
+            return Lists.newArrayList(rollups.get(dataset));
+        }
+    }
+
     /**
      * Returns a list of non-overlapping Imhotep shards for the specified dataset and time range.
      * Shards in the list are sorted chronologically.
@@ -284,6 +341,8 @@ public class ImhotepClient implements Closeable {
 
         private List<ShardIdWithVersion> chosenShards = null;
         private List<String> shardsOverride = null;
+        private ImhotepResultCache resultCache = null;
+        private Set<String> fields = null;
 
         public SessionBuilder(final String dataset, final DateTime start, final DateTime end) {
             this.dataset = dataset;
@@ -332,6 +391,26 @@ public class ImhotepClient implements Closeable {
             return this;
         }
 
+        /**
+         * Declares every field the session will regroup on, iterate over or push as a stat, plus "count()" if it
+         * is pushed, which allows a rollup of the dataset to be used instead, see {@link ImhotepClient#addRollup}.
+         * Rollup docs hold sums, so stats have to be sums of fields, like the fields themselves and "count()", and
+         * everything that looks at single docs, like metric regroups, throws an UnsupportedOperationException.
+         */
+        public SessionBuilder fields(Collection<String> fields) {
+            this.fields = Sets.newHashSet(fields);
+            return this;
+        }
+
+        /**
+         * Answers repeated requests over unchanged shards from resultCache. Only applies to sessions over the
+         * shards chosen for the time range, the versions of overridden shards are not known.
+         */
+        public SessionBuilder resultCache(ImhotepResultCache resultCache) {
+            this.resultCache = resultCache;
+            return this;
+        }
+
         /**
          * Returns shards that were selected for the time range requested in the constructor.
          * Shards in the list are sorted chronologically.
@@ -354,9 +433,11 @@ public class ImhotepClient implements Closeable {
          * Intervals in the list are sorted chronologically.
          */
         public List<Interval> getTimeIntervalsMissingShards() {
-            // expects the returned shards to be sorted by start time
-            final List<ShardIdWithVersion> chosenShards = getChosenShards();
+            return getTimeIntervalsMissingShards(getChosenShards());
+        }
 
+        // expects the shards to be sorted by start time
+        private List<Interval> getTimeIntervalsMissingShards(List<ShardIdWithVersion> chosenShards) {
             final List<Interval> timeIntervalsMissingShards = Lists.newArrayList();
             DateTime processedUpTo = start;
             for(ShardIdWithVersion shard : chosenShards) {
@@ -379,8 +460,83 @@ public class ImhotepClient implements Closeable {
             if(username == null) {
                 username = ImhotepRemoteSession.getUsername();
             }
-            List<String> chosenShardIDs = shardsOverride != null ? shardsOverride : ShardIdWithVersion.keepShardIds(getChosenShards());
-            return getSessionForShards(dataset, chosenShardIDs, requestedMetrics, mergeThreadLimit, username,
+            if (shardsOverride != null) {
+                return getSessionForShards(dataset, shardsOverride, requestedMetrics, mergeThreadLimit, username,
+                        optimizeGroupZeroLookups, socketTimeout, localTempFileSizeLimit, daemonTempFileSizeLimit);
+            }
+            if (fields != null) {
+                for (final Rollup rollup : getRollups(dataset)) {
+                    final DatasetInfo rollupInfo = getDatasetToShardList().get(rollup.dataset);
+                    final List<ShardIdWithVersion> rollupShards = chooseRollupShards(rollup, rollupInfo);
+                    if (rollupShards != null) {
+                        log.debug("using rollup " + rollup.dataset + " for a session over " + dataset);
+                        return new RollupImhotepSession(openSession(rollup.dataset, rollupShards), rollup.countField,
+                                rollup.metricFields);
+                    }
+                }
+            }
+            return openSession(dataset, getChosenShards());
+        }
+
+        /**
+         * @return the shards of rollup to use for the requested time range, or null if rollup can't serve the session
+         */
+        @VisibleForTesting
+        @Nullable
+        List<ShardIdWithVersion> chooseRollupShards(Rollup rollup, @Nullable DatasetInfo rollupInfo) {
+            if (rollupInfo == null) {
+                return null;
+            }
+            for (final String field : fields) {
+                if (!RollupImhotepSession.COUNT_STAT.equals(field) && !rollupInfo.getIntFields().contains(field)
+                        && !rollupInfo.getStringFields().contains(field)) {
+                    return null;
+                }
+            }
+            final List<ShardIdWithVersion> rollupShards = findShardsForTimeRange(rollup.dataset, start, end);
+            // coarser rollup shards would reach out of the range the shards of the dataset cover
+            if (rollupShards.isEmpty() || !getCoveredIntervals(rollupShards).equals(getCoveredIntervals(getChosenShards()))) {
+                return null;
+            }
+            return rollupShards;
+        }
+
+        // expects the shards to be sorted by start time
+        private List<Interval> getCoveredIntervals(List<ShardIdWithVersion> shards) {
+            final List<Interval> ret = Lists.newArrayList();
+            DateTime intervalStart = null;
+            DateTime intervalEnd = null;
+            for (final ShardIdWithVersion shard : shards) {
+                if (intervalEnd != null && !shard.getStart().isAfter(intervalEnd)) {
+                    if (shard.getEnd().isAfter(intervalEnd)) {
+                        intervalEnd = shard.getEnd();
+                    }
+                    continue;
+                }
+                if (intervalEnd != null) {
+                    ret.add(new Interval(intervalStart, intervalEnd));
+                }
+                intervalStart = shard.getStart();
+                intervalEnd = shard.getEnd();
+            }
+            if (intervalEnd != null) {
+                ret.add(new Interval(intervalStart, intervalEnd));
+            }
+            return ret;
+        }
+
+        private ImhotepSession openSession(final String dataset, List<ShardIdWithVersion> shards) {
+            final List<String> shardIds = ShardIdWithVersion.keepShardIds(shards);
+            if (resultCache != null) {
+                return new CachingImhotepSession(resultCache, dataset, shards, new CachingImhotepSession.SessionOpener() {
+                    @Override
+                    public ImhotepSession open() {
+                        return getSessionForShards(dataset, shardIds, requestedMetrics, mergeThreadLimit, username,
+                                optimizeGroupZeroLookups, socketTimeout, localTempFileSizeLimit, daemonTempFileSizeLimit);
+                    }
+                });
+            }
+            return getSessionForShards(dataset, shardIds, requestedMetrics, mergeThreadLimit, username,
                     optimizeGroupZeroLookups, socketTimeout, localTempFileSizeLimit, daemonTempFileSizeLimit);
         }
 
@@ -620,7 +776,7 @@ public class ImhotepClient implements Closeable {
     }
 
     // returns null on error
-    private ImhotepRemoteSession[] internalGetSession(final String dataset, Collection<String> requestedShards, Collection<String> requestedMetrics, final int mergeThreadLimit,
+    private ImhotepRemoteSession[] internalGetSession(final String dataset, Collection<String> requestedShards, final Collection<String> requestedMetrics, final int mergeThreadLimit,
                                                       final String username, final boolean optimizeGroupZeroLookups, final int socketTimeout, @Nullable final String sessionId, final long tempFileSizeLimit, @Nullable final AtomicLong tempFileSizeBytesLeft) {
 
         final Map<Host, List<String>> shardRequestMap = buildShardRequestMap(dataset, requestedShards, requestedMetrics);
@@ -640,7 +796,7 @@ public class ImhotepClient implements Closeable {
                 futures.add(executor.submit(new Callable<ImhotepRemoteSession>() {
                     @Override
                     public ImhotepRemoteSession call() throws Exception {
-                        return ImhotepRemoteSession.openSession(host.hostname, host.port, dataset, shardList, mergeThreadLimit, username, optimizeGroupZeroLookups, socketTimeout, sessionId, tempFileSizeLimit, tempFileSizeBytesLeft);
+                        return ImhotepRemoteSession.openSession(host.hostname, host.port, dataset, shardList, mergeThreadLimit, username, optimizeGroupZeroLookups, socketTimeout, sessionId, tempFileSizeLimit, tempFileSizeBytesLeft, requestedMetrics);
                     }
                 }));
             }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.client;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache for the results of sessions built with {@link ImhotepClient.SessionBuilder#resultCache}.
+ * Results are keyed by the dataset, the shards with their versions and the operations that led to them, so once a
+ * shard gets a new version the results computed from the old one are never looked up again and age out.
+ *
+ * this class is thread-safe
+ */
+public final class ImhotepResultCache {
+    private final long maxBytes;
+    private final long maxFTGSBytes;
+
+    // access ordered, so iteration starts at the least recently used result
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private static final class Entry {
+        final Object value;
+        final long bytes;
+
+        Entry(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param maxBytes upper bound for the estimated size of the cached results
+     */
+    public ImhotepResultCache(long maxBytes) {
+        this(maxBytes, maxBytes / 16);
+    }
+
+    /**
+     * @param maxBytes upper bound for the estimated size of the cached results
+     * @param maxFTGSBytes largest serialized FTGS result that is cached, bigger ones are streamed without being kept
+     */
+    public ImhotepResultCache(long maxBytes, long maxFTGSBytes) {
+        this.maxBytes = maxBytes;
+        this.maxFTGSBytes = maxFTGSBytes;
+    }
+
+    long getMaxFTGSBytes() {
+        return maxFTGSBytes;
+    }
+
+    /**
+     * @return the cached result, which the caller must not modify, or null
+     */
+    @Nullable
+    synchronized Object get(String key) {
+        final Entry entry = cache.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Caches value, which must not be modified afterwards, evicting the least recently used results to make room.
+     * Results larger than the whole cache are not cached.
+     */
+    synchronized void put(String key, Object value, long bytes) {
+        if (bytes > maxBytes) return;
+        final Entry previous = cache.put(key, new Entry(value, bytes));
+        if (previous != null) {
+            cachedBytes -= previous.bytes;
+        }
+        cachedBytes += bytes;
+        final Iterator<Map.Entry<String, Entry>> it = cache.entrySet().iterator();
+        while (cachedBytes > maxBytes) {
+            cachedBytes -= it.next().getValue().bytes;
+            it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
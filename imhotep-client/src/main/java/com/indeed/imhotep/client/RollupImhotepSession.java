@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.client;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.indeed.imhotep.AbstractImhotepSession;
+import com.indeed.imhotep.FTGSStatFilter;
+import com.indeed.imhotep.GroupMultiRemapRule;
+import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
+import com.indeed.imhotep.QuantileSketch;
+import com.indeed.imhotep.QueryRemapRule;
+import com.indeed.imhotep.RegroupCondition;
+import com.indeed.imhotep.TermCount;
+import com.indeed.imhotep.api.DocIterator;
+import com.indeed.imhotep.api.FTGSIterator;
+import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
+import com.indeed.imhotep.api.ImhotepSession;
+import com.indeed.imhotep.api.RawFTGSIterator;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Session over a rollup dataset, where every doc stands for all docs of the original dataset with the same
+ * dimension values. Metrics are already summed in the rollup docs, so only "count()" has to be changed into
+ * the field that holds the number of original docs. Dimensions are not, so only the metrics can be pushed as stats.
+ *
+ * Everything that depends on the value of a single doc, like metric regroups and filters, quantiles, dynamic
+ * metrics, term doc freqs and stats other than sums of fields, would silently see rollup docs instead of the
+ * original ones and throws an {@link UnsupportedOperationException}.
+ */
+final class RollupImhotepSession extends AbstractImhotepSession {
+    static final String COUNT_STAT = "count()";
+    // stack operators that keep a stat a sum over the docs
+    private static final Set<String> SUM_OPERATORS = ImmutableSet.of("+", "-", "cached()");
+
+    private final ImhotepSession session;
+    private final String countField;
+    private final Set<String> metricFields;
+
+    /**
+     * @param metricFields the fields the rollup summed up
+     */
+    RollupImhotepSession(ImhotepSession session, String countField, Collection<String> metricFields) {
+        this.session = session;
+        this.countField = countField;
+        this.metricFields = ImmutableSet.copyOf(metricFields);
+    }
+
+    private String rewriteStat(String statName) {
+        if (COUNT_STAT.equals(statName)) {
+            return countField;
+        }
+        if (!metricFields.contains(statName) && !SUM_OPERATORS.contains(statName)) {
+            throw new UnsupportedOperationException("rollup sessions only support sums of metric fields, not " + statName);
+        }
+        return statName;
+    }
+
+    private static UnsupportedOperationException unsupported(String operation) {
+        return new UnsupportedOperationException("rollup sessions do not support " + operation
+                + ", rollup docs stand for many original docs");
+    }
+
+    @Override
+    public long getTotalDocFreq(String[] intFields, String[] stringFields) {
+        throw unsupported("getTotalDocFreq");
+    }
+
+    @Override
+    public long[] getGroupStats(int stat) {
+        return session.getGroupStats(stat);
+    }
+
+    @Override
+    public List<TermCount> approximateTopTerms(String field, boolean isIntField, int k) {
+        throw unsupported("approximateTopTerms");
+    }
+
+    @Override
+    public int getNumStats() {
+        return session.getNumStats();
+    }
+
+    @Override
+    public int getNumGroups() {
+        return session.getNumGroups();
+    }
+
+    @Override
+    public FTGSIterator getFTGSIterator(String[] intFields, String[] stringFields, List<FTGSStatFilter> statFilters) {
+        return new RollupFTGSIterator(session.getFTGSIterator(intFields, stringFields, statFilters));
+    }
+
+    @Override
+    public int regroup(GroupMultiRemapRule[] rules, boolean errorOnCollisions) throws ImhotepOutOfMemoryException {
+        return session.regroup(rules, errorOnCollisions);
+    }
+
+    @Override
+    public int regroup(GroupRemapRule[] rules) throws ImhotepOutOfMemoryException {
+        return session.regroup(rules);
+    }
+
+    @Override
+    public int regroup(QueryRemapRule rule) throws ImhotepOutOfMemoryException {
+        return session.regroup(rule);
+    }
+
+    @Override
+    public void intOrRegroup(String field, long[] terms, int targetGroup, int negativeGroup, int positiveGroup) throws ImhotepOutOfMemoryException {
+        session.intOrRegroup(field, terms, targetGroup, negativeGroup, positiveGroup);
+    }
+
+    @Override
+    public void stringOrRegroup(String field, String[] terms, int targetGroup, int negativeGroup, int positiveGroup) throws ImhotepOutOfMemoryException {
+        session.stringOrRegroup(field, terms, targetGroup, negativeGroup, positiveGroup);
+    }
+
+    @Override
+    public void regexRegroup(String field, String regex, int targetGroup, int negativeGroup, int positiveGroup) throws ImhotepOutOfMemoryException {
+        session.regexRegroup(field, regex, targetGroup, negativeGroup, positiveGroup);
+    }
+
+    @Override
+    public void randomRegroup(String field, boolean isIntField, String salt, double p, int targetGroup, int negativeGroup, int positiveGroup) throws ImhotepOutOfMemoryException {
+        session.randomRegroup(field, isIntField, salt, p, targetGroup, negativeGroup, positiveGroup);
+    }
+
+    @Override
+    public void randomMultiRegroup(String field, boolean isIntField, String salt, int targetGroup, double[] percentages, int[] resultGroups) throws ImhotepOutOfMemoryException {
+        session.randomMultiRegroup(field, isIntField, salt, targetGroup, percentages, resultGroups);
+    }
+
+    @Override
+    public int metricRegroup(int stat, long min, long max, long intervalSize, boolean noGutters) throws ImhotepOutOfMemoryException {
+        throw unsupported("metricRegroup");
+    }
+
+    @Override
+    public int metricRegroup2D(int xStat, long xMin, long xMax, long xIntervalSize, int yStat, long yMin, long yMax, long yIntervalSize) throws ImhotepOutOfMemoryException {
+        throw unsupported("metricRegroup2D");
+    }
+
+    @Override
+    public int metricFilter(int stat, long min, long max, boolean negate) throws ImhotepOutOfMemoryException {
+        throw unsupported("metricFilter");
+    }
+
+    @Override
+    public int pushStat(String statName) throws ImhotepOutOfMemoryException {
+        return session.pushStat(rewriteStat(statName));
+    }
+
+    @Override
+    public int pushStats(List<String> statNames) throws ImhotepOutOfMemoryException {
+        final List<String> rewritten = Lists.newArrayListWithCapacity(statNames.size());
+        for (final String statName : statNames) {
+            rewritten.add(rewriteStat(statName));
+        }
+        return session.pushStats(rewritten);
+    }
+
+    @Override
+    public int popStat() {
+        return session.popStat();
+    }
+
+    @Override
+    public void createDynamicMetric(String name) throws ImhotepOutOfMemoryException {
+        throw unsupported("dynamic metrics");
+    }
+
+    @Override
+    public void updateDynamicMetric(String name, int[] deltas) throws ImhotepOutOfMemoryException {
+        throw unsupported("dynamic metrics");
+    }
+
+    @Override
+    public void conditionalUpdateDynamicMetric(String name, RegroupCondition[] conditions, int[] deltas) {
+        throw unsupported("dynamic metrics");
+    }
+
+    @Override
+    public void groupConditionalUpdateDynamicMetric(String name, int[] groups, RegroupCondition[] conditions, int[] deltas) {
+        throw unsupported("dynamic metrics");
+    }
+
+    @Override
+    public void resetGroups() throws ImhotepOutOfMemoryException {
+        session.resetGroups();
+    }
+
+    @Override
+    public void rebuildAndFilterIndexes(List<String> intFields, List<String> stringFields) throws ImhotepOutOfMemoryException {
+        session.rebuildAndFilterIndexes(intFields, stringFields);
+    }
+
+    @Override
+    public int restore(String checkpointId) throws ImhotepOutOfMemoryException {
+        return session.restore(checkpointId);
+    }
+
+    @Override
+    public void checkpoint(String checkpointId) {
+        session.checkpoint(checkpointId);
+    }
+
+    @Override
+    public ImhotepSession fork() throws ImhotepOutOfMemoryException {
+        return new RollupImhotepSession(session.fork(), countField, metricFields);
+    }
+
+    @Override
+    public QuantileSketch[] getGroupQuantileSketches(int stat, int k) throws ImhotepOutOfMemoryException {
+        throw unsupported("getGroupQuantileSketches");
+    }
+
+    @Override
+    public HyperLogLog[] approximateDistinctTerms(String field, boolean isIntField, int precision) throws ImhotepOutOfMemoryException {
+        return session.approximateDistinctTerms(field, isIntField, precision);
+    }
+
+    @Override
+    public FTGSIterator getSubsetFTGSIterator(Map<String, long[]> intFields, Map<String, String[]> stringFields) {
+        return new RollupFTGSIterator(session.getSubsetFTGSIterator(intFields, stringFields));
+    }
+
+    @Override
+    public RawFTGSIterator[] getSubsetFTGSIteratorSplits(Map<String, long[]> intFields, Map<String, String[]> stringFields) {
+        return wrap(session.getSubsetFTGSIteratorSplits(intFields, stringFields));
+    }
+
+    @Override
+    public DocIterator getDocIterator(String[] intFields, String[] stringFields) throws ImhotepOutOfMemoryException {
+        throw unsupported("getDocIterator");
+    }
+
+    @Override
+    public RawFTGSIterator[] getFTGSIteratorSplits(String[] intFields, String[] stringFields) {
+        return wrap(session.getFTGSIteratorSplits(intFields, stringFields));
+    }
+
+    @Override
+    public RawFTGSIterator getFTGSIteratorSplit(String[] intFields, String[] stringFields, int splitIndex, int numSplits, List<FTGSStatFilter> statFilters) {
+        return new RollupRawFTGSIterator(session.getFTGSIteratorSplit(intFields, stringFields, splitIndex, numSplits, statFilters));
+    }
+
+    @Override
+    public RawFTGSIterator getSubsetFTGSIteratorSplit(Map<String, long[]> intFields, Map<String, String[]> stringFields, int splitIndex, int numSplits) {
+        return new RollupRawFTGSIterator(session.getSubsetFTGSIteratorSplit(intFields, stringFields, splitIndex, numSplits));
+    }
+
+    @Override
+    public RawFTGSIterator mergeFTGSSplit(String[] intFields, String[] stringFields, String sessionId, InetSocketAddress[] nodes, int splitIndex, List<FTGSStatFilter> statFilters) {
+        return new RollupRawFTGSIterator(session.mergeFTGSSplit(intFields, stringFields, sessionId, nodes, splitIndex, statFilters));
+    }
+
+    @Override
+    public RawFTGSIterator mergeSubsetFTGSSplit(Map<String, long[]> intFields, Map<String, String[]> stringFields, String sessionId, InetSocketAddress[] nodes, int splitIndex) {
+        return new RollupRawFTGSIterator(session.mergeSubsetFTGSSplit(intFields, stringFields, sessionId, nodes, splitIndex));
+    }
+
+    @Override
+    public void close() {
+        session.close();
+    }
+
+    private static RawFTGSIterator[] wrap(RawFTGSIterator[] iterators) {
+        final RawFTGSIterator[] wrapped = new RawFTGSIterator[iterators.length];
+        for (int i = 0; i < iterators.length; i++) {
+            wrapped[i] = new RollupRawFTGSIterator(iterators[i]);
+        }
+        return wrapped;
+    }
+
+    /**
+     * Passes everything through except term doc freqs, which would count rollup docs.
+     */
+    private static class RollupFTGSIterator implements FTGSIterator {
+        private final FTGSIterator iterator;
+
+        RollupFTGSIterator(FTGSIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean nextField() {
+            return iterator.nextField();
+        }
+
+        @Override
+        public String fieldName() {
+            return iterator.fieldName();
+        }
+
+        @Override
+        public boolean fieldIsIntType() {
+            return iterator.fieldIsIntType();
+        }
+
+        @Override
+        public boolean nextTerm() {
+            return iterator.nextTerm();
+        }
+
+        @Override
+        public long termDocFreq() {
+            throw unsupported("termDocFreq");
+        }
+
+        @Override
+        public long termIntVal() {
+            return iterator.termIntVal();
+        }
+
+        @Override
+        public String termStringVal() {
+            return iterator.termStringVal();
+        }
+
+        @Override
+        public boolean nextGroup() {
+            return iterator.nextGroup();
+        }
+
+        @Override
+        public int group() {
+            return iterator.group();
+        }
+
+        @Override
+        public void groupStats(long[] stats) {
+            iterator.groupStats(stats);
+        }
+
+        @Override
+        public void close() {
+            iterator.close();
+        }
+    }
+
+    private static final class RollupRawFTGSIterator extends RollupFTGSIterator implements RawFTGSIterator {
+        private final RawFTGSIterator iterator;
+
+        RollupRawFTGSIterator(RawFTGSIterator iterator) {
+            super(iterator);
+            this.iterator = iterator;
+        }
+
+        @Override
+        public byte[] termStringBytes() {
+            return iterator.termStringBytes();
+        }
+
+        @Override
+        public int termStringLength() {
+            return iterator.termStringLength();
+        }
+    }
+}
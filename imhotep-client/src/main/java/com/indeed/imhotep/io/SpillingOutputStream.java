@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.io;
+
+import com.google.common.collect.Lists;
+import com.indeed.imhotep.MemoryReserver;
+import com.indeed.util.core.io.Closeables2;
+import com.indeed.util.mmap.MMapBuffer;
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Output stream that keeps the first memoryLimit bytes written to it in memory and spills the rest to a temp file,
+ * so small outputs never touch the disk. Once closed, the bytes can be read back exactly once through
+ * {@link #getInputStream()}, which memory maps the spilled part instead of copying it through a file stream.
+ *
+ * Bytes written to the temp file count against tempFileSizeBytesLeft. The ones kept in memory are claimed from
+ * memory, if there is one, and once it has no memory left the rest is spilled as well.
+ */
+public final class SpillingOutputStream extends OutputStream {
+    private static final Logger log = Logger.getLogger(SpillingOutputStream.class);
+
+    private static final int CHUNK_SIZE = 65536;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private long memoryLimit;
+    @Nullable
+    private final AtomicLong tempFileSizeBytesLeft;
+    @Nullable
+    private final MemoryReserver memory;
+
+    private final List<byte[]> chunks = Lists.newArrayList();
+    private byte[] currentChunk;
+    private int currentChunkLength = CHUNK_SIZE;
+    private long memoryBytes = 0;
+    // bytes of chunks that have been claimed from memory and not released yet
+    private long claimedBytes = 0;
+
+    private File spillFile;
+    private OutputStream spillStream;
+    private long spilledBytes = 0;
+
+    private boolean closed = false;
+    private boolean read = false;
+    // set by release(), guarded by this like the chunks a reader takes out
+    private boolean released = false;
+
+    public SpillingOutputStream(long memoryLimit, @Nullable AtomicLong tempFileSizeBytesLeft) {
+        this(memoryLimit, tempFileSizeBytesLeft, null);
+    }
+
+    public SpillingOutputStream(long memoryLimit, @Nullable AtomicLong tempFileSizeBytesLeft, @Nullable MemoryReserver memory) {
+        if (memoryLimit < 0) throw new IllegalArgumentException("memoryLimit must not be negative");
+        this.memoryLimit = memoryLimit;
+        this.tempFileSizeBytesLeft = tempFileSizeBytesLeft;
+        this.memory = memory;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (memoryBytes < memoryLimit && (currentChunkLength < CHUNK_SIZE || nextChunk())) {
+            currentChunk[currentChunkLength++] = (byte) b;
+            memoryBytes++;
+        } else {
+            spill().write(b);
+            spilledBytes++;
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        while (len > 0 && memoryBytes < memoryLimit) {
+            if (currentChunkLength == CHUNK_SIZE && !nextChunk()) {
+                break;
+            }
+            final int toCopy = (int) Math.min(Math.min(len, CHUNK_SIZE - currentChunkLength), memoryLimit - memoryBytes);
+            System.arraycopy(b, off, currentChunk, currentChunkLength, toCopy);
+            currentChunkLength += toCopy;
+            memoryBytes += toCopy;
+            off += toCopy;
+            len -= toCopy;
+        }
+        if (len > 0) {
+            spill().write(b, off, len);
+            spilledBytes += len;
+        }
+    }
+
+    /**
+     * @return false if memory could not spare another chunk, everything from then on is spilled
+     */
+    private boolean nextChunk() {
+        final int size = (int) Math.min(CHUNK_SIZE, memoryLimit - memoryBytes);
+        if (!claimMemory(size)) {
+            memoryLimit = memoryBytes;
+            return false;
+        }
+        currentChunk = new byte[size];
+        // a short last chunk is never full, so this is only reached again once the memory limit is hit
+        currentChunkLength = 0;
+        chunks.add(currentChunk);
+        return true;
+    }
+
+    private synchronized boolean claimMemory(long bytes) {
+        if (memory != null && !memory.claimMemory(bytes)) {
+            return false;
+        }
+        claimedBytes += bytes;
+        return true;
+    }
+
+    private synchronized void releaseMemory(long bytes) {
+        // release() may already have handed everything back while a reader still holds its chunk
+        bytes = Math.min(bytes, claimedBytes);
+        if (bytes == 0) return;
+        claimedBytes -= bytes;
+        if (memory != null) {
+            memory.releaseMemory(bytes);
+        }
+    }
+
+    private synchronized void releaseAllMemory() {
+        releaseMemory(claimedBytes);
+    }
+
+    private OutputStream spill() throws IOException {
+        if (closed) throw new IOException("stream is closed");
+        if (spillStream == null) {
+            spillFile = File.createTempFile("spill", ".tmp");
+            spillStream = new LimitedBufferedOutputStream(new FileOutputStream(spillFile), tempFileSizeBytesLeft, 65536);
+        }
+        return spillStream;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (spillStream != null) {
+            spillStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (spillStream != null) {
+                spillStream.close();
+            }
+        }
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Closes this stream and returns a stream over everything that was written.
+     * Closing the returned stream releases the memory, the mapping and the temp file.
+     */
+    public InputStream getInputStream() throws IOException {
+        if (read) throw new IllegalStateException("stream can only be read once");
+        read = true;
+        close();
+        final MMapBuffer spilled;
+        if (spillFile != null) {
+            spilled = new MMapBuffer(spillFile, 0, spilledBytes, FileChannel.MapMode.READ_ONLY, ByteOrder.LITTLE_ENDIAN);
+            // the mapping keeps the contents around until it is closed
+            spillFile.delete();
+        } else {
+            spilled = null;
+        }
+        return new SpilledInputStream(spilled);
+    }
+
+    /**
+     * drops everything that was written without reading it, a stream returned by {@link #getInputStream()}
+     * fails with an IOException once it gets past the chunk it is on
+     */
+    public synchronized void release() {
+        released = true;
+        chunks.clear();
+        currentChunk = null;
+        releaseAllMemory();
+        if (spillStream != null) {
+            Closeables2.closeQuietly(spillStream, log);
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+        }
+    }
+
+    private final class SpilledInputStream extends InputStream {
+        @Nullable
+        private final MMapBuffer spilled;
+        private long spilledPosition = 0;
+        private int chunkIndex = 0;
+        private ByteBuffer current = EMPTY;
+        private int currentClaim = 0;
+        private boolean closed = false;
+
+        private SpilledInputStream(@Nullable MMapBuffer spilled) {
+            this.spilled = spilled;
+        }
+
+        /**
+         * @return true if current has bytes left, false once the chunks are used up
+         */
+        private boolean advanceChunk() throws IOException {
+            while (!current.hasRemaining()) {
+                // chunks are only read once, so let them be collected as soon as they are consumed
+                releaseMemory(currentClaim);
+                currentClaim = 0;
+                current = EMPTY;
+                synchronized (SpillingOutputStream.this) {
+                    if (closed) throw new IOException("stream is closed");
+                    if (released) throw new IOException("stream was released while it was being read");
+                    if (chunkIndex == chunks.size()) {
+                        return false;
+                    }
+                    final byte[] chunk = chunks.get(chunkIndex);
+                    final int length = chunkIndex == chunks.size() - 1 ? currentChunkLength : chunk.length;
+                    chunks.set(chunkIndex++, null);
+                    current = ByteBuffer.wrap(chunk, 0, length);
+                    currentClaim = chunk.length;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (advanceChunk()) {
+                return current.get() & 0xFF;
+            }
+            if (spilled == null || spilledPosition == spilledBytes) return -1;
+            return spilled.memory().getByte(spilledPosition++) & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) return 0;
+            if (advanceChunk()) {
+                final int toCopy = Math.min(len, current.remaining());
+                current.get(b, off, toCopy);
+                return toCopy;
+            }
+            if (spilled == null || spilledPosition == spilledBytes) return -1;
+            final int toCopy = (int) Math.min(len, spilledBytes - spilledPosition);
+            spilled.memory().getBytes(spilledPosition, b, off, toCopy);
+            spilledPosition += toCopy;
+            return toCopy;
+        }
+
+        @Override
+        public int available() {
+            if (current.hasRemaining()) return current.remaining();
+            return spilled == null ? 0 : (int) Math.min(Integer.MAX_VALUE, spilledBytes - spilledPosition);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            current = EMPTY;
+            currentClaim = 0;
+            synchronized (SpillingOutputStream.this) {
+                closed = true;
+                chunks.clear();
+                currentChunk = null;
+                releaseAllMemory();
+            }
+            if (spilled != null) {
+                spilled.close();
+            }
+        }
+    }
+}
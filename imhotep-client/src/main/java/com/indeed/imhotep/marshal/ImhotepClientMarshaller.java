@@ -18,17 +18,24 @@ import com.google.common.collect.Lists;
 import com.indeed.flamdex.query.BooleanOp;
 import com.indeed.flamdex.query.Query;
 import com.indeed.flamdex.query.Term;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.GroupMultiRemapRule;
 import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
+import com.indeed.imhotep.QuantileSketch;
 import com.indeed.imhotep.QueryRemapRule;
 import com.indeed.imhotep.RegroupCondition;
 import com.indeed.imhotep.TermCount;
 import com.indeed.imhotep.protobuf.GroupMultiRemapMessage;
 import com.indeed.imhotep.protobuf.GroupRemapMessage;
+import com.indeed.imhotep.protobuf.HyperLogLogMessage;
 import com.indeed.imhotep.protobuf.Operator;
+import com.indeed.imhotep.protobuf.QuantileSketchLevel;
+import com.indeed.imhotep.protobuf.QuantileSketchMessage;
 import com.indeed.imhotep.protobuf.QueryMessage;
 import com.indeed.imhotep.protobuf.QueryRemapMessage;
 import com.indeed.imhotep.protobuf.RegroupConditionMessage;
+import com.indeed.imhotep.protobuf.StatFilterMessage;
 import com.indeed.imhotep.protobuf.TermCountMessage;
 import com.indeed.imhotep.protobuf.TermMessage;
 
@@ -148,4 +155,46 @@ public final class ImhotepClientMarshaller {
         }
         return ret;
     }
+
+    public static StatFilterMessage marshal(final FTGSStatFilter filter) {
+        return StatFilterMessage.newBuilder()
+                .setStat(filter.stat)
+                .setMin(filter.min)
+                .setMax(filter.max)
+                .build();
+    }
+
+    public static List<StatFilterMessage> marshalStatFilters(final List<FTGSStatFilter> filters) {
+        final List<StatFilterMessage> ret = Lists.newArrayListWithCapacity(filters.size());
+        for (final FTGSStatFilter filter : filters) {
+            ret.add(marshal(filter));
+        }
+        return ret;
+    }
+
+    public static HyperLogLog[] marshalHyperLogLogMessageList(final List<HyperLogLogMessage> protoSketches) {
+        final HyperLogLog[] ret = new HyperLogLog[protoSketches.size()];
+        for (int i = 0; i < ret.length; i++) {
+            final HyperLogLogMessage message = protoSketches.get(i);
+            ret[i] = new HyperLogLog(message.getPrecision(), message.getRegisters().toByteArray());
+        }
+        return ret;
+    }
+
+    public static QuantileSketch[] marshalQuantileSketchMessageList(final List<QuantileSketchMessage> protoSketches) {
+        final QuantileSketch[] ret = new QuantileSketch[protoSketches.size()];
+        for (int i = 0; i < ret.length; i++) {
+            final QuantileSketchMessage message = protoSketches.get(i);
+            final long[][] levels = new long[message.getLevelsCount()][];
+            for (int h = 0; h < levels.length; h++) {
+                final QuantileSketchLevel level = message.getLevels(h);
+                levels[h] = new long[level.getValuesCount()];
+                for (int j = 0; j < levels[h].length; j++) {
+                    levels[h][j] = level.getValues(j);
+                }
+            }
+            ret[i] = new QuantileSketch(message.getK(), message.getCount(), message.getMin(), message.getMax(), levels);
+        }
+        return ret;
+    }
 }
@@ -15,20 +15,28 @@
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
 import com.indeed.flamdex.query.BooleanOp;
 import com.indeed.flamdex.query.Query;
 import com.indeed.flamdex.query.Term;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.GroupMultiRemapRule;
 import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
+import com.indeed.imhotep.QuantileSketch;
 import com.indeed.imhotep.QueryRemapRule;
 import com.indeed.imhotep.RegroupCondition;
 import com.indeed.imhotep.TermCount;
 import com.indeed.imhotep.protobuf.GroupMultiRemapMessage;
 import com.indeed.imhotep.protobuf.GroupRemapMessage;
+import com.indeed.imhotep.protobuf.HyperLogLogMessage;
 import com.indeed.imhotep.protobuf.Operator;
+import com.indeed.imhotep.protobuf.QuantileSketchLevel;
+import com.indeed.imhotep.protobuf.QuantileSketchMessage;
 import com.indeed.imhotep.protobuf.QueryMessage;
 import com.indeed.imhotep.protobuf.QueryRemapMessage;
 import com.indeed.imhotep.protobuf.RegroupConditionMessage;
+import com.indeed.imhotep.protobuf.StatFilterMessage;
 import com.indeed.imhotep.protobuf.TermCountMessage;
 import com.indeed.imhotep.protobuf.TermMessage;
 
@@ -144,4 +152,49 @@ public final class ImhotepDaemonMarshaller {
         }
         return ret;
     }
+
+    public static FTGSStatFilter marshal(final StatFilterMessage protoFilter) {
+        return new FTGSStatFilter(protoFilter.getStat(), protoFilter.getMin(), protoFilter.getMax());
+    }
+
+    public static List<FTGSStatFilter> marshalStatFilterMessageList(final List<StatFilterMessage> protoFilters) {
+        final List<FTGSStatFilter> ret = Lists.newArrayListWithCapacity(protoFilters.size());
+        for (final StatFilterMessage protoFilter : protoFilters) {
+            ret.add(marshal(protoFilter));
+        }
+        return ret;
+    }
+
+    public static List<HyperLogLogMessage> marshalHyperLogLogs(final HyperLogLog[] sketches) {
+        final List<HyperLogLogMessage> ret = Lists.newArrayListWithCapacity(sketches.length);
+        for (final HyperLogLog sketch : sketches) {
+            ret.add(
+                    HyperLogLogMessage.newBuilder()
+                    .setPrecision(sketch.getPrecision())
+                    .setRegisters(ByteString.copyFrom(sketch.getRegisters()))
+                    .build()
+            );
+        }
+        return ret;
+    }
+
+    public static List<QuantileSketchMessage> marshalQuantileSketches(final QuantileSketch[] sketches) {
+        final List<QuantileSketchMessage> ret = Lists.newArrayListWithCapacity(sketches.length);
+        for (final QuantileSketch sketch : sketches) {
+            final QuantileSketchMessage.Builder builder = QuantileSketchMessage.newBuilder()
+                    .setK(sketch.getK())
+                    .setCount(sketch.getCount())
+                    .setMin(sketch.getMin())
+                    .setMax(sketch.getMax());
+            for (final long[] level : sketch.getLevels()) {
+                final QuantileSketchLevel.Builder levelBuilder = QuantileSketchLevel.newBuilder();
+                for (final long value : level) {
+                    levelBuilder.addValues(value);
+                }
+                builder.addLevels(levelBuilder);
+            }
+            ret.add(builder.build());
+        }
+        return ret;
+    }
 }
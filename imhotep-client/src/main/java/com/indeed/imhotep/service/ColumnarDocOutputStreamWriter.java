@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.service;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.indeed.imhotep.api.DocIterator;
+import com.indeed.imhotep.api.OrdinalDocIterator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes docs in blocks of up to {@link #BLOCK_SIZE} docs, column by column instead of doc by doc.
+ *
+ * Every block starts with a 13 byte header: int number of docs, byte codec, int decoded payload length and int
+ * stored payload length. The payload has the groups as vints, every int field as zigzag vint deltas from the previous
+ * doc of the block, and every string field as a block local dictionary (vint size, then vint length and utf-8 bytes
+ * per entry) followed by one vint dictionary index per doc. Payloads that shrink get deflated. An int 0 ends the stream.
+ *
+ * Blocks do not depend on each other, so streams can be merged by concatenating whole blocks, see {@link DocBlockSource}.
+ * Read it back with {@link ColumnarInputStreamDocIterator}.
+ */
+public final class ColumnarDocOutputStreamWriter {
+    public static final int BLOCK_SIZE = Integer.getInteger("com.indeed.imhotep.service.ColumnarDocOutputStreamWriter.blockSize", 4096);
+
+    static final int HEADER_SIZE = 13;
+    static final byte RAW = 0;
+    static final byte DEFLATED = 1;
+
+    // below this deflate rarely pays for its header and the cpu time
+    private static final int MIN_DEFLATE_LENGTH = 256;
+
+    private ColumnarDocOutputStreamWriter() {}
+
+    public static void writeNotThreadSafe(DocIterator docIterator, int numIntFields, int numStringFields, OutputStream os) throws IOException {
+        writeNotThreadSafe(docIterator, numIntFields, numStringFields, os, DocOutputStreamWriter.MAX_DICTIONARY_BYTES);
+    }
+
+    @VisibleForTesting
+    static void writeNotThreadSafe(DocIterator docIterator, int numIntFields, int numStringFields, OutputStream os, long maxDictionaryBytes) throws IOException {
+        final DataOutputStream out = new DataOutputStream(os);
+        writeBlocks(docIterator, numIntFields, numStringFields, out, false, maxDictionaryBytes);
+        out.writeInt(0);
+        out.flush();
+    }
+
+    /**
+     * Writes the blocks of docIterator to os, holding the lock of os for one whole block at a time, and closes docIterator.
+     * Does not end the stream, that is up to the caller once all writers are done.
+     */
+    public static void writeThreadSafe(DocIterator docIterator, int numIntFields, int numStringFields, DataOutputStream os) throws IOException {
+        try {
+            writeBlocks(docIterator, numIntFields, numStringFields, os, true, DocOutputStreamWriter.MAX_DICTIONARY_BYTES);
+        } finally {
+            docIterator.close();
+        }
+    }
+
+    private static void writeBlocks(DocIterator docIterator, int numIntFields, int numStringFields, OutputStream out, boolean threadSafe, long maxDictionaryBytes) throws IOException {
+        if (docIterator instanceof DocBlockSource) {
+            final DocBlockSource source = (DocBlockSource) docIterator;
+            byte[] block;
+            while ((block = source.nextRawBlock()) != null) {
+                writeBlock(block, block.length, out, threadSafe);
+            }
+            return;
+        }
+        final BlockEncoder encoder = new BlockEncoder(docIterator, numIntFields, numStringFields, maxDictionaryBytes);
+        try {
+            while (encoder.encodeNextBlock()) {
+                writeBlock(encoder.block.bytes, encoder.block.length, out, threadSafe);
+            }
+        } finally {
+            encoder.close();
+        }
+    }
+
+    private static void writeBlock(byte[] block, int length, OutputStream out, boolean threadSafe) throws IOException {
+        if (threadSafe) {
+            synchronized (out) {
+                out.write(block, 0, length);
+            }
+        } else {
+            out.write(block, 0, length);
+        }
+    }
+
+    private static final class BlockEncoder {
+        private final DocIterator docIterator;
+        private final int numIntFields;
+        private final int numStringFields;
+
+        private final int[] groups = new int[BLOCK_SIZE];
+        private final long[][] intValues;
+        private final int[][] stringCodes;
+        private final StringColumn[] stringColumns;
+
+        private final Bytes payload = new Bytes(1 << 16);
+        private final Bytes block = new Bytes(1 << 16);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private boolean done = false;
+
+        private BlockEncoder(DocIterator docIterator, int numIntFields, int numStringFields, long maxDictionaryBytes) {
+            this.docIterator = docIterator;
+            this.numIntFields = numIntFields;
+            this.numStringFields = numStringFields;
+            intValues = new long[numIntFields][BLOCK_SIZE];
+            stringCodes = new int[numStringFields][BLOCK_SIZE];
+            stringColumns = new StringColumn[numStringFields];
+            final DocOutputStreamWriter.DictionaryBudget budget = new DocOutputStreamWriter.DictionaryBudget(maxDictionaryBytes);
+            for (int i = 0; i < numStringFields; i++) {
+                final int numOrdinals = docIterator instanceof OrdinalDocIterator ? ((OrdinalDocIterator) docIterator).getNumStringOrdinals(i) : -1;
+                // the ordinal table lives as long as the stream, fields whose table does not fit are keyed by value
+                final boolean byOrdinal = numOrdinals >= 0 && budget.claim(4L * (numOrdinals + BLOCK_SIZE));
+                stringColumns[i] = new StringColumn(byOrdinal ? numOrdinals : -1);
+            }
+        }
+
+        /**
+         * @return false if there are no more docs, otherwise the next block is in {@link #block}
+         */
+        private boolean encodeNextBlock() {
+            if (done) return false;
+            int numDocs = 0;
+            while (numDocs < BLOCK_SIZE) {
+                if (!docIterator.next()) {
+                    done = true;
+                    break;
+                }
+                groups[numDocs] = docIterator.getGroup();
+                for (int i = 0; i < numIntFields; i++) {
+                    intValues[i][numDocs] = docIterator.getInt(i);
+                }
+                for (int i = 0; i < numStringFields; i++) {
+                    stringCodes[i][numDocs] = stringColumns[i].add(docIterator, i);
+                }
+                numDocs++;
+            }
+            if (numDocs == 0) return false;
+
+            payload.length = 0;
+            for (int doc = 0; doc < numDocs; doc++) {
+                payload.writeVLong(groups[doc] & 0xFFFFFFFFL);
+            }
+            for (int i = 0; i < numIntFields; i++) {
+                final long[] values = intValues[i];
+                long previous = 0;
+                for (int doc = 0; doc < numDocs; doc++) {
+                    final long delta = values[doc] - previous;
+                    payload.writeVLong((delta << 1) ^ (delta >> 63));
+                    previous = values[doc];
+                }
+            }
+            for (int i = 0; i < numStringFields; i++) {
+                final StringColumn column = stringColumns[i];
+                payload.writeVLong(column.size);
+                payload.write(column.entries.bytes, 0, column.entries.length);
+                final int[] codes = stringCodes[i];
+                for (int doc = 0; doc < numDocs; doc++) {
+                    payload.writeVLong(codes[doc]);
+                }
+                column.clear();
+            }
+
+            block.length = HEADER_SIZE;
+            byte codec = RAW;
+            if (payload.length >= MIN_DEFLATE_LENGTH) {
+                deflater.reset();
+                deflater.setInput(payload.bytes, 0, payload.length);
+                deflater.finish();
+                // anything that does not fit in the space of the raw payload is not worth it
+                block.ensureCapacity(HEADER_SIZE + payload.length);
+                final int compressedLength = deflater.deflate(block.bytes, HEADER_SIZE, payload.length);
+                if (deflater.finished() && compressedLength < payload.length) {
+                    codec = DEFLATED;
+                    block.length += compressedLength;
+                }
+            }
+            if (codec == RAW) {
+                block.write(payload.bytes, 0, payload.length);
+            }
+            writeInt(block.bytes, 0, numDocs);
+            block.bytes[4] = codec;
+            writeInt(block.bytes, 5, payload.length);
+            writeInt(block.bytes, 9, block.length - HEADER_SIZE);
+            return true;
+        }
+
+        private void close() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Block local dictionary of one string field. It is keyed by the lookup ordinals if the doc iterator has them and
+     * the ordinal table fits in the dictionary budget of the stream, which saves converting every value to a string,
+     * and by the values otherwise.
+     */
+    private static final class StringColumn {
+        // ordinal -> dictionary index + 1 for the ordinals in the current block, 0 for the rest
+        private final int[] ordinalToCode;
+        private final int[] codeToOrdinal;
+        private final Map<String, Integer> valueToCode;
+        private final Bytes entries = new Bytes(1 << 12);
+        private int size = 0;
+
+        private StringColumn(int numOrdinals) {
+            if (numOrdinals >= 0) {
+                ordinalToCode = new int[numOrdinals];
+                codeToOrdinal = new int[BLOCK_SIZE];
+                valueToCode = null;
+            } else {
+                ordinalToCode = null;
+                codeToOrdinal = null;
+                valueToCode = Maps.newHashMap();
+            }
+        }
+
+        private int add(DocIterator docIterator, int index) {
+            if (ordinalToCode != null) {
+                final OrdinalDocIterator ordinalDocIterator = (OrdinalDocIterator) docIterator;
+                final int ordinal = ordinalDocIterator.getStringOrdinal(index);
+                if (ordinalToCode[ordinal] != 0) {
+                    return ordinalToCode[ordinal] - 1;
+                }
+                codeToOrdinal[size] = ordinal;
+                ordinalToCode[ordinal] = size + 1;
+                addEntry(ordinalDocIterator.getStringBytes(index));
+            } else {
+                final String value = docIterator.getString(index);
+                final Integer code = valueToCode.get(value);
+                if (code != null) {
+                    return code;
+                }
+                valueToCode.put(value, size);
+                addEntry(value.getBytes(Charsets.UTF_8));
+            }
+            return size++;
+        }
+
+        private void addEntry(byte[] bytes) {
+            entries.writeVLong(bytes.length);
+            entries.write(bytes, 0, bytes.length);
+        }
+
+        private void clear() {
+            if (ordinalToCode != null) {
+                for (int i = 0; i < size; i++) {
+                    ordinalToCode[codeToOrdinal[i]] = 0;
+                }
+            } else {
+                valueToCode.clear();
+            }
+            entries.length = 0;
+            size = 0;
+        }
+    }
+
+    static final class Bytes {
+        byte[] bytes;
+        int length = 0;
+
+        Bytes(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+            }
+        }
+
+        void writeVLong(long value) {
+            ensureCapacity(length + 10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void write(byte[] b, int off, int len) {
+            ensureCapacity(length + len);
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+    }
+
+    static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.service;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.indeed.imhotep.api.DocIterator;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.indeed.imhotep.service.ColumnarDocOutputStreamWriter.DEFLATED;
+import static com.indeed.imhotep.service.ColumnarDocOutputStreamWriter.HEADER_SIZE;
+import static com.indeed.imhotep.service.ColumnarDocOutputStreamWriter.RAW;
+import static com.indeed.imhotep.service.ColumnarDocOutputStreamWriter.readInt;
+
+/**
+ * Reads the streams written by {@link ColumnarDocOutputStreamWriter}, decoding one block at a time. Every distinct
+ * string of a block is decoded once, however many docs of the block share it.
+ */
+public final class ColumnarInputStreamDocIterator implements DocIterator, DocBlockSource {
+    private final DataInputStream in;
+    private final int numIntFields;
+    private final int numStringFields;
+    private final Inflater inflater = new Inflater();
+
+    private final byte[] header = new byte[HEADER_SIZE];
+    private byte[] stored = new byte[0];
+    private byte[] payload = new byte[0];
+    private int position;
+
+    private int[] groups = new int[0];
+    private long[][] intValues;
+    private String[][] stringValues;
+    private int numDocs = 0;
+    private int doc = -1;
+    private boolean done = false;
+
+    public ColumnarInputStreamDocIterator(InputStream in, int numIntFields, int numStringFields) {
+        this.in = new DataInputStream(in);
+        this.numIntFields = numIntFields;
+        this.numStringFields = numStringFields;
+        intValues = new long[numIntFields][0];
+        stringValues = new String[numStringFields][0];
+    }
+
+    public boolean next() {
+        if (doc + 1 < numDocs) {
+            doc++;
+            return true;
+        }
+        try {
+            while (readBlock()) {
+                if (numDocs > 0) {
+                    doc = 0;
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return the number of docs of the next block, or 0 at the end of the stream, in which case done is set
+     */
+    private int readHeader() throws IOException {
+        if (done) return 0;
+        in.readFully(header, 0, 4);
+        final int blockDocs = readInt(header, 0);
+        if (blockDocs == 0) {
+            done = true;
+            return 0;
+        }
+        in.readFully(header, 4, HEADER_SIZE - 4);
+        return blockDocs;
+    }
+
+    @Nullable
+    public byte[] nextRawBlock() throws IOException {
+        if (readHeader() == 0) return null;
+        final int storedLength = readInt(header, 9);
+        final byte[] block = new byte[HEADER_SIZE + storedLength];
+        System.arraycopy(header, 0, block, 0, HEADER_SIZE);
+        in.readFully(block, HEADER_SIZE, storedLength);
+        return block;
+    }
+
+    private boolean readBlock() throws IOException {
+        numDocs = 0;
+        doc = -1;
+        final int blockDocs = readHeader();
+        if (blockDocs == 0) return false;
+        final byte codec = header[4];
+        final int payloadLength = readInt(header, 5);
+        final int storedLength = readInt(header, 9);
+        if (payload.length < payloadLength) {
+            payload = new byte[Math.max(payloadLength, 2 * payload.length)];
+        }
+        if (codec == RAW) {
+            in.readFully(payload, 0, payloadLength);
+        } else if (codec == DEFLATED) {
+            if (stored.length < storedLength) {
+                stored = new byte[Math.max(storedLength, 2 * stored.length)];
+            }
+            in.readFully(stored, 0, storedLength);
+            inflater.reset();
+            inflater.setInput(stored, 0, storedLength);
+            try {
+                if (inflater.inflate(payload, 0, payloadLength) != payloadLength) {
+                    throw new IOException("corrupt doc block, expected " + payloadLength + " bytes");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt doc block", e);
+            }
+        } else {
+            throw new IOException("unknown doc block codec " + codec);
+        }
+        decode(blockDocs);
+        numDocs = blockDocs;
+        return true;
+    }
+
+    private void decode(int blockDocs) {
+        if (groups.length < blockDocs) {
+            groups = new int[blockDocs];
+            for (int i = 0; i < numIntFields; i++) {
+                intValues[i] = new long[blockDocs];
+            }
+            for (int i = 0; i < numStringFields; i++) {
+                stringValues[i] = new String[blockDocs];
+            }
+        }
+        position = 0;
+        for (int d = 0; d < blockDocs; d++) {
+            groups[d] = (int) readVLong();
+        }
+        for (int i = 0; i < numIntFields; i++) {
+            final long[] values = intValues[i];
+            long value = 0;
+            for (int d = 0; d < blockDocs; d++) {
+                final long zigZag = readVLong();
+                value += (zigZag >>> 1) ^ -(zigZag & 1);
+                values[d] = value;
+            }
+        }
+        for (int i = 0; i < numStringFields; i++) {
+            final String[] dictionary = new String[(int) readVLong()];
+            for (int j = 0; j < dictionary.length; j++) {
+                final int length = (int) readVLong();
+                dictionary[j] = new String(payload, position, length, Charsets.UTF_8);
+                position += length;
+            }
+            final String[] values = stringValues[i];
+            for (int d = 0; d < blockDocs; d++) {
+                values[d] = dictionary[(int) readVLong()];
+            }
+        }
+    }
+
+    private long readVLong() {
+        long ret = 0;
+        int shift = 0;
+        while (true) {
+            final byte val = payload[position++];
+            ret |= (long) (val & 0x7F) << shift;
+            if (val >= 0) return ret;
+            shift += 7;
+        }
+    }
+
+    public int getGroup() {
+        return groups[doc];
+    }
+
+    public long getInt(final int index) {
+        return intValues[index][doc];
+    }
+
+    public String getString(final int index) {
+        return stringValues[index][doc];
+    }
+
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.service;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * A doc stream that can hand out its encoded blocks as they are, so that mergers and servers can pass
+ * {@link ColumnarDocOutputStreamWriter} blocks along without decoding and re-encoding every doc.
+ */
+public interface DocBlockSource {
+    /**
+     * @return the next encoded block including its header, or null at the end of the stream.
+     * Must not be mixed with iterating over the docs of the same stream.
+     */
+    @Nullable
+    byte[] nextRawBlock() throws IOException;
+}
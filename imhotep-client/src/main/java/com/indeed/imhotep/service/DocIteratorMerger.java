@@ -21,6 +21,7 @@ import com.indeed.imhotep.io.CircularIOStream;
 
 import org.apache.log4j.Logger;
 
+import javax.annotation.Nullable;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.List;
@@ -32,18 +33,22 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Interleaves the docs of several iterators by whole {@link ColumnarDocOutputStreamWriter} blocks. Iterators that
+ * already are columnar streams, like those of remote sessions, get their blocks copied without decoding them, and
+ * servers can forward the merged blocks the same way through {@link DocBlockSource}.
+ *
  * @author jplaisance
  */
-public final class DocIteratorMerger implements DocIterator {
+public final class DocIteratorMerger implements DocIterator, DocBlockSource {
     private static final Logger log = Logger.getLogger(DocIteratorMerger.class);
 
     private final CircularIOStream circularBuffer;
-    private final InputStreamDocIterator iterator;
+    private final ColumnarInputStreamDocIterator iterator;
     private final List<DocIterator> iterators;
     private final ExecutorService executorService = Executors.newCachedThreadPool();
 
     public DocIteratorMerger(List<DocIterator> iterators, final int numIntFields, final int numStringFields) throws IOException {
-        circularBuffer = new CircularIOStream(16384);
+        circularBuffer = new CircularIOStream(1 << 18);
         this.iterators = iterators;
         final DataOutputStream dataOut = new DataOutputStream(circularBuffer.getOutputStream());
         final List<Future<Void>> futures = Lists.newArrayList();
@@ -52,7 +57,7 @@ public final class DocIteratorMerger implements DocIterator {
             futures.add(
                     executorService.submit(new Callable<Void>() {
                         public Void call() throws Exception {
-                            DocOutputStreamWriter.writeThreadSafe(docIterator, numIntFields, numStringFields, dataOut);
+                            ColumnarDocOutputStreamWriter.writeThreadSafe(docIterator, numIntFields, numStringFields, dataOut);
                             return null;
                         }
                     }
@@ -67,12 +72,12 @@ public final class DocIteratorMerger implements DocIterator {
                         } catch (ExecutionException e) {
                             log.error("error", e.getCause());
                             synchronized (dataOut) {
-                                dataOut.writeByte(0);
+                                dataOut.writeInt(0);
                             }
                             close();
                         }
                     }
-                    dataOut.writeByte(0);
+                    dataOut.writeInt(0);
                     dataOut.close();
                 } catch (InterruptedException e) {
                     throw Throwables.propagate(e);
@@ -82,7 +87,7 @@ public final class DocIteratorMerger implements DocIterator {
             }
         });
         monitorThread.start();
-        iterator = new InputStreamDocIterator(circularBuffer.getInputStream(), numIntFields, numStringFields);
+        iterator = new ColumnarInputStreamDocIterator(circularBuffer.getInputStream(), numIntFields, numStringFields);
     }
 
     public boolean next() {
@@ -101,6 +106,11 @@ public final class DocIteratorMerger implements DocIterator {
         return iterator.getString(index);
     }
 
+    @Nullable
+    public byte[] nextRawBlock() throws IOException {
+        return iterator.nextRawBlock();
+    }
+
     public synchronized void close() {
         try {
             Closeables2.closeAll(log, circularBuffer.getInputStream(), circularBuffer.getOutputStream(), iterator);
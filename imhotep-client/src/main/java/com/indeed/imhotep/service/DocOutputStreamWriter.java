@@ -13,13 +13,19 @@
  */
  package com.indeed.imhotep.service;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
 import com.indeed.imhotep.api.DocIterator;
+import com.indeed.imhotep.api.OrdinalDocIterator;
+import com.indeed.util.io.VIntUtils;
 import org.apache.log4j.Logger;
 
+import javax.annotation.Nullable;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Map;
 
 /**
  * @author jplaisance
@@ -27,6 +33,11 @@ import java.io.OutputStream;
 public final class DocOutputStreamWriter {
     private static final Logger log = Logger.getLogger(DocOutputStreamWriter.class);
 
+    // heap the string dictionaries of one stream may hold on to, shared by all of its fields
+    static final long MAX_DICTIONARY_BYTES = 16L << 20;
+    // rough heap cost of a map entry and its String, on top of the chars
+    private static final int VALUE_ENTRY_OVERHEAD = 96;
+
     public static void writeNotThreadSafe(DocIterator docIterator, int numIntFields, int numStringFields, OutputStream os) throws IOException {
         final DataOutputStream out = new DataOutputStream(os);
         while (docIterator.next()) {
@@ -36,22 +47,148 @@ public final class DocOutputStreamWriter {
         out.flush();
     }
 
+    /**
+     * Same layout as {@link #writeNotThreadSafe}, except that every string value is preceded by a vint code: 0 for a
+     * value that follows and is not remembered, 1 for a value that follows and becomes the next dictionary entry of its
+     * field, and n >= 2 for dictionary entry n - 2, in which case no value follows. Read it back with
+     * {@link InputStreamDocIterator#InputStreamDocIterator(java.io.InputStream, int, int, boolean)}.
+     */
+    public static void writeStringOrdinalsNotThreadSafe(DocIterator docIterator, int numIntFields, int numStringFields, OutputStream os) throws IOException {
+        writeStringOrdinalsNotThreadSafe(docIterator, numIntFields, numStringFields, os, MAX_DICTIONARY_BYTES);
+    }
+
+    @VisibleForTesting
+    static void writeStringOrdinalsNotThreadSafe(DocIterator docIterator, int numIntFields, int numStringFields, OutputStream os, long maxDictionaryBytes) throws IOException {
+        final DataOutputStream out = new DataOutputStream(os);
+        final DictionaryBudget budget = new DictionaryBudget(maxDictionaryBytes);
+        final StringDictionary[] dictionaries = new StringDictionary[numStringFields];
+        for (int i = 0; i < numStringFields; i++) {
+            final int numOrdinals = docIterator instanceof OrdinalDocIterator ? ((OrdinalDocIterator) docIterator).getNumStringOrdinals(i) : -1;
+            dictionaries[i] = new StringDictionary(numOrdinals, budget);
+        }
+        while (docIterator.next()) {
+            writeDocHeader(docIterator, numIntFields, out);
+            for (int i = 0; i < numStringFields; i++) {
+                dictionaries[i].write(docIterator, i, out);
+            }
+        }
+        out.writeByte(0);
+        out.flush();
+    }
+
     private static void writeDoc(final DocIterator docIterator, final int numIntFields, final int numStringFields, final DataOutputStream out) throws IOException {
+        writeDocHeader(docIterator, numIntFields, out);
+        for (int i = 0; i < numStringFields; i++) {
+            final String str = docIterator.getString(i);
+            writeStringBytes(str.getBytes(Charsets.UTF_8), out);
+        }
+    }
+
+    private static void writeDocHeader(final DocIterator docIterator, final int numIntFields, final DataOutputStream out) throws IOException {
         out.writeByte(1);
         out.writeInt(docIterator.getGroup());
         for (int i = 0; i < numIntFields; i++) {
             out.writeLong(docIterator.getInt(i));
         }
-        for (int i = 0; i < numStringFields; i++) {
-            final String str = docIterator.getString(i);
-            final byte[] bytes = str.getBytes(Charsets.UTF_8);
-            if (bytes.length < 0xFF) {
-                out.writeByte(bytes.length);
+    }
+
+    private static void writeStringBytes(final byte[] bytes, final DataOutputStream out) throws IOException {
+        if (bytes.length < 0xFF) {
+            out.writeByte(bytes.length);
+        } else {
+            out.writeByte(0xFF);
+            out.writeInt(bytes.length);
+        }
+        out.write(bytes);
+    }
+
+    /**
+     * Heap left to the dictionaries of one stream. The reader remembers every value a dictionary does, so this
+     * bounds both sides.
+     */
+    static final class DictionaryBudget {
+        private long bytesLeft;
+
+        DictionaryBudget(long bytes) {
+            bytesLeft = bytes;
+        }
+
+        boolean claim(long bytes) {
+            if (bytes > bytesLeft) {
+                return false;
+            }
+            bytesLeft -= bytes;
+            return true;
+        }
+    }
+
+    /**
+     * Dictionary of the string values of one field that were already sent. It is keyed by the lookup ordinals
+     * if the doc iterator has them and the ordinal table fits in the budget, and by the values otherwise. Once
+     * the budget is used up, values that were not sent yet are written as they are.
+     */
+    private static final class StringDictionary {
+        private final DictionaryBudget budget;
+        @Nullable
+        private final int[] ordinalToCode;
+        @Nullable
+        private final Map<String, Integer> valueToCode;
+        private int size = 0;
+        private boolean full = false;
+
+        private StringDictionary(int numOrdinals, DictionaryBudget budget) {
+            this.budget = budget;
+            if (numOrdinals >= 0 && budget.claim(4L * numOrdinals)) {
+                ordinalToCode = new int[numOrdinals];
+                valueToCode = null;
             } else {
-                out.writeByte(0xFF);
-                out.writeInt(bytes.length);
+                ordinalToCode = null;
+                valueToCode = Maps.newHashMap();
+            }
+        }
+
+        private boolean add(long bytes) {
+            if (!full && budget.claim(bytes)) {
+                size++;
+                return true;
+            }
+            full = true;
+            return false;
+        }
+
+        private void write(final DocIterator docIterator, final int index, final DataOutputStream out) throws IOException {
+            if (ordinalToCode != null) {
+                final OrdinalDocIterator ordinalDocIterator = (OrdinalDocIterator) docIterator;
+                final int ordinal = ordinalDocIterator.getStringOrdinal(index);
+                if (ordinalToCode[ordinal] != 0) {
+                    VIntUtils.writeVInt64(out, ordinalToCode[ordinal]);
+                    return;
+                }
+                final byte[] bytes = ordinalDocIterator.getStringBytes(index);
+                // the table is paid for already, only the value the reader keeps is charged
+                if (add(VALUE_ENTRY_OVERHEAD + 2L * bytes.length)) {
+                    ordinalToCode[ordinal] = size + 1;
+                    out.writeByte(1);
+                } else {
+                    out.writeByte(0);
+                }
+                writeStringBytes(bytes, out);
+            } else {
+                final String value = docIterator.getString(index);
+                final Integer code = valueToCode.get(value);
+                if (code != null) {
+                    VIntUtils.writeVInt64(out, code);
+                    return;
+                }
+                if (add(2 * (VALUE_ENTRY_OVERHEAD + 2L * value.length()))) {
+                    // kept on both sides
+                    valueToCode.put(value, size + 1);
+                    out.writeByte(1);
+                } else {
+                    out.writeByte(0);
+                }
+                writeStringBytes(value.getBytes(Charsets.UTF_8), out);
             }
-            out.write(bytes);
         }
     }
 
@@ -15,12 +15,14 @@
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.indeed.imhotep.api.DocIterator;
 import org.apache.log4j.Logger;
 
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * @author jplaisance
@@ -33,12 +35,26 @@ public final class InputStreamDocIterator implements DocIterator {
     private boolean done = false;
     private final long[] intValues;
     private final String[] stringValues;
+    // null unless the stream was written by DocOutputStreamWriter.writeStringOrdinalsNotThreadSafe
+    private final List<List<String>> dictionaries;
     private int group;
 
     public InputStreamDocIterator(InputStream in, int numIntFields, int numStringFields) {
+        this(in, numIntFields, numStringFields, false);
+    }
+
+    public InputStreamDocIterator(InputStream in, int numIntFields, int numStringFields, boolean stringOrdinals) {
         this.in = new DataInputStream(in);
         intValues = new long[numIntFields];
         stringValues = new String[numStringFields];
+        if (stringOrdinals) {
+            dictionaries = Lists.newArrayListWithCapacity(numStringFields);
+            for (int i = 0; i < numStringFields; i++) {
+                dictionaries.add(Lists.<String>newArrayList());
+            }
+        } else {
+            dictionaries = null;
+        }
     }
 
     public boolean next() {
@@ -53,11 +69,19 @@ public final class InputStreamDocIterator implements DocIterator {
                 intValues[i] = in.readLong();
             }
             for (int i = 0; i < stringValues.length; i++) {
-                final int firstByte = in.readByte()&0xFF;
-                final int length = firstByte == 0xFF ? in.readInt() : firstByte;
-                final byte[] bytes = new byte[length];
-                in.readFully(bytes);
-                stringValues[i] = new String(bytes, Charsets.UTF_8);
+                if (dictionaries == null) {
+                    stringValues[i] = readString();
+                    continue;
+                }
+                final int code = readVInt();
+                if (code >= 2) {
+                    stringValues[i] = dictionaries.get(i).get(code - 2);
+                } else {
+                    stringValues[i] = readString();
+                    if (code == 1) {
+                        dictionaries.get(i).add(stringValues[i]);
+                    }
+                }
             }
             return true;
         } catch (IOException e) {
@@ -65,6 +89,26 @@ public final class InputStreamDocIterator implements DocIterator {
         }
     }
 
+    private String readString() throws IOException {
+        final int firstByte = in.readByte()&0xFF;
+        final int length = firstByte == 0xFF ? in.readInt() : firstByte;
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private int readVInt() throws IOException {
+        int ret = 0;
+        int shift = 0;
+        while (true) {
+            final byte val = in.readByte();
+            ret += (val&0x7F)<<shift;
+            if (val >= 0) break;
+            shift += 7;
+        }
+        return ret;
+    }
+
     public int getGroup() {
         return group;
     }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestImhotepMemoryCache {
+
+    @Test
+    public void testEvictsCheapestPerByte() {
+        final ImhotepMemoryCache<String, Value> cache = new ImhotepMemoryCache<String, Value>();
+        final Value expensive = new Value(10);
+        final Value cheap = new Value(10);
+        final Value big = new Value(1000);
+        put(cache, "expensive", expensive, 1000);
+        put(cache, "cheap", cheap, 10);
+        put(cache, "big", big, 500);
+        assertEquals(1020, cache.memoryUsed());
+        assertSame(big, cache.poll());
+        assertSame(cheap, cache.poll());
+        assertSame(expensive, cache.poll());
+        assertNull(cache.poll());
+        assertEquals(0, cache.memoryUsed());
+        assertEquals(3, cache.getEvictions());
+    }
+
+    @Test
+    public void testReuseRaisesPriority() {
+        final ImhotepMemoryCache<String, Value> cache = new ImhotepMemoryCache<String, Value>();
+        final Value reused = new Value(10);
+        final Value unused = new Value(10);
+        put(cache, "reused", reused, 100);
+        put(cache, "unused", unused, 100);
+        assertSame(reused, cache.tryRemove("reused"));
+        assertNull(cache.tryRemove("missing"));
+        cache.put("reused", reused);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertSame(unused, cache.poll());
+        assertSame(reused, cache.poll());
+    }
+
+    @Test
+    public void testUnusedEntriesAgeOut() {
+        final ImhotepMemoryCache<String, Value> cache = new ImhotepMemoryCache<String, Value>();
+        final Value old = new Value(1);
+        put(cache, "old", old, 100);
+        final Value first = new Value(1);
+        put(cache, "first", first, 60);
+        assertSame(first, cache.poll());
+        // the clock is at 60 now, so a newcomer outranks the old entry even though it is cheaper
+        final Value second = new Value(1);
+        put(cache, "second", second, 60);
+        assertSame(old, cache.poll());
+        assertSame(second, cache.poll());
+    }
+
+    @Test
+    public void testPutExistingKey() {
+        final ImhotepMemoryCache<String, Value> cache = new ImhotepMemoryCache<String, Value>();
+        final Value first = new Value(10);
+        final Value second = new Value(20);
+        cache.put("key", first);
+        cache.put("key", second);
+        assertEquals(30, cache.memoryUsed());
+        final List<ImhotepStatusDump.CacheEntryDump> dump = cache.getCacheDump();
+        assertEquals(1, dump.size());
+        assertEquals("key", dump.get(0).key);
+        assertEquals(20, dump.get(0).memoryUsed);
+        assertSame(first, cache.poll());
+        assertSame(second, cache.poll());
+        assertEquals(0, cache.memoryUsed());
+    }
+
+    @Test
+    public void testClose() {
+        final ImhotepMemoryCache<String, Value> cache = new ImhotepMemoryCache<String, Value>();
+        final Value first = new Value(10);
+        final Value second = new Value(10);
+        cache.put("key", first);
+        cache.put("key", second);
+        cache.close();
+        assertTrue(first.closed);
+        assertTrue(second.closed);
+        assertEquals(0, cache.memoryUsed());
+        assertNull(cache.poll());
+    }
+
+    @Test
+    public void testCloseForgetsValuesInUse() {
+        final ImhotepMemoryCache<String, Value> cache = new ImhotepMemoryCache<String, Value>();
+        final Value taken = new Value(10);
+        put(cache, "key", taken, 1000);
+        assertSame(taken, cache.tryRemove("key"));
+        // taken is never put back, its stats must not outlive the cache
+        cache.close();
+        assertFalse(taken.closed);
+
+        cache.put("key", new Value(10));
+        final List<ImhotepStatusDump.CacheEntryDump> dump = cache.getCacheDump();
+        assertEquals(1, dump.size());
+        assertEquals(1, dump.get(0).hits);
+    }
+
+    private static void put(ImhotepMemoryCache<String, Value> cache, String key, Value value, long costNanos) {
+        cache.recordLoad(key, costNanos);
+        cache.put(key, value);
+    }
+
+    private static final class Value implements MemoryMeasured {
+        private final long memoryUsed;
+        private boolean closed = false;
+
+        private Value(long memoryUsed) {
+            this.memoryUsed = memoryUsed;
+        }
+
+        @Override
+        public long memoryUsed() {
+            return memoryUsed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
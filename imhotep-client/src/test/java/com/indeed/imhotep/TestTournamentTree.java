@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTournamentTree {
+    private final Random rand = new Random(0);
+
+    @Test
+    public void testMerge() {
+        for (int numSources = 1; numSources <= 17; numSources++) {
+            final long[][] sources = new long[numSources][];
+            for (int i = 0; i < numSources; i++) {
+                // every third source is empty, the others have up to 20 values with plenty of duplicates
+                sources[i] = i % 3 == 2 ? new long[0] : randomSorted(1 + rand.nextInt(20));
+            }
+            assertEquals(expected(sources), merge(sources));
+        }
+    }
+
+    @Test
+    public void testAllEmpty() {
+        final long[][] sources = {new long[0], new long[0], new long[0]};
+        final Merge merge = new Merge(sources);
+        assertTrue(merge.isEmpty());
+        assertEquals(Collections.<Long>emptyList(), merge.drain());
+    }
+
+    @Test
+    public void testSingleSource() {
+        final long[][] sources = {new long[]{-3, 0, 0, 7}};
+        assertEquals(Longs.asList(-3, 0, 0, 7), merge(sources));
+    }
+
+    @Test
+    public void testClearAndInitAgain() {
+        final long[][] sources = {new long[]{1, 4, 9}, new long[0], new long[]{2, 3}, new long[]{5}};
+        final Merge merge = new Merge(sources);
+        final List<Long> first = merge.drain();
+        assertTrue(merge.isEmpty());
+
+        // exhausted sources come back once cleared
+        Arrays.fill(merge.positions, 0);
+        merge.clear();
+        merge.markRemoved(1);
+        merge.init();
+        assertFalse(merge.isEmpty());
+        assertEquals(first, merge.drain());
+        assertEquals(Longs.asList(1, 2, 3, 4, 5, 9), first);
+    }
+
+    @Test
+    public void testUpdateRemovedSource() {
+        final long[][] sources = {new long[]{1, 5}, new long[]{2, 3}};
+        final Merge merge = new Merge(sources);
+        assertEquals(0, merge.top());
+        merge.remove(0);
+        assertEquals(1, merge.top());
+        merge.positions[1]++;
+        merge.update(1);
+        assertEquals(1, merge.top());
+        // the removed source takes part again from where it was
+        merge.update(0);
+        assertEquals(0, merge.top());
+        assertEquals(Longs.asList(1, 3, 5), merge.drain());
+    }
+
+    @Test
+    public void testNoSources() {
+        try {
+            new Merge(new long[0][]);
+            fail("expected a tree without sources to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private long[] randomSorted(int length) {
+        final long[] ret = new long[length];
+        for (int i = 0; i < length; i++) {
+            ret[i] = rand.nextInt(50) - 25;
+        }
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private static List<Long> expected(long[][] sources) {
+        final List<Long> ret = Lists.newArrayList();
+        for (final long[] source : sources) {
+            ret.addAll(Longs.asList(source));
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private static List<Long> merge(long[][] sources) {
+        final Merge merge = new Merge(sources);
+        final List<Long> ret = merge.drain();
+        assertTrue(merge.isEmpty());
+        return ret;
+    }
+
+    /**
+     * Merges sorted arrays the way the FTGS mergers use the tree: exhausted sources are removed, the others are
+     * updated once their position moved on.
+     */
+    private static final class Merge extends TournamentTree {
+        private final long[][] sources;
+        private final int[] positions;
+
+        private Merge(long[][] sources) {
+            super(sources.length);
+            this.sources = sources;
+            positions = new int[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i].length == 0) {
+                    markRemoved(i);
+                }
+            }
+            init();
+        }
+
+        @Override
+        protected boolean lessThan(int a, int b) {
+            return sources[a][positions[a]] < sources[b][positions[b]];
+        }
+
+        private List<Long> drain() {
+            final List<Long> ret = Lists.newArrayList();
+            while (!isEmpty()) {
+                final int source = top();
+                ret.add(sources[source][positions[source]++]);
+                if (positions[source] == sources[source].length) {
+                    remove(source);
+                } else {
+                    update(source);
+                }
+            }
+            return ret;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.indeed.flamdex.api.IntValueLookup;
 import com.indeed.flamdex.api.StringTermDocIterator;
 import com.indeed.flamdex.api.StringValueLookup;
 import com.indeed.flamdex.fieldcache.FieldCacher;
+import com.indeed.flamdex.fieldcache.IntTermSummary;
 import com.indeed.flamdex.fieldcache.UnsortedIntTermDocIterator;
 import com.indeed.flamdex.fieldcache.UnsortedIntTermDocIteratorImpl;
 
@@ -42,7 +43,7 @@ public abstract class AbstractFlamdexReader implements FlamdexReader {
     protected final int numDocs;
     private final boolean useMMapMetrics;
 
-    private final Map<String, FieldCacher> intFieldCachers;
+    private final Map<String, MetricCacher> intFieldCachers;
 
     protected AbstractFlamdexReader(String directory, int numDocs) {
         this(directory, numDocs, System.getProperty("flamdex.mmap.fieldcache") != null);
@@ -62,9 +63,19 @@ public abstract class AbstractFlamdexReader implements FlamdexReader {
         return UnsortedIntTermDocIteratorImpl.create(this, field);
     }
 
+    private static final class MetricCacher {
+        private final FieldCacher cacher;
+        private final IntTermSummary terms;
+
+        private MetricCacher(FieldCacher cacher, IntTermSummary terms) {
+            this.cacher = cacher;
+            this.terms = terms;
+        }
+    }
+
     @Override
     public final IntValueLookup getMetric(String metric) throws FlamdexOutOfMemoryException {
-        final FieldCacher fieldCacher = getMetricCacher(metric);
+        final MetricCacher fieldCacher = getMetricCacher(metric);
         final UnsortedIntTermDocIterator iterator = createUnsortedIntTermDocIterator(metric);
         try {
             return cacheField(iterator, metric, fieldCacher);
@@ -81,30 +92,30 @@ public abstract class AbstractFlamdexReader implements FlamdexReader {
         }
     }
 
-    private IntValueLookup cacheField(UnsortedIntTermDocIterator iterator, String metric, FieldCacher fieldCacher) {
+    private IntValueLookup cacheField(UnsortedIntTermDocIterator iterator, String metric, MetricCacher fieldCacher) {
         if (useMMapMetrics) {
             try {
-                return fieldCacher.newMMapFieldCache(iterator, numDocs, metric, directory);
+                return fieldCacher.cacher.newMMapFieldCache(iterator, numDocs, metric, directory, fieldCacher.terms);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
-        return fieldCacher.newFieldCache(iterator, numDocs);
+        return fieldCacher.cacher.newFieldCache(iterator, numDocs, fieldCacher.terms);
     }
 
     @Override
     public final long memoryRequired(String metric) {
         if (useMMapMetrics) return 0;
 
-        final FieldCacher fieldCacher = getMetricCacher(metric);
-        return fieldCacher.memoryRequired(numDocs);
+        final MetricCacher fieldCacher = getMetricCacher(metric);
+        return fieldCacher.cacher.memoryRequired(numDocs, fieldCacher.terms);
     }
 
-    private FieldCacher getMetricCacher(String metric) {
+    private MetricCacher getMetricCacher(String metric) {
         synchronized (intFieldCachers) {
             if (!intFieldCachers.containsKey(metric)) {
-                final FieldCacher cacher = FieldCacher.getCacherForField(metric, this);
-                intFieldCachers.put(metric, cacher);
+                final IntTermSummary terms = IntTermSummary.of(metric, this);
+                intFieldCachers.put(metric, new MetricCacher(FieldCacher.getCacherForField(numDocs, terms), terms));
             }
             return intFieldCachers.get(metric);
         }
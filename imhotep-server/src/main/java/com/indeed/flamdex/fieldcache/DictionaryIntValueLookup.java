@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.fieldcache;
+
+import com.indeed.flamdex.api.IntValueLookup;
+
+/**
+ * Field cache for fields with few distinct terms spread over a wide range: a sorted dictionary of the terms and
+ * a bit packed ordinal per doc. dictionary[0] is 0 and is the ordinal of docs without a term, so a lookup is
+ * an unpack and an array read.
+ */
+public final class DictionaryIntValueLookup implements IntValueLookup {
+    /** fields with more terms never save memory over a fixed width cache */
+    public static final long MAX_TERMS = 1 << 30;
+
+    private long[] dictionary;
+    private long[] words;
+    private final int bitsPerOrdinal;
+    private final long mask;
+    private final long min;
+    private final long max;
+
+    /**
+     * @param dictionary 0 followed by the terms of the field in ascending order
+     * @param words ordinals packed with {@link PackedIntValueLookup#set} and a min term of 0
+     */
+    public DictionaryIntValueLookup(long[] dictionary, long[] words) {
+        this.dictionary = dictionary;
+        this.words = words;
+        bitsPerOrdinal = bitsPerOrdinal(dictionary.length - 1);
+        mask = (1L << bitsPerOrdinal) - 1;
+        // dictionary[0] is the value of docs without a term
+        min = dictionary.length > 1 ? Math.min(dictionary[1], 0) : 0;
+        max = dictionary.length > 1 ? Math.max(dictionary[dictionary.length - 1], 0) : 0;
+    }
+
+    public static int bitsPerOrdinal(long numTerms) {
+        return Math.max(1, 64 - Long.numberOfLeadingZeros(numTerms));
+    }
+
+    public static long memoryRequired(int numDocs, long numTerms) {
+        return 8L * (numTerms + 1) + 8L * PackedIntValueLookup.numWords(numDocs, bitsPerOrdinal(numTerms));
+    }
+
+    @Override
+    public long getMin() {
+        return min;
+    }
+
+    @Override
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public void lookup(int[] docIds, long[] values, int n) {
+        final long[] dictionary = this.dictionary;
+        final long[] words = this.words;
+        final int bitsPerOrdinal = this.bitsPerOrdinal;
+        final long mask = this.mask;
+        for (int i = 0; i < n; ++i) {
+            final long bitPos = (long) docIds[i] * bitsPerOrdinal;
+            final int word = (int) (bitPos >>> 6);
+            final int shift = (int) bitPos & 63;
+            values[i] = dictionary[(int) (((words[word] >>> shift) | ((words[word + 1] << 1) << (63 - shift))) & mask)];
+        }
+    }
+
+    @Override
+    public long memoryUsed() {
+        return 8L * (dictionary.length + words.length);
+    }
+
+    @Override
+    public void close() {
+        dictionary = null;
+        words = null;
+    }
+}
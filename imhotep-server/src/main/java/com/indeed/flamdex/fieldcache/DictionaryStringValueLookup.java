@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.fieldcache;
+
+import com.google.common.base.Charsets;
+import com.indeed.util.core.io.Closeables2;
+import com.indeed.flamdex.api.OrdinalStringValueLookup;
+import com.indeed.util.mmap.BufferResource;
+import com.indeed.util.mmap.Memory;
+import org.apache.log4j.Logger;
+
+import javax.annotation.WillCloseWhenClosed;
+
+/**
+ * String field cache made of a per-doc ordinal, the offset of every ordinal's term and the terms themselves,
+ * each written once as its UTF-8 length (one byte, or 0xFF and an int if it is 255 or more) followed by its bytes.
+ */
+public final class DictionaryStringValueLookup implements OrdinalStringValueLookup {
+    private static final Logger log = Logger.getLogger(DictionaryStringValueLookup.class);
+
+    private final BufferResource docIdToOrdinalBuffer;
+    private final BufferResource ordinalToAddressBuffer;
+    private final BufferResource stringValuesBuffer;
+    private final Memory docIdToOrdinal;
+    private final Memory ordinalToAddress;
+    private final Memory stringValues;
+
+    public DictionaryStringValueLookup(@WillCloseWhenClosed final BufferResource docIdToOrdinalBuffer,
+                                       @WillCloseWhenClosed final BufferResource ordinalToAddressBuffer,
+                                       @WillCloseWhenClosed final BufferResource stringValuesBuffer) {
+        this.docIdToOrdinalBuffer = docIdToOrdinalBuffer;
+        this.ordinalToAddressBuffer = ordinalToAddressBuffer;
+        this.stringValuesBuffer = stringValuesBuffer;
+        docIdToOrdinal = docIdToOrdinalBuffer.memory();
+        ordinalToAddress = ordinalToAddressBuffer.memory();
+        stringValues = stringValuesBuffer.memory();
+    }
+
+    @Override
+    public int getNumOrdinals() {
+        return (int) (ordinalToAddress.length() >> 2);
+    }
+
+    @Override
+    public int getOrdinal(final int docId) {
+        return docIdToOrdinal.getInt(docId << 2);
+    }
+
+    @Override
+    public byte[] getTermBytes(final int ordinal) {
+        final int address = ordinalToAddress.getInt(ordinal << 2);
+        final int firstByte = stringValues.getByte(address)&0xFF;
+        final int length;
+        final int valOffset;
+        if (firstByte == 0xFF) {
+            length = stringValues.getInt(address+1);
+            valOffset = address+5;
+        } else {
+            length = firstByte;
+            valOffset = address+1;
+        }
+        final byte[] bytes = new byte[length];
+        stringValues.getBytes(valOffset, bytes);
+        return bytes;
+    }
+
+    @Override
+    public String getString(final int docId) {
+        return new String(getTermBytes(getOrdinal(docId)), Charsets.UTF_8);
+    }
+
+    @Override
+    public long memoryUsed() {
+        return docIdToOrdinal.length()+ordinalToAddress.length()+stringValues.length();
+    }
+
+    @Override
+    public void close() {
+        Closeables2.closeQuietly(docIdToOrdinalBuffer, log);
+        Closeables2.closeQuietly(ordinalToAddressBuffer, log);
+        Closeables2.closeQuietly(stringValuesBuffer, log);
+    }
+}
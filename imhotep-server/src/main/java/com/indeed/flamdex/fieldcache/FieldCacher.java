@@ -18,7 +18,6 @@ import com.google.common.base.Charsets;
 import com.google.common.io.Closer;
 import com.google.common.io.CountingOutputStream;
 import com.google.common.io.LittleEndianDataOutputStream;
-import com.indeed.util.core.Pair;
 import com.indeed.util.core.Throwables2;
 import com.indeed.util.core.io.Closeables2;
 import com.indeed.flamdex.api.FlamdexReader;
@@ -27,7 +26,6 @@ import com.indeed.flamdex.api.StringTermDocIterator;
 import com.indeed.flamdex.api.StringValueLookup;
 import com.indeed.flamdex.datastruct.MMapFastBitSet;
 import com.indeed.flamdex.utils.FlamdexUtils;
-import com.indeed.util.mmap.BufferResource;
 import com.indeed.util.mmap.IntArray;
 import com.indeed.util.mmap.MMapBuffer;
 import com.indeed.util.mmap.NativeBuffer;
@@ -51,15 +49,15 @@ import java.util.UUID;
 public enum FieldCacher {
     LONG {
         @Override
-        public long memoryRequired(int numDocs) {
+        public long memoryRequired(int numDocs, IntTermSummary terms) {
             return 8L * numDocs;
         }
         @Override
-        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs) {
+        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms) {
             return new LongArrayIntValueLookup(FlamdexUtils.cacheLongField(iterator, numDocs));
         }
         @Override
-        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory) throws IOException {
+        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, IntTermSummary terms) throws IOException {
             final File cacheFile = new File(directory, getMMapFileName(field));
             MMapBuffer buffer;
             try {
@@ -81,15 +79,15 @@ public enum FieldCacher {
     },
     INT {
         @Override
-        public long memoryRequired(int numDocs) {
+        public long memoryRequired(int numDocs, IntTermSummary terms) {
             return 4L * numDocs;
         }
         @Override
-        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs) {
+        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms) {
             return new IntArrayIntValueLookup(FlamdexUtils.cacheIntField(iterator, numDocs));
         }
         @Override
-        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory) throws IOException {
+        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, IntTermSummary terms) throws IOException {
             final File cacheFile = new File(directory, getMMapFileName(field));
             MMapBuffer buffer;
             try {
@@ -111,15 +109,15 @@ public enum FieldCacher {
     },
     CHAR {
         @Override
-        public long memoryRequired(int numDocs) {
+        public long memoryRequired(int numDocs, IntTermSummary terms) {
             return 2L * numDocs;
         }
         @Override
-        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs) {
+        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms) {
             return new CharArrayIntValueLookup(FlamdexUtils.cacheCharField(iterator, numDocs));
         }
         @Override
-        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory) throws IOException {
+        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, IntTermSummary terms) throws IOException {
             final File cacheFile = new File(directory, getMMapFileName(field));
             MMapBuffer buffer;
             try {
@@ -141,15 +139,15 @@ public enum FieldCacher {
     },
     SHORT {
         @Override
-        public long memoryRequired(int numDocs) {
+        public long memoryRequired(int numDocs, IntTermSummary terms) {
             return 2L * numDocs;
         }
         @Override
-        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs) {
+        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms) {
             return new ShortArrayIntValueLookup(FlamdexUtils.cacheShortField(iterator, numDocs));
         }
         @Override
-        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory) throws IOException {
+        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, IntTermSummary terms) throws IOException {
             final File cacheFile = new File(directory, getMMapFileName(field));
             MMapBuffer buffer;
             try {
@@ -171,15 +169,15 @@ public enum FieldCacher {
     },
     BYTE {
         @Override
-        public long memoryRequired(int numDocs) {
+        public long memoryRequired(int numDocs, IntTermSummary terms) {
             return numDocs;
         }
         @Override
-        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs) {
+        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms) {
             return new ByteArrayIntValueLookup(FlamdexUtils.cacheByteField(iterator, numDocs));
         }
         @Override
-        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory) throws IOException {
+        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, IntTermSummary terms) throws IOException {
             final File cacheFile = new File(directory, getMMapFileName(field));
             MMapBuffer buffer;
             try {
@@ -201,15 +199,15 @@ public enum FieldCacher {
     },
     SIGNED_BYTE {
         @Override
-        public long memoryRequired(int numDocs) {
+        public long memoryRequired(int numDocs, IntTermSummary terms) {
             return numDocs;
         }
         @Override
-        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs) {
+        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms) {
             return new SignedByteArrayIntValueLookup(FlamdexUtils.cacheByteField(iterator, numDocs));
         }
         @Override
-        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory) throws IOException {
+        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, IntTermSummary terms) throws IOException {
             final File cacheFile = new File(directory, getMMapFileName(field));
             MMapBuffer buffer;
             try {
@@ -231,15 +229,15 @@ public enum FieldCacher {
     },
     BITSET {
         @Override
-        public long memoryRequired(int numDocs) {
+        public long memoryRequired(int numDocs, IntTermSummary terms) {
             return 8L * (((long)numDocs + 64) >> 6);
         }
         @Override
-        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs) {
+        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms) {
             return new BitSetIntValueLookup(FlamdexUtils.cacheBitSetField(iterator, numDocs));
         }
         @Override
-        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory) throws IOException {
+        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, IntTermSummary terms) throws IOException {
             final File cacheFile = new File(directory, getMMapFileName(field));
             try {
                 return new MMapBitSetIntValueLookup(cacheFile, numDocs);
@@ -258,52 +256,132 @@ public enum FieldCacher {
         public String getMMapFileName(String field) {
             return "fld-" + field + ".bitsetcache";
         }
+    },
+    /**
+     * bit packed (term - minTerm), chosen when it needs at most 3/4 of the bits of the smallest fixed width type,
+     * see {@link PackedIntValueLookup}.
+     */
+    PACKED {
+        @Override
+        public long memoryRequired(int numDocs, IntTermSummary terms) {
+            return 8L * PackedIntValueLookup.numWords(numDocs, PackedIntValueLookup.bitsPerValue(terms.minTerm, terms.maxTerm));
+        }
+        @Override
+        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms) {
+            final int bitsPerValue = PackedIntValueLookup.bitsPerValue(terms.minTerm, terms.maxTerm);
+            return new PackedIntValueLookup(FlamdexUtils.cachePackedField(iterator, numDocs, terms.minTerm, bitsPerValue), bitsPerValue, terms.minTerm, terms.maxTerm);
+        }
+        @Override
+        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, final IntTermSummary terms) throws IOException {
+            final int bitsPerValue = PackedIntValueLookup.bitsPerValue(terms.minTerm, terms.maxTerm);
+            final File cacheFile = new File(directory, getMMapFileName(field));
+            MMapBuffer buffer;
+            try {
+                buffer = new MMapBuffer(cacheFile, FileChannel.MapMode.READ_ONLY, ByteOrder.LITTLE_ENDIAN);
+            } catch (FileNotFoundException e) {
+                buffer = cacheToFileAtomically(iterator, numDocs, field, directory, cacheFile, new CacheToFileOperation<MMapBuffer>() {
+                    @Override
+                    public MMapBuffer execute(UnsortedIntTermDocIterator iterator, int numDocs, File f) throws IOException {
+                        return FlamdexUtils.cachePackedFieldToFile(iterator, numDocs, terms.minTerm, terms.maxTerm, bitsPerValue, f);
+                    }
+                });
+            }
+            return new MMapPackedIntValueLookup(buffer);
+        }
+        @Override
+        public String getMMapFileName(String field) {
+            return "fld-" + field + ".packedcache";
+        }
+    },
+    /**
+     * sorted dictionary of the terms plus a bit packed ordinal per doc, chosen for fields with few distinct terms
+     * spread over a wide range, see {@link DictionaryIntValueLookup}.
+     */
+    DICTIONARY {
+        @Override
+        public long memoryRequired(int numDocs, IntTermSummary terms) {
+            return DictionaryIntValueLookup.memoryRequired(numDocs, terms.numTerms);
+        }
+        @Override
+        public IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms) {
+            final long[] dictionary = new long[(int) terms.numTerms + 1];
+            final long[] words = FlamdexUtils.cacheDictionaryField(iterator, numDocs, dictionary);
+            return new DictionaryIntValueLookup(dictionary, words);
+        }
+        @Override
+        public IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, final IntTermSummary terms) throws IOException {
+            final File cacheFile = new File(directory, getMMapFileName(field));
+            MMapBuffer buffer;
+            try {
+                buffer = new MMapBuffer(cacheFile, FileChannel.MapMode.READ_ONLY, ByteOrder.LITTLE_ENDIAN);
+            } catch (FileNotFoundException e) {
+                buffer = cacheToFileAtomically(iterator, numDocs, field, directory, cacheFile, new CacheToFileOperation<MMapBuffer>() {
+                    @Override
+                    public MMapBuffer execute(UnsortedIntTermDocIterator iterator, int numDocs, File f) throws IOException {
+                        return FlamdexUtils.cacheDictionaryFieldToFile(iterator, numDocs, terms.numTerms, f);
+                    }
+                });
+            }
+            return new MMapDictionaryIntValueLookup(buffer);
+        }
+        @Override
+        public String getMMapFileName(String field) {
+            return "fld-" + field + ".dictcache";
+        }
     };
 
     private static final Logger log = Logger.getLogger(FieldCacher.class);
 
-    public abstract long memoryRequired(int numDocs);
+    /**
+     * @param terms the terms of the field, as returned by {@link IntTermSummary#of}. Only the cachers whose layout
+     *              depends on the terms, like PACKED and DICTIONARY, look at them.
+     */
+    public abstract long memoryRequired(int numDocs, IntTermSummary terms);
 
     public final IntValueLookup newFieldCache(String field, FlamdexReader r) {
+        final IntTermSummary terms = IntTermSummary.of(field, r);
         final UnsortedIntTermDocIterator iterator = UnsortedIntTermDocIteratorImpl.create(r, field);
         try {
-            return newFieldCache(iterator, r.getNumDocs());
+            return newFieldCache(iterator, r.getNumDocs(), terms);
         } finally {
             iterator.close();
         }
     }
 
-    public abstract IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs);
+    public abstract IntValueLookup newFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, IntTermSummary terms);
 
     public final IntValueLookup newMMapFieldCache(String field, FlamdexReader r, String directory) throws IOException {
+        final IntTermSummary terms = IntTermSummary.of(field, r);
         final UnsortedIntTermDocIterator iterator = UnsortedIntTermDocIteratorImpl.create(r, field);
         try {
-            return newMMapFieldCache(iterator, r.getNumDocs(), field, directory);
+            return newMMapFieldCache(iterator, r.getNumDocs(), field, directory, terms);
         } finally {
             iterator.close();
         }
     }
 
     public static StringValueLookup newStringValueLookup(String field, FlamdexReader r, String directory) throws IOException {
-        final Pair<? extends BufferResource, ? extends BufferResource> pair = buildStringValueLookup(field, r, directory);
-        return new MMapStringValueLookup(pair.getFirst(), pair.getSecond());
+        return buildStringValueLookup(field, r);
     }
 
-    private static Pair<? extends BufferResource, ? extends BufferResource> buildStringValueLookup(final String field,
-                                                                                                   final FlamdexReader r,
-                                                                                                   final String directory) throws IOException {
+    private static DictionaryStringValueLookup buildStringValueLookup(final String field, final FlamdexReader r) throws IOException {
         final Closer closer = Closer.create();
         StringTermDocIterator stringTermDocIterator = null;
         
         try {
-            final NativeBuffer offsets;
+            final NativeBuffer ordinals;
 
-            offsets = closer.register(new NativeBuffer(4*r.getNumDocs(), ByteOrder.LITTLE_ENDIAN));
-            final IntArray intArray = offsets.memory().intArray(0, r.getNumDocs());
+            ordinals = closer.register(new NativeBuffer(4*r.getNumDocs(), ByteOrder.LITTLE_ENDIAN));
+            final IntArray intArray = ordinals.memory().intArray(0, r.getNumDocs());
             final ZeroCopyOutputStream valuesFileOut = new ZeroCopyOutputStream();
             final CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(valuesFileOut));
             final LittleEndianDataOutputStream valuesOut = closer.register(new LittleEndianDataOutputStream(counter));
+            final ZeroCopyOutputStream addressesFileOut = new ZeroCopyOutputStream();
+            final LittleEndianDataOutputStream addressesOut = closer.register(new LittleEndianDataOutputStream(new BufferedOutputStream(addressesFileOut)));
+            // ordinal 0 is the empty string at address 0, which is what docs without a term map to
             valuesOut.writeByte(0);
+            addressesOut.writeInt(0);
+            int ordinal = 1;
             stringTermDocIterator = closer.register(r.getStringTermDocIterator(field));
             final int[] docIdBuffer = new int[1024];
             while (stringTermDocIterator.nextTerm()) {
@@ -317,17 +395,21 @@ public enum FieldCacher {
                     valuesOut.writeInt(bytes.length);
                 }
                 valuesOut.write(bytes);
+                addressesOut.writeInt(offset);
                 while (true) {
                     final int n = stringTermDocIterator.fillDocIdBuffer(docIdBuffer);
                     for (int i = 0; i < n; i++) {
-                        intArray.set(docIdBuffer[i], offset);
+                        intArray.set(docIdBuffer[i], ordinal);
                     }
                     if (n < docIdBuffer.length) break;
                 }
+                ordinal++;
             }
             valuesOut.flush();
-            final NativeBuffer buffer = valuesFileOut.getBuffer().realloc(valuesFileOut.position());
-            return Pair.of(offsets, buffer);
+            addressesOut.flush();
+            final NativeBuffer values = valuesFileOut.getBuffer().realloc(valuesFileOut.position());
+            final NativeBuffer addresses = addressesFileOut.getBuffer().realloc(addressesFileOut.position());
+            return new DictionaryStringValueLookup(ordinals, addresses, values);
         } catch (Throwable t) {
             closer.close();
             throw Throwables2.propagate(t, IOException.class);
@@ -336,16 +418,45 @@ public enum FieldCacher {
         }
     }
 
-    public abstract IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory) throws IOException;
+    public abstract IntValueLookup newMMapFieldCache(UnsortedIntTermDocIterator iterator, int numDocs, String field, String directory, IntTermSummary terms) throws IOException;
 
     @VisibleForTesting
     abstract String getMMapFileName(String field);
 
     public static FieldCacher getCacherForField(String field, FlamdexReader r) {
-        final long[] minMaxTerm = FlamdexUtils.getMinMaxTerm(field, r);
-        final long minTermVal = minMaxTerm[0];
-        final long maxTermVal = minMaxTerm[1];
+        return getCacherForField(r.getNumDocs(), IntTermSummary.of(field, r));
+    }
 
+    public static FieldCacher getCacherForField(int numDocs, IntTermSummary terms) {
+        final FieldCacher ret = getCacherForRange(terms.minTerm, terms.maxTerm);
+        if (ret == BITSET || terms.numTerms > DictionaryIntValueLookup.MAX_TERMS) {
+            return ret;
+        }
+        // same threshold as PACKED, a dictionary lookup is an extra dependent load
+        if (4 * DICTIONARY.memoryRequired(numDocs, terms) <= 3 * ret.memoryRequired(numDocs, terms)) {
+            return DICTIONARY;
+        }
+        return ret;
+    }
+
+    public static FieldCacher getCacherForRange(long minTermVal, long maxTermVal) {
+        final FieldCacher fixedWidth = getFixedWidthCacherForRange(minTermVal, maxTermVal);
+        if (fixedWidth == BITSET) {
+            return BITSET;
+        }
+        // packed lookups cost a few more instructions, so they have to save a quarter of the memory to be worth it
+        final int packedBits = PackedIntValueLookup.bitsPerValue(minTermVal, maxTermVal);
+        if (packedBits <= PackedIntValueLookup.MAX_BITS_PER_VALUE && 4 * packedBits <= 3 * getFixedWidthBits(fixedWidth)) {
+            return PACKED;
+        }
+        return fixedWidth;
+    }
+
+    /**
+     * @return the smallest cacher that stores every term in [minTermVal, maxTermVal] as it is
+     */
+    @VisibleForTesting
+    static FieldCacher getFixedWidthCacherForRange(long minTermVal, long maxTermVal) {
         if (minTermVal >= 0 && maxTermVal <= 1) {
             return BITSET;
         } else if (minTermVal >= 0 && maxTermVal <= 255) {
@@ -363,6 +474,23 @@ public enum FieldCacher {
         }
     }
 
+    private static int getFixedWidthBits(FieldCacher fixedWidth) {
+        switch (fixedWidth) {
+            case BYTE:
+            case SIGNED_BYTE:
+                return 8;
+            case CHAR:
+            case SHORT:
+                return 16;
+            case INT:
+                return 32;
+            case LONG:
+                return 64;
+            default:
+                throw new IllegalArgumentException(fixedWidth + " is not a fixed width cacher");
+        }
+    }
+
     private static void delete(File f) {
         if (!f.delete()) {
             log.error("unable to delete file " + f);
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.fieldcache;
+
+import com.indeed.flamdex.api.FlamdexReader;
+import com.indeed.flamdex.api.IntTermIterator;
+
+/**
+ * Smallest term, largest term and number of distinct terms of an int field, which is what {@link FieldCacher}
+ * needs to pick a cache and size it.
+ */
+public final class IntTermSummary {
+    /** Long.MAX_VALUE for a field without terms */
+    public final long minTerm;
+    /** Long.MIN_VALUE for a field without terms */
+    public final long maxTerm;
+    public final long numTerms;
+
+    public IntTermSummary(long minTerm, long maxTerm, long numTerms) {
+        this.minTerm = minTerm;
+        this.maxTerm = maxTerm;
+        this.numTerms = numTerms;
+    }
+
+    public static IntTermSummary of(String field, FlamdexReader r) {
+        final IntTermIterator iterator = r.getIntTermIterator(field);
+        long minTerm = Long.MAX_VALUE;
+        long maxTerm = Long.MIN_VALUE;
+        long numTerms = 0;
+        try {
+            while (iterator.next()) {
+                maxTerm = Math.max(maxTerm, iterator.term());
+                minTerm = Math.min(minTerm, iterator.term());
+                numTerms++;
+            }
+        } finally {
+            iterator.close();
+        }
+        return new IntTermSummary(minTerm, maxTerm, numTerms);
+    }
+
+    @Override
+    public String toString() {
+        return "IntTermSummary{minTerm=" + minTerm + ", maxTerm=" + maxTerm + ", numTerms=" + numTerms + "}";
+    }
+}
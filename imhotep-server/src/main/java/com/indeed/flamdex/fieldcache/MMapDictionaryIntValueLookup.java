@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.fieldcache;
+
+import com.indeed.util.core.io.Closeables2;
+import com.indeed.flamdex.api.IntValueLookup;
+import com.indeed.util.mmap.MMapBuffer;
+import com.indeed.util.mmap.Memory;
+import org.apache.log4j.Logger;
+
+/**
+ * Memory mapped {@link DictionaryIntValueLookup}. The file starts with the number of terms, followed by the
+ * dictionary including its leading 0 and the packed ordinals.
+ */
+public final class MMapDictionaryIntValueLookup implements IntValueLookup {
+    private static final Logger LOG = Logger.getLogger(MMapDictionaryIntValueLookup.class);
+
+    public static final int HEADER_SIZE = 16;
+
+    private final MMapBuffer buffer;
+    private final Memory memory;
+    private final long wordsOffset;
+    private final int bitsPerOrdinal;
+    private final long mask;
+    private final long min;
+    private final long max;
+
+    public MMapDictionaryIntValueLookup(MMapBuffer buffer) {
+        this.buffer = buffer;
+        memory = buffer.memory();
+        final long numTerms = memory.getLong(0);
+        bitsPerOrdinal = DictionaryIntValueLookup.bitsPerOrdinal(numTerms);
+        mask = (1L << bitsPerOrdinal) - 1;
+        wordsOffset = HEADER_SIZE + 8 * (numTerms + 1);
+        min = numTerms > 0 ? Math.min(memory.getLong(HEADER_SIZE + 8), 0) : 0;
+        max = numTerms > 0 ? Math.max(memory.getLong(HEADER_SIZE + 8 * numTerms), 0) : 0;
+    }
+
+    public static long length(int numDocs, long numTerms) {
+        return HEADER_SIZE + DictionaryIntValueLookup.memoryRequired(numDocs, numTerms);
+    }
+
+    @Override
+    public long getMin() {
+        return min;
+    }
+
+    @Override
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public void lookup(int[] docIds, long[] values, int n) {
+        final Memory memory = this.memory;
+        final long wordsOffset = this.wordsOffset;
+        final int bitsPerOrdinal = this.bitsPerOrdinal;
+        final long mask = this.mask;
+        for (int i = 0; i < n; ++i) {
+            final long bitPos = (long) docIds[i] * bitsPerOrdinal;
+            final long wordOffset = wordsOffset + ((bitPos >>> 6) << 3);
+            final int shift = (int) bitPos & 63;
+            final long ordinal = ((memory.getLong(wordOffset) >>> shift) | ((memory.getLong(wordOffset + 8) << 1) << (63 - shift))) & mask;
+            values[i] = memory.getLong(HEADER_SIZE + (ordinal << 3));
+        }
+    }
+
+    @Override
+    public long memoryUsed() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        Closeables2.closeQuietly(buffer, LOG);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.fieldcache;
+
+import com.indeed.util.core.io.Closeables2;
+import com.indeed.flamdex.api.IntValueLookup;
+import com.indeed.util.mmap.MMapBuffer;
+import com.indeed.util.mmap.Memory;
+import org.apache.log4j.Logger;
+
+/**
+ * Memory mapped {@link PackedIntValueLookup}. The file starts with the min term, the bits per value and
+ * max term - min term, so an existing cache file is read with the parameters it was written with.
+ */
+public final class MMapPackedIntValueLookup implements IntValueLookup {
+    private static final Logger LOG = Logger.getLogger(MMapPackedIntValueLookup.class);
+
+    public static final int HEADER_SIZE = 16;
+
+    private final MMapBuffer buffer;
+    private final Memory memory;
+    private final int bitsPerValue;
+    private final long mask;
+    private final long base;
+    private final long maxTerm;
+
+    public MMapPackedIntValueLookup(MMapBuffer buffer) {
+        this.buffer = buffer;
+        memory = buffer.memory();
+        final long minTerm = memory.getLong(0);
+        bitsPerValue = memory.getInt(8);
+        mask = (1L << bitsPerValue) - 1;
+        base = minTerm - 1;
+        // packed fields have a range below 2^32 - 1, so it fits the unsigned int after the bits per value
+        maxTerm = minTerm + (memory.getInt(12) & 0xFFFFFFFFL);
+    }
+
+    public static long length(int numDocs, int bitsPerValue) {
+        return HEADER_SIZE + 8L * PackedIntValueLookup.numWords(numDocs, bitsPerValue);
+    }
+
+    @Override
+    public long getMin() {
+        return Math.min(base + 1, 0);
+    }
+
+    @Override
+    public long getMax() {
+        return Math.max(maxTerm, 0);
+    }
+
+    @Override
+    public void lookup(int[] docIds, long[] values, int n) {
+        final Memory memory = this.memory;
+        final int bitsPerValue = this.bitsPerValue;
+        final long mask = this.mask;
+        final long base = this.base;
+        for (int i = 0; i < n; ++i) {
+            final long bitPos = (long) docIds[i] * bitsPerValue;
+            final long wordOffset = HEADER_SIZE + ((bitPos >>> 6) << 3);
+            final int shift = (int) bitPos & 63;
+            final long encoded = ((memory.getLong(wordOffset) >>> shift) | ((memory.getLong(wordOffset + 8) << 1) << (63 - shift))) & mask;
+            values[i] = (encoded + base) & ((encoded | -encoded) >> 63);
+        }
+    }
+
+    @Override
+    public long memoryUsed() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        Closeables2.closeQuietly(buffer, LOG);
+    }
+}
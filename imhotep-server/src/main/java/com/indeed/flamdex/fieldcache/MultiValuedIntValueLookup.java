@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.fieldcache;
+
+import com.indeed.flamdex.api.IntValueLookup;
+
+/**
+ * Field cache for int fields with any number of terms per doc. The terms of doc are values[offsets[doc]]
+ * through values[offsets[doc + 1] - 1], and a lookup reduces them to one value with an {@link Aggregation}.
+ * Docs without terms come out as 0 for every aggregation.
+ */
+public final class MultiValuedIntValueLookup implements IntValueLookup {
+    public enum Aggregation {
+        SUM, MIN, MAX, COUNT
+    }
+
+    private int[] offsets;
+    private long[] values;
+    private final Aggregation aggregation;
+    private final long min;
+    private final long max;
+
+    /**
+     * @param offsets numDocs + 1 ascending offsets into values
+     */
+    public MultiValuedIntValueLookup(int[] offsets, long[] values, Aggregation aggregation) {
+        this.offsets = offsets;
+        this.values = values;
+        this.aggregation = aggregation;
+        long tmin = Long.MAX_VALUE;
+        long tmax = Long.MIN_VALUE;
+        for (int doc = 0; doc < offsets.length - 1; ++doc) {
+            final long val = aggregate(doc);
+            tmin = Math.min(tmin, val);
+            tmax = Math.max(tmax, val);
+        }
+        min = tmin;
+        max = tmax;
+    }
+
+    /**
+     * @param totalDocFreq the number of (term, doc) pairs of the field, see {@link com.indeed.flamdex.api.FlamdexReader#getIntTotalDocFreq}
+     */
+    public static long memoryRequired(int numDocs, long totalDocFreq) {
+        return 4L * (numDocs + 1) + 8L * totalDocFreq;
+    }
+
+    @Override
+    public long getMin() {
+        return min;
+    }
+
+    @Override
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public void lookup(int[] docIds, long[] values, int n) {
+        final int[] offsets = this.offsets;
+        switch (aggregation) {
+            case COUNT:
+                for (int i = 0; i < n; ++i) {
+                    values[i] = offsets[docIds[i] + 1] - offsets[docIds[i]];
+                }
+                break;
+            default:
+                for (int i = 0; i < n; ++i) {
+                    values[i] = aggregate(docIds[i]);
+                }
+        }
+    }
+
+    private long aggregate(int doc) {
+        final int start = offsets[doc];
+        final int end = offsets[doc + 1];
+        if (start == end) return 0;
+        long ret;
+        switch (aggregation) {
+            case SUM:
+                ret = 0;
+                for (int i = start; i < end; ++i) {
+                    ret += values[i];
+                }
+                return ret;
+            case MIN:
+                ret = values[start];
+                for (int i = start + 1; i < end; ++i) {
+                    ret = Math.min(ret, values[i]);
+                }
+                return ret;
+            case MAX:
+                ret = values[start];
+                for (int i = start + 1; i < end; ++i) {
+                    ret = Math.max(ret, values[i]);
+                }
+                return ret;
+            case COUNT:
+                return end - start;
+            default:
+                throw new AssertionError("unknown aggregation " + aggregation);
+        }
+    }
+
+    @Override
+    public long memoryUsed() {
+        return 4L * offsets.length + 8L * values.length;
+    }
+
+    @Override
+    public void close() {
+        offsets = null;
+        values = null;
+    }
+}
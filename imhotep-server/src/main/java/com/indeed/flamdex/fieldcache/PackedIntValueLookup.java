@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.fieldcache;
+
+import com.indeed.flamdex.api.IntValueLookup;
+
+/**
+ * Frame of reference field cache: every doc takes bitsPerValue bits holding term - minTerm + 1, or 0 for docs
+ * without a term, whose value is 0. Values are packed back to back into longs, so a value can straddle two words.
+ * One padding word at the end lets lookups always read two words without a bounds check.
+ */
+public final class PackedIntValueLookup implements IntValueLookup {
+    /** wider values are better served by INT or LONG */
+    public static final int MAX_BITS_PER_VALUE = 32;
+
+    private long[] words;
+    private final int bitsPerValue;
+    private final long mask;
+    private final long base;
+    private final long min;
+    private final long max;
+
+    public PackedIntValueLookup(long[] words, int bitsPerValue, long minTerm, long maxTerm) {
+        this.words = words;
+        this.bitsPerValue = bitsPerValue;
+        mask = (1L << bitsPerValue) - 1;
+        base = minTerm - 1;
+        min = Math.min(minTerm, 0);
+        max = Math.max(maxTerm, 0);
+    }
+
+    /**
+     * @return the number of bits needed for a field with the given term range, or Integer.MAX_VALUE if it cannot be packed
+     */
+    public static int bitsPerValue(long minTerm, long maxTerm) {
+        if (minTerm > maxTerm) return Integer.MAX_VALUE;
+        final long range = maxTerm - minTerm;
+        // range < 0 means the subtraction overflowed
+        if (range < 0 || range >= (1L << MAX_BITS_PER_VALUE) - 1) return Integer.MAX_VALUE;
+        return 64 - Long.numberOfLeadingZeros(range + 1);
+    }
+
+    public static int numWords(int numDocs, int bitsPerValue) {
+        return (int) (((long) numDocs * bitsPerValue + 63) >>> 6) + 1;
+    }
+
+    public static void set(long[] words, int doc, long term, long minTerm, int bitsPerValue) {
+        final long mask = (1L << bitsPerValue) - 1;
+        final long encoded = term - minTerm + 1;
+        final long bitPos = (long) doc * bitsPerValue;
+        final int word = (int) (bitPos >>> 6);
+        final int shift = (int) bitPos & 63;
+        words[word] = (words[word] & ~(mask << shift)) | (encoded << shift);
+        if (shift + bitsPerValue > 64) {
+            words[word + 1] = (words[word + 1] & ~(mask >>> (64 - shift))) | (encoded >>> (64 - shift));
+        }
+    }
+
+    /**
+     * @return the stored value of doc, term - minTerm + 1 or 0 if it has no term
+     */
+    public static long get(long[] words, int doc, int bitsPerValue) {
+        final long bitPos = (long) doc * bitsPerValue;
+        final int word = (int) (bitPos >>> 6);
+        final int shift = (int) bitPos & 63;
+        return ((words[word] >>> shift) | ((words[word + 1] << 1) << (63 - shift))) & ((1L << bitsPerValue) - 1);
+    }
+
+    @Override
+    public long getMin() {
+        return min;
+    }
+
+    @Override
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public void lookup(int[] docIds, long[] values, int n) {
+        final long[] words = this.words;
+        final int bitsPerValue = this.bitsPerValue;
+        final long mask = this.mask;
+        final long base = this.base;
+        for (int i = 0; i < n; ++i) {
+            final long bitPos = (long) docIds[i] * bitsPerValue;
+            final int word = (int) (bitPos >>> 6);
+            final int shift = (int) bitPos & 63;
+            // the second word is shifted in two steps because a shift by 64 is a no-op in java
+            final long encoded = ((words[word] >>> shift) | ((words[word + 1] << 1) << (63 - shift))) & mask;
+            // all ones if encoded is non zero, so missing values come out as 0 without a branch
+            values[i] = (encoded + base) & ((encoded | -encoded) >> 63);
+        }
+    }
+
+    @Override
+    public long memoryUsed() {
+        return 8L * words.length;
+    }
+
+    @Override
+    public void close() {
+        words = null;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.simple;
+
+import com.indeed.util.io.Files;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sidecar file with summary statistics of a field: total doc freq, number of terms, smallest and largest int term
+ * and a histogram of term doc freqs. It answers total doc freq requests without walking the term dictionary and
+ * tells whether a field can contain any value of a range at all.
+ *
+ * Field writers emit it on close, shards written before it existed get it from {@link #buildInBackground}.
+ */
+public final class FieldStatsFile {
+    private static final int FORMAT_VERSION = 1;
+
+    private FieldStatsFile() {}
+
+    public static String getIntFilename(String field) {
+        return "fld-" + field + ".intstats";
+    }
+
+    public static String getStringFilename(String field) {
+        return "fld-" + field + ".strstats";
+    }
+
+    public static final class FieldStats {
+        public final long totalDocFreq;
+        public final long numTerms;
+        /** smallest and largest term of an int field, both 0 for string fields and fields without terms */
+        public final long minTerm;
+        public final long maxTerm;
+        // docFreqHistogram[i] is the number of terms with a doc freq in [2^i, 2^(i+1))
+        private final long[] docFreqHistogram;
+
+        FieldStats(long totalDocFreq, long numTerms, long minTerm, long maxTerm, long[] docFreqHistogram) {
+            this.totalDocFreq = totalDocFreq;
+            this.numTerms = numTerms;
+            this.minTerm = minTerm;
+            this.maxTerm = maxTerm;
+            this.docFreqHistogram = docFreqHistogram;
+        }
+
+        public long[] getDocFreqHistogram() {
+            return docFreqHistogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "FieldStats{totalDocFreq=" + totalDocFreq + ", numTerms=" + numTerms + ", minTerm=" + minTerm
+                    + ", maxTerm=" + maxTerm + ", docFreqHistogram=" + Arrays.toString(docFreqHistogram) + "}";
+        }
+    }
+
+    static final class Builder {
+        private long totalDocFreq = 0;
+        private long numTerms = 0;
+        private long minTerm = Long.MAX_VALUE;
+        private long maxTerm = Long.MIN_VALUE;
+        private final long[] docFreqHistogram = new long[64];
+
+        void addTerm(long docFreq) {
+            totalDocFreq += docFreq;
+            numTerms++;
+            docFreqHistogram[63 - Long.numberOfLeadingZeros(docFreq)]++;
+        }
+
+        void addIntTerm(long term, long docFreq) {
+            addTerm(docFreq);
+            if (term < minTerm) minTerm = term;
+            if (term > maxTerm) maxTerm = term;
+        }
+
+        FieldStats build() {
+            int histogramLength = docFreqHistogram.length;
+            while (histogramLength > 0 && docFreqHistogram[histogramLength - 1] == 0) {
+                histogramLength--;
+            }
+            final boolean hasIntTerms = minTerm <= maxTerm;
+            return new FieldStats(totalDocFreq, numTerms, hasIntTerms ? minTerm : 0, hasIntTerms ? maxTerm : 0,
+                    Arrays.copyOf(docFreqHistogram, histogramLength));
+        }
+    }
+
+    static void write(File file, FieldStats stats) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(stats.totalDocFreq);
+            out.writeLong(stats.numTerms);
+            out.writeLong(stats.minTerm);
+            out.writeLong(stats.maxTerm);
+            out.writeInt(stats.docFreqHistogram.length);
+            for (final long count : stats.docFreqHistogram) {
+                out.writeLong(count);
+            }
+        } finally {
+            out.close();
+        }
+        SidecarFiles.rename(tmp, file);
+    }
+
+    /**
+     * @return the stats of an int field, or null if the shard has no field stats file for it
+     */
+    @Nullable
+    public static FieldStats readIntFieldStats(@Nullable String directory, String field) throws IOException {
+        return read(directory, getIntFilename(field));
+    }
+
+    /**
+     * @return the stats of a string field, or null if the shard has no field stats file for it
+     */
+    @Nullable
+    public static FieldStats readStringFieldStats(@Nullable String directory, String field) throws IOException {
+        return read(directory, getStringFilename(field));
+    }
+
+    @Nullable
+    private static FieldStats read(@Nullable String directory, String filename) throws IOException {
+        final DataInputStream in = SidecarFiles.open(directory, filename);
+        if (in == null) return null;
+        try {
+            final int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("unsupported field stats file version " + version);
+            }
+            final long totalDocFreq = in.readLong();
+            final long numTerms = in.readLong();
+            final long minTerm = in.readLong();
+            final long maxTerm = in.readLong();
+            final long[] docFreqHistogram = new long[in.readInt()];
+            for (int i = 0; i < docFreqHistogram.length; i++) {
+                docFreqHistogram[i] = in.readLong();
+            }
+            return new FieldStats(totalDocFreq, numTerms, minTerm, maxTerm, docFreqHistogram);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds the field stats file of a field from its terms file on a background thread, if the shard is on local disk.
+     * Does nothing if a build for the same file is already queued.
+     */
+    public static void buildInBackground(@Nullable final String directory, String field, final boolean isIntField) {
+        final String termsFilename = isIntField ? SimpleIntFieldWriter.getTermsFilename(field) : SimpleStringFieldWriter.getTermsFilename(field);
+        final String statsFilename = isIntField ? getIntFilename(field) : getStringFilename(field);
+        SidecarFiles.buildInBackground(directory, termsFilename, statsFilename, new SidecarFiles.Builder() {
+            @Override
+            public void build(File target) throws IOException {
+                final String termsPath = Files.buildPath(directory, termsFilename);
+                write(target, isIntField ? scanIntTerms(termsPath) : scanStringTerms(termsPath));
+            }
+        });
+    }
+
+    static FieldStats scanIntTerms(String termsFilename) throws IOException {
+        final Builder ret = new Builder();
+        SidecarFiles.scanIntTerms(termsFilename, new SidecarFiles.IntTermVisitor() {
+            @Override
+            public void visit(long term, long docFreq) {
+                ret.addIntTerm(term, docFreq);
+            }
+        });
+        return ret.build();
+    }
+
+    static FieldStats scanStringTerms(String termsFilename) throws IOException {
+        final Builder ret = new Builder();
+        SidecarFiles.scanStringTerms(termsFilename, new SidecarFiles.StringTermVisitor() {
+            @Override
+            public void visit(byte[] termBytes, int termLength, long docFreq) {
+                ret.addTerm(docFreq);
+            }
+        });
+        return ret.build();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.simple;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.indeed.flamdex.utils.FlamdexUtils;
+import com.indeed.imhotep.io.caching.CachedFile;
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared plumbing for the per-field files derived from a terms file (top terms, field stats, bloom filters):
+ * scanning the terms file, atomically replacing the derived file and building it in the background
+ * for shards written before it existed.
+ */
+final class SidecarFiles {
+    private static final Logger log = Logger.getLogger(SidecarFiles.class);
+
+    private static final ExecutorService builder = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SidecarFileBuilder-%d").build());
+    private static final Set<String> pendingBuilds = Collections.synchronizedSet(Sets.<String>newHashSet());
+
+    private SidecarFiles() {}
+
+    interface IntTermVisitor {
+        void visit(long term, long docFreq);
+    }
+
+    interface StringTermVisitor {
+        /**
+         * @param termBytes utf-8 bytes of the term, only valid until visit returns
+         */
+        void visit(byte[] termBytes, int termLength, long docFreq);
+    }
+
+    interface Builder {
+        void build(File target) throws IOException;
+    }
+
+    /**
+     * Runs builder on a background thread if the shard is on local disk, has a terms file for the field
+     * and the target does not exist yet. Does nothing if a build for the same target is already queued.
+     */
+    static void buildInBackground(@Nullable String directory, String termsFilename, String targetFilename, final Builder builder) {
+        if (directory == null || !new File(directory).isDirectory()) return;
+        final File target = new File(directory, targetFilename);
+        if (!new File(directory, termsFilename).exists() || !pendingBuilds.add(target.getPath())) return;
+        SidecarFiles.builder.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (target.exists()) return;
+                    builder.build(target);
+                } catch (Throwable t) {
+                    log.warn("unable to build " + target, t);
+                } finally {
+                    pendingBuilds.remove(target.getPath());
+                }
+            }
+        });
+    }
+
+    static void rename(File tmp, File file) throws IOException {
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    @Nullable
+    static DataInputStream open(@Nullable String directory, String filename) throws IOException {
+        if (directory == null) return null;
+        final CachedFile file = CachedFile.create(CachedFile.buildPath(directory, filename));
+        if (!file.exists()) return null;
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file.loadFile()), 65536));
+    }
+
+    // same layout as SimpleFlamdexWriter.writeIntBTree reads: term delta, doc offset delta, doc freq
+    static void scanIntTerms(String termsFilename, IntTermVisitor visitor) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(termsFilename), 65536);
+        try {
+            long term = 0;
+            while (true) {
+                final long termDelta;
+                try {
+                    termDelta = FlamdexUtils.readVLong(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                term += termDelta;
+                FlamdexUtils.readVLong(in); // doc offset delta
+                visitor.visit(term, FlamdexUtils.readVLong(in));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    // same layout as SimpleFlamdexWriter.writeStringBTree reads: removed length, added length, added bytes, doc offset delta, doc freq
+    static void scanStringTerms(String termsFilename, StringTermVisitor visitor) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(termsFilename), 65536);
+        try {
+            byte[] term = new byte[16];
+            int termLength = 0;
+            while (true) {
+                final int removeLength;
+                try {
+                    removeLength = (int) FlamdexUtils.readVLong(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                final int addLength = (int) FlamdexUtils.readVLong(in);
+                final int newLength = termLength - removeLength + addLength;
+                if (newLength > term.length) {
+                    term = Arrays.copyOf(term, Math.max(2 * term.length, newLength));
+                }
+                ByteStreams.readFully(in, term, termLength - removeLength, addLength);
+                termLength = newLength;
+                FlamdexUtils.readVLong(in); // doc offset delta
+                visitor.visit(term, termLength, FlamdexUtils.readVLong(in));
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
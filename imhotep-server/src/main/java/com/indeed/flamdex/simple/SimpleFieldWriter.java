@@ -87,18 +87,31 @@ abstract class SimpleFieldWriter {
         lastOffsetWritten = currentTermOffset;
 
         FlamdexUtils.writeVLong(currentTermDocFreq, termsOutput);
+
+        termWritten(currentTermDocFreq);
     }
 
     protected abstract void writeTermDelta() throws IOException;
 
     protected abstract void writeBTreeIndex() throws IOException;
 
+    /**
+     * called once for every term that has docs, after it has been written to the terms file
+     */
+    protected abstract void termWritten(long docFreq);
+
+    /**
+     * writes the files derived from the terms file, i.e. the top terms, the field stats and the bloom filter
+     */
+    protected abstract void writeSidecarFiles() throws IOException;
+
     public void close() throws IOException {
         writeTerm();
         termsOutput.close();
         docsOutput.close();
         if (nextTermCalled) {
             writeBTreeIndex();
+            writeSidecarFiles();
         }
     }
 }
@@ -29,6 +29,12 @@ public class SimpleFlamdexFileFilter implements FileFilter {
             if (name.endsWith(".strterms")) return true;
             if (name.endsWith(".intdocs")) return true;
             if (name.endsWith(".strdocs")) return true;
+            if (name.endsWith(".inttopterms")) return true;
+            if (name.endsWith(".strtopterms")) return true;
+            if (name.endsWith(".intstats")) return true;
+            if (name.endsWith(".strstats")) return true;
+            if (name.endsWith(".intbloom")) return true;
+            if (name.endsWith(".strbloom")) return true;
             if (name.endsWith(".intindex") && pathname.isDirectory()) return true;
             if (name.endsWith(".intindex64") && pathname.isDirectory()) return true;
             if (name.endsWith(".strindex") && pathname.isDirectory()) return true;
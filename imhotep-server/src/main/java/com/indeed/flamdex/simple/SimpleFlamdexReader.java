@@ -28,21 +28,36 @@ import com.indeed.flamdex.fieldcache.UnsortedIntTermDocIterator;
 import com.indeed.flamdex.reader.FlamdexMetadata;
 import com.indeed.flamdex.utils.FlamdexUtils;
 import com.indeed.imhotep.io.caching.CachedFile;
+import org.apache.log4j.Logger;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author jsgroth
 */
 public class SimpleFlamdexReader extends AbstractFlamdexReader implements RawFlamdexReader {
+    private static final Logger log = Logger.getLogger(SimpleFlamdexReader.class);
+
     private final Collection<String> intFields;
     private final Collection<String> stringFields;
     private final MapCache mapCache = new MapCache();
+    // only successful reads are cached so that files built in the background are picked up
+    private final Map<String, FieldStatsFile.FieldStats> intFieldStats = new ConcurrentHashMap<String, FieldStatsFile.FieldStats>();
+    private final Map<String, FieldStatsFile.FieldStats> stringFieldStats = new ConcurrentHashMap<String, FieldStatsFile.FieldStats>();
+    // fields whose files have been fetched, see loadField
+    private final Set<String> loadedFields = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile List<CachedFile> shardFiles = null;
 
     private static final boolean useNativeDocIdStream;
 
@@ -105,8 +120,69 @@ public class SimpleFlamdexReader extends AbstractFlamdexReader implements RawFla
         return useNativeDocIdStream ? new NativeDocIdStream(mapCache) : new SimpleDocIdStream(mapCache);
     }
 
+    /**
+     * Fetches all fld-X.* files of a field in one parallel round on its first access, instead of one at a time
+     * as its iterators open them. Does nothing unless the shard is on a remote file system that keeps local copies,
+     * so a session that touches a few fields of a wide shard only waits for those.
+     */
+    private void loadField(String field) {
+        if (!loadedFields.add(field)) return;
+        try {
+            CachedFile.prefetch(getFieldFiles(field));
+        } catch (IOException e) {
+            // the files get fetched when they are opened
+            log.warn("unable to prefetch the files of field " + field + " in " + directory, e);
+        }
+    }
+
+    /**
+     * Fetches the files of a field if the shard is remote and reads them once, so that they are in the page cache
+     * before a query touches them. Meant for prefetch threads, the term iterators fetch the files on their own.
+     */
+    public void prefetchField(String field) {
+        loadField(field);
+        final byte[] buffer = new byte[1 << 20];
+        for (final CachedFile file : getFieldFiles(field)) {
+            if (!file.isFile()) continue;
+            try {
+                final InputStream in = new FileInputStream(file.loadFile());
+                try {
+                    while (in.read(buffer) >= 0) {
+                        // only the page cache is of interest
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                log.warn("unable to read " + file.getName() + " in " + directory, e);
+            }
+        }
+    }
+
+    private List<CachedFile> getFieldFiles(String field) {
+        final String prefix = "fld-" + field + ".";
+        final List<CachedFile> fieldFiles = Lists.newArrayList();
+        for (final CachedFile file : getShardFiles()) {
+            final String name = file.getName();
+            // a dot in the rest of the name means a file of another field, e.g. fld-a.b.intterms for field a
+            if (name.startsWith(prefix) && name.indexOf('.', prefix.length()) < 0) {
+                fieldFiles.add(file);
+            }
+        }
+        return fieldFiles;
+    }
+
+    private List<CachedFile> getShardFiles() {
+        if (shardFiles == null) {
+            final CachedFile[] files = CachedFile.create(directory).listFiles();
+            shardFiles = files == null ? Collections.<CachedFile>emptyList() : Lists.newArrayList(files);
+        }
+        return shardFiles;
+    }
+
     @Override
     public SimpleIntTermIterator getIntTermIterator(String field) {
+        loadField(field);
         final String termsFilename = CachedFile.buildPath(directory, SimpleIntFieldWriter.getTermsFilename(field));
         final String docsFilename = CachedFile.buildPath(directory, SimpleIntFieldWriter.getDocsFilename(field));
         if (CachedFile.create(termsFilename).length() == 0L) {
@@ -129,6 +205,7 @@ public class SimpleFlamdexReader extends AbstractFlamdexReader implements RawFla
 
     @Override
     public SimpleStringTermIterator getStringTermIterator(String field) {
+        loadField(field);
         final String termsFilename = CachedFile.buildPath(directory, SimpleStringFieldWriter.getTermsFilename(field));
         final String docsFilename = CachedFile.buildPath(directory, SimpleStringFieldWriter.getDocsFilename(field));
         if (CachedFile.create(termsFilename).length() == 0L) {
@@ -177,14 +254,58 @@ public class SimpleFlamdexReader extends AbstractFlamdexReader implements RawFla
 
     @Override
     public long getIntTotalDocFreq(String field) {
+        final FieldStatsFile.FieldStats stats = getIntFieldStats(field);
+        // an int field without int terms is read from the string field of the same name, see getIntTermIterator
+        if (stats != null && stats.numTerms > 0) {
+            return stats.totalDocFreq;
+        }
         return FlamdexUtils.getIntTotalDocFreq(this, field);
     }
 
     @Override
     public long getStringTotalDocFreq(String field) {
+        final FieldStatsFile.FieldStats stats = getStringFieldStats(field);
+        if (stats != null) {
+            return stats.totalDocFreq;
+        }
         return FlamdexUtils.getStringTotalDocFreq(this, field);
     }
 
+    /**
+     * @return the stats of an int field, or null if they are not available yet, in which case they are built in the background
+     */
+    @Nullable
+    public FieldStatsFile.FieldStats getIntFieldStats(String field) {
+        return getFieldStats(field, true);
+    }
+
+    /**
+     * @return the stats of a string field, or null if they are not available yet, in which case they are built in the background
+     */
+    @Nullable
+    public FieldStatsFile.FieldStats getStringFieldStats(String field) {
+        return getFieldStats(field, false);
+    }
+
+    @Nullable
+    private FieldStatsFile.FieldStats getFieldStats(String field, boolean isIntField) {
+        final Map<String, FieldStatsFile.FieldStats> cache = isIntField ? intFieldStats : stringFieldStats;
+        FieldStatsFile.FieldStats stats = cache.get(field);
+        if (stats == null) {
+            try {
+                stats = isIntField ? FieldStatsFile.readIntFieldStats(directory, field) : FieldStatsFile.readStringFieldStats(directory, field);
+            } catch (IOException e) {
+                log.warn("unable to read field stats of " + field + " in " + directory, e);
+            }
+            if (stats == null) {
+                FieldStatsFile.buildInBackground(directory, field, isIntField);
+                return null;
+            }
+            cache.put(field, stats);
+        }
+        return stats;
+    }
+
     @Override
     public Collection<String> getAvailableMetrics() {
         return intFields;
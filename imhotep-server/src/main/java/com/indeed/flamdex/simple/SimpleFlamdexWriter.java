@@ -15,6 +15,8 @@
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CountingInputStream;
 import com.google.common.primitives.Ints;
@@ -28,9 +30,13 @@ import com.indeed.flamdex.api.DocIdStream;
 import com.indeed.flamdex.api.FlamdexReader;
 import com.indeed.flamdex.api.IntTermIterator;
 import com.indeed.flamdex.api.StringTermIterator;
+import com.indeed.flamdex.api.TermIterator;
 import com.indeed.flamdex.reader.FlamdexMetadata;
 import com.indeed.flamdex.utils.FlamdexUtils;
+import com.indeed.flamdex.writer.FlamdexDocWriter;
+import com.indeed.flamdex.writer.FlamdexDocument;
 import com.indeed.flamdex.writer.FlamdexWriter;
+import com.indeed.flamdex.writer.RollupFlamdexDocWriter;
 import com.indeed.flamdex.writer.IntFieldWriter;
 import com.indeed.flamdex.writer.StringFieldWriter;
 import com.indeed.lsmtree.core.Generation;
@@ -56,6 +62,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
@@ -328,6 +335,215 @@ public class SimpleFlamdexWriter implements FlamdexWriter {
         w.close();
     }
 
+    /**
+     * Writes the rollup of the docs of fdx to out and closes out, with the same documents
+     * {@link RollupFlamdexDocWriter} would produce for them. Instead of whole documents it keeps the combination of
+     * every doc in memory, and while a dimension is combined in, three more ints per doc and one per posting of that
+     * dimension. On top of that it keeps the dimension terms of every combination, which is small as long as the
+     * dimensions have few distinct combinations. Nothing is allocated per doc.
+     */
+    public static void writeRollup(final FlamdexReader fdx, final FlamdexDocWriter out, final Collection<String> intDimensions,
+                                   final Collection<String> stringDimensions, final Collection<String> metricFields, final String countField) throws IOException {
+        final List<String> metrics = Lists.newArrayList(metricFields);
+        final DocIdStream dis = fdx.getDocIdStream();
+        try {
+            // combination of the dimensions so far of every doc
+            int[] combinations = new int[fdx.getNumDocs()];
+            final List<RollupDimension> dimensions = Lists.newArrayList();
+            for (final String intDimension : intDimensions) {
+                dimensions.add(new RollupDimension(intDimension, true));
+            }
+            for (final String stringDimension : stringDimensions) {
+                dimensions.add(new RollupDimension(stringDimension, false));
+            }
+            for (final RollupDimension dimension : dimensions) {
+                combinations = dimension.combine(fdx, dis, combinations);
+            }
+            final int numCombinations = dimensions.isEmpty() ? 1 : dimensions.get(dimensions.size() - 1).parents.size();
+
+            final long[] counts = new long[numCombinations];
+            for (final int combination : combinations) {
+                counts[combination]++;
+            }
+            final long[][] sums = new long[metrics.size()][numCombinations];
+            final int[] docIdBuf = new int[DOC_ID_BUFFER_SIZE];
+            for (int i = 0; i < metrics.size(); i++) {
+                if (!fdx.getIntFields().contains(metrics.get(i))) continue;
+                final IntTermIterator iter = fdx.getIntTermIterator(metrics.get(i));
+                try {
+                    while (iter.next()) {
+                        dis.reset(iter);
+                        while (true) {
+                            final int n = dis.fillDocIdBuffer(docIdBuf);
+                            for (int j = 0; j < n; ++j) {
+                                sums[i][combinations[docIdBuf[j]]] += iter.term();
+                            }
+                            if (n < docIdBuf.length) break;
+                        }
+                    }
+                } finally {
+                    iter.close();
+                }
+            }
+
+            for (int combination = 0; combination < numCombinations; combination++) {
+                if (counts[combination] == 0) continue;
+                final FlamdexDocument doc = new FlamdexDocument();
+                int parent = combination;
+                for (final RollupDimension dimension : Lists.reverse(dimensions)) {
+                    dimension.addTerms(doc, parent);
+                    parent = dimension.parents.getInt(parent);
+                }
+                for (int i = 0; i < metrics.size(); i++) {
+                    doc.setIntField(metrics.get(i), sums[i][combination]);
+                }
+                doc.setIntField(countField, counts[combination]);
+                out.addDocument(doc);
+            }
+        } finally {
+            dis.close();
+            out.close();
+        }
+    }
+
+    private static final class RollupDimension {
+        final String field;
+        final boolean isIntField;
+        // ordinal -> term, in term order
+        final List<Object> terms = Lists.newArrayList();
+        // combination -> combination of the previous dimensions, and the ordinals of its terms for this one
+        final IntArrayList parents = new IntArrayList();
+        final List<int[]> ordinals = Lists.newArrayList();
+
+        RollupDimension(String field, boolean isIntField) {
+            this.field = field;
+            this.isIntField = isIntField;
+        }
+
+        /**
+         * @return the combination of every doc after splitting the previous combinations by the terms of this dimension
+         */
+        int[] combine(FlamdexReader fdx, DocIdStream dis, int[] previousCombinations) {
+            final int numDocs = previousCombinations.length;
+            final int[] offsets = new int[numDocs + 1];
+            final int[] docIdBuf = new int[DOC_ID_BUFFER_SIZE];
+            final boolean hasField = isIntField ? fdx.getIntFields().contains(field) : fdx.getStringFields().contains(field);
+            int[] docOrdinals = new int[0];
+            if (hasField) {
+                // the first pass counts the terms of every doc, the second one puts their ordinals in place
+                TermIterator iter = openTermIterator(fdx);
+                try {
+                    while (iter.next()) {
+                        terms.add(isIntField ? (Object) ((IntTermIterator) iter).term() : ((StringTermIterator) iter).term());
+                        dis.reset(iter);
+                        while (true) {
+                            final int n = dis.fillDocIdBuffer(docIdBuf);
+                            for (int i = 0; i < n; ++i) {
+                                offsets[docIdBuf[i] + 1]++;
+                            }
+                            if (n < docIdBuf.length) break;
+                        }
+                    }
+                } finally {
+                    iter.close();
+                }
+                for (int doc = 0; doc < numDocs; doc++) {
+                    offsets[doc + 1] += offsets[doc];
+                }
+                docOrdinals = new int[offsets[numDocs]];
+                final int[] next = Arrays.copyOf(offsets, numDocs);
+                iter = openTermIterator(fdx);
+                try {
+                    for (int ordinal = 0; iter.next(); ordinal++) {
+                        dis.reset(iter);
+                        while (true) {
+                            final int n = dis.fillDocIdBuffer(docIdBuf);
+                            for (int i = 0; i < n; ++i) {
+                                docOrdinals[next[docIdBuf[i]]++] = ordinal;
+                            }
+                            if (n < docIdBuf.length) break;
+                        }
+                    }
+                } finally {
+                    iter.close();
+                }
+            }
+
+            final Map<RollupKey, Integer> ids = Maps.newHashMap();
+            // only copied into a key of its own for a new combination
+            final RollupKey probe = new RollupKey();
+            final int[] ret = new int[numDocs];
+            for (int doc = 0; doc < numDocs; doc++) {
+                probe.set(previousCombinations[doc], docOrdinals, offsets[doc], offsets[doc + 1]);
+                Integer id = ids.get(probe);
+                if (id == null) {
+                    id = ids.size();
+                    final int[] keyOrdinals = Arrays.copyOfRange(docOrdinals, offsets[doc], offsets[doc + 1]);
+                    final RollupKey key = new RollupKey();
+                    key.set(probe.parent, keyOrdinals, 0, keyOrdinals.length);
+                    ids.put(key, id);
+                    parents.add(key.parent);
+                    ordinals.add(keyOrdinals);
+                }
+                ret[doc] = id;
+            }
+            return ret;
+        }
+
+        private TermIterator openTermIterator(FlamdexReader fdx) {
+            return isIntField ? fdx.getIntTermIterator(field) : fdx.getStringTermIterator(field);
+        }
+
+        void addTerms(FlamdexDocument doc, int combination) {
+            for (final int ordinal : ordinals.get(combination)) {
+                if (isIntField) {
+                    doc.addIntTerm(field, (Long) terms.get(ordinal));
+                } else {
+                    doc.addStringTerm(field, (String) terms.get(ordinal));
+                }
+            }
+        }
+    }
+
+    /**
+     * A parent combination and the slice [from, to) of ordinals.
+     */
+    private static final class RollupKey {
+        int parent;
+        int[] ordinals;
+        int from;
+        int to;
+        int hashCode;
+
+        void set(int parent, int[] ordinals, int from, int to) {
+            this.parent = parent;
+            this.ordinals = ordinals;
+            this.from = from;
+            this.to = to;
+            int hash = parent;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + ordinals[i];
+            }
+            hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RollupKey)) return false;
+            final RollupKey other = (RollupKey) o;
+            if (parent != other.parent || to - from != other.to - other.from) return false;
+            for (int i = 0; i < to - from; i++) {
+                if (ordinals[from + i] != other.ordinals[other.from + i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     public static void merge(Collection<? extends FlamdexReader> readers, FlamdexWriter w) throws IOException {
         merge(readers.toArray(new FlamdexReader[readers.size()]), w);
     }
@@ -36,6 +36,9 @@ final class SimpleIntFieldWriter extends SimpleFieldWriter implements IntFieldWr
     private boolean hasCurrentTerm = false;
     private long currentTerm;
 
+    private final TopTermsFile.Accumulator<Long> topTerms = new TopTermsFile.Accumulator<Long>();
+    private final FieldStatsFile.Builder fieldStats = new FieldStatsFile.Builder();
+
     private SimpleIntFieldWriter(String outputDirectory, String field, boolean writeBTreesOnClose, OutputStream termsOutput, OutputStream docsOutput, long numDocs) {
         super(termsOutput, docsOutput, numDocs);
         this.outputDirectory = outputDirectory;
@@ -86,4 +89,21 @@ final class SimpleIntFieldWriter extends SimpleFieldWriter implements IntFieldWr
             SimpleFlamdexWriter.writeIntBTree(outputDirectory, field, new File(outputDirectory, "fld-" + field + ".intindex64"));
         }
     }
+
+    @Override
+    protected void termWritten(long docFreq) {
+        fieldStats.addIntTerm(currentTerm, docFreq);
+        if (topTerms.wouldKeep(docFreq)) {
+            topTerms.offer(currentTerm, docFreq);
+        }
+    }
+
+    @Override
+    protected void writeSidecarFiles() throws IOException {
+        TopTermsFile.writeIntTopTerms(new File(outputDirectory, TopTermsFile.getIntFilename(field)), topTerms);
+        final FieldStatsFile.FieldStats stats = fieldStats.build();
+        FieldStatsFile.write(new File(outputDirectory, FieldStatsFile.getIntFilename(field)), stats);
+        TermBloomFilter.writeIntBloomFilter(new File(outputDirectory, TermBloomFilter.getIntFilename(field)),
+                Files.buildPath(outputDirectory, getTermsFilename(field)), stats.numTerms);
+    }
 }
@@ -36,6 +36,9 @@ class SimpleStringFieldWriter extends SimpleFieldWriter implements StringFieldWr
     private byte[] lastWrittenTermBytes = new byte[0];
     private String currentTerm = null;
 
+    private final TopTermsFile.Accumulator<String> topTerms = new TopTermsFile.Accumulator<String>();
+    private final FieldStatsFile.Builder fieldStats = new FieldStatsFile.Builder();
+
     private SimpleStringFieldWriter(String outputDirectory, String field, boolean writeBTreesOnClose, OutputStream termsOutput, OutputStream docsOutput, long numDocs) {
         super(termsOutput, docsOutput, numDocs);
         this.outputDirectory = outputDirectory;
@@ -93,6 +96,21 @@ class SimpleStringFieldWriter extends SimpleFieldWriter implements StringFieldWr
         }
     }
 
+    @Override
+    protected void termWritten(long docFreq) {
+        fieldStats.addTerm(docFreq);
+        topTerms.offer(currentTerm, docFreq);
+    }
+
+    @Override
+    protected void writeSidecarFiles() throws IOException {
+        TopTermsFile.writeStringTopTerms(new File(outputDirectory, TopTermsFile.getStringFilename(field)), topTerms);
+        final FieldStatsFile.FieldStats stats = fieldStats.build();
+        FieldStatsFile.write(new File(outputDirectory, FieldStatsFile.getStringFilename(field)), stats);
+        TermBloomFilter.writeStringBloomFilter(new File(outputDirectory, TermBloomFilter.getStringFilename(field)),
+                Files.buildPath(outputDirectory, getTermsFilename(field)), stats.numTerms);
+    }
+
     private static int getPrefixLen(byte[] a, byte[] b, int n) {
         for (int i = 0; i < n; ++i) {
             if (a[i] != b[i]) return i;
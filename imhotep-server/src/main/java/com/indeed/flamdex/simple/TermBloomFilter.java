@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.simple;
+
+import com.google.common.base.Charsets;
+import com.indeed.imhotep.io.caching.CachedFile;
+import com.indeed.util.core.io.Closeables2;
+import com.indeed.util.core.reference.SharedReference;
+import com.indeed.util.io.Files;
+import com.indeed.util.mmap.MMapBuffer;
+import com.indeed.util.mmap.Memory;
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Blocked bloom filter over the terms of a field, stored next to the terms file as fld-X.intbloom / fld-X.strbloom.
+ * A negative answer means the term is definitely not in the shard, so callers can skip opening term iterators and
+ * seeking for it. All probes for a term fall into one 64 byte block, which makes a lookup a single cache miss.
+ *
+ * Filters are memory mapped and shared between sessions through a process wide LRU cache bounded by
+ * com.indeed.flamdex.simple.TermBloomFilter.cacheBytes. Field writers emit them on close, shards written
+ * before they existed get them from {@link #buildInBackground}.
+ */
+public final class TermBloomFilter implements Closeable {
+    private static final Logger log = Logger.getLogger(TermBloomFilter.class);
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private static final int BITS_PER_TERM = 10;
+    private static final int NUM_HASHES = 7;
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final int BITS_PER_BLOCK = WORDS_PER_BLOCK * 64;
+    // 64 byte blocks, so a filter is capped at 8MB and huge fields get a higher false positive rate instead
+    private static final long MAX_BLOCKS = 1 << 17;
+
+    private static final long CACHE_BYTES = Long.getLong("com.indeed.flamdex.simple.TermBloomFilter.cacheBytes", 256L * 1024 * 1024);
+    // access ordered, so iteration starts at the least recently used filter
+    private static final LinkedHashMap<String, SharedReference<MMapBuffer>> cache = new LinkedHashMap<String, SharedReference<MMapBuffer>>(16, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    private final SharedReference<MMapBuffer> buffer;
+    private final Memory memory;
+    private final long numBlocks;
+    private final int numHashes;
+
+    private TermBloomFilter(SharedReference<MMapBuffer> buffer) throws IOException {
+        this.buffer = buffer;
+        memory = buffer.get().memory();
+        final int version = memory.getInt(0);
+        if (version != FORMAT_VERSION) {
+            Closeables2.closeQuietly(buffer, log);
+            throw new IOException("unsupported term bloom filter version " + version);
+        }
+        numHashes = memory.getInt(4);
+        numBlocks = memory.getLong(8);
+    }
+
+    /**
+     * @return true if the filter was built from an empty terms file. Such a filter rules out every term, which is
+     * wrong for an int field whose terms are read from the string field of the same name.
+     */
+    public boolean isEmpty() {
+        // a single term sets bits, and a filter gets more than one block only for many terms
+        if (numBlocks != 1) return false;
+        for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+            if (memory.getLong(HEADER_SIZE + i * 8L) != 0) return false;
+        }
+        return true;
+    }
+
+    public static String getIntFilename(String field) {
+        return "fld-" + field + ".intbloom";
+    }
+
+    public static String getStringFilename(String field) {
+        return "fld-" + field + ".strbloom";
+    }
+
+    public boolean mightContainIntTerm(long term) {
+        return mightContain(hashIntTerm(term));
+    }
+
+    public boolean mightContainStringTerm(String term) {
+        final byte[] termBytes = term.getBytes(Charsets.UTF_8);
+        return mightContain(hashStringTerm(termBytes, termBytes.length));
+    }
+
+    private boolean mightContain(long hash) {
+        final long blockOffset = HEADER_SIZE + blockIndex(hash, numBlocks) * WORDS_PER_BLOCK * 8L;
+        final int h = (int) hash;
+        final int step = (h >>> 9) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            final int bit = (h + i * step) & (BITS_PER_BLOCK - 1);
+            if ((memory.getLong(blockOffset + (bit >>> 6) * 8L) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.close();
+    }
+
+    private static long blockIndex(long hash, long numBlocks) {
+        // maps the upper 32 bits onto [0, numBlocks) without a division
+        return ((hash >>> 32) * numBlocks) >>> 32;
+    }
+
+    // murmur3 finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static long hashIntTerm(long term) {
+        return mix(term);
+    }
+
+    // fnv-1a over the utf-8 bytes
+    static long hashStringTerm(byte[] termBytes, int termLength) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < termLength; i++) {
+            h ^= termBytes[i] & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    static final class Builder {
+        private final long numBlocks;
+        private final long[] words;
+
+        Builder(long numTerms) {
+            numBlocks = Math.max(1, Math.min(MAX_BLOCKS, (numTerms * BITS_PER_TERM + BITS_PER_BLOCK - 1) / BITS_PER_BLOCK));
+            words = new long[(int) numBlocks * WORDS_PER_BLOCK];
+        }
+
+        void add(long hash) {
+            final int blockStart = (int) blockIndex(hash, numBlocks) * WORDS_PER_BLOCK;
+            final int h = (int) hash;
+            final int step = (h >>> 9) | 1;
+            for (int i = 0; i < NUM_HASHES; i++) {
+                final int bit = (h + i * step) & (BITS_PER_BLOCK - 1);
+                words[blockStart + (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        // little endian, which is how MMapBuffer reads it back
+        void write(File file) throws IOException {
+            final File tmp = new File(file.getPath() + ".tmp");
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+            try {
+                out.writeInt(Integer.reverseBytes(FORMAT_VERSION));
+                out.writeInt(Integer.reverseBytes(NUM_HASHES));
+                out.writeLong(Long.reverseBytes(numBlocks));
+                for (final long word : words) {
+                    out.writeLong(Long.reverseBytes(word));
+                }
+            } finally {
+                out.close();
+            }
+            SidecarFiles.rename(tmp, file);
+        }
+    }
+
+    static void writeIntBloomFilter(File file, String termsFilename, long numTerms) throws IOException {
+        final Builder builder = new Builder(numTerms);
+        SidecarFiles.scanIntTerms(termsFilename, new SidecarFiles.IntTermVisitor() {
+            @Override
+            public void visit(long term, long docFreq) {
+                builder.add(hashIntTerm(term));
+            }
+        });
+        builder.write(file);
+    }
+
+    static void writeStringBloomFilter(File file, String termsFilename, long numTerms) throws IOException {
+        final Builder builder = new Builder(numTerms);
+        SidecarFiles.scanStringTerms(termsFilename, new SidecarFiles.StringTermVisitor() {
+            @Override
+            public void visit(byte[] termBytes, int termLength, long docFreq) {
+                builder.add(hashStringTerm(termBytes, termLength));
+            }
+        });
+        builder.write(file);
+    }
+
+    /**
+     * Builds the bloom filter of a field from its terms file on a background thread, if the shard is on local disk.
+     * Does nothing if a build for the same file is already queued.
+     */
+    public static void buildInBackground(@Nullable final String directory, String field, final boolean isIntField) {
+        final String termsFilename = isIntField ? SimpleIntFieldWriter.getTermsFilename(field) : SimpleStringFieldWriter.getTermsFilename(field);
+        final String bloomFilename = isIntField ? getIntFilename(field) : getStringFilename(field);
+        SidecarFiles.buildInBackground(directory, termsFilename, bloomFilename, new SidecarFiles.Builder() {
+            @Override
+            public void build(File target) throws IOException {
+                final String termsPath = Files.buildPath(directory, termsFilename);
+                // sized from a first pass over the terms file, the field writers know the number of terms up front
+                if (isIntField) {
+                    writeIntBloomFilter(target, termsPath, FieldStatsFile.scanIntTerms(termsPath).numTerms);
+                } else {
+                    writeStringBloomFilter(target, termsPath, FieldStatsFile.scanStringTerms(termsPath).numTerms);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the bloom filter of a field, which the caller has to close, or null if the shard has none for it,
+     * in which case it is built in the background
+     */
+    @Nullable
+    public static TermBloomFilter open(@Nullable String directory, String field, boolean isIntField) throws IOException {
+        if (directory == null) return null;
+        final CachedFile cachedFile = CachedFile.create(CachedFile.buildPath(directory, isIntField ? getIntFilename(field) : getStringFilename(field)));
+        if (!cachedFile.exists()) {
+            buildInBackground(directory, field, isIntField);
+            return null;
+        }
+        final File file = cachedFile.loadFile();
+        // a field rewritten in place gets a new filter, so the key has to change with the file
+        final String key = file.getPath() + ":" + file.lastModified() + ":" + file.length();
+        synchronized (cache) {
+            final SharedReference<MMapBuffer> cached = cache.get(key);
+            if (cached != null) {
+                return new TermBloomFilter(cached.copy());
+            }
+        }
+        final MMapBuffer mmapBuf = new MMapBuffer(file, FileChannel.MapMode.READ_ONLY, ByteOrder.LITTLE_ENDIAN);
+        synchronized (cache) {
+            final SharedReference<MMapBuffer> cached = cache.get(key);
+            if (cached != null) {
+                Closeables2.closeQuietly(mmapBuf, log);
+                return new TermBloomFilter(cached.copy());
+            }
+            final SharedReference<MMapBuffer> reference = SharedReference.create(mmapBuf);
+            cache.put(key, reference);
+            cachedBytes += mmapBuf.memory().length();
+            final Iterator<Map.Entry<String, SharedReference<MMapBuffer>>> it = cache.entrySet().iterator();
+            while (cachedBytes > CACHE_BYTES && cache.size() > 1) {
+                final SharedReference<MMapBuffer> evicted = it.next().getValue();
+                it.remove();
+                cachedBytes -= evicted.get().memory().length();
+                // filters still in use stay mapped until their last copy is closed
+                Closeables2.closeQuietly(evicted, log);
+            }
+            return new TermBloomFilter(reference.copy());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.simple;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.indeed.util.io.Files;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sidecar file with the {@link #MAX_TERMS} terms of a field that have the highest doc freq, in descending doc freq order.
+ * It lets approximateTopTerms read K entries instead of scanning the whole term dictionary.
+ *
+ * Field writers emit it on close, shards written before it existed get it from {@link #buildInBackground}.
+ * A field with fewer than MAX_TERMS terms has all of them in the file.
+ */
+public final class TopTermsFile {
+    public static final int MAX_TERMS = 1000;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private TopTermsFile() {}
+
+    public static String getIntFilename(String field) {
+        return "fld-" + field + ".inttopterms";
+    }
+
+    public static String getStringFilename(String field) {
+        return "fld-" + field + ".strtopterms";
+    }
+
+    public static final class Entry<T> {
+        public final T term;
+        public final long docFreq;
+
+        Entry(T term, long docFreq) {
+            this.term = term;
+            this.docFreq = docFreq;
+        }
+    }
+
+    private static final Comparator<Entry<?>> DOC_FREQ_COMPARATOR = new Comparator<Entry<?>>() {
+        @Override
+        public int compare(Entry<?> o1, Entry<?> o2) {
+            return o1.docFreq < o2.docFreq ? -1 : o1.docFreq > o2.docFreq ? 1 : 0;
+        }
+    };
+
+    /**
+     * Keeps the MAX_TERMS terms with the highest doc freq out of the terms it is offered.
+     * On ties the term offered first wins, so fields written in term order keep their smallest terms.
+     */
+    static final class Accumulator<T> {
+        private final PriorityQueue<Entry<T>> heap = new PriorityQueue<Entry<T>>(MAX_TERMS, DOC_FREQ_COMPARATOR);
+
+        boolean wouldKeep(long docFreq) {
+            return heap.size() < MAX_TERMS || docFreq > heap.peek().docFreq;
+        }
+
+        void offer(T term, long docFreq) {
+            if (heap.size() < MAX_TERMS) {
+                heap.add(new Entry<T>(term, docFreq));
+            } else if (docFreq > heap.peek().docFreq) {
+                heap.poll();
+                heap.add(new Entry<T>(term, docFreq));
+            }
+        }
+
+        List<Entry<T>> descending() {
+            final List<Entry<T>> ret = Lists.newArrayList(heap);
+            Collections.sort(ret, Collections.reverseOrder(DOC_FREQ_COMPARATOR));
+            return ret;
+        }
+    }
+
+    static void writeIntTopTerms(File file, Accumulator<Long> terms) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+        try {
+            final List<Entry<Long>> entries = terms.descending();
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (final Entry<Long> entry : entries) {
+                out.writeLong(entry.term);
+                out.writeLong(entry.docFreq);
+            }
+        } finally {
+            out.close();
+        }
+        SidecarFiles.rename(tmp, file);
+    }
+
+    static void writeStringTopTerms(File file, Accumulator<String> terms) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+        try {
+            final List<Entry<String>> entries = terms.descending();
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (final Entry<String> entry : entries) {
+                final byte[] termBytes = entry.term.getBytes(Charsets.UTF_8);
+                out.writeInt(termBytes.length);
+                out.write(termBytes);
+                out.writeLong(entry.docFreq);
+            }
+        } finally {
+            out.close();
+        }
+        SidecarFiles.rename(tmp, file);
+    }
+
+    /**
+     * @return the top min(k, MAX_TERMS) int terms of field by descending doc freq, or null if the shard has no top terms file for it
+     */
+    @Nullable
+    public static List<Entry<Long>> readIntTopTerms(@Nullable String directory, String field, int k) throws IOException {
+        final DataInputStream in = SidecarFiles.open(directory, getIntFilename(field));
+        if (in == null) return null;
+        try {
+            final int count = readHeader(in);
+            final List<Entry<Long>> ret = Lists.newArrayListWithCapacity(Math.min(k, count));
+            for (int i = 0; i < count && i < k; i++) {
+                final long term = in.readLong();
+                ret.add(new Entry<Long>(term, in.readLong()));
+            }
+            return ret;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the top min(k, MAX_TERMS) string terms of field by descending doc freq, or null if the shard has no top terms file for it
+     */
+    @Nullable
+    public static List<Entry<String>> readStringTopTerms(@Nullable String directory, String field, int k) throws IOException {
+        final DataInputStream in = SidecarFiles.open(directory, getStringFilename(field));
+        if (in == null) return null;
+        try {
+            final int count = readHeader(in);
+            final List<Entry<String>> ret = Lists.newArrayListWithCapacity(Math.min(k, count));
+            for (int i = 0; i < count && i < k; i++) {
+                final byte[] termBytes = new byte[in.readInt()];
+                in.readFully(termBytes);
+                ret.add(new Entry<String>(new String(termBytes, Charsets.UTF_8), in.readLong()));
+            }
+            return ret;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int readHeader(DataInputStream in) throws IOException {
+        final int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("unsupported top terms file version " + version);
+        }
+        return in.readInt();
+    }
+
+    /**
+     * Builds the top terms file of a field from its terms file on a background thread, if the shard is on local disk.
+     * Does nothing if a build for the same file is already queued.
+     */
+    public static void buildInBackground(@Nullable final String directory, String field, final boolean isIntField) {
+        final String termsFilename = isIntField ? SimpleIntFieldWriter.getTermsFilename(field) : SimpleStringFieldWriter.getTermsFilename(field);
+        final String topTermsFilename = isIntField ? getIntFilename(field) : getStringFilename(field);
+        SidecarFiles.buildInBackground(directory, termsFilename, topTermsFilename, new SidecarFiles.Builder() {
+            @Override
+            public void build(File target) throws IOException {
+                final String termsPath = Files.buildPath(directory, termsFilename);
+                if (isIntField) {
+                    writeIntTopTerms(target, scanIntTerms(termsPath));
+                } else {
+                    writeStringTopTerms(target, scanStringTerms(termsPath));
+                }
+            }
+        });
+    }
+
+    static Accumulator<Long> scanIntTerms(String termsFilename) throws IOException {
+        final Accumulator<Long> ret = new Accumulator<Long>();
+        SidecarFiles.scanIntTerms(termsFilename, new SidecarFiles.IntTermVisitor() {
+            @Override
+            public void visit(long term, long docFreq) {
+                ret.offer(term, docFreq);
+            }
+        });
+        return ret;
+    }
+
+    static Accumulator<String> scanStringTerms(String termsFilename) throws IOException {
+        final Accumulator<String> ret = new Accumulator<String>();
+        SidecarFiles.scanStringTerms(termsFilename, new SidecarFiles.StringTermVisitor() {
+            @Override
+            public void visit(byte[] termBytes, int termLength, long docFreq) {
+                // only decode the terms that make it into the heap
+                if (ret.wouldKeep(docFreq)) {
+                    ret.offer(new String(termBytes, 0, termLength, Charsets.UTF_8), docFreq);
+                }
+            }
+        });
+        return ret;
+    }
+}
@@ -21,6 +21,11 @@ import com.indeed.flamdex.api.IntTermIterator;
 import com.indeed.flamdex.api.StringTermIterator;
 import com.indeed.flamdex.datastruct.FastBitSet;
 import com.indeed.flamdex.datastruct.MMapFastBitSet;
+import com.indeed.flamdex.fieldcache.DictionaryIntValueLookup;
+import com.indeed.flamdex.fieldcache.MMapDictionaryIntValueLookup;
+import com.indeed.flamdex.fieldcache.MMapPackedIntValueLookup;
+import com.indeed.flamdex.fieldcache.MultiValuedIntValueLookup;
+import com.indeed.flamdex.fieldcache.PackedIntValueLookup;
 import com.indeed.flamdex.fieldcache.UnsortedIntTermDocIterator;
 import com.indeed.flamdex.fieldcache.UnsortedIntTermDocIteratorImpl;
 import com.indeed.util.io.VIntUtils;
@@ -41,6 +46,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 /**
  * @author jsgroth
@@ -117,6 +123,187 @@ public class FlamdexUtils {
         return buffer;
     }
 
+    public static long[] cachePackedField(UnsortedIntTermDocIterator iterator, int numDocs, long minTerm, int bitsPerValue) {
+        final int[] docIdBuf = new int[BUFFER_SIZE];
+
+        final long[] words = new long[PackedIntValueLookup.numWords(numDocs, bitsPerValue)];
+        while (iterator.nextTerm()) {
+            final long term = iterator.term();
+            while (true) {
+                final int n = iterator.nextDocs(docIdBuf);
+                for (int i = 0; i < n; ++i) {
+                    PackedIntValueLookup.set(words, docIdBuf[i], term, minTerm, bitsPerValue);
+                }
+                if (n < BUFFER_SIZE) break;
+            }
+        }
+
+        return words;
+    }
+
+    public static MMapBuffer cachePackedFieldToFile(UnsortedIntTermDocIterator iterator, int numDocs, long minTerm, long maxTerm, int bitsPerValue, File file) throws IOException {
+        // packing in memory first is simpler than read-modify-writes of straddling values through the mapping,
+        // and the packed array is small compared to the field caches it replaces
+        final long[] words = cachePackedField(iterator, numDocs, minTerm, bitsPerValue);
+
+        final long length = MMapPackedIntValueLookup.length(numDocs, bitsPerValue);
+        final MMapBuffer buffer = new MMapBuffer(file, 0L, length, FileChannel.MapMode.READ_WRITE, ByteOrder.LITTLE_ENDIAN);
+        try {
+            buffer.memory().putLong(0, minTerm);
+            buffer.memory().putInt(8, bitsPerValue);
+            buffer.memory().putInt(12, (int) (maxTerm - minTerm));
+            final LongArray longArray = buffer.memory().longArray(MMapPackedIntValueLookup.HEADER_SIZE, words.length);
+            for (int i = 0; i < words.length; ++i) {
+                longArray.set(i, words[i]);
+            }
+            buffer.sync(0, length);
+        } catch (RuntimeException e) {
+            Closeables2.closeQuietly(buffer, LOG);
+            throw e;
+        } catch (IOException e) {
+            Closeables2.closeQuietly(buffer, LOG);
+            throw e;
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Caches every term of every doc of a multi valued int field, see {@link MultiValuedIntValueLookup}.
+     * Takes two passes over the field, one to count the terms of each doc and one to fill them in.
+     */
+    public static MultiValuedIntValueLookup cacheMultiValuedField(String field, FlamdexReader reader, MultiValuedIntValueLookup.Aggregation aggregation) {
+        final long totalDocFreq = reader.getIntTotalDocFreq(field);
+        if (totalDocFreq > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("field " + field + " has too many values to cache: " + totalDocFreq);
+        }
+        final int numDocs = reader.getNumDocs();
+        final int[] docIdBuf = new int[BUFFER_SIZE];
+
+        // offsets[doc + 1] counts the terms of doc, the prefix sum turns offsets[doc] into where the terms of doc start
+        final int[] offsets = new int[numDocs + 1];
+        UnsortedIntTermDocIterator iterator = UnsortedIntTermDocIteratorImpl.create(reader, field);
+        try {
+            while (iterator.nextTerm()) {
+                while (true) {
+                    final int n = iterator.nextDocs(docIdBuf);
+                    for (int i = 0; i < n; ++i) {
+                        ++offsets[docIdBuf[i] + 1];
+                    }
+                    if (n < BUFFER_SIZE) break;
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        for (int doc = 1; doc <= numDocs; ++doc) {
+            offsets[doc] += offsets[doc - 1];
+        }
+
+        // filling in advances offsets[doc] to where the terms of doc + 1 start, shifting by one restores the offsets
+        final long[] values = new long[offsets[numDocs]];
+        iterator = UnsortedIntTermDocIteratorImpl.create(reader, field);
+        try {
+            while (iterator.nextTerm()) {
+                final long term = iterator.term();
+                while (true) {
+                    final int n = iterator.nextDocs(docIdBuf);
+                    for (int i = 0; i < n; ++i) {
+                        values[offsets[docIdBuf[i]]++] = term;
+                    }
+                    if (n < BUFFER_SIZE) break;
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        System.arraycopy(offsets, 0, offsets, 1, numDocs);
+        offsets[0] = 0;
+
+        return new MultiValuedIntValueLookup(offsets, values, aggregation);
+    }
+
+    /**
+     * Fills dictionary with 0 followed by the terms of the field in ascending order and returns the packed ordinal of
+     * every doc, see {@link DictionaryIntValueLookup}.
+     *
+     * @param dictionary numTerms + 1 longs
+     */
+    public static long[] cacheDictionaryField(UnsortedIntTermDocIterator iterator, int numDocs, long[] dictionary) {
+        final int[] docIdBuf = new int[BUFFER_SIZE];
+        final int numTerms = dictionary.length - 1;
+        final int bitsPerOrdinal = DictionaryIntValueLookup.bitsPerOrdinal(numTerms);
+
+        // ordinals are assigned in iteration order, which is not necessarily term order
+        final long[] words = new long[PackedIntValueLookup.numWords(numDocs, bitsPerOrdinal)];
+        int ordinal = 0;
+        boolean sorted = true;
+        while (iterator.nextTerm()) {
+            if (ordinal == numTerms) {
+                throw new IllegalStateException("field has more than the expected " + numTerms + " terms");
+            }
+            final long term = iterator.term();
+            if (ordinal > 0 && term <= dictionary[ordinal]) {
+                sorted = false;
+            }
+            dictionary[ordinal + 1] = term;
+            while (true) {
+                final int n = iterator.nextDocs(docIdBuf);
+                for (int i = 0; i < n; ++i) {
+                    PackedIntValueLookup.set(words, docIdBuf[i], ordinal, 0, bitsPerOrdinal);
+                }
+                if (n < BUFFER_SIZE) break;
+            }
+            ordinal++;
+        }
+        if (ordinal < numTerms) {
+            throw new IllegalStateException("field has " + ordinal + " terms instead of the expected " + numTerms);
+        }
+        if (sorted) return words;
+
+        final long[] sortedTerms = Arrays.copyOfRange(dictionary, 1, dictionary.length);
+        Arrays.sort(sortedTerms);
+        final int[] sortedOrdinals = new int[numTerms];
+        for (int i = 0; i < numTerms; ++i) {
+            sortedOrdinals[i] = Arrays.binarySearch(sortedTerms, dictionary[i + 1]);
+        }
+        System.arraycopy(sortedTerms, 0, dictionary, 1, numTerms);
+        for (int doc = 0; doc < numDocs; ++doc) {
+            final long stored = PackedIntValueLookup.get(words, doc, bitsPerOrdinal);
+            if (stored != 0) {
+                PackedIntValueLookup.set(words, doc, sortedOrdinals[(int) stored - 1], 0, bitsPerOrdinal);
+            }
+        }
+        return words;
+    }
+
+    public static MMapBuffer cacheDictionaryFieldToFile(UnsortedIntTermDocIterator iterator, int numDocs, long numTerms, File file) throws IOException {
+        final long[] dictionary = new long[(int) numTerms + 1];
+        final long[] words = cacheDictionaryField(iterator, numDocs, dictionary);
+
+        final long length = MMapDictionaryIntValueLookup.length(numDocs, numTerms);
+        final MMapBuffer buffer = new MMapBuffer(file, 0L, length, FileChannel.MapMode.READ_WRITE, ByteOrder.LITTLE_ENDIAN);
+        try {
+            buffer.memory().putLong(0, numTerms);
+            final LongArray longArray = buffer.memory().longArray(MMapDictionaryIntValueLookup.HEADER_SIZE, dictionary.length + words.length);
+            for (int i = 0; i < dictionary.length; ++i) {
+                longArray.set(i, dictionary[i]);
+            }
+            for (int i = 0; i < words.length; ++i) {
+                longArray.set(dictionary.length + i, words[i]);
+            }
+            buffer.sync(0, length);
+        } catch (RuntimeException e) {
+            Closeables2.closeQuietly(buffer, LOG);
+            throw e;
+        } catch (IOException e) {
+            Closeables2.closeQuietly(buffer, LOG);
+            throw e;
+        }
+
+        return buffer;
+    }
+
     public static int[] cacheIntField(UnsortedIntTermDocIterator iterator, int numDocs) {
         final int[] docIdBuf = new int[BUFFER_SIZE];
 
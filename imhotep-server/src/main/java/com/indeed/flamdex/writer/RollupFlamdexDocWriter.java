@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.writer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongLists;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a rollup of the documents it is given: one document per distinct combination of dimension values, with
+ * the sum of every metric over the combined documents and their number in countField. Grouping a rollup by its
+ * dimensions and summing its metrics gives the same results as the original documents, with far fewer documents
+ * to scan when the dimensions have few distinct values.
+ *
+ * Dimensions keep all of their terms, a document with no terms for a dimension is combined with the other
+ * documents that lack it. All terms of a metric are summed, a document without the metric adds 0.
+ * The combinations are kept in memory and written to the underlying writer on close.
+ */
+public final class RollupFlamdexDocWriter implements FlamdexDocWriter {
+    private final FlamdexDocWriter out;
+    private final List<String> intDimensions;
+    private final List<String> stringDimensions;
+    private final List<String> metrics;
+    private final String countField;
+
+    // dimension terms -> metric sums followed by the count, in insertion order so the output is deterministic
+    private final Map<List<Object>, long[]> rollup = Maps.newLinkedHashMap();
+
+    public RollupFlamdexDocWriter(FlamdexDocWriter out, Collection<String> intDimensions, Collection<String> stringDimensions,
+                                  Collection<String> metrics, String countField) {
+        this.out = out;
+        this.intDimensions = ImmutableList.copyOf(intDimensions);
+        this.stringDimensions = ImmutableList.copyOf(stringDimensions);
+        this.metrics = ImmutableList.copyOf(metrics);
+        this.countField = countField;
+        Preconditions.checkArgument(!this.intDimensions.contains(countField) && !this.stringDimensions.contains(countField)
+                && !this.metrics.contains(countField), "count field " + countField + " is also a dimension or metric");
+        Preconditions.checkArgument(Collections.disjoint(this.intDimensions, this.metrics), "int dimensions and metrics overlap");
+    }
+
+    @Override
+    public void addDocument(FlamdexDocument doc) throws IOException {
+        final List<Object> key = Lists.newArrayListWithCapacity(intDimensions.size() + stringDimensions.size());
+        for (final String dimension : intDimensions) {
+            final LongList terms = doc.getIntTerms(dimension);
+            if (terms == null) {
+                key.add(LongLists.EMPTY_LIST);
+            } else {
+                // term order does not matter to a flamdex, so documents that only differ in it are combined
+                final long[] sorted = terms.toLongArray();
+                Arrays.sort(sorted);
+                key.add(new LongArrayList(sorted));
+            }
+        }
+        for (final String dimension : stringDimensions) {
+            final List<String> terms = doc.getStringTerms(dimension);
+            if (terms == null) {
+                key.add(Collections.<String>emptyList());
+            } else {
+                final List<String> sorted = Lists.newArrayList(terms);
+                Collections.sort(sorted);
+                key.add(sorted);
+            }
+        }
+        long[] sums = rollup.get(key);
+        if (sums == null) {
+            sums = new long[metrics.size() + 1];
+            rollup.put(key, sums);
+        }
+        for (int i = 0; i < metrics.size(); i++) {
+            final LongList terms = doc.getIntTerms(metrics.get(i));
+            if (terms != null) {
+                for (int j = 0; j < terms.size(); j++) {
+                    sums[i] += terms.getLong(j);
+                }
+            }
+        }
+        sums[metrics.size()]++;
+    }
+
+    /**
+     * @return the number of documents the rollup has so far
+     */
+    public int getNumRollupDocs() {
+        return rollup.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            for (final Map.Entry<List<Object>, long[]> e : rollup.entrySet()) {
+                out.addDocument(toDocument(e.getKey(), e.getValue()));
+            }
+            rollup.clear();
+        } finally {
+            out.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private FlamdexDocument toDocument(List<Object> key, long[] sums) {
+        final FlamdexDocument doc = new FlamdexDocument();
+        int k = 0;
+        for (final String dimension : intDimensions) {
+            final LongList terms = (LongList) key.get(k++);
+            if (!terms.isEmpty()) {
+                doc.setIntField(dimension, terms.toLongArray());
+            }
+        }
+        for (final String dimension : stringDimensions) {
+            final List<String> terms = (List<String>) key.get(k++);
+            if (!terms.isEmpty()) {
+                doc.setStringField(dimension, terms);
+            }
+        }
+        for (int i = 0; i < metrics.size(); i++) {
+            doc.setIntField(metrics.get(i), sums[i]);
+        }
+        doc.setIntField(countField, sums[metrics.size()]);
+        return doc;
+    }
+}
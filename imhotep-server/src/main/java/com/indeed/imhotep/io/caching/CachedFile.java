@@ -15,6 +15,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -161,6 +162,25 @@ public class CachedFile {
         return data.get(fullPath);
     }
 
+    /**
+     * Fetches the files and directories in one parallel round ahead of their use, if the file system
+     * they are on keeps local copies. Files that do not exist are skipped.
+     */
+    public static void prefetch(List<CachedFile> files) throws IOException {
+        final List<RemoteFileInfo> infos;
+
+        if (files.isEmpty()) {
+            return;
+        }
+        infos = new ArrayList<RemoteFileInfo>(files.size());
+        for (CachedFile file : files) {
+            if (file.exists()) {
+                infos.add(new RemoteFileInfo(file.fullPath, file.info.type));
+            }
+        }
+        files.get(0).topFS.prefetch(infos);
+    }
+
     public String getCanonicalPath() throws IOException {
         return this.fullPath;
     }
@@ -17,28 +17,40 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.TrueFileFilter;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalCause;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
-import com.google.common.cache.Weigher;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * Keeps local copies of the files of the file system below it in cache-dir, up to cacheSizeMB.
+ * The cache survives restarts, see {@link PersistentFileCache}.
+ */
 public class CachedRemoteFileSystem extends RemoteFileSystem {
+    private static final int PREFETCH_THREADS =
+            Integer.getInteger("com.indeed.imhotep.io.caching.CachedRemoteFileSystem.prefetchThreads", 8);
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("CachedRemoteFileSystemPrefetch-%d").build());
+
     private RemoteFileSystem parentFS;
     private String mountPoint;
     private RemoteFileSystemMounter mounter;
     private File localCacheDir;
-    private LoadingCache<String, File> cache;
+    private PersistentFileCache cache;
+    private final PersistentFileCache.Downloader downloader = new PersistentFileCache.Downloader() {
+        public void download(String fullPath, File target) throws IOException {
+            parentFS.copyFileInto(fullPath, target);
+        }
+    };
 
     public CachedRemoteFileSystem(Map<String,Object> settings, 
                                   RemoteFileSystem parentFS,
@@ -64,79 +76,22 @@ public class CachedRemoteFileSystem extends RemoteFileSystem {
         
         cacheSize = (Integer)settings.get("cacheSizeMB");
 
-        cache =
-                CacheBuilder.newBuilder()
-                            .initialCapacity(8192)
-                            .maximumWeight(cacheSize * 1024)
-                            .weigher(new Weigher<String, File>() {
-                                public int weigh(String path, File cachedFile) {
-                                    int kb;
-                                    kb = (int)(cachedFile.length() / 1024);
-                                    /* don't return weights of 0 */
-                                    if (kb == 0) {
-                                        kb = 1;
-                                    }
-                                    return kb;
-                                }
-                            })
-                            .removalListener(new RemovalListener<String, File>() {
-                                public void onRemoval(RemovalNotification<String, File> rn) {
-                                    if (rn.getCause().equals(RemovalCause.REPLACED)) {
-                                        /* don't delete replaced files */
-                                        return;
-                                    }
-                                    removeFile(rn.getValue());
-                                }
-                            })
-                            .build(new CacheLoader<String, File>() {
-                                public File load(String path) throws Exception {
-                                    return downloadFile(path);
-                                }
-                            });
-
-        scanExistingFiles();
-    }
-    
-    private void scanExistingFiles() throws IOException {
-        final Iterator<File> filesInCache;
-        final int prefixLen;
-        
-        prefixLen = localCacheDir.getCanonicalPath().length() + DELIMITER.length();
-        filesInCache = FileUtils.iterateFiles(localCacheDir, 
-                                              TrueFileFilter.INSTANCE, 
-                                              TrueFileFilter.INSTANCE);
-        while (filesInCache.hasNext()) {
-            final File cachedFile = filesInCache.next();
-            final String path = cachedFile.getCanonicalPath();
-            String cachePath = path.substring(prefixLen);
-            cache.put(cachePath, cachedFile);
-        }
-    }
-    
-    private void removeFile(File cachedFile) {
-        cachedFile.delete();
+        cache = new PersistentFileCache(localCacheDir, cacheSize * 1024L, new Function<String, String>() {
+            public String apply(String relativePath) {
+                return mountPoint + relativePath;
+            }
+        });
     }
     
-    private File downloadFile(String fullPath) throws IOException {
+    private File getCachedFile(String fullPath) throws IOException {
         final String relativePath = mounter.getMountRelativePath(fullPath, mountPoint);
-        final File localFile;
-        
-        localFile = new File(localCacheDir, relativePath);
-        /* create all the directories on the path to the file */
-        localFile.getParentFile().mkdirs();
-
-        parentFS.copyFileInto(fullPath, localFile);
 
-        return localFile;
+        return cache.get(fullPath, new File(localCacheDir, relativePath), downloader);
     }
 
     @Override
     public File loadFile(String fullPath) throws IOException {
-        try {
-            return cache.get(fullPath);
-        } catch (ExecutionException e) {
-            throw new IOException(e);
-        }
+        return getCachedFile(fullPath);
     }
 
     @Override
@@ -156,14 +111,10 @@ public class CachedRemoteFileSystem extends RemoteFileSystem {
 
     @Override
     public void copyFileInto(String fullPath, File localFile) throws IOException {
-        try {
-            final File cachedFile;
+        final File cachedFile;
 
-            cachedFile = cache.get(fullPath);
-            FileUtils.copyFile(cachedFile, localFile);
-        } catch (ExecutionException e) {
-            throw new IOException(e);
-        }
+        cachedFile = getCachedFile(fullPath);
+        FileUtils.copyFile(cachedFile, localFile);
     }
 
     @Override
@@ -181,18 +132,79 @@ public class CachedRemoteFileSystem extends RemoteFileSystem {
         /* create all the directories on the path to the file */
         localDir.getParentFile().mkdirs();
         
-        files = parentFS.loadDirectory(fullPath, localDir);
-        if (files == null) {
-            return null;
+        final List<String> residentFiles = cache.getDirectory(fullPath);
+        if (residentFiles != null) {
+            /* loaded before, only fetch the files that have been evicted since */
+            files = new HashMap<String, File>();
+            for (String path : residentFiles) {
+                files.put(path, getCachedFile(path));
+            }
+            files.put(fullPath, localDir);
+            return files;
         }
-        
-        for (Map.Entry<String, File> entry : files.entrySet()) {
-            cache.put(entry.getKey(), entry.getValue());
+
+        /* download into a temporary directory so that a crash never leaves partial files under their final names */
+        final File tmpDir = PersistentFileCache.newTempFile(localDir);
+        try {
+            if (!tmpDir.mkdirs()) {
+                throw new IOException("unable to create " + tmpDir);
+            }
+            files = parentFS.loadDirectory(fullPath, tmpDir);
+            if (files == null) {
+                return null;
+            }
+
+            final String tmpPrefix = tmpDir.getCanonicalPath() + File.separator;
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                final String tmpPath = entry.getValue().getCanonicalPath();
+                if (!tmpPath.startsWith(tmpPrefix)) {
+                    throw new IOException(entry.getValue() + " was not downloaded into " + tmpDir);
+                }
+                final File file = new File(localDir, tmpPath.substring(tmpPrefix.length()));
+                file.getParentFile().mkdirs();
+                if (!entry.getValue().renameTo(file)) {
+                    throw new IOException("unable to rename " + entry.getValue() + " to " + file);
+                }
+                entry.setValue(file);
+                cache.put(entry.getKey(), file);
+            }
+        } finally {
+            FileUtils.deleteQuietly(tmpDir);
         }
+        cache.putDirectory(fullPath, Lists.newArrayList(files.keySet()));
         files.put(fullPath, localDir);
         return files;
     }
 
+    /*
+     * Fetches everything that is not local yet on the prefetch threads and waits for it
+     */
+    @Override
+    public void prefetch(List<RemoteFileInfo> files) throws IOException {
+        final List<Future<Void>> fetches = Lists.newArrayList();
+
+        for (final RemoteFileInfo info : files) {
+            final boolean isDirectory = info.type == RemoteFileInfo.TYPE_DIR;
+            if (isDirectory ? cache.getDirectory(info.path) != null : cache.contains(info.path)) {
+                continue;
+            }
+            fetches.add(prefetcher.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    if (isDirectory) {
+                        loadDirectory(info.path, null);
+                    } else {
+                        getCachedFile(info.path);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> fetch : fetches) {
+            ParallelDownloader.get(fetch);
+        }
+    }
+
     @Override
     public InputStream getInputStreamForFile(String fullPath, 
                                              long startOffset, 
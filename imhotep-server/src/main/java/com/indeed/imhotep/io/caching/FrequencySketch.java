@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.io.caching;
+
+/**
+ * Count-min sketch of 4 bit counters that estimates how often keys were seen recently. All counters are halved
+ * every sampleSize increments, so that keys that used to be popular fade out.
+ */
+final class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = {0x97cb3127, 0xb4b82e95, 0x3d4c8b15, 0x5f6e2b63};
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int size = 0;
+
+    FrequencySketch(int expectedEntries) {
+        final int numCounters = Integer.highestOneBit(Math.max(64, Math.min(expectedEntries, 1 << 22)) - 1) << 3;
+        table = new long[numCounters >>> 4];
+        counterMask = numCounters - 1;
+        sampleSize = 10 * Math.max(64, expectedEntries);
+    }
+
+    int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        int ret = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            ret = Math.min(ret, get(indexOf(hash, i)));
+        }
+        return ret;
+    }
+
+    void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            final int index = indexOf(hash, i);
+            if (get(index) < 15) {
+                table[index >>> 4] += 1L << ((index & 15) << 2);
+                added = true;
+            }
+        }
+        if (added && ++size == sampleSize) {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size /= 2;
+        }
+    }
+
+    private int get(int index) {
+        return (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xF);
+    }
+
+    private int indexOf(int hash, int i) {
+        int h = (hash + SEEDS[i]) * SEEDS[i];
+        h ^= h >>> 17;
+        return h & counterMask;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
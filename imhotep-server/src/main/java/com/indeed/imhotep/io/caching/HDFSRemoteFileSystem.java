@@ -27,6 +27,7 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -62,11 +63,28 @@ public class HDFSRemoteFileSystem extends RemoteFileSystem {
         }
     }
 
+    private final ParallelDownloader.RangeReader rangeReader = new ParallelDownloader.RangeReader() {
+        @Override
+        public InputStream openRange(String hdfsPath, long offset, long length) throws IOException {
+            final FSDataInputStream stream = fs.open(new Path(hdfsPath));
+            try {
+                stream.seek(offset);
+            } catch (final IOException e) {
+                Closeables2.closeQuietly(stream, log);
+                throw e;
+            }
+            return stream;
+        }
+    };
+
     @Override
     public void copyFileInto(String fullPath, File localFile) throws IOException {
         final String relativePath = mounter.getMountRelativePath(fullPath, mountPoint);
         final Path hdfsPath = new Path(hdfsBasePath, relativePath);
-        fs.copyToLocalFile(hdfsPath, new Path(localFile.getPath()));
+        final FileStatus status = fs.getFileStatus(hdfsPath);
+        // large files are read as concurrent ranges
+        ParallelDownloader.download(rangeReader, Collections.singletonList(
+                new ParallelDownloader.Download(hdfsPath.toString(), status.getLen(), localFile)));
     }
 
     @Override
@@ -139,15 +157,17 @@ public class HDFSRemoteFileSystem extends RemoteFileSystem {
 
         try {
             final FileStatus[] contents = fs.listStatus(hdfsPath);
+            final List<ParallelDownloader.Download> downloads = new ArrayList<>();
             for (FileStatus status : contents) {
                 if (!status.isDirectory()) {
-                    File localFile = new File(location, status.getPath().getName());
-                    localFile.getParentFile().mkdirs();
-                    copyFileInto(status.getPath().toString(), localFile);
+                    final File localFile = new File(location, status.getPath().getName());
+                    downloads.add(new ParallelDownloader.Download(status.getPath().toString(), status.getLen(), localFile));
                     results.put(fullPath + status.getPath().getName(), localFile);
                 }
             }
+            ParallelDownloader.download(rangeReader, downloads);
         } catch (IOException e) {
+            results.clear();
             log.error(e);
         }
 
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.io.caching;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.indeed.util.core.io.Closeables2;
+import org.apache.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads remote files as ranges of at most {@link #PART_SIZE} bytes that are fetched concurrently and written
+ * into place in the local file, so that a cold shard load is bound by the network instead of one connection.
+ *
+ * All downloads of the process share one pool of com.indeed.imhotep.io.caching.ParallelDownloader.threads threads,
+ * which bounds the number of concurrent requests across sessions. Only the calling thread waits for parts,
+ * pool threads never do, so concurrent callers cannot deadlock the pool.
+ */
+final class ParallelDownloader {
+    private static final Logger log = Logger.getLogger(ParallelDownloader.class);
+
+    static final long PART_SIZE = Long.getLong("com.indeed.imhotep.io.caching.ParallelDownloader.partSize", 8L * 1024 * 1024);
+    private static final int NUM_THREADS = Integer.getInteger("com.indeed.imhotep.io.caching.ParallelDownloader.threads", 16);
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ParallelDownloader-%d").build());
+
+    private ParallelDownloader() {}
+
+    interface RangeReader {
+        /**
+         * @return a stream over at least length bytes of the remote file starting at offset
+         */
+        InputStream openRange(String remotePath, long offset, long length) throws IOException;
+    }
+
+    static final class Download {
+        final String remotePath;
+        final long size;
+        final File target;
+
+        Download(String remotePath, long size, File target) {
+            this.remotePath = remotePath;
+            this.size = size;
+            this.target = target;
+        }
+    }
+
+    static void download(RangeReader reader, List<Download> downloads) throws IOException {
+        download(reader, downloads, PART_SIZE);
+    }
+
+    /**
+     * Fetches all downloads into their targets and returns once every part is on disk.
+     * If any part fails the remaining ones are skipped, the targets are deleted and the failure is rethrown.
+     */
+    static void download(final RangeReader reader, List<Download> downloads, long partSize) throws IOException {
+        final List<Future<Void>> parts = Lists.newArrayList();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        try {
+            for (final Download download : downloads) {
+                download.target.getParentFile().mkdirs();
+                final RandomAccessFile file = new RandomAccessFile(download.target, "rw");
+                try {
+                    file.setLength(download.size);
+                } finally {
+                    file.close();
+                }
+                for (long offset = 0; offset < download.size; offset += partSize) {
+                    final long partOffset = offset;
+                    final long partLength = Math.min(partSize, download.size - offset);
+                    parts.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            if (failed.get()) return null;
+                            try {
+                                downloadPart(reader, download, partOffset, partLength, failed);
+                            } catch (IOException e) {
+                                // stops the other parts without waiting for the caller to get to this one
+                                failed.set(true);
+                                throw e;
+                            } catch (RuntimeException e) {
+                                failed.set(true);
+                                throw e;
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for (final Future<Void> part : parts) {
+                get(part);
+            }
+        } catch (IOException e) {
+            abort(parts, downloads, failed);
+            throw e;
+        } catch (RuntimeException e) {
+            abort(parts, downloads, failed);
+            throw e;
+        }
+    }
+
+    private static void downloadPart(RangeReader reader, Download download, long offset, long length,
+                                     AtomicBoolean failed) throws IOException {
+        final InputStream in = reader.openRange(download.remotePath, offset, length);
+        try {
+            final RandomAccessFile out = new RandomAccessFile(download.target, "rw");
+            try {
+                out.seek(offset);
+                final byte[] buffer = new byte[(int) Math.min(65536, length)];
+                long remaining = length;
+                while (remaining > 0 && !failed.get()) {
+                    final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException(download.remotePath + " ended " + remaining + " bytes before the end of range "
+                                + offset + "+" + length);
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            Closeables2.closeQuietly(in, log);
+        }
+    }
+
+    private static void abort(List<Future<Void>> parts, List<Download> downloads, AtomicBoolean failed) {
+        // running parts stop at their next buffer, wait for them so that nothing writes to the files once they are deleted
+        failed.set(true);
+        for (final Future<Void> part : parts) {
+            try {
+                part.get();
+            } catch (Exception e) {
+                // already reported through the first failure
+            }
+        }
+        for (final Download download : downloads) {
+            download.target.delete();
+        }
+    }
+
+    static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
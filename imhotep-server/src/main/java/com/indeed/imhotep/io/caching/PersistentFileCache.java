@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.io.caching;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Local disk cache of remote files that survives restarts. Files are downloaded to a temporary name and renamed once
+ * complete, and every change is appended to an index file in the cache directory, so after a restart or a crash the
+ * cache knows what it holds instead of downloading it again. Eviction follows a {@link TinyLfuPolicy}.
+ *
+ * The index is a journal of tab separated lines: A weight file key when a file was added, H key when it was hit,
+ * R key when it was removed, S region frequency weight file key for the entries of a compacted index, and
+ * D key member... count for the files of a directory that has been loaded as a whole.
+ * It is compacted on startup and whenever it grows to several times the number of entries. Entries whose file is
+ * missing or has the wrong size are dropped when it is read, complete files it does not know about are adopted
+ * and leftover temporary files and directories are deleted, which makes losing the tail of the journal harmless.
+ * Directories are dropped on compaction once none of their files is cached anymore.
+ *
+ * Callers open the files they get some time after the cache hands them out, so a file that is evicted within
+ * pinMillis of being handed out stays on disk until then. Such files no longer count against the maximum weight.
+ */
+final class PersistentFileCache implements Closeable {
+    private static final Logger log = Logger.getLogger(PersistentFileCache.class);
+
+    static final String INDEX_FILENAME = ".cache-index";
+    private static final String HEADER = "imhotep-file-cache 1";
+    private static final String TMP_SUFFIX = ".cachetmp";
+    private static final int MIN_COMPACTION_RECORDS = 10000;
+    private static final long PIN_MILLIS = Long.getLong("com.indeed.imhotep.io.caching.PersistentFileCache.pinMillis", 60000);
+
+    interface Downloader {
+        void download(String key, File target) throws IOException;
+    }
+
+    private final File dir;
+    private final String dirPrefix;
+    private final File indexFile;
+    private final long maxWeightKB;
+    private final TinyLfuPolicy policy;
+    private final Map<String, File> files = Maps.newHashMap();
+    private final Map<String, List<String>> directories = Maps.newHashMap();
+    private final ConcurrentMap<String, FutureTask<File>> downloads = new ConcurrentHashMap<String, FutureTask<File>>();
+    private final long pinMillis;
+    // when each file that was handed out may be deleted, in the order they were handed out
+    private final LinkedHashMap<File, Long> pinnedUntil = new LinkedHashMap<File, Long>();
+    // evicted files that were still pinned
+    private final Set<File> pendingDeletes = Sets.newHashSet();
+    private Writer journal;
+    private int journalRecords = 0;
+
+    /**
+     * @param relativePathToKey maps the path of a file in dir that the index does not know about to its key
+     */
+    PersistentFileCache(File dir, long maxWeightKB, Function<String, String> relativePathToKey) throws IOException {
+        this(dir, maxWeightKB, relativePathToKey, PIN_MILLIS);
+    }
+
+    /**
+     * @param pinMillis how long a file that was handed out is kept on disk if it gets evicted
+     */
+    PersistentFileCache(File dir, long maxWeightKB, Function<String, String> relativePathToKey, long pinMillis) throws IOException {
+        this.dir = dir;
+        this.pinMillis = pinMillis;
+        dirPrefix = dir.getCanonicalPath() + File.separator;
+        indexFile = new File(dir, INDEX_FILENAME);
+        this.maxWeightKB = maxWeightKB;
+        // sized for files of about a megabyte
+        policy = new TinyLfuPolicy(maxWeightKB, (int) Math.min(Integer.MAX_VALUE, Math.max(1024, maxWeightKB / 1024)));
+        synchronized (this) {
+            replayIndex();
+            adoptUntrackedFiles(relativePathToKey);
+            deleteFiles(policy.trim());
+            compact();
+        }
+    }
+
+    /**
+     * @return the cached file for key, which is downloaded to target if it is not cached yet. Concurrent requests for
+     * the same key wait for a single download.
+     */
+    File get(final String key, final File target, final Downloader downloader) throws IOException {
+        synchronized (this) {
+            final File file = files.get(key);
+            if (file != null) {
+                policy.recordAccess(key);
+                appendRecord("H\t" + key);
+                pin(file);
+                return file;
+            }
+        }
+        final FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                return download(key, target, downloader);
+            }
+        });
+        final FutureTask<File> existing = downloads.putIfAbsent(key, task);
+        if (existing != null) {
+            return getDownload(existing);
+        }
+        try {
+            task.run();
+            return getDownload(task);
+        } finally {
+            downloads.remove(key, task);
+        }
+    }
+
+    private static File getDownload(FutureTask<File> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private File download(String key, File target, Downloader downloader) throws IOException {
+        synchronized (this) {
+            // another thread may have finished downloading it in the meantime
+            final File file = files.get(key);
+            if (file != null) {
+                pin(file);
+                return file;
+            }
+        }
+        final File parent = target.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("unable to create " + parent);
+        }
+        final File tmp = newTempFile(target);
+        try {
+            downloader.download(key, tmp);
+            if (!tmp.renameTo(target)) {
+                throw new IOException("unable to rename " + tmp + " to " + target);
+            }
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                log.warn("unable to delete " + tmp);
+            }
+        }
+        put(key, target);
+        return target;
+    }
+
+    /**
+     * Adds a file that is already in the cache directory, replacing whatever was cached for key. The file is pinned
+     * like the ones {@link #get} hands out.
+     */
+    synchronized void put(String key, File file) throws IOException {
+        final long weight = weigh(file);
+        // a new copy of a file that was evicted while pinned
+        pendingDeletes.remove(file);
+        pin(file);
+        files.put(key, file);
+        appendRecord("A\t" + weight + "\t" + relativePath(file) + "\t" + key);
+        deleteFiles(policy.add(key, weight));
+        compactIfNeeded();
+    }
+
+    /**
+     * Remembers the keys of the files of a directory, they do not have to stay cached.
+     */
+    synchronized void putDirectory(String key, List<String> memberKeys) throws IOException {
+        final StringBuilder record = new StringBuilder("D\t").append(key);
+        for (final String member : memberKeys) {
+            record.append('\t').append(member);
+        }
+        record.append('\t').append(memberKeys.size());
+        directories.put(key, Collections.unmodifiableList(Lists.newArrayList(memberKeys)));
+        appendRecord(record.toString());
+        compactIfNeeded();
+    }
+
+    /**
+     * @return the keys of the files of the directory, or null if it was never put
+     */
+    synchronized List<String> getDirectory(String key) {
+        return directories.get(key);
+    }
+
+    /**
+     * @return a unique path next to target, whatever is left at such a path when the cache is opened gets deleted
+     */
+    static File newTempFile(File target) {
+        return new File(target.getParentFile(), target.getName() + "." + UUID.randomUUID() + TMP_SUFFIX);
+    }
+
+    synchronized int size() {
+        return files.size();
+    }
+
+    synchronized boolean contains(String key) {
+        return files.containsKey(key);
+    }
+
+    synchronized long getWeightKB() {
+        return policy.getWeightedSize();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        for (final File file : pendingDeletes) {
+            delete(file);
+        }
+        pendingDeletes.clear();
+        pinnedUntil.clear();
+    }
+
+    private void pin(File file) {
+        pinnedUntil.remove(file);
+        pinnedUntil.put(file, System.currentTimeMillis() + pinMillis);
+    }
+
+    /**
+     * Deletes the evicted files whose pins ran out.
+     */
+    private void expirePins() {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<Map.Entry<File, Long>> it = pinnedUntil.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<File, Long> entry = it.next();
+            if (entry.getValue() > now) break;
+            it.remove();
+            if (pendingDeletes.remove(entry.getKey())) {
+                delete(entry.getKey());
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            log.warn("unable to delete evicted file " + file);
+        }
+    }
+
+    private static long weigh(File file) {
+        /* don't return weights of 0 */
+        return Math.max(1, file.length() / 1024);
+    }
+
+    private String relativePath(File file) throws IOException {
+        final String path = file.getCanonicalPath();
+        if (!path.startsWith(dirPrefix)) {
+            throw new IOException(file + " is not in the cache directory " + dir);
+        }
+        return path.substring(dirPrefix.length());
+    }
+
+    private void deleteFiles(List<String> evictedKeys) throws IOException {
+        expirePins();
+        for (final String key : evictedKeys) {
+            final File file = files.remove(key);
+            appendRecord("R\t" + key);
+            if (file == null) continue;
+            if (pinnedUntil.containsKey(file)) {
+                pendingDeletes.add(file);
+            } else {
+                delete(file);
+            }
+        }
+    }
+
+    private void appendRecord(String record) throws IOException {
+        if (journal == null) return;
+        journal.write(record);
+        journal.write('\n');
+        // flushed to the os right away so that a crashing daemon loses nothing, a crashing machine at most the tail
+        journal.flush();
+        journalRecords++;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (journalRecords > Math.max(MIN_COMPACTION_RECORDS, 4 * (files.size() + directories.size()))) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the index as one S line per entry, through a temporary file that replaces the index atomically.
+     */
+    private void compact() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        final File tmp = new File(dir, INDEX_FILENAME + TMP_SUFFIX);
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+            writer.write(HEADER);
+            writer.write('\n');
+            for (final TinyLfuPolicy.Entry entry : policy.getEntries()) {
+                writer.write("S\t" + entry.getRegion() + "\t" + policy.frequency(entry.key) + "\t" + entry.weight + "\t"
+                        + relativePath(files.get(entry.key)) + "\t" + entry.key + "\n");
+            }
+            for (final Iterator<Map.Entry<String, List<String>>> it = directories.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<String, List<String>> directory = it.next();
+                if (!containsAny(directory.getValue())) {
+                    it.remove();
+                    continue;
+                }
+                writer.write("D\t" + directory.getKey());
+                for (final String member : directory.getValue()) {
+                    writer.write("\t" + member);
+                }
+                writer.write("\t" + directory.getValue().size() + "\n");
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(indexFile)) {
+            throw new IOException("unable to rename " + tmp + " to " + indexFile);
+        }
+        journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), Charsets.UTF_8));
+        journalRecords = files.size() + directories.size();
+    }
+
+    private boolean containsAny(List<String> keys) {
+        for (final String key : keys) {
+            if (files.containsKey(key)) return true;
+        }
+        return false;
+    }
+
+    private void replayIndex() throws IOException {
+        final BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), Charsets.UTF_8));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        try {
+            final String header = reader.readLine();
+            if (!HEADER.equals(header)) {
+                log.warn("ignoring cache index " + indexFile + " with unknown header " + header);
+                return;
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                try {
+                    replayRecord(line);
+                } catch (RuntimeException e) {
+                    // most likely the torn last line of a crashed daemon
+                    log.warn("skipping bad cache index line: " + line, e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        // the journal is only trusted as far as the files on disk agree with it
+        for (final TinyLfuPolicy.Entry entry : policy.getEntries()) {
+            final File file = files.get(entry.key);
+            if (!file.isFile() || weigh(file) != entry.weight) {
+                policy.remove(entry.key);
+                files.remove(entry.key);
+            }
+        }
+    }
+
+    private void replayRecord(String line) {
+        final String[] split = line.split("\t");
+        final char type = split[0].charAt(0);
+        switch (type) {
+            case 'A':
+                files.put(split[3], new File(dir, split[2]));
+                // adds evict like they did when the journal was written, those files are already gone
+                for (final String evicted : policy.add(split[3], Long.parseLong(split[1]))) {
+                    files.remove(evicted);
+                }
+                break;
+            case 'S':
+                files.put(split[5], new File(dir, split[4]));
+                policy.restore(split[5], Long.parseLong(split[3]), split[1].charAt(0), Integer.parseInt(split[2]));
+                break;
+            case 'H':
+                policy.recordAccess(split[1]);
+                break;
+            case 'R':
+                policy.remove(split[1]);
+                files.remove(split[1]);
+                break;
+            case 'D':
+                // the count comes last so that a torn line never passes for a complete one
+                if (Integer.parseInt(split[split.length - 1]) != split.length - 3) {
+                    throw new IllegalArgumentException("expected " + split[split.length - 1] + " directory members");
+                }
+                directories.put(split[1], Collections.unmodifiableList(Arrays.asList(split).subList(2, split.length - 1)));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown record type " + type);
+        }
+    }
+
+    private void adoptUntrackedFiles(Function<String, String> relativePathToKey) throws IOException {
+        final Map<File, String> trackedFiles = Maps.newHashMap();
+        for (final Map.Entry<String, File> entry : files.entrySet()) {
+            trackedFiles.put(entry.getValue().getCanonicalFile(), entry.getKey());
+        }
+        deleteTempDirectories(dir);
+        final Iterator<File> it = FileUtils.iterateFiles(dir, TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE);
+        while (it.hasNext()) {
+            final File file = it.next().getCanonicalFile();
+            if (file.getName().equals(INDEX_FILENAME) || trackedFiles.containsKey(file)) continue;
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                // a download or compaction that did not finish
+                if (!file.delete()) {
+                    log.warn("unable to delete " + file);
+                }
+                continue;
+            }
+            final String key = relativePathToKey.apply(relativePath(file));
+            files.put(key, file);
+            deleteFiles(policy.add(key, weigh(file)));
+        }
+    }
+
+    /**
+     * Deletes the directories that downloads of whole directories left behind.
+     */
+    private static void deleteTempDirectories(File parent) {
+        final File[] children = parent.listFiles();
+        if (children == null) return;
+        for (final File child : children) {
+            if (!child.isDirectory()) continue;
+            if (child.getName().endsWith(TMP_SUFFIX)) {
+                if (!FileUtils.deleteQuietly(child)) {
+                    log.warn("unable to delete " + child);
+                }
+            } else {
+                deleteTempDirectories(child);
+            }
+        }
+    }
+}
@@ -75,4 +75,11 @@ public abstract class RemoteFileSystem {
                                                       long startOffset, 
                                                       long maxReadLength) throws IOException;
 
+    /*
+     * Fetches files and directories, identified by their full path, ahead of their first use.
+     * Only file systems that keep local copies do anything here.
+     */
+    public void prefetch(List<RemoteFileInfo> files) throws IOException {
+    }
+
 }
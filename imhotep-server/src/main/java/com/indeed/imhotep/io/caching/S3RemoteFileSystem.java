@@ -18,6 +18,7 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +28,7 @@ import org.apache.log4j.Logger;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
@@ -72,7 +74,27 @@ public class S3RemoteFileSystem extends RemoteFileSystem {
         cred = new BasicAWSCredentials(s3key, s3secret);
 
         client = new AmazonS3Client(cred);
+        /* an S3 compatible store, e.g. a local stand-in for tests */
+        final String s3endpoint = (String)settings.get("s3-endpoint");
+        if (s3endpoint != null) {
+            client.setEndpoint(s3endpoint);
+            client.setS3ClientOptions(S3ClientOptions.builder().setPathStyleAccess(true).build());
+        }
     }
+
+    private final ParallelDownloader.RangeReader rangeReader = new ParallelDownloader.RangeReader() {
+        @Override
+        public InputStream openRange(String s3path, long offset, long length) throws IOException {
+            final GetObjectRequest request = new GetObjectRequest(s3bucket, s3path);
+            /* the end of an S3 range is inclusive */
+            request.setRange(offset, offset + length - 1);
+            try {
+                return client.getObject(request).getObjectContent();
+            } catch(AmazonServiceException e) {
+                throw new IOException(e);
+            }
+        }
+    };
     
     private String getS3path(String path) {
         
@@ -123,10 +145,13 @@ public class S3RemoteFileSystem extends RemoteFileSystem {
         final ObjectMetadata metadata;
         
         try {
-            metadata = client.getObject(new GetObjectRequest(s3bucket, s3path), localFile);
-        } catch(AmazonS3Exception e) {
+            metadata = client.getObjectMetadata(s3bucket, s3path);
+        } catch(AmazonServiceException e) {
             throw new IOException(e);
         }
+        /* large objects are fetched as concurrent ranged GETs */
+        ParallelDownloader.download(rangeReader, Collections.singletonList(
+                new ParallelDownloader.Download(s3path, metadata.getContentLength(), localFile)));
     }
 
     private ObjectMetadata getMetadata(String fullPath) {
@@ -280,12 +305,14 @@ public class S3RemoteFileSystem extends RemoteFileSystem {
         String s3path = getS3path(relativePath);
         ObjectListing listing;
         final Map<String,File> results;
+        final List<ParallelDownloader.Download> downloads;
         
         if (!s3path.isEmpty()) {
             s3path += DELIMITER;
         }
         
         results = new HashMap<String,File>(100);
+        downloads = new ArrayList<ParallelDownloader.Download>(100);
         
         if (location == null) {
             location = File.createTempFile("s3", "remoteFile");
@@ -295,43 +322,40 @@ public class S3RemoteFileSystem extends RemoteFileSystem {
         
         /* grab first set of keys for the object we found */
         listing = getListing(s3path, -1, true);
-        /* load all of the objects */
-        for (String filename : getFilenamesFromListing(listing, s3path)) {
-            final String fname = joinPaths(fullPath, filename);
-            final File localFile;
-
-            localFile = new File(location, filename);
-            /* create all the directories on the path to the file */
-            localFile.getParentFile().mkdirs();
-
-            /* download file */
-            copyFileInto(fname, localFile);
-            
-            results.put(fname, localFile);
-        }
-        
+        addDownloads(listing, s3path, fullPath, location, downloads, results);
         
         /* loop until all the keys have been read */
         while(listing.isTruncated()) {
             listing = client.listNextBatchOfObjects(listing);
-            
-            /* load all of the objects */
-            for (String filename : getFilenamesFromListing(listing, s3path)) {
-                final String fname = joinPaths(fullPath, filename);
-                final File localFile;
+            addDownloads(listing, s3path, fullPath, location, downloads, results);
+        }
 
-                localFile = new File(location, filename);
-                /* create all the directories on the path to the file */
-                localFile.getParentFile().mkdirs();
+        /* download all of the objects, in parallel */
+        ParallelDownloader.download(rangeReader, downloads);
 
-                /* download file */
-                copyFileInto(fname, localFile);
-                
-                results.put(fname, localFile);
+        return results;
+    }
+    
+    private void addDownloads(ObjectListing listing,
+                              String prefix,
+                              String fullPath,
+                              File location,
+                              List<ParallelDownloader.Download> downloads,
+                              Map<String,File> results) {
+        for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+            final String key = summary.getKey();
+            final String filename;
+            final File localFile;
+
+            filename = key.substring(prefix.length());
+            if (filename.length() == 0 || filename.contains(DELIMITER)) {
+                log.error("Error parsing S3 object Key.  Key: " + key);
+                continue;
             }
+            localFile = new File(location, filename);
+            downloads.add(new ParallelDownloader.Download(key, summary.getSize(), localFile));
+            results.put(joinPaths(fullPath, filename), localFile);
         }
-
-        return results;
     }
     
     private String joinPaths(String dirPath, String filePath) {
@@ -26,7 +26,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import com.google.common.base.Charsets;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import com.indeed.imhotep.archive.ArchiveUtils;
+import com.indeed.imhotep.archive.FileBlockRange;
 import com.indeed.imhotep.archive.FileMetadata;
 import com.indeed.imhotep.archive.compression.SquallArchiveCompressor;
 
@@ -71,8 +73,9 @@ public class SqarRemoteFileSystem extends RemoteFileSystem {
         final SquallArchiveCompressor compressor = split.length > 5 ?
                 SquallArchiveCompressor.fromKey(split[5]) : SquallArchiveCompressor.NONE;
         final String archiveFilename = split.length > 6 ? split[6] : "archive.bin";
-        return new FileMetadata(filename, size, timestamp, checksum, startOffset, compressor,
-                                archiveFilename);
+        final FileMetadata metadata = new FileMetadata(filename, size, timestamp, checksum, startOffset, compressor,
+                                                       archiveFilename);
+        return split.length > 7 ? FileMetadata.withBlockIndex(metadata, split[7]) : metadata;
    }
     
     private FileMetadata scanMetadataForFile(String file) throws IOException {
@@ -137,7 +140,6 @@ public class SqarRemoteFileSystem extends RemoteFileSystem {
     public void copyFileInto(String fullPath, File localFile) throws IOException {
         final String relativePath = mounter.getMountRelativePath(fullPath, mountPoint);
         final FileMetadata metadata;
-        final SquallArchiveCompressor compressor;
         final InputStream is;
         
         /* find the info about this compressed file */
@@ -157,14 +159,19 @@ public class SqarRemoteFileSystem extends RemoteFileSystem {
 
         sqarpath = mountPoint.substring(0, mountPoint.length() - DELIMITER.length()) + SUFFIX;
         archivePath = sqarpath + DELIMITER + archiveFile;
-        is = parentFS.getInputStreamForFile(archivePath, 
-                                            startOffset, 
-                                            originalSize + 2048 /* for safety */);
+        if (metadata.hasBlockIndex()) {
+            /* the block index knows the exact compressed length */
+            final FileBlockRange range = FileBlockRange.of(metadata, 0, -1);
+            is = range.decompress(parentFS.getInputStreamForFile(archivePath,
+                                                                 range.getCompressedStart(),
+                                                                 range.getCompressedLength()));
+        } else {
+            is = metadata.getCompressor().newInputStream(parentFS.getInputStreamForFile(archivePath,
+                                                                          startOffset,
+                                                                          originalSize + 2048 /* for safety */));
+        }
         try {
-            compressor = metadata.getCompressor();
-            
-            digestStream = new DigestInputStream(compressor.newInputStream(is), 
-                                                 ArchiveUtils.getMD5Digest());
+            digestStream = new DigestInputStream(is, ArchiveUtils.getMD5Digest());
             os = new BufferedOutputStream(new FileOutputStream(localFile));
             ArchiveUtils.streamCopy(digestStream, os, originalSize);
             os.close();
@@ -274,7 +281,8 @@ public class SqarRemoteFileSystem extends RemoteFileSystem {
             if (pathSegment.equals(lastPathSegment)) {
                 continue;
             }
-            if (pathSegment.contains(DELIMITER)) {
+            /* the segment stops before the delimiter, anything after it means a directory */
+            if (filename.length() > prefix.length() + pathSegment.length()) {
                 type = RemoteFileInfo.TYPE_DIR;
             } else {
                 type = RemoteFileInfo.TYPE_FILE;
@@ -347,13 +355,36 @@ public class SqarRemoteFileSystem extends RemoteFileSystem {
     }
 
 
-    /*
-     * Unneeded for now
+    /**
+     * Reads a byte range of an archived file. Files with a block index only fetch and inflate the blocks that
+     * hold the range, older files get decompressed from their start.
      */
     @Override
-    public InputStream getInputStreamForFile(String archivePath,
+    public InputStream getInputStreamForFile(String fullPath,
                                              long startOffset,
-                                             long maxReadLength) {
-        throw new UnsupportedOperationException();
+                                             long maxReadLength) throws IOException {
+        final String relativePath = mounter.getMountRelativePath(fullPath, mountPoint);
+        final FileMetadata metadata = scanMetadataForFile(relativePath);
+        if (metadata == null) {
+            throw new FileNotFoundException("Could not locate " + relativePath + " in archive.");
+        }
+        final String sqarpath = mountPoint.substring(0, mountPoint.length() - DELIMITER.length()) + SUFFIX;
+        final String archivePath = sqarpath + DELIMITER + metadata.getArchiveFilename();
+
+        if (metadata.hasBlockIndex()) {
+            final FileBlockRange range = FileBlockRange.of(metadata, startOffset, maxReadLength);
+            return range.decompress(parentFS.getInputStreamForFile(archivePath,
+                                                                   range.getCompressedStart(),
+                                                                   range.getCompressedLength()));
+        }
+        final InputStream is = metadata.getCompressor().newInputStream(
+                parentFS.getInputStreamForFile(archivePath, metadata.getStartOffset(), metadata.getSize() + 2048));
+        try {
+            ByteStreams.skipFully(is, startOffset);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+        return maxReadLength >= 0 ? ByteStreams.limit(is, maxReadLength) : is;
     }
 }
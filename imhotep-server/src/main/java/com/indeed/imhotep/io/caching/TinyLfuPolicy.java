@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.io.caching;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weighted W-TinyLFU eviction policy. New entries go to a small LRU window, and entries leaving the window only make it
+ * into the main region if they were requested more often than the entries they would displace, as estimated by a
+ * {@link FrequencySketch}. The main region is a segmented LRU: entries hit while on probation move to the protected
+ * segment, which keeps a working set from being flushed by a scan over files that are read once.
+ *
+ * Not thread safe.
+ */
+final class TinyLfuPolicy {
+    static final char WINDOW = 'W';
+    static final char PROBATION = 'P';
+    static final char PROTECTED = 'M';
+
+    static final class Entry {
+        final String key;
+        final long weight;
+        private char region;
+
+        private Entry(String key, long weight, char region) {
+            this.key = key;
+            this.weight = weight;
+            this.region = region;
+        }
+
+        char getRegion() {
+            return region;
+        }
+    }
+
+    private final long maxWeight;
+    private final long maxWindowWeight;
+    private final long maxProtectedWeight;
+    private final FrequencySketch sketch;
+
+    private final Map<String, Entry> entries = Maps.newHashMap();
+    // insertion ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<String, Entry>();
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<String, Entry>();
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<String, Entry>();
+    private long windowWeight = 0;
+    private long probationWeight = 0;
+    private long protectedWeight = 0;
+
+    TinyLfuPolicy(long maxWeight, int expectedEntries) {
+        this.maxWeight = maxWeight;
+        maxWindowWeight = Math.max(1, maxWeight / 100);
+        maxProtectedWeight = (maxWeight - maxWindowWeight) * 4 / 5;
+        sketch = new FrequencySketch(expectedEntries);
+    }
+
+    boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    long getWeightedSize() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    int frequency(String key) {
+        return sketch.frequency(key);
+    }
+
+    /**
+     * The new entry always stays in the window until the next add, so that callers get to use it.
+     *
+     * @return the keys evicted to make room
+     */
+    List<String> add(String key, long weight) {
+        remove(key);
+        sketch.increment(key);
+        final List<String> evicted = Lists.newArrayList();
+        link(new Entry(key, weight, WINDOW));
+        while (windowWeight > maxWindowWeight && window.size() > 1) {
+            final Entry candidate = window.values().iterator().next();
+            unlink(candidate);
+            admit(candidate, evicted);
+        }
+        return evicted;
+    }
+
+    private void admit(Entry candidate, List<String> evicted) {
+        long excess = getWeightedSize() + candidate.weight - maxWeight;
+        if (excess > 0) {
+            if (candidate.weight > maxWeight) {
+                entries.remove(candidate.key);
+                evicted.add(candidate.key);
+                return;
+            }
+            // the candidate has to be more popular than every entry it would push out
+            final int candidateFrequency = sketch.frequency(candidate.key);
+            final List<Entry> victims = Lists.newArrayList();
+            for (final Iterator<Entry> it = mainIterator(); excess > 0 && it.hasNext(); ) {
+                final Entry victim = it.next();
+                if (sketch.frequency(victim.key) >= candidateFrequency) {
+                    entries.remove(candidate.key);
+                    evicted.add(candidate.key);
+                    return;
+                }
+                victims.add(victim);
+                excess -= victim.weight;
+            }
+            for (final Entry victim : victims) {
+                unlink(victim);
+                entries.remove(victim.key);
+                evicted.add(victim.key);
+            }
+        }
+        candidate.region = PROBATION;
+        link(candidate);
+    }
+
+    // probation first, then protected, each from the least recently used entry on
+    private Iterator<Entry> mainIterator() {
+        final Iterator<Entry> probationIterator = probation.values().iterator();
+        final Iterator<Entry> protectedIterator = protectedSegment.values().iterator();
+        return new Iterator<Entry>() {
+            @Override
+            public boolean hasNext() {
+                return probationIterator.hasNext() || protectedIterator.hasNext();
+            }
+
+            @Override
+            public Entry next() {
+                return probationIterator.hasNext() ? probationIterator.next() : protectedIterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    void recordAccess(String key) {
+        sketch.increment(key);
+        final Entry entry = entries.get(key);
+        if (entry == null) return;
+        unlink(entry);
+        if (entry.region == PROBATION) {
+            entry.region = PROTECTED;
+        }
+        link(entry);
+        while (protectedWeight > maxProtectedWeight) {
+            final Entry demoted = protectedSegment.values().iterator().next();
+            unlink(demoted);
+            demoted.region = PROBATION;
+            link(demoted);
+        }
+    }
+
+    boolean remove(String key) {
+        final Entry entry = entries.remove(key);
+        if (entry == null) return false;
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * Puts an entry back into the region it was in, as the most recently used one, and makes the sketch count
+     * it frequency times. Call {@link #trim} once everything is restored.
+     */
+    void restore(String key, long weight, char region, int frequency) {
+        remove(key);
+        if (region != WINDOW && region != PROBATION && region != PROTECTED) {
+            throw new IllegalArgumentException("unknown region " + region);
+        }
+        for (int i = 0; i < frequency; i++) {
+            sketch.increment(key);
+        }
+        link(new Entry(key, weight, region));
+    }
+
+    /**
+     * @return the keys evicted to get back under the maximum weight, for when it shrank since the entries were restored
+     */
+    List<String> trim() {
+        final List<String> evicted = Lists.newArrayList();
+        while (getWeightedSize() > maxWeight) {
+            final Iterator<Entry> it = mainIterator();
+            final Entry victim = it.hasNext() ? it.next() : window.values().iterator().next();
+            unlink(victim);
+            entries.remove(victim.key);
+            evicted.add(victim.key);
+        }
+        return evicted;
+    }
+
+    /**
+     * @return all entries, window first, then probation and protected, each from the least recently used one on
+     */
+    List<Entry> getEntries() {
+        final List<Entry> ret = Lists.newArrayListWithCapacity(entries.size());
+        ret.addAll(window.values());
+        ret.addAll(probation.values());
+        ret.addAll(protectedSegment.values());
+        return ret;
+    }
+
+    private void link(Entry entry) {
+        entries.put(entry.key, entry);
+        switch (entry.region) {
+            case WINDOW:
+                window.put(entry.key, entry);
+                windowWeight += entry.weight;
+                break;
+            case PROBATION:
+                probation.put(entry.key, entry);
+                probationWeight += entry.weight;
+                break;
+            default:
+                protectedSegment.put(entry.key, entry);
+                protectedWeight += entry.weight;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        switch (entry.region) {
+            case WINDOW:
+                window.remove(entry.key);
+                windowWeight -= entry.weight;
+                break;
+            case PROBATION:
+                probation.remove(entry.key);
+                probationWeight -= entry.weight;
+                break;
+            default:
+                protectedSegment.remove(entry.key);
+                protectedWeight -= entry.weight;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 import com.indeed.flamdex.api.FlamdexReader;
 import com.indeed.flamdex.datastruct.FastBitSet;
 import com.indeed.imhotep.BitTree;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.api.FTGSIterator;
 import com.indeed.util.core.Pair;
 import com.indeed.util.core.reference.SharedReference;
@@ -34,6 +35,8 @@ public abstract class AbstractFlamdexFTGSIterator implements FTGSIterator {
     protected final int[] groupsSeen;
     protected final BitTree bitTree;
     protected final long[][] termGrpStats;
+    private final FTGSStatFilter[] statFilters;
+    private final long[] filterStats;
 
     protected boolean currentFieldIsIntType;
 
@@ -54,7 +57,13 @@ public abstract class AbstractFlamdexFTGSIterator implements FTGSIterator {
     protected int termIndex;
 
     public AbstractFlamdexFTGSIterator(ImhotepLocalSession imhotepLocalSession, SharedReference<FlamdexReader> flamdexReader) {
+        this(imhotepLocalSession, flamdexReader, new FTGSStatFilter[0]);
+    }
+
+    public AbstractFlamdexFTGSIterator(ImhotepLocalSession imhotepLocalSession, SharedReference<FlamdexReader> flamdexReader, FTGSStatFilter[] statFilters) {
         this.session = imhotepLocalSession;
+        this.statFilters = statFilters;
+        this.filterStats = new long[session.numStats];
         this.termGrpStats = new long[session.numStats][session.docIdToGroup.getNumGroups()];
         this.groupsSeen = new int[session.docIdToGroup.getNumGroups()];
         this.bitTree = new BitTree(session.docIdToGroup.getNumGroups());
@@ -136,6 +145,8 @@ public abstract class AbstractFlamdexFTGSIterator implements FTGSIterator {
             fieldZeroDocBitset.set(termIndex - 1);
         }
 
+        if (statFilters.length > 0) applyStatFilters();
+
         groupPointer = 0;
         resetGroupStats = false;
         return groupsSeenCount > 0;
@@ -143,6 +154,29 @@ public abstract class AbstractFlamdexFTGSIterator implements FTGSIterator {
 
     protected abstract int fillDocIdBuffer();
 
+    /**
+     * compacts groupsSeen down to the groups that pass every stat filter, zeroing the stats of dropped groups
+     * since the next term only clears the groups left in groupsSeen
+     */
+    private void applyStatFilters() {
+        final int numStats = session.numStats;
+        int kept = 0;
+        for (int i = 0; i < groupsSeenCount; i++) {
+            final int group = groupsSeen[i];
+            for (int j = 0; j < numStats; j++) {
+                filterStats[j] = termGrpStats[j][group];
+            }
+            if (FTGSStatFilter.matchesAll(statFilters, filterStats)) {
+                groupsSeen[kept++] = group;
+            } else {
+                for (int j = 0; j < numStats; j++) {
+                    termGrpStats[j][group] = 0;
+                }
+            }
+        }
+        groupsSeenCount = kept;
+    }
+
     private void expandFieldNonZeroDocBitset() {
         synchronized (session) {
             if (fieldZeroDocBitset == null) return;
@@ -18,16 +18,26 @@ import java.io.Serializable;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.primitives.Ints;
 import com.indeed.flamdex.api.IntValueLookup;
+import com.indeed.imhotep.MemoryReservationContext;
+import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
 
 @VisibleForTesting
 public class DynamicMetric implements IntValueLookup, Serializable {
     private static final long serialVersionUID = 1L;
-    private final int[] values;
+    // null while the session is spilled to disk, see ImhotepLocalSession.spill
+    private int[] values;
+    // set while the values are shared with forks of the session, see ImhotepLocalSession.fork
+    private transient SharedMemory shared = null;
 
     public DynamicMetric(int size) {
         this.values = new int[size];
     }
 
+    private DynamicMetric(int[] values, SharedMemory shared) {
+        this.values = values;
+        this.shared = shared;
+    }
+
     @Override
     public long getMin() {
         return Ints.min(values);
@@ -47,7 +57,7 @@ public class DynamicMetric implements IntValueLookup, Serializable {
 
     @Override
     public long memoryUsed() {
-        return 4L * values.length;
+        return values == null || shared != null ? 0 : 4L * values.length;
     }
 
     @Override
@@ -75,4 +85,54 @@ public class DynamicMetric implements IntValueLookup, Serializable {
         return this.values[docId];
     }
 
+    /**
+     * @return a metric for a fork of the session that shares the values of this one until either of them is updated
+     */
+    DynamicMetric fork(MemoryReservationContext memory) {
+        if (shared == null) {
+            shared = SharedMemory.hoist(4L * values.length, memory);
+        }
+        return new DynamicMetric(values, shared.retain());
+    }
+
+    boolean isShared() {
+        return shared != null;
+    }
+
+    /**
+     * Has to be called before the values are updated, copies them if they are still shared with other sessions.
+     */
+    void ensureWritable(MemoryReservationContext memory) throws ImhotepOutOfMemoryException {
+        if (shared == null || shared.takeOwnership(memory)) {
+            shared = null;
+            return;
+        }
+        if (!memory.claimMemory(4L * values.length)) {
+            throw new ImhotepOutOfMemoryException();
+        }
+        values = values.clone();
+        shared.release(memory);
+        shared = null;
+    }
+
+    /**
+     * Drops the reference of the session to values it shares, see {@link SharedMemory#release}. Does nothing for
+     * values the session owns, their memory is released by the session.
+     */
+    void releaseShared(MemoryReservationContext memory) {
+        if (shared != null) {
+            shared.release(memory);
+            shared = null;
+            values = null;
+        }
+    }
+
+    void releaseValues() {
+        values = null;
+    }
+
+    void restoreValues(int[] values) {
+        this.values = values;
+    }
+
 }
\ No newline at end of file
@@ -16,6 +16,7 @@
 import com.indeed.flamdex.api.FlamdexReader;
 import com.indeed.flamdex.api.IntTermDocIterator;
 import com.indeed.flamdex.api.StringTermDocIterator;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.util.core.Pair;
 import com.indeed.util.core.io.Closeables2;
 import com.indeed.util.core.reference.SharedReference;
@@ -32,7 +33,11 @@ class FlamdexFTGSIterator extends AbstractFlamdexFTGSIterator {
     private int stringFieldPtr = 0;
 
     public FlamdexFTGSIterator(ImhotepLocalSession imhotepLocalSession, SharedReference<FlamdexReader> flamdexReader, String[] intFields, String[] stringFields) {
-        super(imhotepLocalSession, flamdexReader);
+        this(imhotepLocalSession, flamdexReader, intFields, stringFields, new FTGSStatFilter[0]);
+    }
+
+    public FlamdexFTGSIterator(ImhotepLocalSession imhotepLocalSession, SharedReference<FlamdexReader> flamdexReader, String[] intFields, String[] stringFields, FTGSStatFilter[] statFilters) {
+        super(imhotepLocalSession, flamdexReader, statFilters);
         this.intFields = intFields;
         this.stringFields = stringFields;
     }
@@ -53,6 +53,14 @@ public class GroupLookupFactory {
                                      MemoryReservationContext memory) throws ImhotepOutOfMemoryException {
         final GroupLookup newGL;
 
+        if (existingGL instanceof SharedGroupLookup) {
+            /* copy on write, the caller is about to change the groups */
+            newGL = create(Math.max(maxGroup, existingGL.maxGroup()), existingGL.size(), existingGL.getSession(), memory);
+            existingGL.copyInto(newGL);
+            ((SharedGroupLookup) existingGL).release(memory);
+            return newGL;
+        }
+
         if (maxGroup > existingGL.maxGroup()) {
             /* need a bigger group */
             newGL = create(maxGroup, existingGL.size(), existingGL.getSession(), memory);
@@ -14,6 +14,7 @@
  package com.indeed.imhotep.local;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableListMultimap;
@@ -29,7 +30,9 @@ import com.indeed.flamdex.api.FlamdexOutOfMemoryException;
 import com.indeed.flamdex.api.FlamdexReader;
 import com.indeed.flamdex.api.IntTermIterator;
 import com.indeed.flamdex.api.IntValueLookup;
+import com.indeed.flamdex.api.OrdinalStringValueLookup;
 import com.indeed.flamdex.api.RawFlamdexReader;
+import com.indeed.flamdex.api.RawStringTermIterator;
 import com.indeed.flamdex.api.StringTermDocIterator;
 import com.indeed.flamdex.api.StringTermIterator;
 import com.indeed.flamdex.api.StringValueLookup;
@@ -37,26 +40,34 @@ import com.indeed.flamdex.datastruct.FastBitSet;
 import com.indeed.flamdex.datastruct.FastBitSetPooler;
 import com.indeed.flamdex.fieldcache.ByteArrayIntValueLookup;
 import com.indeed.flamdex.fieldcache.IntArrayIntValueLookup;
+import com.indeed.flamdex.fieldcache.MultiValuedIntValueLookup;
 import com.indeed.flamdex.query.Query;
 import com.indeed.flamdex.query.Term;
 import com.indeed.flamdex.reader.FlamdexMetadata;
 import com.indeed.flamdex.search.FlamdexSearcher;
+import com.indeed.flamdex.simple.FieldStatsFile;
 import com.indeed.flamdex.simple.SimpleFlamdexReader;
 import com.indeed.flamdex.simple.SimpleFlamdexWriter;
+import com.indeed.flamdex.simple.TermBloomFilter;
+import com.indeed.flamdex.simple.TopTermsFile;
 import com.indeed.flamdex.utils.FlamdexUtils;
 import com.indeed.imhotep.AbstractImhotepSession;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.FTGSSplitter;
 import com.indeed.imhotep.GroupMultiRemapRule;
 import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
 import com.indeed.imhotep.ImhotepMemoryPool;
 import com.indeed.imhotep.MemoryReservationContext;
 import com.indeed.imhotep.MemoryReserver;
+import com.indeed.imhotep.QuantileSketch;
 import com.indeed.imhotep.QueryRemapRule;
 import com.indeed.imhotep.RegroupCondition;
 import com.indeed.imhotep.TermCount;
 import com.indeed.imhotep.api.DocIterator;
 import com.indeed.imhotep.api.FTGSIterator;
 import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
+import com.indeed.imhotep.api.OrdinalDocIterator;
 import com.indeed.imhotep.api.RawFTGSIterator;
 import com.indeed.imhotep.group.ImhotepChooser;
 import com.indeed.imhotep.marshal.ImhotepDaemonMarshaller;
@@ -87,24 +98,35 @@ import com.indeed.imhotep.metrics.ShiftLeftAndDivide;
 import com.indeed.imhotep.metrics.Subtraction;
 import com.indeed.imhotep.protobuf.QueryMessage;
 import com.indeed.imhotep.service.CachedFlamdexReader;
+import com.indeed.imhotep.service.CachedFlamdexReaderReference;
 import com.indeed.imhotep.service.RawCachedFlamdexReader;
 import com.indeed.util.core.Pair;
 import com.indeed.util.core.Throwables2;
 import com.indeed.util.core.io.Closeables2;
 import com.indeed.util.core.reference.SharedReference;
+import com.indeed.util.core.shell.PosixFileOperations;
 import com.indeed.util.core.threads.ThreadSafeBitSet;
+import com.indeed.util.mmap.IntArray;
+import com.indeed.util.mmap.LongArray;
+import com.indeed.util.mmap.MMapBuffer;
 import dk.brics.automaton.Automaton;
 import dk.brics.automaton.RegExp;
 import it.unimi.dsi.fastutil.PriorityQueue;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectHeapPriorityQueue;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -114,6 +136,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -171,11 +195,28 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
     int numStats;
     private long[][] groupStats = new long[MAX_NUMBER_STATS][];
     final IntValueLookup[] statLookup = new IntValueLookup[MAX_NUMBER_STATS];
+    // the int field a stat reads as is, null for every other kind of stat
+    private final String[] statFields = new String[MAX_NUMBER_STATS];
     private final List<String> statCommands;
 
     private final boolean[] needToReCalcGroupStats = new boolean[MAX_NUMBER_STATS];
+    // set while the groups, group stats and dynamic metrics of the session are paged out to disk, see spill
+    private Spill spilled = null;
+    private static final long[] SPILLED_GROUP_STATS = new long[0];
+
+    private static final String CHECKPOINT_DIRECTORY = "checkpoints";
+    private static final int CHECKPOINT_FORMAT_VERSION = 1;
+    // checkpoint ids come from clients and end up in paths
+    private static final Pattern VALID_CHECKPOINT_ID = Pattern.compile("[A-Za-z0-9_\\-][A-Za-z0-9_.\\-]*");
+
+    // metrics loaded by prefetchMetric, held until the session closes so that pushStat finds them loaded
+    private final List<IntValueLookup> prefetchedMetrics = Lists.newArrayList();
 
     private boolean closed = false;
+
+    // bytes of the sketches returned last, they stay reserved until the caller is done with them
+    private long sketchMemory = 0;
+
     @VisibleForTesting
     private Map<String, DynamicMetric> dynamicMetrics = Maps.newHashMap();
 
@@ -203,12 +244,21 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
                                final MemoryReservationContext memory,
                                boolean optimizeGroupZeroLookups,
                                AtomicLong tempFileSizeBytesLeft) throws ImhotepOutOfMemoryException {
+        this(SharedReference.create(flamdexReader), optimizedIndexDirectory, memory, optimizeGroupZeroLookups,
+                tempFileSizeBytesLeft);
+    }
+
+    private ImhotepLocalSession(final SharedReference<FlamdexReader> flamdexReaderRef,
+                                String optimizedIndexDirectory,
+                                final MemoryReservationContext memory,
+                                boolean optimizeGroupZeroLookups,
+                                AtomicLong tempFileSizeBytesLeft) throws ImhotepOutOfMemoryException {
         this.tempFileSizeBytesLeft = tempFileSizeBytesLeft;
         constructorStackTrace = new Exception();
-        flamdexReaderRef = SharedReference.create(flamdexReader);
-        this.flamdexReader = flamdexReader;
+        this.flamdexReaderRef = flamdexReaderRef;
+        this.flamdexReader = flamdexReaderRef.get();
         this.memory = memory;
-        this.numDocs = flamdexReader.getNumDocs();
+        this.numDocs = this.flamdexReader.getNumDocs();
         this.optimizedIndexesDir = optimizedIndexDirectory;
 
         if (!memory.claimMemory(BUFFER_SIZE * (4 + 4 + 4) + 12 * 2)) {
@@ -388,12 +438,13 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
             oos.close();
 
             /* use rebuilt structures */
-            memory.releaseMemory(this.docIdToGroup.memoryUsed());
+            releaseGroupLookup(this.docIdToGroup);
             rewriterMemory.hoist(rewriter.getNewGroupLookup().memoryUsed());
             this.docIdToGroup = rewriter.getNewGroupLookup();
 
             for (DynamicMetric dm : this.dynamicMetrics.values()) {
                 memory.releaseMemory(dm.memoryUsed());
+                dm.releaseShared(memory);
             }
             for (DynamicMetric dm : rewriter.getDynamicMetrics().values()) {
                 rewriterMemory.hoist(dm.memoryUsed());
@@ -544,6 +595,7 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         /* adjust the memory tracking */
         for (DynamicMetric dm : this.dynamicMetrics.values()) {
             memory.releaseMemory(dm.memoryUsed());
+            dm.releaseShared(memory);
         }
         for (DynamicMetric dm : newMetrics.values()) {
             memory.claimMemory(dm.memoryUsed());
@@ -610,7 +662,9 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
     }
 
     @Override
-    public synchronized FTGSIterator getFTGSIterator(String[] intFields, String[] stringFields) {
+    public synchronized FTGSIterator getFTGSIterator(String[] intFields, String[] stringFields, List<FTGSStatFilter> statFilters) {
+        FTGSStatFilter.validate(statFilters, numStats);
+        final FTGSStatFilter[] filters = statFilters.toArray(new FTGSStatFilter[statFilters.size()]);
         if (fieldZeroDocBitsets != null) {
             for (String intField : intFields) {
                 if (!fieldZeroDocBitsets.containsKey(Pair.of(intField, true))) {
@@ -635,18 +689,27 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         }
         if (flamdexReader instanceof RawFlamdexReader) {
             return new RawFlamdexFTGSIterator(this, flamdexReaderRef.copy(), intFields,
-                                              stringFields);
+                                              stringFields, filters);
         }
-        return new FlamdexFTGSIterator(this, flamdexReaderRef.copy(), intFields, stringFields);
+        return new FlamdexFTGSIterator(this, flamdexReaderRef.copy(), intFields, stringFields, filters);
     }
 
     @Override
     public FTGSIterator getSubsetFTGSIterator(Map<String, long[]> intFields, Map<String, String[]> stringFields) {
+        // drop the terms the bloom filters rule out, but keep every field so that all shards report the same ones
+        final Map<String, long[]> intCandidates = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, long[]> entry : intFields.entrySet()) {
+            intCandidates.put(entry.getKey(), filterIntTerms(entry.getKey(), entry.getValue()));
+        }
+        final Map<String, String[]> stringCandidates = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, String[]> entry : stringFields.entrySet()) {
+            stringCandidates.put(entry.getKey(), filterStringTerms(entry.getKey(), entry.getValue()));
+        }
         if (flamdexReader instanceof RawFlamdexReader) {
-            return new RawFlamdexSubsetFTGSIterator(this, flamdexReaderRef.copy(), intFields,
-                    stringFields);
+            return new RawFlamdexSubsetFTGSIterator(this, flamdexReaderRef.copy(), intCandidates,
+                    stringCandidates);
         }
-        return new FlamdexSubsetFTGSIterator(this, flamdexReaderRef.copy(), intFields, stringFields);
+        return new FlamdexSubsetFTGSIterator(this, flamdexReaderRef.copy(), intCandidates, stringCandidates);
     }
 
     public DocIterator getDocIterator(final String[] intFields, final String[] stringFields) throws ImhotepOutOfMemoryException {
@@ -683,7 +746,7 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
             }
             throw new ImhotepOutOfMemoryException();
         }
-        return new DocIterator() {
+        return new OrdinalDocIterator() {
 
             int[] groups = new int[1024];
             int n = groups.length;
@@ -740,6 +803,24 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
                 return stringValueLookups[index].getString(docId);
             }
 
+            public int getNumStringOrdinals(final int index) {
+                final StringValueLookup lookup = stringValueLookups[index];
+                return lookup instanceof OrdinalStringValueLookup ? ((OrdinalStringValueLookup) lookup).getNumOrdinals() : -1;
+            }
+
+            public int getStringOrdinal(final int index) {
+                return ((OrdinalStringValueLookup) stringValueLookups[index]).getOrdinal(docId);
+            }
+
+            public byte[] getStringBytes(final int index) {
+                final StringValueLookup lookup = stringValueLookups[index];
+                if (lookup instanceof OrdinalStringValueLookup) {
+                    final OrdinalStringValueLookup ordinalLookup = (OrdinalStringValueLookup) lookup;
+                    return ordinalLookup.getTermBytes(ordinalLookup.getOrdinal(docId));
+                }
+                return lookup.getString(docId).getBytes(Charsets.UTF_8);
+            }
+
             public void close() throws IOException {
                 for (IntValueLookup lookup : intValueLookups) {
                     if (lookup != null) {
@@ -798,10 +879,11 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
     public synchronized RawFTGSIterator getFTGSIteratorSplit(final String[] intFields,
                                                              final String[] stringFields,
                                                              final int splitIndex,
-                                                             final int numSplits) {
+                                                             final int numSplits,
+                                                             final List<FTGSStatFilter> statFilters) {
         if (ftgsIteratorSplits == null || ftgsIteratorSplits.isClosed()) {
             try {
-                ftgsIteratorSplits = new FTGSSplitter(getFTGSIterator(intFields, stringFields), numSplits, numStats, "getIteratorSplitsLocalSession", 969168349, tempFileSizeBytesLeft);
+                ftgsIteratorSplits = new FTGSSplitter(getFTGSIterator(intFields, stringFields, statFilters), numSplits, numStats, "getIteratorSplitsLocalSession", 969168349, tempFileSizeBytesLeft, FTGSSplitter.DEFAULT_SPLIT_MEMORY_LIMIT, memory);
             } catch (IOException e) {
                 throw Throwables.propagate(e);
             }
@@ -825,7 +907,7 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
     public synchronized RawFTGSIterator getSubsetFTGSIteratorSplit(Map<String, long[]> intFields, Map<String, String[]> stringFields, int splitIndex, int numSplits) {
         if (ftgsIteratorSplits == null || ftgsIteratorSplits.isClosed()) {
             try {
-                ftgsIteratorSplits = new FTGSSplitter(getSubsetFTGSIterator(intFields, stringFields), numSplits, numStats, "getIteratorSplitsLocalSession", 969168349, tempFileSizeBytesLeft);
+                ftgsIteratorSplits = new FTGSSplitter(getSubsetFTGSIterator(intFields, stringFields), numSplits, numStats, "getIteratorSplitsLocalSession", 969168349, tempFileSizeBytesLeft, FTGSSplitter.DEFAULT_SPLIT_MEMORY_LIMIT, memory);
             } catch (IOException e) {
                 throw Throwables.propagate(e);
             }
@@ -837,7 +919,8 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
                                           final String[] stringFields,
                                           final String sessionId,
                                           final InetSocketAddress[] nodes,
-                                          final int splitIndex) {
+                                          final int splitIndex,
+                                          final List<FTGSStatFilter> statFilters) {
         throw new UnsupportedOperationException();
     }
 
@@ -1093,26 +1176,35 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         }
 
         try {
-            try (
-                final IntTermIterator iter = flamdexReader.getIntTermIterator(field);
-                final DocIdStream docIdStream = flamdexReader.getDocIdStream()
-            ) {
-
-                int termsIndex = 0;
-                while (iter.next()) {
-                    final long term = iter.term();
-                    while (termsIndex < terms.length && terms[termsIndex] < term) {
-                        ++termsIndex;
+            // terms the bloom filter rules out cannot match, and with field stats the shard can be skipped
+            // if no term is in its range
+            final long[] candidates = filterIntTerms(field, terms);
+            final FieldStatsFile.FieldStats fieldStats = candidates.length > 0 ? readIntFieldStats(field) : null;
+            if (candidates.length > 0 && (fieldStats == null || (candidates[0] <= fieldStats.maxTerm && candidates[candidates.length - 1] >= fieldStats.minTerm))) {
+                try (
+                    final IntTermIterator iter = flamdexReader.getIntTermIterator(field);
+                    final DocIdStream docIdStream = flamdexReader.getDocIdStream()
+                ) {
+                    if (fieldStats != null) {
+                        // terms are sorted, so everything before the first one can be skipped
+                        iter.reset(candidates[0]);
                     }
+                    int termsIndex = 0;
+                    while (iter.next()) {
+                        final long term = iter.term();
+                        while (termsIndex < candidates.length && candidates[termsIndex] < term) {
+                            ++termsIndex;
+                        }
 
-                    if (termsIndex < terms.length && term == terms[termsIndex]) {
-                        docIdStream.reset(iter);
-                        remapPositiveDocs(docIdStream, docRemapped, targetGroup, positiveGroup);
-                        ++termsIndex;
-                    }
+                        if (termsIndex < candidates.length && term == candidates[termsIndex]) {
+                            docIdStream.reset(iter);
+                            remapPositiveDocs(docIdStream, docRemapped, targetGroup, positiveGroup);
+                            ++termsIndex;
+                        }
 
-                    if (termsIndex == terms.length) {
-                        break;
+                        if (termsIndex == candidates.length) {
+                            break;
+                        }
                     }
                 }
             }
@@ -1146,25 +1238,33 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
             throw new ImhotepOutOfMemoryException(e);
         }
         try {
-            try (
-                final StringTermIterator iter = flamdexReader.getStringTermIterator(field);
-                final DocIdStream docIdStream = flamdexReader.getDocIdStream()
-            ) {
-                int termsIndex = 0;
-                while (iter.next()) {
-                    final String term = iter.term();
-                    while (termsIndex < terms.length && terms[termsIndex].compareTo(term) < 0) {
-                        ++termsIndex;
+            // terms the bloom filter rules out cannot match
+            final String[] candidates = filterStringTerms(field, terms);
+            if (candidates.length > 0) {
+                try (
+                    final StringTermIterator iter = flamdexReader.getStringTermIterator(field);
+                    final DocIdStream docIdStream = flamdexReader.getDocIdStream()
+                ) {
+                    if (candidates.length < terms.length) {
+                        // only shards with a bloom filter drop terms, and those have a term dictionary that can seek
+                        iter.reset(candidates[0]);
                     }
+                    int termsIndex = 0;
+                    while (iter.next()) {
+                        final String term = iter.term();
+                        while (termsIndex < candidates.length && candidates[termsIndex].compareTo(term) < 0) {
+                            ++termsIndex;
+                        }
 
-                    if (termsIndex < terms.length && terms[termsIndex].equals(term)) {
-                        docIdStream.reset(iter);
-                        remapPositiveDocs(docIdStream, docRemapped, targetGroup, positiveGroup);
-                        ++termsIndex;
-                    }
+                        if (termsIndex < candidates.length && candidates[termsIndex].equals(term)) {
+                            docIdStream.reset(iter);
+                            remapPositiveDocs(docIdStream, docRemapped, targetGroup, positiveGroup);
+                            ++termsIndex;
+                        }
 
-                    if (termsIndex == terms.length) {
-                        break;
+                        if (termsIndex == candidates.length) {
+                            break;
+                        }
                     }
                 }
             }
@@ -1387,7 +1487,13 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
 
     @Override
     public List<TermCount> approximateTopTerms(String field, boolean isIntField, int k) {
-        k = Math.min(k, 1000);
+        k = Math.min(k, TopTermsFile.MAX_TERMS);
+
+        final List<TermCount> precomputed = readTopTermsFile(field, isIntField, k);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        TopTermsFile.buildInBackground(flamdexReader.getDirectory(), field, isIntField);
 
         if (isIntField) {
             final PriorityQueue<IntTermWithFreq> pq =
@@ -1448,6 +1554,198 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         }
     }
 
+    /**
+     * @return the bloom filter of the field, or null if there is none or it is empty. Like field stats without terms,
+     * an empty filter says nothing, the terms of an int field may come from the string field of the same name.
+     */
+    @Nullable
+    private TermBloomFilter openBloomFilter(String field, boolean isIntField) {
+        final TermBloomFilter ret;
+        try {
+            ret = TermBloomFilter.open(flamdexReader.getDirectory(), field, isIntField);
+        } catch (IOException e) {
+            log.warn("unable to open bloom filter for field " + field, e);
+            return null;
+        }
+        if (ret != null && ret.isEmpty()) {
+            Closeables2.closeQuietly(ret, log);
+            return null;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the terms that the bloom filter of the field does not rule out, or terms itself if there is no bloom filter
+     */
+    private long[] filterIntTerms(String field, long[] terms) {
+        if (terms.length == 0) return terms;
+        final TermBloomFilter bloomFilter = openBloomFilter(field, true);
+        if (bloomFilter == null) return terms;
+        try {
+            final LongArrayList ret = new LongArrayList(terms.length);
+            for (final long term : terms) {
+                if (bloomFilter.mightContainIntTerm(term)) {
+                    ret.add(term);
+                }
+            }
+            return ret.size() == terms.length ? terms : ret.toLongArray();
+        } finally {
+            Closeables2.closeQuietly(bloomFilter, log);
+        }
+    }
+
+    /**
+     * @return the terms that the bloom filter of the field does not rule out, or terms itself if there is no bloom filter
+     */
+    private String[] filterStringTerms(String field, String[] terms) {
+        if (terms.length == 0) return terms;
+        final TermBloomFilter bloomFilter = openBloomFilter(field, false);
+        if (bloomFilter == null) return terms;
+        try {
+            final List<String> ret = Lists.newArrayListWithCapacity(terms.length);
+            for (final String term : terms) {
+                if (bloomFilter.mightContainStringTerm(term)) {
+                    ret.add(term);
+                }
+            }
+            return ret.size() == terms.length ? terms : ret.toArray(new String[ret.size()]);
+        } finally {
+            Closeables2.closeQuietly(bloomFilter, log);
+        }
+    }
+
+    /**
+     * @return the stats of an int field that has int terms, or null if they are not available. They come from the
+     * simple flamdex reader, which reads them once and builds them in the background if they are missing.
+     */
+    @Nullable
+    private FieldStatsFile.FieldStats readIntFieldStats(String field) {
+        final FieldStatsFile.FieldStats ret;
+        if (flamdexReader instanceof CachedFlamdexReaderReference) {
+            ret = ((CachedFlamdexReaderReference) flamdexReader).getIntFieldStats(field);
+        } else if (flamdexReader instanceof CachedFlamdexReader) {
+            ret = ((CachedFlamdexReader) flamdexReader).getIntFieldStats(field);
+        } else if (flamdexReader instanceof SimpleFlamdexReader) {
+            ret = ((SimpleFlamdexReader) flamdexReader).getIntFieldStats(field);
+        } else {
+            return null;
+        }
+        // an int field without int terms is read from the string field of the same name
+        return ret != null && ret.numTerms > 0 ? ret : null;
+    }
+
+    @Nullable
+    private List<TermCount> readTopTermsFile(String field, boolean isIntField, int k) {
+        try {
+            if (isIntField) {
+                final List<TopTermsFile.Entry<Long>> entries = TopTermsFile.readIntTopTerms(flamdexReader.getDirectory(), field, k);
+                if (entries == null) return null;
+                final List<TermCount> ret = Lists.newArrayListWithCapacity(entries.size());
+                for (final TopTermsFile.Entry<Long> entry : entries) {
+                    ret.add(new TermCount(new Term(field, true, entry.term, ""), entry.docFreq));
+                }
+                return ret;
+            } else {
+                final List<TopTermsFile.Entry<String>> entries = TopTermsFile.readStringTopTerms(flamdexReader.getDirectory(), field, k);
+                if (entries == null) return null;
+                final List<TermCount> ret = Lists.newArrayListWithCapacity(entries.size());
+                for (final TopTermsFile.Entry<String> entry : entries) {
+                    ret.add(new TermCount(new Term(field, false, 0, entry.term), entry.docFreq));
+                }
+                return ret;
+            }
+        } catch (IOException e) {
+            log.warn("unable to read top terms file for field " + field + ", scanning the term dictionary instead", e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized HyperLogLog[] approximateDistinctTerms(String field, boolean isIntField, int precision) throws ImhotepOutOfMemoryException {
+        releaseSketchMemory();
+        final int numGroups = docIdToGroup.getNumGroups();
+        final long memoryUsage = HyperLogLog.memoryUsage(precision) * numGroups;
+        if (!memory.claimMemory(memoryUsage)) {
+            throw new ImhotepOutOfMemoryException();
+        }
+        boolean success = false;
+        try {
+            final HyperLogLog[] sketches = new HyperLogLog[numGroups];
+            for (int group = 0; group < numGroups; group++) {
+                sketches[group] = new HyperLogLog(precision);
+            }
+            final DocIdStream docIdStream = flamdexReader.getDocIdStream();
+            try {
+                if (isIntField) {
+                    final IntTermIterator iter = flamdexReader.getIntTermIterator(field);
+                    try {
+                        while (iter.next()) {
+                            docIdStream.reset(iter);
+                            offerTermToGroups(docIdStream, sketches, HyperLogLog.hashIntTerm(iter.term()));
+                        }
+                    } finally {
+                        iter.close();
+                    }
+                } else {
+                    final StringTermIterator iter = flamdexReader.getStringTermIterator(field);
+                    try {
+                        while (iter.next()) {
+                            final long hash;
+                            if (iter instanceof RawStringTermIterator) {
+                                final RawStringTermIterator rawIter = (RawStringTermIterator) iter;
+                                hash = HyperLogLog.hashStringTerm(rawIter.termStringBytes(), rawIter.termStringLength());
+                            } else {
+                                final byte[] termBytes = iter.term().getBytes(Charsets.UTF_8);
+                                hash = HyperLogLog.hashStringTerm(termBytes, termBytes.length);
+                            }
+                            docIdStream.reset(iter);
+                            offerTermToGroups(docIdStream, sketches, hash);
+                        }
+                    } finally {
+                        iter.close();
+                    }
+                }
+            } finally {
+                docIdStream.close();
+            }
+            success = true;
+            return sketches;
+        } finally {
+            if (success) {
+                sketchMemory = memoryUsage;
+            } else {
+                memory.releaseMemory(memoryUsage);
+            }
+        }
+    }
+
+    /**
+     * releases the sketches returned last, the caller has merged or serialized them by its next sketch request
+     */
+    private void releaseSketchMemory() {
+        if (sketchMemory > 0) {
+            memory.releaseMemory(sketchMemory);
+            sketchMemory = 0;
+        }
+    }
+
+    private void offerTermToGroups(DocIdStream docIdStream, HyperLogLog[] sketches, long hash) {
+        while (true) {
+            final int n = docIdStream.fillDocIdBuffer(docIdBuf);
+            docIdToGroup.fillDocGrpBuffer(docIdBuf, docGroupBuffer, n);
+            for (int i = 0; i < n; ++i) {
+                final int group = docGroupBuffer[i];
+                if (group != 0) {
+                    sketches[group].offerHash(hash);
+                }
+            }
+
+            if (n < docIdBuf.length) {
+                break;
+            }
+        }
+    }
+
     private static final Comparator<IntTermWithFreq> INT_FREQ_COMPARATOR =
             new Comparator<IntTermWithFreq>() {
                 @Override
@@ -1729,6 +2027,22 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
             throw new IllegalArgumentException("invalid stat index: " + stat
                     + ", must be between [0," + statLookup.length + ")");
         }
+        boolean allInRange = false;
+        boolean noneInRange = false;
+        final FieldStatsFile.FieldStats fieldStats = statFields[stat] != null ? readIntFieldStats(statFields[stat]) : null;
+        if (fieldStats != null) {
+            // docs without the field have a value of 0
+            final long minValue = Math.min(fieldStats.minTerm, 0);
+            final long maxValue = Math.max(fieldStats.maxTerm, 0);
+            allInRange = minValue >= min && maxValue <= max;
+            noneInRange = maxValue < min || minValue > max;
+            if ((allInRange && !negate) || (noneInRange && negate)) {
+                // no doc changes its group
+                return docIdToGroup.getNumGroups();
+            }
+        }
+        final boolean removeAll = allInRange || noneInRange;
+
         docIdToGroup = GroupLookupFactory.resize(docIdToGroup, docIdToGroup.getNumGroups(), memory);
         final IntValueLookup lookup = statLookup[stat];
 
@@ -1752,13 +2066,17 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
                 continue;
             }
 
-            lookup.lookup(docIdBuf, valBuf, numNonZero);
+            if (removeAll) {
+                Arrays.fill(docGroupBuffer, 0, numNonZero, 0);
+            } else {
+                lookup.lookup(docIdBuf, valBuf, numNonZero);
 
-            for (int i = 0; i < numNonZero; ++i) {
-                final long val = valBuf[i];
-                final boolean valInRange = val >= min && val <= max;
-                if (valInRange == negate) {
-                    docGroupBuffer[i] = 0;
+                for (int i = 0; i < numNonZero; ++i) {
+                    final long val = valBuf[i];
+                    final boolean valInRange = val >= min && val <= max;
+                    if (valInRange == negate) {
+                        docGroupBuffer[i] = 0;
+                    }
                 }
             }
 
@@ -1784,6 +2102,64 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         return groupStats[stat];
     }
 
+    @Override
+    public synchronized QuantileSketch[] getGroupQuantileSketches(int stat, int k) throws ImhotepOutOfMemoryException {
+        if (stat < 0 || stat >= numStats) {
+            throw new IllegalArgumentException("invalid stat index: " + stat
+                    + ", must be between [0," + numStats + ")");
+        }
+        releaseSketchMemory();
+        final int numGroups = docIdToGroup.getNumGroups();
+        // group 0 is never updated, the others retain at most min(docs in group, O(k)) values
+        long memoryUsage = QuantileSketch.memoryUsage(k, 0);
+        for (int group = 1; group < numGroups; group++) {
+            memoryUsage += QuantileSketch.memoryUsage(k, group < groupDocCount.length ? groupDocCount[group] : numDocs);
+        }
+        if (!memory.claimMemory(memoryUsage)) {
+            throw new ImhotepOutOfMemoryException();
+        }
+        boolean success = false;
+        try {
+            final QuantileSketch[] sketches = new QuantileSketch[numGroups];
+            for (int group = 0; group < numGroups; group++) {
+                sketches[group] = new QuantileSketch(k);
+            }
+            final IntValueLookup lookup = statLookup[stat];
+            for (int doc = 0; doc < numDocs; doc += BUFFER_SIZE) {
+                final int n = Math.min(BUFFER_SIZE, numDocs - doc);
+
+                docIdToGroup.fillDocGrpBufferSequential(doc, docGroupBuffer, n);
+
+                int numNonZero = 0;
+                for (int i = 0; i < n; ++i) {
+                    final int group = docGroupBuffer[i];
+                    if (group != 0) {
+                        docIdBuf[numNonZero] = doc + i;
+                        docGroupBuffer[numNonZero++] = group;
+                    }
+                }
+
+                if (numNonZero == 0) {
+                    continue;
+                }
+
+                lookup.lookup(docIdBuf, valBuf, numNonZero);
+
+                for (int i = 0; i < numNonZero; ++i) {
+                    sketches[docGroupBuffer[i]].update(valBuf[i]);
+                }
+            }
+            success = true;
+            return sketches;
+        } finally {
+            if (success) {
+                sketchMemory = memoryUsage;
+            } else {
+                memory.releaseMemory(memoryUsage);
+            }
+        }
+    }
+
     private static GroupRemapRule[] cleanUpRules(GroupRemapRule[] rawRules, int numGroups) {
         final GroupRemapRule[] cleanRules = new GroupRemapRule[numGroups];
         for (final GroupRemapRule rawRule : rawRules) {
@@ -1814,6 +2190,8 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
 
     private static final String decimalPattern = "-?[0-9]*\\.?[0-9]+";
 
+    private static final Pattern multiValuedPattern = Pattern.compile("multi(sum|min|max|count)\\s+(\\S+)");
+
     private static final Pattern floatScalePattern =
             Pattern.compile("floatscale\\s+(\\w+)\\s*\\*\\s*(" + decimalPattern + ")\\s*\\+\\s*("
                     + decimalPattern + ")");
@@ -1845,6 +2223,13 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
                 throw new IllegalArgumentException("invalid regex metric: " + statName);
             }
             statLookup[numStats] = hasRegexFilter(split[0], split[1]);
+        } else if (statName.startsWith("multi") && multiValuedPattern.matcher(statName).matches()) {
+            // accepted format is 'multisum field', 'multimin field', 'multimax field' or 'multicount field'
+            final Matcher matcher = multiValuedPattern.matcher(statName);
+            matcher.matches();
+            final MultiValuedIntValueLookup.Aggregation aggregation =
+                    MultiValuedIntValueLookup.Aggregation.valueOf(matcher.group(1).toUpperCase());
+            statLookup[numStats] = multiValuedLookup(matcher.group(2), aggregation);
         } else if (statName.startsWith("inttermcount ")) {
             final String field = statName.substring(13).trim();
             statLookup[numStats] = intTermCountLookup(field);
@@ -2078,6 +2463,7 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
                 }
 
                 statLookup[numStats] = flamdexReader.getMetric(statName);
+                statFields[numStats] = statName;
             } catch (FlamdexOutOfMemoryException e) {
                 throw new ImhotepOutOfMemoryException(e);
             }
@@ -2124,6 +2510,7 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
 
         final IntValueLookup ret = statLookup[numStats];
         statLookup[numStats] = null;
+        statFields[numStats] = null;
         final long memFreed = groupStats[numStats].length * 8 + 8L * docIdToGroup.getNumGroups();
         groupStats[numStats] = null;
 
@@ -2169,6 +2556,7 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         if (metric == null) {
             throw new RuntimeException("dynamic metric \"" + name + "\" does not exist");
         }
+        metric.ensureWritable(memory);
 
         final int numDocs = flamdexReader.getNumDocs();
         for (int doc = 0; doc < numDocs; doc++) {
@@ -2195,6 +2583,11 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         if (metric == null) {
             throw new RuntimeException("dynamic metric \"" + name + "\" does not exist");
         }
+        try {
+            metric.ensureWritable(memory);
+        } catch (ImhotepOutOfMemoryException e) {
+            throw Throwables.propagate(e);
+        }
 
         final List<Integer> indexes = Lists.newArrayList();
         for (int i = 0; i < conditions.length; i++) {
@@ -2274,6 +2667,11 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         if (metric == null) {
             throw new RuntimeException("dynamic metric \"" + name + "\" does not exist");
         }
+        try {
+            metric.ensureWritable(memory);
+        } catch (ImhotepOutOfMemoryException e) {
+            throw Throwables.propagate(e);
+        }
         final IntArrayList groupsSet = new IntArrayList();
         final FastBitSet groupsWithCurrentTerm = new FastBitSet(docIdToGroup.getNumGroups());
         final int[] groupToDelta = new int[docIdToGroup.getNumGroups()];
@@ -2406,6 +2804,487 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         }
     }
 
+    /**
+     * Creates a session on the same shard that starts out with the groups, stats and dynamic metrics of this one.
+     * The group lookup and the dynamic metric values are shared copy-on-write, neither session is charged for them
+     * again until one of them changes them, see {@link SharedMemory}. The stats are pushed again, which reuses the
+     * metrics the reader has loaded already, and the group stats are copied.
+     */
+    @Override
+    public synchronized ImhotepLocalSession fork() throws ImhotepOutOfMemoryException {
+        if (closed) {
+            throw new IllegalStateException("cannot fork a closed session");
+        }
+        if (spilled != null) {
+            throw new IllegalStateException("cannot fork a session that is spilled to disk");
+        }
+        if (originalReader != null) {
+            throw new IllegalStateException("cannot fork a session with rebuilt indexes");
+        }
+
+        final ImhotepLocalSession forked = new ImhotepLocalSession(flamdexReaderRef.copy(), optimizedIndexesDir,
+                memory.newSibling(), fieldZeroDocBitsets != null, tempFileSizeBytesLeft);
+        try {
+            final int oldNumGroups = forked.docIdToGroup.getNumGroups();
+            if (docIdToGroup instanceof ConstantGroupLookup) {
+                forked.docIdToGroup = new ConstantGroupLookup(forked, docIdToGroup.get(0), numDocs);
+            } else {
+                if (!(docIdToGroup instanceof SharedGroupLookup)) {
+                    docIdToGroup = SharedGroupLookup.share(docIdToGroup, memory);
+                }
+                forked.docIdToGroup = ((SharedGroupLookup) docIdToGroup).fork(forked);
+            }
+            forked.accountForFlamdexFTGSIteratorMemChange(oldNumGroups, forked.docIdToGroup.getNumGroups());
+            forked.groupDocCount = clearAndResize(forked.groupDocCount, groupDocCount.length, forked.memory);
+            System.arraycopy(groupDocCount, 0, forked.groupDocCount, 0, groupDocCount.length);
+
+            for (final Map.Entry<String, DynamicMetric> entry : getDynamicMetrics().entrySet()) {
+                forked.getDynamicMetrics().put(entry.getKey(), entry.getValue().fork(memory));
+            }
+
+            for (final String stat : statCommands) {
+                if ("pop".equals(stat)) {
+                    forked.popStat();
+                } else {
+                    forked.pushStat(stat);
+                }
+            }
+            for (int i = 0; i < numStats; i++) {
+                if (!needToReCalcGroupStats[i] && forked.groupStats[i].length == groupStats[i].length) {
+                    System.arraycopy(groupStats[i], 0, forked.groupStats[i], 0, groupStats[i].length);
+                    forked.needToReCalcGroupStats[i] = false;
+                }
+            }
+        } catch (ImhotepOutOfMemoryException e) {
+            forked.close();
+            throw e;
+        } catch (RuntimeException e) {
+            forked.close();
+            throw e;
+        }
+        return forked;
+    }
+
+    private static final class Spill {
+        final File file;
+        final int[] groupStatsLengths;
+        final List<DynamicMetric> dynamicMetrics;
+        final int[] dynamicMetricSizes;
+
+        Spill(File file, int[] groupStatsLengths, List<DynamicMetric> dynamicMetrics, int[] dynamicMetricSizes) {
+            this.file = file;
+            this.groupStatsLengths = groupStatsLengths;
+            this.dynamicMetrics = dynamicMetrics;
+            this.dynamicMetricSizes = dynamicMetricSizes;
+        }
+    }
+
+    /**
+     * Pages the group lookup, group stats and dynamic metrics of an idle session out to a memory mapped temp file and
+     * releases their memory. Nothing but {@link #unspill} and close may be called on the session until unspill has
+     * brought them back. Does nothing if the session has no temp directory.
+     *
+     * @return the number of bytes released
+     */
+    public synchronized long spill() throws IOException {
+        if (closed || spilled != null || optimizedIndexesDir == null) return 0;
+
+        // groups and dynamic metrics shared with forks are not charged to the session, spilling them frees nothing
+        final boolean spillGroups = !(docIdToGroup instanceof ConstantGroupLookup || docIdToGroup instanceof SharedGroupLookup);
+        final int numGroupDocs = docIdToGroup.size();
+        final int[] groupStatsLengths = new int[numStats];
+        long groupStatsBytes = 0;
+        for (int i = 0; i < numStats; i++) {
+            groupStatsLengths[i] = groupStats[i].length;
+            groupStatsBytes += 8L * groupStats[i].length;
+        }
+        final List<DynamicMetric> metrics = Lists.newArrayList();
+        for (final DynamicMetric metric : getDynamicMetrics().values()) {
+            if (!metric.isShared()) {
+                metrics.add(metric);
+            }
+        }
+        final int[] metricSizes = new int[metrics.size()];
+        long metricBytes = 0;
+        for (int i = 0; i < metrics.size(); i++) {
+            metricSizes[i] = (int) (metrics.get(i).memoryUsed() / 4);
+            metricBytes += metrics.get(i).memoryUsed();
+        }
+        final long length = (spillGroups ? 4L * numGroupDocs : 0) + groupStatsBytes + metricBytes;
+        if (length == 0) return 0;
+
+        final File file = File.createTempFile("spill.", ".bin", new File(optimizedIndexesDir));
+        try {
+            final MMapBuffer buffer = new MMapBuffer(file, 0L, length, FileChannel.MapMode.READ_WRITE, ByteOrder.LITTLE_ENDIAN);
+            try {
+                long offset = 0;
+                if (spillGroups) {
+                    final IntArray groups = buffer.memory().intArray(offset, numGroupDocs);
+                    for (int start = 0; start < numGroupDocs; start += BUFFER_SIZE) {
+                        final int n = Math.min(BUFFER_SIZE, numGroupDocs - start);
+                        docIdToGroup.fillDocGrpBufferSequential(start, docGroupBuffer, n);
+                        for (int i = 0; i < n; i++) {
+                            groups.set(start + i, docGroupBuffer[i]);
+                        }
+                    }
+                    offset += 4L * numGroupDocs;
+                }
+                for (int i = 0; i < numStats; i++) {
+                    final LongArray stats = buffer.memory().longArray(offset, groupStatsLengths[i]);
+                    for (int group = 0; group < groupStatsLengths[i]; group++) {
+                        stats.set(group, groupStats[i][group]);
+                    }
+                    offset += 8L * groupStatsLengths[i];
+                }
+                for (int i = 0; i < metrics.size(); i++) {
+                    final IntArray values = buffer.memory().intArray(offset, metricSizes[i]);
+                    for (int doc = 0; doc < metricSizes[i]; doc++) {
+                        values.set(doc, metrics.get(i).lookupSingleVal(doc));
+                    }
+                    offset += 4L * metricSizes[i];
+                }
+                buffer.sync(0, length);
+            } finally {
+                Closeables2.closeQuietly(buffer, log);
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+
+        // the placeholders report no memory, so closing a spilled session releases the right amount
+        long released = 0;
+        if (spillGroups) {
+            released += docIdToGroup.memoryUsed();
+            docIdToGroup = new SpilledGroupLookup(this, docIdToGroup);
+        }
+        for (int i = 0; i < numStats; i++) {
+            groupStats[i] = SPILLED_GROUP_STATS;
+        }
+        released += groupStatsBytes + metricBytes;
+        for (final DynamicMetric metric : metrics) {
+            metric.releaseValues();
+        }
+        memory.releaseMemory(released);
+        spilled = new Spill(file, groupStatsLengths, metrics, metricSizes);
+        return released;
+    }
+
+    /**
+     * Brings back what {@link #spill} paged out. Does nothing if the session is not spilled. If there is not enough
+     * memory for it the session stays spilled.
+     */
+    public synchronized void unspill() throws ImhotepOutOfMemoryException, IOException {
+        if (spilled == null) return;
+        if (closed) {
+            deleteSpill();
+            return;
+        }
+
+        final GroupLookup spilledGroups = docIdToGroup instanceof SpilledGroupLookup ? docIdToGroup : null;
+        long needed = 0;
+        for (final int groupStatsLength : spilled.groupStatsLengths) {
+            needed += 8L * groupStatsLength;
+        }
+        for (final int metricSize : spilled.dynamicMetricSizes) {
+            needed += 4L * metricSize;
+        }
+        // claims everything before touching the session, so that running out of memory leaves it spilled
+        final GroupLookup groups = spilledGroups != null ?
+                GroupLookupFactory.create(spilledGroups.maxGroup(), spilledGroups.size(), this, memory) : null;
+        if (!memory.claimMemory(needed)) {
+            if (groups != null) {
+                memory.releaseMemory(groups.memoryUsed());
+            }
+            throw new ImhotepOutOfMemoryException();
+        }
+
+        final long[][] newGroupStats = new long[spilled.groupStatsLengths.length][];
+        final int[][] metricValues = new int[spilled.dynamicMetricSizes.length][];
+        try {
+            final MMapBuffer buffer = new MMapBuffer(spilled.file, FileChannel.MapMode.READ_ONLY, ByteOrder.LITTLE_ENDIAN);
+            try {
+                long offset = 0;
+                if (groups != null) {
+                    final int numGroupDocs = spilledGroups.size();
+                    final IntArray spilledGroupArray = buffer.memory().intArray(offset, numGroupDocs);
+                    for (int start = 0; start < numGroupDocs; start += BUFFER_SIZE) {
+                        final int n = Math.min(BUFFER_SIZE, numGroupDocs - start);
+                        for (int i = 0; i < n; i++) {
+                            docIdBuf[i] = start + i;
+                            docGroupBuffer[i] = spilledGroupArray.get(start + i);
+                        }
+                        groups.batchSet(docIdBuf, docGroupBuffer, n);
+                    }
+                    offset += 4L * numGroupDocs;
+                }
+                for (int i = 0; i < newGroupStats.length; i++) {
+                    final LongArray stats = buffer.memory().longArray(offset, spilled.groupStatsLengths[i]);
+                    newGroupStats[i] = new long[spilled.groupStatsLengths[i]];
+                    for (int group = 0; group < newGroupStats[i].length; group++) {
+                        newGroupStats[i][group] = stats.get(group);
+                    }
+                    offset += 8L * newGroupStats[i].length;
+                }
+                for (int i = 0; i < metricValues.length; i++) {
+                    final IntArray values = buffer.memory().intArray(offset, spilled.dynamicMetricSizes[i]);
+                    metricValues[i] = new int[spilled.dynamicMetricSizes[i]];
+                    for (int doc = 0; doc < metricValues[i].length; doc++) {
+                        metricValues[i][doc] = values.get(doc);
+                    }
+                    offset += 4L * metricValues[i].length;
+                }
+            } finally {
+                Closeables2.closeQuietly(buffer, log);
+            }
+        } catch (IOException e) {
+            memory.releaseMemory(needed + (groups != null ? groups.memoryUsed() : 0));
+            throw e;
+        } catch (RuntimeException e) {
+            memory.releaseMemory(needed + (groups != null ? groups.memoryUsed() : 0));
+            throw e;
+        }
+
+        if (groups != null) {
+            groups.numGroups = spilledGroups.getNumGroups();
+            docIdToGroup = groups;
+        }
+        System.arraycopy(newGroupStats, 0, groupStats, 0, newGroupStats.length);
+        for (int i = 0; i < metricValues.length; i++) {
+            spilled.dynamicMetrics.get(i).restoreValues(metricValues[i]);
+        }
+        deleteSpill();
+    }
+
+    private void deleteSpill() {
+        if (!spilled.file.delete()) {
+            log.warn("unable to delete " + spilled.file);
+        }
+        spilled = null;
+    }
+
+    /**
+     * Writes the group of every doc, the dynamic metrics and the stat commands of the session to
+     * checkpoints/&lt;checkpointId&gt;/&lt;shard&gt; in the temp directory, where they outlive the session and the daemon.
+     * Groups take one, two or four bytes per doc depending on the number of groups, group stats are not written as
+     * {@link #restore} recomputes them.
+     */
+    @Override
+    public synchronized void checkpoint(String checkpointId) {
+        if (closed || spilled != null) {
+            throw new IllegalStateException("cannot checkpoint a closed or spilled session");
+        }
+        if (originalReader != null) {
+            throw new IllegalStateException("cannot checkpoint a session with rebuilt indexes");
+        }
+        final File file = getCheckpointFile(checkpointId);
+        try {
+            final File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("unable to create " + dir);
+            }
+            final File tmp = new File(file.getPath() + ".tmp");
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+            try {
+                out.writeInt(CHECKPOINT_FORMAT_VERSION);
+                out.writeInt(numDocs);
+                writeCheckpointGroups(out);
+                final Map<String, DynamicMetric> metrics = getDynamicMetrics();
+                out.writeInt(metrics.size());
+                for (final Map.Entry<String, DynamicMetric> entry : metrics.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    for (int doc = 0; doc < numDocs; doc++) {
+                        out.writeInt(entry.getValue().lookupSingleVal(doc));
+                    }
+                }
+                out.writeInt(statCommands.size());
+                for (final String stat : statCommands) {
+                    out.writeUTF(stat);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("unable to rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void writeCheckpointGroups(DataOutputStream out) throws IOException {
+        final int numGroups = docIdToGroup.getNumGroups();
+        if (docIdToGroup instanceof ConstantGroupLookup) {
+            out.writeByte(0);
+            out.writeInt(docIdToGroup.get(0));
+            return;
+        }
+        final int bytesPerGroup = numGroups <= 256 ? 1 : numGroups <= 65536 ? 2 : 4;
+        out.writeByte(bytesPerGroup);
+        out.writeInt(numGroups);
+        for (int start = 0; start < numDocs; start += BUFFER_SIZE) {
+            final int n = Math.min(BUFFER_SIZE, numDocs - start);
+            docIdToGroup.fillDocGrpBufferSequential(start, docGroupBuffer, n);
+            for (int i = 0; i < n; i++) {
+                if (bytesPerGroup == 1) {
+                    out.writeByte(docGroupBuffer[i]);
+                } else if (bytesPerGroup == 2) {
+                    out.writeShort(docGroupBuffer[i]);
+                } else {
+                    out.writeInt(docGroupBuffer[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings a new session on the same shard back to the state {@link #checkpoint} saved, without replaying the
+     * regroups that led to it. Stats are pushed again and their group stats recomputed.
+     *
+     * @return the number of stats
+     */
+    @Override
+    public synchronized int restore(String checkpointId) throws ImhotepOutOfMemoryException {
+        if (closed || spilled != null) {
+            throw new IllegalStateException("cannot restore into a closed or spilled session");
+        }
+        if (numStats > 0 || !getDynamicMetrics().isEmpty()) {
+            throw new IllegalStateException("can only restore a checkpoint into a session without stats or dynamic metrics");
+        }
+        final File file = getCheckpointFile(checkpointId);
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            try {
+                final int version = in.readInt();
+                if (version != CHECKPOINT_FORMAT_VERSION) {
+                    throw new IOException("unsupported checkpoint version " + version);
+                }
+                final int checkpointNumDocs = in.readInt();
+                if (checkpointNumDocs != numDocs) {
+                    throw new IOException("checkpoint " + file + " has " + checkpointNumDocs + " docs, the shard has " + numDocs);
+                }
+                readCheckpointGroups(in);
+                final int numMetrics = in.readInt();
+                for (int i = 0; i < numMetrics; i++) {
+                    final String name = in.readUTF();
+                    createDynamicMetric(name);
+                    final DynamicMetric metric = getDynamicMetrics().get(name);
+                    for (int doc = 0; doc < numDocs; doc++) {
+                        metric.set(doc, in.readInt());
+                    }
+                }
+                final int numStatCommands = in.readInt();
+                for (int i = 0; i < numStatCommands; i++) {
+                    final String stat = in.readUTF();
+                    if ("pop".equals(stat)) {
+                        popStat();
+                    } else {
+                        pushStat(stat);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return numStats;
+    }
+
+    private void readCheckpointGroups(DataInputStream in) throws IOException, ImhotepOutOfMemoryException {
+        final int bytesPerGroup = in.readByte();
+        if (bytesPerGroup == 0) {
+            resetGroupsTo(in.readInt());
+            return;
+        }
+        final int numGroups = in.readInt();
+        final GroupLookup groups = GroupLookupFactory.create(numGroups - 1, numDocs, this, memory);
+        try {
+            for (int start = 0; start < numDocs; start += BUFFER_SIZE) {
+                final int n = Math.min(BUFFER_SIZE, numDocs - start);
+                for (int i = 0; i < n; i++) {
+                    docIdBuf[i] = start + i;
+                    docGroupBuffer[i] = bytesPerGroup == 1 ? in.readUnsignedByte() :
+                            bytesPerGroup == 2 ? in.readUnsignedShort() : in.readInt();
+                }
+                groups.batchSet(docIdBuf, docGroupBuffer, n);
+            }
+        } catch (IOException e) {
+            memory.releaseMemory(groups.memoryUsed());
+            throw e;
+        }
+
+        final GroupLookup oldGroups = docIdToGroup;
+        clearZeroDocBitsets();
+        groups.numGroups = oldGroups.getNumGroups();
+        docIdToGroup = groups;
+        releaseGroupLookup(oldGroups);
+        finalizeRegroup();
+    }
+
+    private File getCheckpointFile(String checkpointId) {
+        if (optimizedIndexesDir == null) {
+            throw new IllegalStateException("session has no temp directory for checkpoints");
+        }
+        if (!VALID_CHECKPOINT_ID.matcher(checkpointId).matches()) {
+            throw new IllegalArgumentException("invalid checkpoint id " + checkpointId);
+        }
+        // named after the shard directory, so that a checkpoint can be restored on any daemon that has the shard
+        final String shardDirectory = flamdexReader.getDirectory();
+        final String shardName = shardDirectory != null ? new File(shardDirectory).getName() : "";
+        final String shard = VALID_CHECKPOINT_ID.matcher(shardName).matches() ? shardName : "shard";
+        return new File(new File(new File(optimizedIndexesDir, CHECKPOINT_DIRECTORY), checkpointId), shard);
+    }
+
+    /**
+     * Deletes the checkpoints in a temp directory that are older than maxAgeMillis.
+     */
+    public static void deleteExpiredCheckpoints(String tempDirectory, long maxAgeMillis) {
+        final File[] checkpoints = new File(tempDirectory, CHECKPOINT_DIRECTORY).listFiles();
+        if (checkpoints == null) return;
+        final long minTime = System.currentTimeMillis() - maxAgeMillis;
+        for (final File checkpoint : checkpoints) {
+            if (checkpoint.lastModified() < minTime) {
+                try {
+                    PosixFileOperations.rmrf(checkpoint);
+                } catch (IOException e) {
+                    log.warn("unable to delete checkpoint " + checkpoint, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the metric of an int field ahead of its first pushStat. Meant for prefetch threads, the metric is loaded
+     * outside of the session lock so that requests on the session are not held up by it.
+     */
+    public void prefetchMetric(String metric) {
+        final FlamdexReader reader;
+        synchronized (this) {
+            if (closed) return;
+            reader = flamdexReader;
+        }
+        if (!reader.getIntFields().contains(metric)) return;
+        final IntValueLookup lookup;
+        try {
+            lookup = reader.getMetric(metric);
+        } catch (FlamdexOutOfMemoryException e) {
+            // pushStat reports it if the session does push the metric
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                lookup.close();
+            } else {
+                prefetchedMetrics.add(lookup);
+            }
+        }
+    }
+
     @Override
     public synchronized void close() {
         if (!closed) {
@@ -2419,14 +3298,27 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
 
     private void tryClose() {
         try {
+            // releases the memory of the splits before the leak check below
+            if (ftgsIteratorSplits != null) {
+                Closeables2.closeQuietly(ftgsIteratorSplits, log);
+            }
             Closeables2.closeQuietly(flamdexReaderRef, log);
             while (numStats > 0) {
                 popStat();
             }
+            for (final IntValueLookup lookup : prefetchedMetrics) {
+                lookup.close();
+            }
+            prefetchedMetrics.clear();
+            releaseSketchMemory();
+            if (spilled != null) {
+                deleteSpill();
+            }
             if (docIdToGroup != null) {
                 final long memFreed =
-                        docIdToGroup.memoryUsed() + groupDocCount.length * 4L + BUFFER_SIZE
+                        groupDocCount.length * 4L + BUFFER_SIZE
                                 * (4 + 4 + 4) + 12L * docIdToGroup.getNumGroups();
+                releaseGroupLookup(docIdToGroup);
                 docIdToGroup = null;
                 groupDocCount = null;
                 memory.releaseMemory(memFreed);
@@ -2435,6 +3327,7 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
             long dynamicMetricUsage = 0;
             for (DynamicMetric metric : getDynamicMetrics().values()) {
                 dynamicMetricUsage += metric.memoryUsed();
+                metric.releaseShared(memory);
             }
             getDynamicMetrics().clear();
             if (dynamicMetricUsage > 0) {
@@ -2480,7 +3373,7 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
     }
 
     private void resetGroupsTo(int group) throws ImhotepOutOfMemoryException {
-        final long bytesToFree = docIdToGroup.memoryUsed();
+        final GroupLookup oldGroups = docIdToGroup;
         final int newNumGroups = group + 1;
 
         clearZeroDocBitsets();
@@ -2488,7 +3381,16 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         docIdToGroup = new ConstantGroupLookup(this, group, numDocs);
         recalcGroupCounts(newNumGroups);
         recalcGroupStats(newNumGroups);
-        memory.releaseMemory(bytesToFree);
+        releaseGroupLookup(oldGroups);
+    }
+
+    // groups shared with forks of the session are not charged to it, it only drops its reference to them
+    private void releaseGroupLookup(GroupLookup groups) {
+        if (groups instanceof SharedGroupLookup) {
+            ((SharedGroupLookup) groups).release(memory);
+        } else {
+            memory.releaseMemory(groups.memoryUsed());
+        }
     }
 
     void clearZeroDocBitsets() {
@@ -2893,6 +3795,9 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
     }
 
     private IntValueLookup hasIntTermFilter(final String field, final long term) throws ImhotepOutOfMemoryException {
+        if (filterIntTerms(field, new long[] {term}).length == 0) {
+            return new Constant(0);
+        }
         final long memoryUsage = getBitSetMemoryUsage();
 
         if (!memory.claimMemory(memoryUsage)) {
@@ -2904,6 +3809,9 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
     }
 
     private IntValueLookup hasStringTermFilter(final String field, final String term) throws ImhotepOutOfMemoryException {
+        if (filterStringTerms(field, new String[] {term}).length == 0) {
+            return new Constant(0);
+        }
         final long memoryUsage = getBitSetMemoryUsage();
 
         if (!memory.claimMemory(memoryUsage)) {
@@ -2928,6 +3836,31 @@ public final class ImhotepLocalSession extends AbstractImhotepSession {
         );
     }
 
+    private IntValueLookup multiValuedLookup(final String field, final MultiValuedIntValueLookup.Aggregation aggregation) throws ImhotepOutOfMemoryException {
+        final long memoryUsage = MultiValuedIntValueLookup.memoryRequired(numDocs, flamdexReader.getIntTotalDocFreq(field));
+
+        if (!memory.claimMemory(memoryUsage)) {
+            throw new ImhotepOutOfMemoryException();
+        }
+
+        final MultiValuedIntValueLookup lookup;
+        try {
+            lookup = FlamdexUtils.cacheMultiValuedField(field, flamdexReader, aggregation);
+        } catch (RuntimeException e) {
+            memory.releaseMemory(memoryUsage);
+            throw e;
+        }
+        // the wrapper releases what the lookup reports when it is closed
+        if (lookup.memoryUsed() < memoryUsage) {
+            memory.releaseMemory(memoryUsage - lookup.memoryUsed());
+        } else if (lookup.memoryUsed() > memoryUsage && !memory.claimMemory(lookup.memoryUsed() - memoryUsage)) {
+            memory.releaseMemory(memoryUsage);
+            throw new ImhotepOutOfMemoryException();
+        }
+
+        return new MemoryReservingIntValueLookupWrapper(lookup);
+    }
+
     private IntValueLookup intTermCountLookup(final String field) throws ImhotepOutOfMemoryException {
         final long memoryUsage = flamdexReader.getNumDocs();
 
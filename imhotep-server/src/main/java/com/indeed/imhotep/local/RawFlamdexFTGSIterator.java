@@ -16,6 +16,7 @@
 import com.indeed.util.core.reference.SharedReference;
 import com.indeed.flamdex.api.FlamdexReader;
 import com.indeed.flamdex.api.RawStringTermDocIterator;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.api.RawFTGSIterator;
 
 final class RawFlamdexFTGSIterator extends FlamdexFTGSIterator implements RawFTGSIterator {
@@ -24,6 +25,10 @@ final class RawFlamdexFTGSIterator extends FlamdexFTGSIterator implements RawFTG
         super(imhotepLocalSession, flamdexReader, intFields, stringFields);
     }
 
+    public RawFlamdexFTGSIterator(ImhotepLocalSession imhotepLocalSession, SharedReference<FlamdexReader> flamdexReader, String[] intFields, String[] stringFields, FTGSStatFilter[] statFilters) {
+        super(imhotepLocalSession, flamdexReader, intFields, stringFields, statFilters);
+    }
+
     @Override
     public final byte[] termStringBytes() {
         return ((RawStringTermDocIterator)stringTermDocIterator).termStringBytes();
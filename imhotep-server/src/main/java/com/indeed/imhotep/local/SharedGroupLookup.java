@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.local;
+
+import com.indeed.util.core.threads.ThreadSafeBitSet;
+import com.indeed.flamdex.datastruct.FastBitSet;
+import com.indeed.imhotep.BitTree;
+import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.MemoryReservationContext;
+
+/**
+ * Group lookup of a session that shares its groups with the sessions it was forked from or into, see
+ * ImhotepLocalSession.fork. Reads go to the shared lookup, which nobody writes to while it is shared.
+ * {@link GroupLookupFactory#resize}, which every regroup goes through before it writes, replaces it with a copy
+ * the session owns, so the writes themselves fail here.
+ */
+final class SharedGroupLookup extends GroupLookup {
+    private final ImhotepLocalSession session;
+    private final GroupLookup groups;
+    private final SharedMemory shared;
+
+    private SharedGroupLookup(ImhotepLocalSession session, GroupLookup groups, SharedMemory shared) {
+        this.session = session;
+        this.groups = groups;
+        this.shared = shared;
+        this.numGroups = groups.getNumGroups();
+    }
+
+    /**
+     * Turns groups owned by a session into groups it shares, with the session as the only holder so far.
+     */
+    static SharedGroupLookup share(GroupLookup groups, MemoryReservationContext memory) {
+        return new SharedGroupLookup(groups.getSession(), groups, SharedMemory.hoist(groups.memoryUsed(), memory));
+    }
+
+    /**
+     * @return a lookup of the same groups for a fork of the session
+     */
+    SharedGroupLookup fork(ImhotepLocalSession forkedSession) {
+        return new SharedGroupLookup(forkedSession, groups, shared.retain());
+    }
+
+    /**
+     * Drops the reference of the session to the groups, see {@link SharedMemory#release}.
+     */
+    void release(MemoryReservationContext memory) {
+        shared.release(memory);
+    }
+
+    @Override
+    public void nextGroupCallback(int n, long[][] termGrpStats, BitTree groupsSeen) {
+        groups.fillDocGrpBuffer(session.docIdBuf, session.docGroupBuffer, n);
+        int rewriteHead = 0;
+        // filter out useless docids (ones with group = 0), keep track of groups that were found
+        for (int i = 0; i < n; i++) {
+            final int group = session.docGroupBuffer[i];
+            if (group == 0) continue;
+
+            session.docGroupBuffer[rewriteHead] = group;
+            session.docIdBuf[rewriteHead] = session.docIdBuf[i];
+            rewriteHead++;
+        }
+        groupsSeen.set(session.docGroupBuffer, rewriteHead);
+
+        if (rewriteHead > 0) {
+            for (int statIndex = 0; statIndex < session.numStats; statIndex++) {
+                ImhotepLocalSession.updateGroupStatsDocIdBuf(session.statLookup[statIndex], termGrpStats[statIndex], session.docGroupBuffer, session.docIdBuf, session.valBuf, rewriteHead);
+            }
+        }
+    }
+
+    @Override
+    public void applyIntConditionsCallback(int n, ThreadSafeBitSet docRemapped, GroupRemapRule[] remapRules, String intField, long itrTerm) {
+        throw new UnsupportedOperationException("bug!");
+    }
+
+    @Override
+    public void applyStringConditionsCallback(int n, ThreadSafeBitSet docRemapped, GroupRemapRule[] remapRules, String stringField, String itrTerm) {
+        throw new UnsupportedOperationException("bug!");
+    }
+
+    @Override
+    public int get(int doc) {
+        return groups.get(doc);
+    }
+
+    @Override
+    public void set(int doc, int group) {
+        throw new UnsupportedOperationException("bug!");
+    }
+
+    @Override
+    public void batchSet(int[] docIdBuf, int[] docGrpBuffer, int n) {
+        throw new UnsupportedOperationException("bug!");
+    }
+
+    @Override
+    public void fill(int group) {
+        throw new UnsupportedOperationException("bug!");
+    }
+
+    @Override
+    public void copyInto(GroupLookup other) {
+        groups.copyInto(other);
+    }
+
+    @Override
+    public int size() {
+        return groups.size();
+    }
+
+    @Override
+    public int maxGroup() {
+        return groups.maxGroup();
+    }
+
+    @Override
+    public long memoryUsed() {
+        // not charged to the session, see SharedMemory
+        return 0;
+    }
+
+    @Override
+    public void fillDocGrpBuffer(int[] docIdBuf, int[] docGrpBuffer, int n) {
+        groups.fillDocGrpBuffer(docIdBuf, docGrpBuffer, n);
+    }
+
+    @Override
+    public void fillDocGrpBufferSequential(int start, int[] docGrpBuffer, int n) {
+        groups.fillDocGrpBufferSequential(start, docGrpBuffer, n);
+    }
+
+    @Override
+    public void bitSetRegroup(FastBitSet bitSet, int targetGroup, int negativeGroup, int positiveGroup) {
+        throw new UnsupportedOperationException("bug!");
+    }
+
+    @Override
+    public ImhotepLocalSession getSession() {
+        return session;
+    }
+
+    @Override
+    public void recalculateNumGroups() {
+        // the shared groups do not change
+        numGroups = groups.getNumGroups();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.local;
+
+import com.indeed.imhotep.MemoryReservationContext;
+
+/**
+ * Reference count of a group lookup or of dynamic metric values that a session shares with its forks, see
+ * ImhotepLocalSession.fork. The memory is hoisted out of the context of the session that allocated it when it is
+ * first shared, so none of the sessions is charged for it, and it is released through the context of whichever
+ * session drops the last reference. All contexts of a daemon reserve from the same pool, so that balances out.
+ */
+final class SharedMemory {
+    private final long bytes;
+    private int refCount;
+
+    private SharedMemory(long bytes) {
+        this.bytes = bytes;
+        this.refCount = 1;
+    }
+
+    /**
+     * Turns memory owned by the session of the given context into shared memory with one reference.
+     */
+    static SharedMemory hoist(long bytes, MemoryReservationContext memory) {
+        memory.hoist(bytes);
+        return new SharedMemory(bytes);
+    }
+
+    synchronized SharedMemory retain() {
+        if (refCount == 0) {
+            throw new IllegalStateException("shared memory has already been released");
+        }
+        refCount++;
+        return this;
+    }
+
+    /**
+     * Gives the memory back to the caller if it holds the only reference.
+     *
+     * @return true if the memory now belongs to the session of the given context, false if it is still shared
+     */
+    boolean takeOwnership(MemoryReservationContext memory) {
+        synchronized (this) {
+            if (refCount != 1) return false;
+            refCount = 0;
+        }
+        memory.dehoist(bytes);
+        return true;
+    }
+
+    /**
+     * Drops a reference, the last one releases the memory.
+     */
+    void release(MemoryReservationContext memory) {
+        synchronized (this) {
+            if (--refCount > 0) return;
+        }
+        memory.dehoist(bytes);
+        memory.releaseMemory(bytes);
+    }
+}
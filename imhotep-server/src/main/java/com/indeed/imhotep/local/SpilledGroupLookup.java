@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.local;
+
+import com.indeed.util.core.threads.ThreadSafeBitSet;
+import com.indeed.flamdex.datastruct.FastBitSet;
+import com.indeed.imhotep.BitTree;
+import com.indeed.imhotep.GroupRemapRule;
+
+/**
+ * Stands in for the group lookup of a session whose groups are paged out to disk, see ImhotepLocalSession.spill.
+ * It keeps what is needed to bring the groups back and the number of groups, everything else fails.
+ */
+final class SpilledGroupLookup extends GroupLookup {
+    private final ImhotepLocalSession session;
+    private final int size;
+    private final int maxGroup;
+
+    SpilledGroupLookup(ImhotepLocalSession session, GroupLookup spilled) {
+        this.session = session;
+        this.size = spilled.size();
+        this.maxGroup = spilled.maxGroup();
+        this.numGroups = spilled.getNumGroups();
+    }
+
+    private static IllegalStateException spilled() {
+        return new IllegalStateException("the groups of this session are spilled to disk");
+    }
+
+    @Override
+    public void nextGroupCallback(int n, long[][] termGrpStats, BitTree groupsSeen) {
+        throw spilled();
+    }
+
+    @Override
+    public void applyIntConditionsCallback(int n, ThreadSafeBitSet docRemapped, GroupRemapRule[] remapRules, String intField, long itrTerm) {
+        throw spilled();
+    }
+
+    @Override
+    public void applyStringConditionsCallback(int n, ThreadSafeBitSet docRemapped, GroupRemapRule[] remapRules, String stringField, String itrTerm) {
+        throw spilled();
+    }
+
+    @Override
+    public int get(int doc) {
+        throw spilled();
+    }
+
+    @Override
+    public void set(int doc, int group) {
+        throw spilled();
+    }
+
+    @Override
+    public void batchSet(int[] docIdBuf, int[] docGrpBuffer, int n) {
+        throw spilled();
+    }
+
+    @Override
+    public void fill(int group) {
+        throw spilled();
+    }
+
+    @Override
+    public void copyInto(GroupLookup other) {
+        throw spilled();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int maxGroup() {
+        return maxGroup;
+    }
+
+    @Override
+    public long memoryUsed() {
+        // released when the groups were spilled
+        return 0;
+    }
+
+    @Override
+    public void fillDocGrpBuffer(int[] docIdBuf, int[] docGrpBuffer, int n) {
+        throw spilled();
+    }
+
+    @Override
+    public void fillDocGrpBufferSequential(int start, int[] docGrpBuffer, int n) {
+        throw spilled();
+    }
+
+    @Override
+    public void bitSetRegroup(FastBitSet bitSet, int targetGroup, int negativeGroup, int positiveGroup) {
+        throw spilled();
+    }
+
+    @Override
+    public ImhotepLocalSession getSession() {
+        return session;
+    }
+
+    @Override
+    public void recalculateNumGroups() {
+        throw spilled();
+    }
+}
@@ -21,9 +21,12 @@ import com.indeed.util.core.Throwables2;
 import com.indeed.util.core.io.Closeables2;
 import com.indeed.util.core.reference.SharedReference;
 import com.indeed.imhotep.DatasetInfo;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.GroupMultiRemapRule;
 import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
 import com.indeed.imhotep.ImhotepStatusDump;
+import com.indeed.imhotep.QuantileSketch;
 import com.indeed.imhotep.QueryRemapRule;
 import com.indeed.imhotep.RegroupCondition;
 import com.indeed.imhotep.ShardInfo;
@@ -86,12 +89,21 @@ public abstract class AbstractImhotepServiceCore implements ImhotepServiceCore {
     }
 
     @Override
-    public void handleGetFTGSIterator(final String sessionId, final String[] intFields, final String[] stringFields, final OutputStream os) throws
+    public QuantileSketch[] handleGetGroupQuantileSketches(String sessionId, final int stat, final int k) throws ImhotepOutOfMemoryException {
+        return doWithSession(sessionId, new ThrowingFunction<ImhotepSession, QuantileSketch[], ImhotepOutOfMemoryException>() {
+            public QuantileSketch[] apply(final ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.getGroupQuantileSketches(stat, k);
+            }
+        });
+    }
+
+    @Override
+    public void handleGetFTGSIterator(final String sessionId, final String[] intFields, final String[] stringFields, final List<FTGSStatFilter> statFilters, final OutputStream os) throws
             IOException {
         doWithSession(sessionId, new ThrowingFunction<ImhotepSession, Void, IOException>() {
             public Void apply(final ImhotepSession session) throws IOException {
                 final int numStats = getSessionManager().getNumStats(sessionId);
-                final FTGSIterator merger = session.getFTGSIterator(intFields, stringFields);
+                final FTGSIterator merger = session.getFTGSIterator(intFields, stringFields, statFilters);
                 sendSuccessResponse(os);
                 return writeFTGSIteratorToOutputStream(numStats, merger, os);
             }
@@ -156,11 +168,11 @@ public abstract class AbstractImhotepServiceCore implements ImhotepServiceCore {
         return null;
     }
 
-    public void handleGetFTGSIteratorSplit(final String sessionId, final String[] intFields, final String[] stringFields, final OutputStream os, final int splitIndex, final int numSplits) throws IOException {
+    public void handleGetFTGSIteratorSplit(final String sessionId, final String[] intFields, final String[] stringFields, final OutputStream os, final int splitIndex, final int numSplits, final List<FTGSStatFilter> statFilters) throws IOException {
         doWithSession(sessionId, new ThrowingFunction<ImhotepSession, Void, IOException>() {
             public Void apply(final ImhotepSession session) throws IOException {
                 final int numStats = getSessionManager().getNumStats(sessionId);
-                final FTGSIterator merger = session.getFTGSIteratorSplit(intFields, stringFields, splitIndex, numSplits);
+                final FTGSIterator merger = session.getFTGSIteratorSplit(intFields, stringFields, splitIndex, numSplits, statFilters);
                 sendSuccessResponse(os);
                 return writeFTGSIteratorToOutputStream(numStats, merger, os);
             }
@@ -184,11 +196,12 @@ public abstract class AbstractImhotepServiceCore implements ImhotepServiceCore {
                                              final String[] stringFields,
                                              final OutputStream os,
                                              final InetSocketAddress[] nodes,
-                                             final int splitIndex) throws IOException {
+                                             final int splitIndex,
+                                             final List<FTGSStatFilter> statFilters) throws IOException {
         doWithSession(sessionId, new ThrowingFunction<ImhotepSession, Void, IOException>() {
             public Void apply(final ImhotepSession session) throws IOException {
                 final int numStats = getSessionManager().getNumStats(sessionId);
-                final FTGSIterator merger = session.mergeFTGSSplit(intFields, stringFields, sessionId, nodes, splitIndex);
+                final FTGSIterator merger = session.mergeFTGSSplit(intFields, stringFields, sessionId, nodes, splitIndex, statFilters);
                 sendSuccessResponse(os);
                 return writeFTGSIteratorToOutputStream(numStats, merger, os);
             }
@@ -208,19 +221,29 @@ public abstract class AbstractImhotepServiceCore implements ImhotepServiceCore {
     }
 
     @Override
-    public void handleGetDocIterator(String sessionId, final String[] intFields, final String[] stringFields, final OutputStream os) throws
+    public void handleGetDocIterator(final String sessionId, final String[] intFields, final String[] stringFields, final boolean stringOrdinals, final boolean columnarDocs, final OutputStream os) throws
             ImhotepOutOfMemoryException, IOException {
-        final SharedReference<ImhotepSession> sessionRef = getSessionManager().getSession(sessionId);
+        final SharedReference<ImhotepSession> sessionRef = getSessionManager().beginOperation(sessionId);
+        Future<?> future = null;
         try {
             final DocIterator iterator = sessionRef.get().getDocIterator(intFields, stringFields);
-            sendSuccessResponse(os);
-            final Future<?> future = ftgsExecutor.submit(new Callable<Void>() {
+            ImhotepDaemon.sendResponse(ImhotepResponse.newBuilder().setStringOrdinals(stringOrdinals && !columnarDocs).setColumnarDocs(columnarDocs).build(), os);
+            future = ftgsExecutor.submit(new Callable<Void>() {
                 @Override
                 public Void call() throws Exception {
                     try {
-                        DocOutputStreamWriter.writeNotThreadSafe(iterator, intFields.length, stringFields.length, os);
+                        if (columnarDocs) {
+                            // merged iterators hand their blocks over as they are
+                            ColumnarDocOutputStreamWriter.writeNotThreadSafe(iterator, intFields.length, stringFields.length, os);
+                        } else if (stringOrdinals) {
+                            DocOutputStreamWriter.writeStringOrdinalsNotThreadSafe(iterator, intFields.length, stringFields.length, os);
+                        } else {
+                            DocOutputStreamWriter.writeNotThreadSafe(iterator, intFields.length, stringFields.length, os);
+                        }
                     } finally {
                         Closeables2.closeAll(log, iterator, sessionRef);
+                        // the session is in use until the docs are written, even if the wait below times out
+                        getSessionManager().endOperation(sessionId);
                     }
                     return null;
                 }
@@ -238,6 +261,9 @@ public abstract class AbstractImhotepServiceCore implements ImhotepServiceCore {
             }
         } catch (Throwable t) {
             Closeables2.closeQuietly(sessionRef, log);
+            if (future == null) {
+                getSessionManager().endOperation(sessionId);
+            }
             throw Throwables2.propagate(t, ImhotepOutOfMemoryException.class, IOException.class);
         }
     }
@@ -256,20 +282,22 @@ public abstract class AbstractImhotepServiceCore implements ImhotepServiceCore {
     }
 
     public <Z, T extends Throwable> Z doWithSession(String sessionId, ThrowingFunction<ImhotepSession, Z, T> f) throws T {
-        final SharedReference<ImhotepSession> sessionRef = getSessionManager().getSession(sessionId);
+        final SharedReference<ImhotepSession> sessionRef = getSessionManager().beginOperation(sessionId);
         try {
             return f.apply(sessionRef.get());
         } finally {
             Closeables2.closeQuietly(sessionRef, log);
+            getSessionManager().endOperation(sessionId);
         }
     }
 
     public <Z> Z doWithSession(String sessionId, Function<ImhotepSession, Z> f)  {
-        final SharedReference<ImhotepSession> sessionRef = getSessionManager().getSession(sessionId);
+        final SharedReference<ImhotepSession> sessionRef = getSessionManager().beginOperation(sessionId);
         try {
             return f.apply(sessionRef.get());
         } finally {
             Closeables2.closeQuietly(sessionRef, log);
+            getSessionManager().endOperation(sessionId);
         }
     }
 
@@ -402,6 +430,15 @@ public abstract class AbstractImhotepServiceCore implements ImhotepServiceCore {
         });
     }
 
+    @Override
+    public HyperLogLog[] handleApproximateDistinctTerms(String sessionId, final String field, final boolean isIntField, final int precision) throws ImhotepOutOfMemoryException {
+        return doWithSession(sessionId, new ThrowingFunction<ImhotepSession, HyperLogLog[], ImhotepOutOfMemoryException>() {
+            public HyperLogLog[] apply(final ImhotepSession session) throws ImhotepOutOfMemoryException {
+                return session.approximateDistinctTerms(field, isIntField, precision);
+            }
+        });
+    }
+
     @Override
     public int handlePushStat(final String sessionId, final String metric) throws ImhotepOutOfMemoryException {
         return doWithSession(sessionId, new ThrowingFunction<ImhotepSession, Integer, ImhotepOutOfMemoryException>() {
@@ -494,12 +531,34 @@ public abstract class AbstractImhotepServiceCore implements ImhotepServiceCore {
         });
     }
 
+    @Override
+    public void handleCheckpoint(String sessionId, final String checkpointId) {
+        doWithSession(sessionId, new Function<ImhotepSession, Void>() {
+            public Void apply(final ImhotepSession session) {
+                session.checkpoint(checkpointId);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public int handleRestore(final String sessionId, final String checkpointId) throws ImhotepOutOfMemoryException {
+        return doWithSession(sessionId, new ThrowingFunction<ImhotepSession, Integer, ImhotepOutOfMemoryException>() {
+            public Integer apply(final ImhotepSession session) throws ImhotepOutOfMemoryException {
+                final int newNumStats = session.restore(checkpointId);
+                getSessionManager().setNumStats(sessionId, newNumStats);
+                return newNumStats;
+            }
+        });
+    }
+
     public abstract List<String> getShardIdsForSession(String sessionId);
 
     @Override
     public abstract String handleOpenSession(
             String dataset,
             List<String> shardRequestList,
+            List<String> requestedMetrics,
             String username,
             String ipAddress,
             int clientVersion,
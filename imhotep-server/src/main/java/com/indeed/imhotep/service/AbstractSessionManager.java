@@ -13,6 +13,7 @@
  */
  package com.indeed.imhotep.service;
 
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.indeed.util.core.io.Closeables2;
 import com.indeed.util.core.reference.SharedReference;
@@ -49,6 +50,87 @@ public abstract class AbstractSessionManager<E> implements SessionManager<E> {
         return session.imhotepSession.copy();
     }
 
+    @Override
+    public SharedReference<ImhotepSession> beginOperation(final String sessionId) {
+        final Session<E> session = internalGetSession(sessionId);
+        synchronized (session) {
+            while (session.spilling) {
+                try {
+                    session.wait();
+                } catch (InterruptedException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+            session.activeOperations++;
+        }
+        try {
+            beforeOperation(sessionId, session);
+            return session.imhotepSession.copy();
+        } catch (RuntimeException e) {
+            endOperation(session);
+            throw e;
+        }
+    }
+
+    @Override
+    public void endOperation(final String sessionId) {
+        final Session<E> session;
+        synchronized (sessionMap) {
+            session = sessionMap.get(sessionId);
+        }
+        if (session != null) {
+            endOperation(session);
+        }
+    }
+
+    private static void endOperation(final Session<?> session) {
+        synchronized (session) {
+            session.activeOperations--;
+        }
+    }
+
+    /**
+     * Called by beginOperation once the session is marked as in use, before it is handed out.
+     */
+    protected void beforeOperation(final String sessionId, final Session<E> session) {
+    }
+
+    /**
+     * Marks a session that is not in use as being spilled, beginOperation waits until {@link #finishSpill} is called.
+     *
+     * @return false if the session is in use or already spilled
+     */
+    protected static boolean startSpill(final Session<?> session) {
+        synchronized (session) {
+            if (session.activeOperations > 0 || session.spilling || session.spilled) {
+                return false;
+            }
+            session.spilling = true;
+            return true;
+        }
+    }
+
+    // the session counts as spilled even if spilling failed half way, bringing back a session that is not spilled is harmless
+    protected static void finishSpill(final Session<?> session) {
+        synchronized (session) {
+            session.spilling = false;
+            session.spilled = true;
+            session.notifyAll();
+        }
+    }
+
+    protected static boolean isSpilled(final Session<?> session) {
+        synchronized (session) {
+            return session.spilled;
+        }
+    }
+
+    protected static void markUnspilled(final Session<?> session) {
+        synchronized (session) {
+            session.spilled = false;
+        }
+    }
+
     @Override
     public boolean sessionIsValid(final String sessionId) {
         synchronized (sessionMap) {
@@ -143,6 +225,11 @@ public abstract class AbstractSessionManager<E> implements SessionManager<E> {
         private volatile int numStats;
         private volatile long lastActionTime;
 
+        // guarded by the session's monitor
+        private int activeOperations = 0;
+        private boolean spilling = false;
+        private boolean spilled = false;
+
         protected Session(
                 ImhotepSession imhotepSession,
                 E sessionState,
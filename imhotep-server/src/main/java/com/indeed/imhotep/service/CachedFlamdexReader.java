@@ -26,6 +26,8 @@ import com.indeed.flamdex.api.IntValueLookup;
 import com.indeed.flamdex.api.StringTermDocIterator;
 import com.indeed.flamdex.api.StringTermIterator;
 import com.indeed.flamdex.api.StringValueLookup;
+import com.indeed.flamdex.simple.FieldStatsFile;
+import com.indeed.flamdex.simple.SimpleFlamdexReader;
 import com.indeed.imhotep.ImhotepMemoryCache;
 import com.indeed.imhotep.ImhotepStatusDump;
 import com.indeed.imhotep.MemoryReservationContext;
@@ -88,7 +90,11 @@ public class CachedFlamdexReader implements FlamdexReader, MetricCache {
                         }
                         final IntValueLookup lookup;
                         try {
+                            final long loadStart = System.nanoTime();
                             lookup = wrapped.getMetric(metric);
+                            if (freeCache != null) {
+                                freeCache.recordLoad(new MetricKey(indexName, shardName, metric), System.nanoTime() - loadStart);
+                            }
                             if (lookup.memoryUsed() != memoryUsed) {
                                 log.error("FlamdexReader.memoryUsed("+metric+"):"+memoryUsed+" does not match lookup.memoryUsed(): "+lookup.memoryUsed());
                                 if (memoryUsed > lookup.memoryUsed()) {
@@ -146,6 +152,24 @@ public class CachedFlamdexReader implements FlamdexReader, MetricCache {
         return wrapped.getDocIdStream();
     }
 
+    /**
+     * Fetches the files of a field and pulls them into the page cache if the wrapped reader is a simple flamdex,
+     * does nothing otherwise.
+     */
+    public void prefetchField(String field) {
+        if (wrapped instanceof SimpleFlamdexReader) {
+            ((SimpleFlamdexReader) wrapped).prefetchField(field);
+        }
+    }
+
+    /**
+     * @return the stats the wrapped reader keeps for an int field if it is a simple flamdex and has them, null otherwise
+     */
+    @Nullable
+    public FieldStatsFile.FieldStats getIntFieldStats(String field) {
+        return wrapped instanceof SimpleFlamdexReader ? ((SimpleFlamdexReader) wrapped).getIntFieldStats(field) : null;
+    }
+
     @Override
     public IntTermIterator getIntTermIterator(String field) {
         return wrapped.getIntTermIterator(field);
@@ -24,10 +24,12 @@ import com.indeed.flamdex.api.IntValueLookup;
 import com.indeed.flamdex.api.StringTermDocIterator;
 import com.indeed.flamdex.api.StringTermIterator;
 import com.indeed.flamdex.api.StringValueLookup;
+import com.indeed.flamdex.simple.FieldStatsFile;
 import com.indeed.imhotep.ImhotepStatusDump;
 
 import org.apache.log4j.Logger;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -125,6 +127,15 @@ public class CachedFlamdexReaderReference implements FlamdexReader, MetricCache
         return reader.memoryRequired(metric);
     }
 
+    public void prefetchField(final String field) {
+        reader.prefetchField(field);
+    }
+
+    @Nullable
+    public FieldStatsFile.FieldStats getIntFieldStats(final String field) {
+        return reader.getIntFieldStats(field);
+    }
+
     @Override
     public List<ImhotepStatusDump.MetricDump> getMetricDump() {
         return reader.getMetricDump();
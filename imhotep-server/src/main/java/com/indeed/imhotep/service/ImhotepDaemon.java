@@ -22,9 +22,12 @@ import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import com.indeed.imhotep.DatasetInfo;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.GroupMultiRemapRule;
 import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
 import com.indeed.imhotep.ImhotepStatusDump;
+import com.indeed.imhotep.QuantileSketch;
 import com.indeed.imhotep.ShardInfo;
 import com.indeed.imhotep.TermCount;
 import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
@@ -190,6 +193,8 @@ public class ImhotepDaemon {
                     long[] groupStats;
                     ImhotepStatusDump statusDump;
                     List<TermCount> topTerms;
+                    HyperLogLog[] distinctTerms;
+                    QuantileSketch[] quantileSketches;
                     switch (protoRequest.getRequestType()) {
                         case OPEN_SESSION:
                             inetAddress = socket.getInetAddress();
@@ -198,6 +203,7 @@ public class ImhotepDaemon {
                             sessionId = service.handleOpenSession(
                                     protoRequest.getDataset(),
                                     protoRequest.getShardRequestList(),
+                                    protoRequest.getRequestedMetricsList(),
                                     protoRequest.getUsername(),
                                     inetAddress.getHostAddress(),
                                     protoRequest.getClientVersion(),
@@ -210,6 +216,20 @@ public class ImhotepDaemon {
                             responseBuilder.setSessionId(sessionId);
                             sendResponse(responseBuilder.build(), os);
                             break;
+                        case FORK_SESSION:
+                            sessionId = service.handleForkSession(protoRequest.getSessionId(), protoRequest.getForkedSessionId());
+                            responseBuilder.setSessionId(sessionId);
+                            sendResponse(responseBuilder.build(), os);
+                            break;
+                        case CHECKPOINT_SESSION:
+                            service.handleCheckpoint(protoRequest.getSessionId(), protoRequest.getCheckpointId());
+                            sendResponse(responseBuilder.build(), os);
+                            break;
+                        case RESTORE_SESSION:
+                            numStats = service.handleRestore(protoRequest.getSessionId(), protoRequest.getCheckpointId());
+                            responseBuilder.setNumStats(numStats);
+                            sendResponse(responseBuilder.build(), os);
+                            break;
                         case CLOSE_SESSION:
                             service.handleCloseSession(protoRequest.getSessionId());
                             sendResponse(responseBuilder.build(), os);
@@ -293,11 +313,19 @@ public class ImhotepDaemon {
                             }
                             sendResponse(responseBuilder.build(), os);
                             break;
+                        case GET_GROUP_QUANTILE_SKETCHES:
+                            quantileSketches = service.handleGetGroupQuantileSketches(
+                                    protoRequest.getSessionId(),
+                                    protoRequest.getStat(),
+                                    protoRequest.getQuantileSketchK()
+                            );
+                            sendResponse(responseBuilder.addAllQuantileSketches(ImhotepDaemonMarshaller.marshalQuantileSketches(quantileSketches)).build(), os);
+                            break;
                         case GET_FTGS_ITERATOR:
                             if (!service.sessionIsValid(protoRequest.getSessionId())) {
                                 throw new IllegalArgumentException("invalid session: " + protoRequest.getSessionId());
                             }
-                            service.handleGetFTGSIterator(protoRequest.getSessionId(), getIntFields(protoRequest), getStringFields(protoRequest), os);
+                            service.handleGetFTGSIterator(protoRequest.getSessionId(), getIntFields(protoRequest), getStringFields(protoRequest), getStatFilters(protoRequest), os);
                             break;
                         case GET_SUBSET_FTGS_ITERATOR:
                             if (!service.sessionIsValid(protoRequest.getSessionId())) {
@@ -309,7 +337,7 @@ public class ImhotepDaemon {
                             if (!service.sessionIsValid(protoRequest.getSessionId())) {
                                 throw new IllegalArgumentException("invalid session: " + protoRequest.getSessionId());
                             }
-                            service.handleGetFTGSIteratorSplit(protoRequest.getSessionId(), getIntFields(protoRequest), getStringFields(protoRequest), os, protoRequest.getSplitIndex(), protoRequest.getNumSplits());
+                            service.handleGetFTGSIteratorSplit(protoRequest.getSessionId(), getIntFields(protoRequest), getStringFields(protoRequest), os, protoRequest.getSplitIndex(), protoRequest.getNumSplits(), getStatFilters(protoRequest));
                             break;
                         case GET_SUBSET_FTGS_SPLIT:
                             if (!service.sessionIsValid(protoRequest.getSessionId())) {
@@ -326,7 +354,7 @@ public class ImhotepDaemon {
                                         public InetSocketAddress apply(final HostAndPort input) {
                                             return new InetSocketAddress(input.getHost(), input.getPort());
                                         }
-                                    }).toArray(new InetSocketAddress[protoRequest.getNodesCount()]), protoRequest.getSplitIndex());
+                                    }).toArray(new InetSocketAddress[protoRequest.getNodesCount()]), protoRequest.getSplitIndex(), getStatFilters(protoRequest));
                             break;
                         case MERGE_SUBSET_FTGS_SPLIT:
                             if (!service.sessionIsValid(protoRequest.getSessionId())) {
@@ -343,7 +371,7 @@ public class ImhotepDaemon {
                             if (!service.sessionIsValid(protoRequest.getSessionId())) {
                                 throw new IllegalArgumentException("invalid session: " + protoRequest.getSessionId());
                             }
-                            service.handleGetDocIterator(protoRequest.getSessionId(), getIntFields(protoRequest), getStringFields(protoRequest), os);
+                            service.handleGetDocIterator(protoRequest.getSessionId(), getIntFields(protoRequest), getStringFields(protoRequest), protoRequest.getStringOrdinals(), protoRequest.getColumnarDocs(), os);
                             break;
                         case PUSH_STAT:
                             numStats = service.handlePushStat(protoRequest.getSessionId(), protoRequest.getMetric());
@@ -508,6 +536,15 @@ public class ImhotepDaemon {
                             );
                             sendResponse(responseBuilder.addAllTopTerms(ImhotepDaemonMarshaller.marshalTermCountList(topTerms)).build(), os);
                             break;
+                        case APPROXIMATE_DISTINCT_TERMS:
+                            distinctTerms = service.handleApproximateDistinctTerms(
+                                    protoRequest.getSessionId(),
+                                    protoRequest.getField(),
+                                    protoRequest.getIsIntField(),
+                                    protoRequest.getHllPrecision()
+                            );
+                            sendResponse(responseBuilder.addAllDistinctTerms(ImhotepDaemonMarshaller.marshalHyperLogLogs(distinctTerms)).build(), os);
+                            break;
                         case SHUTDOWN:
                             if (protoRequest.hasSessionId() && "magicshutdownid".equals(protoRequest.getSessionId())) {
                                 log.info("shutdown signal received, shutting down the JVM");
@@ -592,6 +629,10 @@ public class ImhotepDaemon {
         return protoRequest.getIntFieldsList().toArray(new String[protoRequest.getIntFieldsCount()]);
     }
 
+    private static List<FTGSStatFilter> getStatFilters(ImhotepRequest protoRequest) {
+        return ImhotepDaemonMarshaller.marshalStatFilterMessageList(protoRequest.getStatFiltersList());
+    }
+
     private static Map<String, long[]> getIntFieldsToTerms(ImhotepRequest protoRequest) {
         final LinkedHashMap<String, long[]> ret = Maps.newLinkedHashMap();
         final List<IntFieldAndTerms> intFieldsToTermsList = protoRequest.getIntFieldsToTermsList();
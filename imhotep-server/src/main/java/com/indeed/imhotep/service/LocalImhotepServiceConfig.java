@@ -21,6 +21,9 @@
 public final class LocalImhotepServiceConfig {
     private int updateShardsFrequencySeconds = 120;
     private int heartBeatCheckFrequencySeconds = 60;
+    private int spillIdleSeconds = 60;
+    private int spillFreeMemoryPercent = 10;
+    private int checkpointRetentionHours = 24;
 
     public int getUpdateShardsFrequencySeconds() {
         return updateShardsFrequencySeconds;
@@ -30,6 +33,18 @@ public final class LocalImhotepServiceConfig {
         return heartBeatCheckFrequencySeconds;
     }
 
+    public int getSpillIdleSeconds() {
+        return spillIdleSeconds;
+    }
+
+    public int getSpillFreeMemoryPercent() {
+        return spillFreeMemoryPercent;
+    }
+
+    public int getCheckpointRetentionHours() {
+        return checkpointRetentionHours;
+    }
+
     public LocalImhotepServiceConfig setUpdateShardsFrequencySeconds(int updateShardsFrequencySeconds) {
         this.updateShardsFrequencySeconds = updateShardsFrequencySeconds;
         return this;
@@ -39,4 +54,28 @@ public final class LocalImhotepServiceConfig {
         this.heartBeatCheckFrequencySeconds = heartBeatCheckFrequencySeconds;
         return this;
     }
+
+    /**
+     * sessions idle for at least this long may be spilled to disk when memory runs low
+     */
+    public LocalImhotepServiceConfig setSpillIdleSeconds(int spillIdleSeconds) {
+        this.spillIdleSeconds = spillIdleSeconds;
+        return this;
+    }
+
+    /**
+     * idle sessions are spilled to disk when less than this percentage of memory is free, 0 disables spilling
+     */
+    public LocalImhotepServiceConfig setSpillFreeMemoryPercent(int spillFreeMemoryPercent) {
+        this.spillFreeMemoryPercent = spillFreeMemoryPercent;
+        return this;
+    }
+
+    /**
+     * session checkpoints in the temp directory are deleted after this long
+     */
+    public LocalImhotepServiceConfig setCheckpointRetentionHours(int checkpointRetentionHours) {
+        this.checkpointRetentionHours = checkpointRetentionHours;
+        return this;
+    }
 }
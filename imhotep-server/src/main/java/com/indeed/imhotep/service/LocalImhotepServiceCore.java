@@ -89,6 +89,7 @@ public class LocalImhotepServiceCore extends AbstractImhotepServiceCore {
     private final ScheduledExecutorService heartBeat;
     private final String shardsDirectory;
     private final String shardTempDirectory;
+    private final long checkpointRetentionMillis;
 
     private final MemoryReserver memory;
     private final ImhotepMemoryCache<MetricKey, IntValueLookup> freeCache;
@@ -143,7 +144,8 @@ public class LocalImhotepServiceCore extends AbstractImhotepServiceCore {
             memory = new ImhotepMemoryPool(memoryCapacity);
         }
 
-        sessionManager = new LocalSessionManager();
+        sessionManager = new LocalSessionManager(memory, config.getSpillIdleSeconds(), config.getSpillFreeMemoryPercent());
+        checkpointRetentionMillis = TimeUnit.HOURS.toMillis(config.getCheckpointRetentionHours());
         /* allow temp dir to be null for testing */
         if (shardTempDir != null) {
             clearTempDir(shardTempDir);
@@ -213,6 +215,9 @@ public class LocalImhotepServiceCore extends AbstractImhotepServiceCore {
                 getSessionManager().removeAndCloseIfExists(sessionId, 
                                                            new TimeoutException("Session timed out."));
             }
+            if (shardTempDirectory != null) {
+                ImhotepLocalSession.deleteExpiredCheckpoints(shardTempDirectory, checkpointRetentionMillis);
+            }
         }
     }
 
@@ -543,7 +548,10 @@ public class LocalImhotepServiceCore extends AbstractImhotepServiceCore {
             }
         }
 
-        return new ImhotepStatusDump(usedMemory, totalMemory, openSessions, shards);
+        final List<ImhotepStatusDump.CacheEntryDump> cacheEntries = freeCache != null ?
+                freeCache.getCacheDump() : Collections.<ImhotepStatusDump.CacheEntryDump>emptyList();
+
+        return new ImhotepStatusDump(usedMemory, totalMemory, openSessions, shards, cacheEntries);
     }
 
     @Override
@@ -554,6 +562,7 @@ public class LocalImhotepServiceCore extends AbstractImhotepServiceCore {
     @Override
     public String handleOpenSession(final String dataset,
                                     final List<String> shardRequestList,
+                                    final List<String> requestedMetrics,
                                     final String username,
                                     final String ipAddress,
                                     final int clientVersion,
@@ -607,12 +616,14 @@ public class LocalImhotepServiceCore extends AbstractImhotepServiceCore {
         final Map<ShardId, CachedFlamdexReaderReference> flamdexes = Maps.newHashMap();
         final ImhotepLocalSession[] localSessions;
         localSessions = new ImhotepLocalSession[shardRequestList.size()];
+        final CachedFlamdexReaderReference[] readers = new CachedFlamdexReaderReference[shardRequestList.size()];
         try {
             for (int i = 0; i < shardRequestList.size(); ++i) {
                 final String shardId = shardRequestList.get(i);
                 final Pair<ShardId, CachedFlamdexReaderReference> pair =
                         flamdexReaders.get(shardId);
                 final CachedFlamdexReaderReference cachedFlamdexReaderReference = pair.getSecond();
+                readers[i] = cachedFlamdexReaderReference;
                 try {
                     flamdexes.put(pair.getFirst(), cachedFlamdexReaderReference);
                     localSessions[i] =
@@ -648,6 +659,8 @@ public class LocalImhotepServiceCore extends AbstractImhotepServiceCore {
             throw e;
         }
 
+        SessionPrefetcher.prefetch(sessionId, requestedMetrics, readers, localSessions);
+
         return sessionId;
     }
 
@@ -684,6 +697,15 @@ public class LocalImhotepServiceCore extends AbstractImhotepServiceCore {
         return ret;
     }
 
+    @Override
+    public String handleForkSession(final String sessionId, String forkedSessionId) throws ImhotepOutOfMemoryException {
+        if (Strings.isNullOrEmpty(forkedSessionId)) {
+            forkedSessionId = generateSessionId();
+        }
+        getSessionManager().forkSession(sessionId, forkedSessionId);
+        return forkedSessionId;
+    }
+
     private final AtomicInteger counter = new AtomicInteger(new Random().nextInt());
 
     private String generateSessionId() {
@@ -13,25 +13,163 @@
  */
  package com.indeed.imhotep.service;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.indeed.util.core.io.Closeables2;
+import com.indeed.util.core.reference.SharedReference;
+import com.indeed.util.varexport.Export;
 import com.indeed.util.varexport.VarExporter;
 import com.indeed.imhotep.ImhotepStatusDump;
+import com.indeed.imhotep.MemoryReserver;
+import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
 import com.indeed.imhotep.api.ImhotepSession;
+import org.apache.log4j.Logger;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author jsgroth
  *
  * this class is thread-safe
+ *
+ * When free memory drops below spillFreeMemoryPercent of the total, sessions that have been idle for spillIdleSeconds
+ * are spilled to disk before an operation starts, coldest first, until enough memory is free again. A spilled session
+ * is brought back when its next operation starts, spilling more idle sessions if that is what it takes.
  */
 public final class LocalSessionManager extends AbstractSessionManager<Map<ShardId, CachedFlamdexReaderReference>> {
+    private static final Logger log = Logger.getLogger(LocalSessionManager.class);
+
+    private final @Nullable MemoryReserver memory;
+    private final long spillIdleMillis;
+    private final int spillFreeMemoryPercent;
+
+    private final AtomicLong spills = new AtomicLong();
+    private final AtomicLong unspills = new AtomicLong();
 
     public LocalSessionManager() {
+        this(null, 0, 0);
+    }
+
+    /**
+     * @param memory the daemon's memory, null or a spillFreeMemoryPercent of 0 disables spilling
+     */
+    public LocalSessionManager(@Nullable final MemoryReserver memory, final int spillIdleSeconds, final int spillFreeMemoryPercent) {
+        this.memory = spillFreeMemoryPercent > 0 ? memory : null;
+        this.spillIdleMillis = spillIdleSeconds * 1000L;
+        this.spillFreeMemoryPercent = spillFreeMemoryPercent;
         VarExporter.forNamespace(getClass().getSimpleName()).includeInGlobal().export(this, "");
     }
 
+    @Override
+    protected void beforeOperation(final String sessionId, final Session<Map<ShardId, CachedFlamdexReaderReference>> session) {
+        if (memory == null) {
+            return;
+        }
+        final long minFreeMemory = memory.totalMemory() / 100 * spillFreeMemoryPercent;
+        if (freeMemory() < minFreeMemory) {
+            spillIdleSessions(sessionId, minFreeMemory);
+        }
+        if (isSpilled(session)) {
+            unspill(sessionId, session);
+        }
+    }
+
+    private long freeMemory() {
+        return memory.totalMemory() - memory.usedMemory();
+    }
+
+    private void unspill(final String sessionId, final Session<Map<ShardId, CachedFlamdexReaderReference>> session) {
+        final MTImhotepMultiSession imhotepSession = getMultiSession(session);
+        if (imhotepSession == null) {
+            return;
+        }
+        while (true) {
+            try {
+                imhotepSession.unspill();
+                break;
+            } catch (ImhotepOutOfMemoryException e) {
+                // make room by spilling the coldest idle session and try again
+                if (!spillIdleSessions(sessionId, Long.MAX_VALUE, 1)) {
+                    throw Throwables.propagate(e);
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        markUnspilled(session);
+        unspills.incrementAndGet();
+    }
+
+    private void spillIdleSessions(final String currentSessionId, final long minFreeMemory) {
+        spillIdleSessions(currentSessionId, minFreeMemory, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Spills sessions that are idle, coldest first, until minFreeMemory is free or maxSessions have been spilled.
+     *
+     * @return true if at least one session was spilled
+     */
+    private boolean spillIdleSessions(final String currentSessionId, final long minFreeMemory, final int maxSessions) {
+        final Map<String, Session<Map<ShardId, CachedFlamdexReaderReference>>> sessions = cloneSessionMap();
+        final List<Map.Entry<String, Long>> lastActionTimes = Lists.newArrayList(getLastActionTimes().entrySet());
+        Collections.sort(lastActionTimes, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                return o1.getValue().compareTo(o2.getValue());
+            }
+        });
+        final long idleBefore = System.currentTimeMillis() - spillIdleMillis;
+        int spilled = 0;
+        for (final Map.Entry<String, Long> entry : lastActionTimes) {
+            if (spilled >= maxSessions || freeMemory() >= minFreeMemory || entry.getValue() > idleBefore) {
+                break;
+            }
+            final Session<Map<ShardId, CachedFlamdexReaderReference>> session = sessions.get(entry.getKey());
+            if (entry.getKey().equals(currentSessionId) || session == null || !startSpill(session)) {
+                continue;
+            }
+            try {
+                final MTImhotepMultiSession imhotepSession = getMultiSession(session);
+                if (imhotepSession != null) {
+                    final long released = imhotepSession.spill();
+                    log.info("spilled session " + entry.getKey() + " to disk, released " + released + " bytes");
+                    spills.incrementAndGet();
+                    spilled++;
+                }
+            } catch (IOException e) {
+                log.warn("unable to spill session " + entry.getKey(), e);
+            } catch (RuntimeException e) {
+                log.warn("unable to spill session " + entry.getKey(), e);
+            } finally {
+                finishSpill(session);
+            }
+        }
+        return spilled > 0;
+    }
+
+    @Nullable
+    private static MTImhotepMultiSession getMultiSession(final Session<?> session) {
+        final ImhotepSession imhotepSession = session.imhotepSession.get();
+        return imhotepSession instanceof MTImhotepMultiSession ? (MTImhotepMultiSession) imhotepSession : null;
+    }
+
+    @Export(name = "session-spills", doc = "# of times an idle session was spilled to disk")
+    public long getSpills() {
+        return spills.get();
+    }
+
+    @Export(name = "session-unspills", doc = "# of times a spilled session was brought back from disk")
+    public long getUnspills() {
+        return unspills.get();
+    }
+
     @Override
     public void addSession(
             final String sessionId,
@@ -46,6 +184,28 @@ public final class LocalSessionManager extends AbstractSessionManager<Map<ShardI
         addSession(sessionId, session);
     }
 
+    /**
+     * Registers a fork of a session under forkedSessionId, with the same owner and shards, see ImhotepSession.fork.
+     */
+    public void forkSession(final String sessionId, final String forkedSessionId) throws ImhotepOutOfMemoryException {
+        final Session<Map<ShardId, CachedFlamdexReaderReference>> session = internalGetSession(sessionId);
+        final SharedReference<ImhotepSession> imhotepSession = beginOperation(sessionId);
+        try {
+            final ImhotepSession forked = imhotepSession.get().fork();
+            try {
+                addSession(forkedSessionId, forked, session.sessionState, session.username, session.ipAddress,
+                        session.clientVersion, session.dataset);
+            } catch (RuntimeException e) {
+                Closeables2.closeQuietly(forked, log);
+                throw e;
+            }
+            setNumStats(forkedSessionId, getNumStats(sessionId));
+        } finally {
+            Closeables2.closeQuietly(imhotepSession, log);
+            endOperation(sessionId);
+        }
+    }
+
     public List<String> getShardIdsForSession(final String sessionId) {
         final Session<Map<ShardId, CachedFlamdexReaderReference>> session = internalGetSession(sessionId);
         final List<String> ret = new ArrayList<String>(session.sessionState.size());
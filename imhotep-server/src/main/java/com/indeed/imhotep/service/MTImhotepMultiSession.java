@@ -24,6 +24,8 @@ import com.indeed.imhotep.local.ImhotepLocalSession;
 
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -38,6 +40,8 @@ class MTImhotepMultiSession extends AbstractImhotepMultiSession {
 
     private static final Logger log = Logger.getLogger(MTImhotepMultiSession.class);
 
+    private final ImhotepLocalSession[] localSessions;
+
     private final MemoryReservationContext memory;
 
     private final ExecutorService executor;
@@ -52,8 +56,9 @@ class MTImhotepMultiSession extends AbstractImhotepMultiSession {
                           final MemoryReservationContext memory,
                           final ExecutorService executor,
                           final AtomicLong tempFileSizeBytesLeft) throws ImhotepOutOfMemoryException {
-        super(sessions, tempFileSizeBytesLeft);
+        super(sessions, tempFileSizeBytesLeft, memory);
 
+        this.localSessions = sessions;
         this.memory = memory;
         this.executor = executor;
         memoryClaimed = 0;
@@ -85,6 +90,99 @@ class MTImhotepMultiSession extends AbstractImhotepMultiSession {
         Closeables2.closeQuietly(memory, log);
     }
 
+    /**
+     * Pages the groups, group stats and dynamic metrics of every shard out to disk, see ImhotepLocalSession.spill.
+     * The caller has to make sure that the session is not in use until {@link #unspill} returns.
+     *
+     * @return the number of bytes released
+     */
+    long spill() throws IOException {
+        long released = 0;
+        for (final Long shardReleased : forEachShard(new ShardFunction<Long>() {
+            @Override
+            public Long apply(ImhotepLocalSession session) throws Exception {
+                return session.spill();
+            }
+        })) {
+            released += shardReleased;
+        }
+        return released;
+    }
+
+    void unspill() throws ImhotepOutOfMemoryException, IOException {
+        forEachShard(new ShardFunction<Void>() {
+            @Override
+            public Void apply(ImhotepLocalSession session) throws Exception {
+                session.unspill();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Forks every shard, see ImhotepLocalSession.fork. Unlike the other operations a failure leaves this session open.
+     */
+    @Override
+    public MTImhotepMultiSession fork() throws ImhotepOutOfMemoryException {
+        final List<ImhotepLocalSession> forked = Collections.synchronizedList(Lists.<ImhotepLocalSession>newArrayList());
+        boolean success = false;
+        try {
+            final List<ImhotepLocalSession> children = forEachShard(new ShardFunction<ImhotepLocalSession>() {
+                @Override
+                public ImhotepLocalSession apply(ImhotepLocalSession session) throws Exception {
+                    final ImhotepLocalSession child = session.fork();
+                    forked.add(child);
+                    return child;
+                }
+            });
+            final MTImhotepMultiSession ret = new MTImhotepMultiSession(
+                    children.toArray(new ImhotepLocalSession[children.size()]), memory.newSibling(), executor, tempFileSizeBytesLeft);
+            ret.numStats = numStats;
+            success = true;
+            return ret;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            if (!success) {
+                for (final ImhotepLocalSession child : forked) {
+                    Closeables2.closeQuietly(child, log);
+                }
+            }
+        }
+    }
+
+    private interface ShardFunction<T> {
+        T apply(ImhotepLocalSession session) throws Exception;
+    }
+
+    // unlike execute, a failure leaves the session open, shards that failed are still spilled or still loaded
+    private <T> List<T> forEachShard(final ShardFunction<T> function) throws ImhotepOutOfMemoryException, IOException {
+        final List<Future<T>> futures = Lists.newArrayListWithCapacity(localSessions.length);
+        for (final ImhotepLocalSession session : localSessions) {
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return function.apply(session);
+                }
+            }));
+        }
+        final List<T> ret = Lists.newArrayListWithCapacity(futures.size());
+        Throwable t = null;
+        for (final Future<T> future : futures) {
+            try {
+                ret.add(future.get());
+            } catch (ExecutionException e) {
+                t = e.getCause();
+            } catch (InterruptedException e) {
+                t = e;
+            }
+        }
+        if (t != null) {
+            throw Throwables2.propagate(t, ImhotepOutOfMemoryException.class, IOException.class);
+        }
+        return ret;
+    }
+
     @Override
     protected <E, T> void execute(final T[] ret, E[] things, final ThrowingFunction<? super E, ? extends T> function) throws ExecutionException {
         final List<Future<T>> futures = Lists.newArrayListWithCapacity(things.length);
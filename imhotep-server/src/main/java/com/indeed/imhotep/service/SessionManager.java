@@ -35,6 +35,14 @@ public interface SessionManager<E> {
 
     SharedReference<ImhotepSession> getSession(String sessionId);
 
+    /**
+     * Same as getSession, but also marks the session as in use until endOperation is called.
+     * Sessions in use are never spilled to disk, and a spilled session is brought back before it is returned.
+     */
+    SharedReference<ImhotepSession> beginOperation(String sessionId);
+
+    void endOperation(String sessionId);
+
     boolean sessionIsValid(String sessionId);
 
     void removeAndCloseIfExists(String sessionId);
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.indeed.imhotep.local.ImhotepLocalSession;
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms the shards of a new session for the metrics its client is going to push: fetches the files of each metric
+ * from the remote file system, reads them into the page cache and loads the metric into the session, so that the
+ * first pushStat finds it resident.
+ *
+ * Prefetching is best effort and gives way to queries: it runs on com.indeed.imhotep.service.SessionPrefetcher.threads
+ * minimum priority threads and drops work when its queue is full.
+ */
+final class SessionPrefetcher {
+    private static final Logger log = Logger.getLogger(SessionPrefetcher.class);
+
+    private static final int NUM_THREADS = Integer.getInteger("com.indeed.imhotep.service.SessionPrefetcher.threads", 2);
+    private static final int MAX_QUEUED = 4096;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            NUM_THREADS, NUM_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+            new ThreadFactoryBuilder().setDaemon(true).setPriority(Thread.MIN_PRIORITY).setNameFormat("SessionPrefetcher-%d").build(),
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    private SessionPrefetcher() {}
+
+    /**
+     * Queues the prefetch of every requested metric that is an int field of a shard, metric by metric so that the
+     * first metrics are resident on all shards before the later ones are started.
+     *
+     * @param readers the reader of each session, in the same order
+     */
+    static void prefetch(final String sessionId, List<String> metrics,
+                         CachedFlamdexReaderReference[] readers, ImhotepLocalSession[] sessions) {
+        for (final String metric : metrics) {
+            for (int i = 0; i < sessions.length; i++) {
+                final CachedFlamdexReaderReference reader = readers[i];
+                final ImhotepLocalSession session = sessions[i];
+                if (!reader.getIntFields().contains(metric)) continue;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            reader.prefetchField(metric);
+                            session.prefetchMetric(metric);
+                        } catch (Throwable t) {
+                            log.warn("unable to prefetch metric " + metric + " for session " + sessionId, t);
+                        }
+                    }
+                });
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ import com.google.common.primitives.Longs;
 import com.indeed.util.io.Files;
 import com.indeed.flamdex.api.IntValueLookup;
 import com.indeed.flamdex.reader.MockFlamdexReader;
+import com.indeed.flamdex.utils.FlamdexUtils;
 import org.junit.Test;
 
 import java.io.File;
@@ -48,6 +49,120 @@ public class TestFieldCacher {
         runCacheTest(1, 0, FieldCacher.BITSET, 8);
     }
 
+    @Test
+    public void testPackedFieldCacher() throws IOException {
+        MockFlamdexReader r = new MockFlamdexReader(Arrays.asList("f"), Collections.<String>emptyList(), Arrays.asList("f"), 100);
+        long[] cache = new long[100];
+        r.addIntTerm("f", 1000000, 0);
+        r.addIntTerm("f", 1000100, 1);
+        cache[0] = 1000000;
+        cache[1] = 1000100;
+        // every third doc has no term and has to come out as 0
+        for (int doc = 2; doc < 100; ++doc) {
+            if (doc % 3 == 0) continue;
+            r.addIntTerm("f", 1000000 + doc, doc);
+            cache[doc] = 1000000 + doc;
+        }
+
+        FieldCacher fieldCacher = FieldCacher.getCacherForField("f", r);
+        assertEquals(FieldCacher.PACKED, fieldCacher);
+        // 7 bits per doc, 700 bits round up to 11 words plus one padding word
+        assertEquals(96, fieldCacher.memoryRequired(r.getNumDocs(), IntTermSummary.of("f", r)));
+        IntValueLookup ivl = fieldCacher.newFieldCache("f", r);
+        assertEquals(96, ivl.memoryUsed());
+        assertEquals(0, ivl.getMin());
+        assertEquals(1000100, ivl.getMax());
+        verifyCache(cache, ivl);
+
+        String tempDir = Files.getTempDirectory("asdf", "");
+        for (int x = 0; x < 2; ++x) {
+            IntValueLookup mmivl = fieldCacher.newMMapFieldCache("f", r, tempDir);
+            // the second pass reads the max term back from the existing cache file
+            assertEquals(0, mmivl.getMin());
+            assertEquals(1000100, mmivl.getMax());
+            verifyCache(cache, mmivl);
+            mmivl.close();
+            assertTrue(new File(tempDir, fieldCacher.getMMapFileName("f")).exists());
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testDictionaryFieldCacher() throws IOException {
+        final long[] terms = {-5000000000000L, 3, 42, 7000000000L, 1000000000000000L};
+        MockFlamdexReader r = new MockFlamdexReader(Arrays.asList("f"), Collections.<String>emptyList(), Arrays.asList("f"), 1000);
+        long[] cache = new long[1000];
+        List<List<Integer>> termDocs = new ArrayList<List<Integer>>();
+        for (int i = 0; i < terms.length; ++i) {
+            termDocs.add(new ArrayList<Integer>());
+        }
+        // docs that are a multiple of 7 have no term
+        for (int doc = 0; doc < 1000; ++doc) {
+            if (doc % 7 == 0) continue;
+            final int t = rand.nextInt(terms.length);
+            termDocs.get(t).add(doc);
+            cache[doc] = terms[t];
+        }
+        for (int i = 0; i < terms.length; ++i) {
+            r.addIntTerm("f", terms[i], termDocs.get(i));
+        }
+
+        FieldCacher fieldCacher = FieldCacher.getCacherForField("f", r);
+        assertEquals(FieldCacher.DICTIONARY, fieldCacher);
+        // 6 dictionary entries and 3000 bits of ordinals in 47 words plus one padding word
+        assertEquals(8 * 6 + 8 * 48, fieldCacher.memoryRequired(r.getNumDocs(), IntTermSummary.of("f", r)));
+        IntValueLookup ivl = fieldCacher.newFieldCache("f", r);
+        assertEquals(terms[0], ivl.getMin());
+        assertEquals(terms[terms.length - 1], ivl.getMax());
+        verifyCache(cache, ivl);
+
+        String tempDir = Files.getTempDirectory("asdf", "");
+        for (int x = 0; x < 2; ++x) {
+            IntValueLookup mmivl = fieldCacher.newMMapFieldCache("f", r, tempDir);
+            verifyCache(cache, mmivl);
+            mmivl.close();
+            assertTrue(new File(tempDir, fieldCacher.getMMapFileName("f")).exists());
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testDictionaryUnsortedTerms() {
+        // terms come out in reverse order, so the ordinals have to be remapped once the dictionary is sorted
+        final long[] terms = {900, -100, 5, 0};
+        final int[][] docs = {{1, 4}, {0}, {2, 5, 6}, {3}};
+        final long[] dictionary = new long[terms.length + 1];
+        final long[] words = FlamdexUtils.cacheDictionaryField(new UnsortedIntTermDocIterator() {
+            int term = -1;
+            boolean docsReturned;
+
+            @Override
+            public boolean nextTerm() {
+                docsReturned = false;
+                return ++term < terms.length;
+            }
+
+            @Override
+            public long term() {
+                return terms[term];
+            }
+
+            @Override
+            public int nextDocs(int[] docIdBuffer) {
+                if (docsReturned) return 0;
+                docsReturned = true;
+                System.arraycopy(docs[term], 0, docIdBuffer, 0, docs[term].length);
+                return docs[term].length;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 8, dictionary);
+        assertEquals(Longs.asList(0, -100, 0, 5, 900), Longs.asList(dictionary));
+        verifyCache(new long[]{-100, 900, 5, 0, 900, 5, 5, 0}, new DictionaryIntValueLookup(dictionary, words));
+    }
+
     private void runCacheTest(int maxVal, int lowerMaxVal, FieldCacher expectedType, long expectedMemory) throws IOException {
         for (int i = 0; i < 10; ++i) {
             MockFlamdexReader r = new MockFlamdexReader(Arrays.asList("f"), Collections.<String>emptyList(), Arrays.asList("f"), 10);
@@ -83,9 +198,10 @@ public class TestFieldCacher {
                 }
             }
 
-            FieldCacher fieldCacher = FieldCacher.getCacherForField("f", r);
-            assertEquals(expectedType, fieldCacher);
-            assertEquals(expectedMemory, fieldCacher.memoryRequired(r.getNumDocs()));
+            IntTermSummary summary = IntTermSummary.of("f", r);
+            assertEquals(expectedType, FieldCacher.getFixedWidthCacherForRange(summary.minTerm, summary.maxTerm));
+            FieldCacher fieldCacher = expectedType;
+            assertEquals(expectedMemory, fieldCacher.memoryRequired(r.getNumDocs(), summary));
             IntValueLookup ivl = fieldCacher.newFieldCache("f", r);
             verifyCache(cache, ivl);
 
@@ -107,10 +223,10 @@ public class TestFieldCacher {
     }
 
     private static void verifyCache(long[] cache, IntValueLookup ivl) {
-        int[] docIds = new int[10];
-        for (int j = 0; j < 10; ++j) docIds[j] = j;
-        long[] values = new long[10];
-        ivl.lookup(docIds, values, 10);
+        int[] docIds = new int[cache.length];
+        for (int j = 0; j < cache.length; ++j) docIds[j] = j;
+        long[] values = new long[cache.length];
+        ivl.lookup(docIds, values, cache.length);
         assertEquals(Longs.asList(cache), Longs.asList(values));
     }
 }
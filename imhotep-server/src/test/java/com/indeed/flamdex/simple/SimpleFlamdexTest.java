@@ -29,6 +29,7 @@ import junit.framework.TestCase;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +58,153 @@ public class SimpleFlamdexTest extends TestCase {
             it.close();
             sit.close();
             r.close();
+
+            final TermBloomFilter emptyFilter = TermBloomFilter.open(dir, "if1", true);
+            assertTrue(emptyFilter.isEmpty());
+            emptyFilter.close();
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testTopTermsFile() throws IOException {
+        final String dir = Files.getTempDirectory("flamdex-test", "foo");
+        try {
+            final int numTerms = TopTermsFile.MAX_TERMS + 500;
+            final long[] docFreqs = new long[numTerms];
+            final SimpleFlamdexWriter w = new SimpleFlamdexWriter(dir, 100L, true);
+            final IntFieldWriter ifw = w.getIntFieldWriter("if1");
+            final StringFieldWriter sfw = w.getStringFieldWriter("sf1");
+            for (int term = 0; term < numTerms; ++term) {
+                docFreqs[term] = rand.nextInt(100) + 1;
+                ifw.nextTerm(term - 100);
+                sfw.nextTerm(String.format("%05d", term));
+                for (int doc = 0; doc < docFreqs[term]; ++doc) {
+                    ifw.nextDoc(doc);
+                    sfw.nextDoc(doc);
+                }
+            }
+            ifw.close();
+            sfw.close();
+            w.close();
+
+            final long[] sortedDocFreqs = docFreqs.clone();
+            Arrays.sort(sortedDocFreqs);
+
+            final List<TopTermsFile.Entry<Long>> intTopTerms = TopTermsFile.readIntTopTerms(dir, "if1", TopTermsFile.MAX_TERMS);
+            final List<TopTermsFile.Entry<String>> stringTopTerms = TopTermsFile.readStringTopTerms(dir, "sf1", 10);
+            assertEquals(TopTermsFile.MAX_TERMS, intTopTerms.size());
+            assertEquals(10, stringTopTerms.size());
+            for (int i = 0; i < intTopTerms.size(); ++i) {
+                final TopTermsFile.Entry<Long> entry = intTopTerms.get(i);
+                assertEquals(sortedDocFreqs[numTerms - 1 - i], entry.docFreq);
+                assertEquals(docFreqs[(int) (entry.term + 100)], entry.docFreq);
+            }
+            for (final TopTermsFile.Entry<String> entry : stringTopTerms) {
+                assertEquals(docFreqs[Integer.parseInt(entry.term)], entry.docFreq);
+            }
+
+            // shards written before the sidecar existed get the same result from scanning the terms file
+            final List<TopTermsFile.Entry<Long>> scanned = TopTermsFile.scanIntTerms(Files.buildPath(dir, SimpleIntFieldWriter.getTermsFilename("if1"))).descending();
+            assertEquals(intTopTerms.size(), scanned.size());
+            for (int i = 0; i < scanned.size(); ++i) {
+                assertEquals(intTopTerms.get(i).docFreq, scanned.get(i).docFreq);
+            }
+
+            assertNull(TopTermsFile.readIntTopTerms(dir, "missing", 10));
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testFieldStatsFile() throws IOException {
+        final String dir = Files.getTempDirectory("flamdex-test", "foo");
+        try {
+            final SimpleFlamdexWriter w = new SimpleFlamdexWriter(dir, 100L, true);
+            final IntFieldWriter ifw = w.getIntFieldWriter("if1");
+            final StringFieldWriter sfw = w.getStringFieldWriter("sf1");
+            long totalDocFreq = 0;
+            for (int term = 0; term < 50; ++term) {
+                final int docFreq = term + 1;
+                ifw.nextTerm(term * 3 - 20);
+                sfw.nextTerm(String.format("%02d", term));
+                for (int doc = 0; doc < docFreq; ++doc) {
+                    ifw.nextDoc(doc);
+                    sfw.nextDoc(doc);
+                }
+                totalDocFreq += docFreq;
+            }
+            ifw.close();
+            sfw.close();
+            w.close();
+
+            final FieldStatsFile.FieldStats intStats = FieldStatsFile.readIntFieldStats(dir, "if1");
+            assertEquals(totalDocFreq, intStats.totalDocFreq);
+            assertEquals(50, intStats.numTerms);
+            assertEquals(-20, intStats.minTerm);
+            assertEquals(49 * 3 - 20, intStats.maxTerm);
+            // doc freqs 1..50 fall into the buckets [1,2), [2,4), [4,8), [8,16), [16,32), [32,64)
+            assertTrue(Arrays.equals(new long[] {1, 2, 4, 8, 16, 19}, intStats.getDocFreqHistogram()));
+
+            final FieldStatsFile.FieldStats stringStats = FieldStatsFile.readStringFieldStats(dir, "sf1");
+            assertEquals(totalDocFreq, stringStats.totalDocFreq);
+            assertEquals(50, stringStats.numTerms);
+
+            final SimpleFlamdexReader r = SimpleFlamdexReader.open(dir);
+            assertEquals(totalDocFreq, r.getIntTotalDocFreq("if1"));
+            assertEquals(totalDocFreq, r.getStringTotalDocFreq("sf1"));
+            r.close();
+
+            // shards written before the sidecar existed get the same result from scanning the terms file
+            final FieldStatsFile.FieldStats scanned = FieldStatsFile.scanIntTerms(Files.buildPath(dir, SimpleIntFieldWriter.getTermsFilename("if1")));
+            assertEquals(intStats.toString(), scanned.toString());
+
+            assertNull(FieldStatsFile.readIntFieldStats(dir, "missing"));
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testTermBloomFilter() throws IOException {
+        final String dir = Files.getTempDirectory("flamdex-test", "foo");
+        try {
+            final int numTerms = 10000;
+            final SimpleFlamdexWriter w = new SimpleFlamdexWriter(dir, 10L, true);
+            final IntFieldWriter ifw = w.getIntFieldWriter("if1");
+            final StringFieldWriter sfw = w.getStringFieldWriter("sf1");
+            for (int term = 0; term < numTerms; ++term) {
+                ifw.nextTerm(term * 2);
+                ifw.nextDoc(term % 10);
+                sfw.nextTerm(String.format("%05d", term * 2));
+                sfw.nextDoc(term % 10);
+            }
+            ifw.close();
+            sfw.close();
+            w.close();
+
+            final TermBloomFilter intFilter = TermBloomFilter.open(dir, "if1", true);
+            final TermBloomFilter stringFilter = TermBloomFilter.open(dir, "sf1", false);
+            try {
+                assertFalse(intFilter.isEmpty());
+                assertFalse(stringFilter.isEmpty());
+                int falsePositives = 0;
+                for (int term = 0; term < numTerms; ++term) {
+                    assertTrue(intFilter.mightContainIntTerm(term * 2));
+                    assertTrue(stringFilter.mightContainStringTerm(String.format("%05d", term * 2)));
+                    if (intFilter.mightContainIntTerm(term * 2 + 1)) falsePositives++;
+                    if (stringFilter.mightContainStringTerm(String.format("%05d", term * 2 + 1))) falsePositives++;
+                }
+                // about 1% is expected
+                assertTrue("too many false positives: " + falsePositives, falsePositives < numTerms * 2 / 20);
+            } finally {
+                intFilter.close();
+                stringFilter.close();
+            }
+
+            assertNull(TermBloomFilter.open(dir, "missing", true));
         } finally {
             Files.delete(dir);
         }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.flamdex.writer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.indeed.flamdex.MemoryFlamdex;
+import com.indeed.flamdex.simple.SimpleFlamdexWriter;
+import com.indeed.flamdex.utils.FlamdexReinverter;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestRollupFlamdexDocWriter {
+    private static final List<String> INT_DIMENSIONS = Collections.singletonList("type");
+    private static final List<String> STRING_DIMENSIONS = Collections.singletonList("country");
+    private static final List<String> METRICS = Arrays.asList("clicks", "impressions");
+
+    private static List<FlamdexDocument> makeDocs() {
+        final List<FlamdexDocument> docs = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            final FlamdexDocument doc = new FlamdexDocument();
+            doc.setIntField("type", i % 2);
+            if (i % 3 != 0) {
+                doc.setStringField("country", i % 3 == 1 ? "us" : "uk");
+            }
+            doc.setIntField("clicks", i);
+            if (i % 5 == 0) {
+                doc.setIntField("impressions", new long[]{1, 2});
+            }
+            doc.setIntField("unused", i);
+            docs.add(doc);
+        }
+        // same type terms as the docs with type 1 and 0, in a different order
+        final FlamdexDocument doc = new FlamdexDocument();
+        doc.setIntField("type", new long[]{1, 0});
+        doc.setIntField("clicks", 1000);
+        docs.add(doc);
+        final FlamdexDocument reversed = new FlamdexDocument();
+        reversed.setIntField("type", new long[]{0, 1});
+        reversed.setIntField("clicks", 2000);
+        docs.add(reversed);
+        return docs;
+    }
+
+    // dimension terms -> clicks, impressions, count
+    private static Map<String, List<Long>> summarize(List<FlamdexDocument> rollup) {
+        final Map<String, List<Long>> ret = Maps.newHashMap();
+        for (final FlamdexDocument doc : rollup) {
+            final String key = "type=" + doc.getIntTerms("type") + " country=" + doc.getStringTerms("country");
+            ret.put(key, Arrays.asList(single(doc.getIntTerms("clicks")), single(doc.getIntTerms("impressions")), single(doc.getIntTerms("count"))));
+        }
+        assertEquals(rollup.size(), ret.size());
+        return ret;
+    }
+
+    private static long single(LongList terms) {
+        assertEquals(1, terms.size());
+        return terms.getLong(0);
+    }
+
+    private static Map<String, List<Long>> expected() {
+        final Map<String, List<Long>> ret = Maps.newHashMap();
+        for (final FlamdexDocument doc : makeDocs()) {
+            final LongList types = doc.getIntTerms("type");
+            final long[] sortedTypes = types.toLongArray();
+            Arrays.sort(sortedTypes);
+            final List<String> countries = doc.getStringTerms("country");
+            final String key = "type=" + Arrays.toString(sortedTypes) + " country=" + countries;
+            final List<Long> sums = ret.containsKey(key) ? ret.get(key) : Arrays.asList(0L, 0L, 0L);
+            final LongList impressions = doc.getIntTerms("impressions");
+            ret.put(key, Arrays.asList(sums.get(0) + doc.getIntTerms("clicks").getLong(0),
+                    sums.get(1) + (impressions == null ? 0 : impressions.getLong(0) + impressions.getLong(1)), sums.get(2) + 1));
+        }
+        return ret;
+    }
+
+    @Test
+    public void testRollupDocWriter() throws IOException {
+        final MemoryFlamdex rollup = new MemoryFlamdex();
+        final RollupFlamdexDocWriter writer = new RollupFlamdexDocWriter(rollup, INT_DIMENSIONS, STRING_DIMENSIONS, METRICS, "count");
+        for (final FlamdexDocument doc : makeDocs()) {
+            writer.addDocument(doc);
+        }
+        assertEquals(7, writer.getNumRollupDocs());
+        writer.close();
+
+        assertEquals(7, rollup.getNumDocs());
+        assertEquals(expected(), summarize(FlamdexReinverter.reinvertInMemory(rollup)));
+    }
+
+    @Test
+    public void testRollupShard() throws IOException {
+        final MemoryFlamdex shard = new MemoryFlamdex();
+        for (final FlamdexDocument doc : makeDocs()) {
+            shard.addDocument(doc);
+        }
+        final MemoryFlamdex rollup = new MemoryFlamdex();
+        SimpleFlamdexWriter.writeRollup(shard, rollup, INT_DIMENSIONS, STRING_DIMENSIONS, METRICS, "count");
+
+        assertEquals(7, rollup.getNumDocs());
+        assertEquals(expected(), summarize(FlamdexReinverter.reinvertInMemory(rollup)));
+    }
+}
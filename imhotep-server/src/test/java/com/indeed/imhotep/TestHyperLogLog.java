@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestHyperLogLog {
+    @Test
+    public void testEmpty() {
+        assertEquals(0, new HyperLogLog(HyperLogLog.DEFAULT_PRECISION).cardinality());
+    }
+
+    @Test
+    public void testAccuracy() {
+        for (final int n : new int[]{10, 1000, 100000, 1000000}) {
+            final HyperLogLog hll = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+            for (int i = 0; i < n; i++) {
+                hll.offerIntTerm(i);
+                // duplicates must not change the estimate
+                hll.offerIntTerm(i);
+            }
+            final double error = Math.abs(hll.cardinality() - n) / (double) n;
+            assertTrue("n = " + n + ", estimate = " + hll.cardinality(), error < 0.03);
+        }
+    }
+
+    @Test
+    public void testMergeIsUnion() {
+        final HyperLogLog a = new HyperLogLog(12);
+        final HyperLogLog b = new HyperLogLog(12);
+        final HyperLogLog union = new HyperLogLog(12);
+        for (int i = 0; i < 50000; i++) {
+            final byte[] term = ("term" + i).getBytes(Charsets.UTF_8);
+            if (i % 3 != 0) a.offerStringTerm(term, term.length);
+            if (i % 3 != 1) b.offerStringTerm(term, term.length);
+            union.offerStringTerm(term, term.length);
+        }
+        a.merge(b);
+        assertEquals(union, a);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentPrecision() {
+        new HyperLogLog(10).merge(new HyperLogLog(11));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrecisionOutOfRange() {
+        new HyperLogLog(HyperLogLog.MAX_PRECISION + 1);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestQuantileSketch {
+    @Test
+    public void testExactBelowCapacity() {
+        final QuantileSketch sketch = new QuantileSketch(QuantileSketch.DEFAULT_K);
+        for (int i = 100; i >= 1; i--) {
+            sketch.update(i);
+        }
+        assertEquals(100, sketch.getCount());
+        assertEquals(1, sketch.quantile(0));
+        assertEquals(50, sketch.quantile(0.5));
+        assertEquals(90, sketch.quantile(0.9));
+        assertEquals(100, sketch.quantile(1));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, new QuantileSketch(QuantileSketch.DEFAULT_K).quantile(0.5));
+    }
+
+    @Test
+    public void testMergedRankError() {
+        final Random random = new Random(0);
+        final int n = 200000;
+        final long[] values = new long[n];
+        final QuantileSketch[] shards = new QuantileSketch[8];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new QuantileSketch(QuantileSketch.DEFAULT_K);
+        }
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextInt(1000000);
+            shards[i % shards.length].update(values[i]);
+        }
+
+        final QuantileSketch merged = new QuantileSketch(QuantileSketch.DEFAULT_K);
+        for (final QuantileSketch shard : shards) {
+            merged.merge(shard);
+        }
+        assertEquals(n, merged.getCount());
+
+        Arrays.sort(values);
+        for (final double fraction : new double[]{0.01, 0.25, 0.5, 0.75, 0.99}) {
+            final long estimate = merged.quantile(fraction);
+            int rank = Arrays.binarySearch(values, estimate);
+            if (rank < 0) rank = -rank - 1;
+            final double rankError = Math.abs(rank / (double) n - fraction);
+            assertTrue("fraction = " + fraction + ", rank error = " + rankError, rankError < 0.02);
+        }
+    }
+
+    @Test
+    public void testRoundTripThroughLevels() {
+        final QuantileSketch sketch = new QuantileSketch(16);
+        for (int i = 0; i < 1000; i++) {
+            sketch.update(i);
+        }
+        final QuantileSketch copy = new QuantileSketch(sketch.getK(), sketch.getCount(), sketch.getMin(), sketch.getMax(), sketch.getLevels());
+        for (final double fraction : new double[]{0, 0.1, 0.5, 0.9, 1}) {
+            assertEquals(sketch.quantile(fraction), copy.quantile(fraction));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentK() {
+        new QuantileSketch(100).merge(new QuantileSketch(200));
+    }
+}
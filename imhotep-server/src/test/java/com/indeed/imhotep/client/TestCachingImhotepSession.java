@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.client;
+
+import com.google.common.collect.Lists;
+import com.indeed.flamdex.reader.MockFlamdexReader;
+import com.indeed.imhotep.ImhotepMemoryPool;
+import com.indeed.imhotep.MemoryReservationContext;
+import com.indeed.imhotep.api.FTGSIterator;
+import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
+import com.indeed.imhotep.api.ImhotepSession;
+import com.indeed.imhotep.local.ImhotepLocalSession;
+import com.indeed.util.io.Files;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCachingImhotepSession {
+    private static final String[] INT_FIELDS = new String[] { "if1" };
+    private static final String[] NO_FIELDS = new String[0];
+
+    private static MockFlamdexReader newReader() {
+        final MockFlamdexReader r = new MockFlamdexReader(Arrays.asList("if1", "metric"), Collections.<String>emptyList(),
+                                                          Arrays.asList("if1", "metric"), 10);
+        r.addIntTerm("if1", 1, 0, 1, 2, 3, 4);
+        r.addIntTerm("if1", 2, 5, 6, 7, 8, 9);
+        for (int doc = 0; doc < 10; doc++) {
+            r.addIntTerm("metric", doc, doc);
+        }
+        return r;
+    }
+
+    private static final class CountingOpener implements CachingImhotepSession.SessionOpener {
+        private final MockFlamdexReader reader = newReader();
+        @Nullable
+        private final String tempDir;
+        int opened = 0;
+
+        CountingOpener(@Nullable String tempDir) {
+            this.tempDir = tempDir;
+        }
+
+        @Override
+        public ImhotepSession open() {
+            opened++;
+            try {
+                return newLocalSession(reader, tempDir);
+            } catch (ImhotepOutOfMemoryException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static ImhotepLocalSession newLocalSession(MockFlamdexReader reader, @Nullable String tempDir) throws ImhotepOutOfMemoryException {
+        return new ImhotepLocalSession(reader, tempDir, new MemoryReservationContext(new ImhotepMemoryPool(Long.MAX_VALUE)), false, null);
+    }
+
+    private static CachingImhotepSession newSession(ImhotepResultCache cache, long version, CountingOpener opener) {
+        return new CachingImhotepSession(cache, "dataset", Arrays.asList(new ShardIdWithVersion("index20130418.18-20130418.19", version)), opener);
+    }
+
+    private static List<String> drain(FTGSIterator iterator, int numStats) {
+        final List<String> ret = Lists.newArrayList();
+        final long[] stats = new long[numStats];
+        while (iterator.nextField()) {
+            while (iterator.nextTerm()) {
+                while (iterator.nextGroup()) {
+                    iterator.groupStats(stats);
+                    ret.add(iterator.fieldName() + " " + iterator.termIntVal() + " " + iterator.termDocFreq() + " "
+                            + iterator.group() + " " + Arrays.toString(stats));
+                }
+            }
+        }
+        iterator.close();
+        return ret;
+    }
+
+    @Test
+    public void testHitSkipsOpening() throws ImhotepOutOfMemoryException {
+        final ImhotepResultCache cache = new ImhotepResultCache(1 << 20);
+        final CountingOpener opener = new CountingOpener(null);
+
+        final CachingImhotepSession first = newSession(cache, 1, opener);
+        assertEquals(1, first.pushStat("metric"));
+        assertArrayEquals(new long[] { 0, 45 }, first.getGroupStats(0));
+        first.close();
+        assertEquals(1, opener.opened);
+
+        final CachingImhotepSession second = newSession(cache, 1, opener);
+        assertEquals(1, second.pushStat("metric"));
+        assertArrayEquals(new long[] { 0, 45 }, second.getGroupStats(0));
+        second.close();
+        assertEquals(1, opener.opened);
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testHitAfterOpen() throws ImhotepOutOfMemoryException {
+        final ImhotepResultCache cache = new ImhotepResultCache(1 << 20);
+        final CountingOpener opener = new CountingOpener(null);
+
+        final CachingImhotepSession first = newSession(cache, 1, opener);
+        first.pushStat("metric");
+        final int numGroups = first.metricRegroup(0, 0, 10, 5);
+        first.close();
+
+        // opened by an FTGS request, after which the cached metricRegroup still has to change the groups of the session
+        final CachingImhotepSession second = newSession(cache, 1, opener);
+        second.pushStat("metric");
+        drain(second.getFTGSIterator(INT_FIELDS, NO_FIELDS), 1);
+        assertEquals(2, opener.opened);
+        assertEquals(numGroups, second.metricRegroup(0, 0, 10, 5));
+        final List<String> ftgs = drain(second.getFTGSIterator(INT_FIELDS, NO_FIELDS), 1);
+        final int cachedNumGroups = second.getNumGroups();
+        second.close();
+
+        final ImhotepLocalSession expected = newLocalSession(newReader(), null);
+        expected.pushStat("metric");
+        expected.metricRegroup(0, 0, 10, 5);
+        assertEquals(drain(expected.getFTGSIterator(INT_FIELDS, NO_FIELDS), 1), ftgs);
+        assertEquals(expected.getNumGroups(), cachedNumGroups);
+        expected.close();
+
+        // and what the second session computed is right for a new one as well
+        final CachingImhotepSession third = newSession(cache, 1, opener);
+        third.pushStat("metric");
+        third.metricRegroup(0, 0, 10, 5);
+        assertEquals(ftgs, drain(third.getFTGSIterator(INT_FIELDS, NO_FIELDS), 1));
+        third.close();
+        assertEquals(2, opener.opened);
+    }
+
+    @Test
+    public void testNewShardVersion() throws ImhotepOutOfMemoryException {
+        final ImhotepResultCache cache = new ImhotepResultCache(1 << 20);
+        final CountingOpener opener = new CountingOpener(null);
+        for (final long version : new long[] { 1, 1, 2, 2 }) {
+            final CachingImhotepSession session = newSession(cache, version, opener);
+            session.pushStat("metric");
+            assertArrayEquals(new long[] { 0, 45 }, session.getGroupStats(0));
+            session.close();
+        }
+        assertEquals(2, opener.opened);
+    }
+
+    @Test
+    public void testFTGSCachedAfterFullIteration() throws ImhotepOutOfMemoryException {
+        final ImhotepResultCache cache = new ImhotepResultCache(1 << 20, 1 << 16);
+        final CountingOpener opener = new CountingOpener(null);
+
+        final CachingImhotepSession partial = newSession(cache, 1, opener);
+        partial.pushStat("metric");
+        final FTGSIterator iterator = partial.getFTGSIterator(INT_FIELDS, NO_FIELDS);
+        iterator.nextField();
+        iterator.nextTerm();
+        iterator.close();
+        partial.close();
+        assertEquals(1, opener.opened);
+
+        final CachingImhotepSession full = newSession(cache, 1, opener);
+        full.pushStat("metric");
+        final List<String> ftgs = drain(full.getFTGSIterator(INT_FIELDS, NO_FIELDS), 1);
+        full.close();
+        assertEquals(2, opener.opened);
+        assertEquals(Arrays.asList("if1 1 5 1 [10]", "if1 2 5 1 [35]"), ftgs);
+
+        final CachingImhotepSession cached = newSession(cache, 1, opener);
+        cached.pushStat("metric");
+        assertEquals(ftgs, drain(cached.getFTGSIterator(INT_FIELDS, NO_FIELDS), 1));
+        cached.close();
+        assertEquals(2, opener.opened);
+    }
+
+    @Test
+    public void testFTGSCachedAfterSkipping() throws ImhotepOutOfMemoryException {
+        final String[] fields = new String[] { "if1", "metric" };
+        final ImhotepResultCache cache = new ImhotepResultCache(1 << 20, 1 << 16);
+        final CountingOpener opener = new CountingOpener(null);
+
+        final CachingImhotepSession skipping = newSession(cache, 1, opener);
+        skipping.pushStat("metric");
+        // several groups per term
+        skipping.metricRegroup(0, 0, 10, 2);
+        final FTGSIterator iterator = skipping.getFTGSIterator(fields, NO_FIELDS);
+        assertTrue(iterator.nextField());
+        assertTrue(iterator.nextTerm());
+        // only the first group of the first term, none of the second term
+        assertTrue(iterator.nextGroup());
+        assertTrue(iterator.nextTerm());
+        assertTrue(iterator.nextField());
+        // only the first term of the second field
+        assertTrue(iterator.nextTerm());
+        assertFalse(iterator.nextField());
+        iterator.close();
+        skipping.close();
+        assertEquals(1, opener.opened);
+
+        final ImhotepLocalSession expected = newLocalSession(newReader(), null);
+        expected.pushStat("metric");
+        expected.metricRegroup(0, 0, 10, 2);
+        final List<String> expectedFTGS = drain(expected.getFTGSIterator(fields, NO_FIELDS), 1);
+        expected.close();
+
+        final CachingImhotepSession cached = newSession(cache, 1, opener);
+        cached.pushStat("metric");
+        cached.metricRegroup(0, 0, 10, 2);
+        assertEquals(expectedFTGS, drain(cached.getFTGSIterator(fields, NO_FIELDS), 1));
+        cached.close();
+        assertEquals(1, opener.opened);
+    }
+
+    @Test
+    public void testFTGSOverLimitNotCached() throws ImhotepOutOfMemoryException {
+        final ImhotepResultCache cache = new ImhotepResultCache(1 << 20, 1);
+        final CountingOpener opener = new CountingOpener(null);
+        for (int i = 1; i <= 2; i++) {
+            final CachingImhotepSession session = newSession(cache, 1, opener);
+            session.pushStat("metric");
+            assertEquals(Arrays.asList("if1 1 5 1 [10]", "if1 2 5 1 [35]"), drain(session.getFTGSIterator(INT_FIELDS, NO_FIELDS), 1));
+            session.close();
+            assertEquals(i, opener.opened);
+        }
+    }
+
+    @Test
+    public void testRestoreDisablesCaching() throws ImhotepOutOfMemoryException, IOException {
+        final String tempDir = Files.getTempDirectory("checkpoint", "");
+        try {
+            final ImhotepLocalSession original = newLocalSession(newReader(), tempDir);
+            original.pushStat("metric");
+            original.checkpoint("c1");
+            original.close();
+
+            final ImhotepResultCache cache = new ImhotepResultCache(1 << 20);
+            final CountingOpener opener = new CountingOpener(tempDir);
+            final CachingImhotepSession restored = newSession(cache, 1, opener);
+            assertEquals(1, restored.restore("c1"));
+            assertArrayEquals(new long[] { 0, 45 }, restored.getGroupStats(0));
+            assertEquals(1, restored.getNumStats());
+            restored.close();
+            assertEquals(0, cache.getCachedBytes());
+            assertEquals(0, cache.getHits() + cache.getMisses());
+        } finally {
+            Files.delete(tempDir);
+        }
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final ImhotepResultCache cache = new ImhotepResultCache(100);
+        final Object a = new Object();
+        final Object b = new Object();
+        final Object c = new Object();
+        cache.put("a", a, 40);
+        cache.put("b", b, 40);
+        assertSame(a, cache.get("a"));
+        cache.put("c", c, 40);
+        assertEquals(80, cache.getCachedBytes());
+        assertNull(cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertSame(c, cache.get("c"));
+
+        // larger than the whole cache, so not cached and nothing evicted for it
+        cache.put("d", new Object(), 101);
+        assertNull(cache.get("d"));
+        assertEquals(80, cache.getCachedBytes());
+    }
+}
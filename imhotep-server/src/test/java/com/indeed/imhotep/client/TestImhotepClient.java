@@ -16,6 +16,10 @@
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.indeed.util.io.Files;
+import com.indeed.flamdex.simple.SimpleFlamdexDocWriter;
+import com.indeed.flamdex.writer.FlamdexDocWriter;
+import com.indeed.flamdex.writer.FlamdexDocument;
+import com.indeed.flamdex.writer.RollupFlamdexDocWriter;
 import com.indeed.imhotep.api.ImhotepSession;
 import com.indeed.imhotep.service.ImhotepDaemonRunner;
 import junit.framework.TestCase;
@@ -27,6 +31,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertTrue;
@@ -47,6 +52,7 @@ public class TestImhotepClient extends TestCase {
     private static final String SHARD0 = "index20130418.18-20130418.19";
     private static final String SHARD1 = "index20130418.19-20130418.20";
     private static final String DATASET = "dataset";
+    private static final List<String> METRICS = Collections.singletonList("clicks");
 
     private ImhotepDaemonRunner daemon1;
     private ImhotepDaemonRunner daemon2;
@@ -125,6 +131,94 @@ public class TestImhotepClient extends TestCase {
         client.close();
     }
 
+    @Test
+    public void testRollup() throws Exception {
+        final String dir = Files.getTempDirectory("imhotep", "rollup.test");
+        final String optDir = Files.getTempDirectory("imhotep", "rollup.optimize.test");
+        final ImhotepDaemonRunner daemon = new ImhotepDaemonRunner(dir, optDir, getFreePort());
+        try {
+            for (String shard : Arrays.asList(SHARD0, SHARD1)) {
+                writeShard(new File(dir, DATASET + "/" + shard), false);
+                writeShard(new File(dir, "rollup/" + shard), true);
+            }
+            // does not cover the time range as well as the dataset does
+            writeShard(new File(dir, "partialrollup/" + SHARD0), true);
+            // covers the whole day, more than the shards of the dataset
+            writeShard(new File(dir, "dayrollup/index20130418.00-20130419.00"), true);
+            daemon.start();
+            ImhotepClient client = new ImhotepClient(Arrays.asList(new Host("localhost", daemon.getPort())));
+            client.addRollup(DATASET, "partialrollup", "count", METRICS);
+            client.addRollup(DATASET, "dayrollup", "count", METRICS);
+            client.addRollup(DATASET, "rollup", "count", METRICS);
+            final DateTime start = new DateTime(2013, 4, 18, 18, 0);
+            final DateTime end = new DateTime(2013, 4, 18, 20, 0);
+
+            ImhotepSession session = client.sessionBuilder(DATASET, start, end).fields(Arrays.asList("country", "hour", "clicks", "count()")).build();
+            assertTrue(session instanceof RollupImhotepSession);
+            assertEquals(Arrays.asList(200L, 9900L), getTotals(session));
+            try {
+                session.metricFilter(0, 0, 10, false);
+                fail("metricFilter did not fail on a rollup session");
+            } catch (UnsupportedOperationException e) {
+                // pass
+            }
+            try {
+                session.pushStat("hour");
+                fail("a dimension was pushed as a stat on a rollup session");
+            } catch (UnsupportedOperationException e) {
+                // pass
+            }
+            session.close();
+
+            client.removeRollup(DATASET, "rollup", "count");
+            session = client.sessionBuilder(DATASET, start, end).fields(Arrays.asList("country", "clicks", "count()")).build();
+            assertFalse(session instanceof RollupImhotepSession);
+            assertEquals(Arrays.asList(200L, 9900L), getTotals(session));
+            session.close();
+            client.addRollup(DATASET, "rollup", "count", METRICS);
+
+            // unused is not in the rollup
+            session = client.sessionBuilder(DATASET, start, end).fields(Arrays.asList("country", "unused", "count()")).build();
+            assertFalse(session instanceof RollupImhotepSession);
+            assertEquals(Arrays.asList(200L, 9900L), getTotals(session));
+            session.close();
+
+            session = client.sessionBuilder(DATASET, start, end).build();
+            assertFalse(session instanceof RollupImhotepSession);
+            session.close();
+
+            client.close();
+        } finally {
+            daemon.stop();
+            Files.delete(dir);
+            Files.delete(optDir);
+        }
+    }
+
+    // count() and the sum of clicks over every doc
+    private static List<Long> getTotals(ImhotepSession session) throws Exception {
+        session.pushStat("count()");
+        session.pushStat("clicks");
+        return Arrays.asList(session.getGroupStats(0)[1], session.getGroupStats(1)[1]);
+    }
+
+    private static void writeShard(File shardDir, boolean rollup) throws IOException {
+        assertTrue(shardDir.mkdirs());
+        FlamdexDocWriter w = new SimpleFlamdexDocWriter(shardDir.getAbsolutePath(), new SimpleFlamdexDocWriter.Config());
+        if (rollup) {
+            w = new RollupFlamdexDocWriter(w, Collections.singletonList("hour"), Collections.singletonList("country"),
+                    METRICS, "count");
+        }
+        for (int i = 0; i < 100; i++) {
+            final FlamdexDocument doc = new FlamdexDocument();
+            doc.setStringField("country", i % 2 == 0 ? "us" : "uk");
+            doc.setIntField("clicks", i);
+            doc.setIntField("hour", i % 3);
+            doc.setIntField("unused", i);
+            w.addDocument(doc);
+        }
+        w.close();
+    }
 
     @Test
     public void testRemoveIntersectingShards() {
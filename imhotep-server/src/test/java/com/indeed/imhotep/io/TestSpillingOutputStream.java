@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.io;
+
+import com.google.common.io.ByteStreams;
+import com.indeed.imhotep.ImhotepMemoryPool;
+import com.indeed.imhotep.MemoryReservationContext;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestSpillingOutputStream {
+    @Test
+    public void testInMemory() throws IOException {
+        final byte[] data = randomBytes(100000);
+        final SpillingOutputStream out = new SpillingOutputStream(1 << 20, new AtomicLong(0));
+        writeMixed(out, data);
+        assertEquals(data.length, out.getMemoryBytes());
+        assertEquals(0, out.getSpilledBytes());
+        assertArrayEquals(data, readAll(out));
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        final byte[] data = randomBytes(300000);
+        final AtomicLong tempFileSizeBytesLeft = new AtomicLong(1 << 20);
+        final SpillingOutputStream out = new SpillingOutputStream(70000, tempFileSizeBytesLeft);
+        writeMixed(out, data);
+        assertEquals(70000, out.getMemoryBytes());
+        assertEquals(data.length - 70000, out.getSpilledBytes());
+        assertEquals((1 << 20) - (data.length - 70000), tempFileSizeBytesLeft.get());
+        assertArrayEquals(data, readAll(out));
+    }
+
+    @Test
+    public void testNoMemory() throws IOException {
+        final byte[] data = randomBytes(1000);
+        final SpillingOutputStream out = new SpillingOutputStream(0, null);
+        writeMixed(out, data);
+        assertEquals(data.length, out.getSpilledBytes());
+        assertArrayEquals(data, readAll(out));
+    }
+
+    @Test
+    public void testSpillLimit() throws IOException {
+        final SpillingOutputStream out = new SpillingOutputStream(100, new AtomicLong(10));
+        try {
+            out.write(new byte[1000]);
+            fail("expected the temp file size limit to be hit");
+        } catch (WriteLimitExceededException e) {
+            // expected
+        } finally {
+            out.release();
+        }
+    }
+
+    @Test
+    public void testMemoryReservation() throws IOException {
+        final byte[] data = randomBytes(300000);
+        // room for two chunks, the rest has to be spilled even though the memory limit is higher
+        final MemoryReservationContext memory = new MemoryReservationContext(new ImhotepMemoryPool(2 * 65536 + 100));
+        final SpillingOutputStream out = new SpillingOutputStream(1 << 20, new AtomicLong(1 << 20), memory);
+        writeMixed(out, data);
+        assertEquals(2 * 65536, out.getMemoryBytes());
+        assertEquals(data.length - 2 * 65536, out.getSpilledBytes());
+        assertEquals(2 * 65536, memory.usedMemory());
+        assertArrayEquals(data, readAll(out));
+        assertEquals(0, memory.usedMemory());
+    }
+
+    @Test
+    public void testReleaseMemory() throws IOException {
+        final MemoryReservationContext memory = new MemoryReservationContext(new ImhotepMemoryPool(1 << 20));
+        final SpillingOutputStream out = new SpillingOutputStream(1 << 20, new AtomicLong(0), memory);
+        out.write(new byte[1000]);
+        // memory is claimed a whole chunk at a time
+        assertEquals(65536, memory.usedMemory());
+        out.release();
+        assertEquals(0, memory.usedMemory());
+    }
+
+    @Test
+    public void testReleaseWhileReading() throws IOException {
+        final MemoryReservationContext memory = new MemoryReservationContext(new ImhotepMemoryPool(1 << 20));
+        final SpillingOutputStream out = new SpillingOutputStream(1 << 20, new AtomicLong(0), memory);
+        writeMixed(out, randomBytes(200000));
+        final InputStream in = out.getInputStream();
+        try {
+            ByteStreams.readFully(in, new byte[70000]);
+            out.release();
+            assertEquals(0, memory.usedMemory());
+            try {
+                ByteStreams.toByteArray(in);
+                fail("expected reading past the current chunk of a released stream to fail");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            in.close();
+        }
+        assertEquals(0, memory.usedMemory());
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] ret = new byte[length];
+        new Random(0).nextBytes(ret);
+        return ret;
+    }
+
+    // single bytes and arrays of varying length, so writes straddle chunk and spill boundaries
+    private static void writeMixed(SpillingOutputStream out, byte[] data) throws IOException {
+        final Random rand = new Random(1);
+        int off = 0;
+        while (off < data.length) {
+            if (rand.nextBoolean()) {
+                out.write(data[off++]);
+            } else {
+                final int len = Math.min(rand.nextInt(20000), data.length - off);
+                out.write(data, off, len);
+                off += len;
+            }
+        }
+        out.close();
+    }
+
+    private static byte[] readAll(SpillingOutputStream out) throws IOException {
+        final InputStream in = out.getInputStream();
+        try {
+            final byte[] ret = ByteStreams.toByteArray(in);
+            assertEquals(-1, in.read());
+            return ret;
+        } finally {
+            in.close();
+        }
+    }
+}
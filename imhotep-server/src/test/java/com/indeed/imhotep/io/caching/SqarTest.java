@@ -424,6 +424,24 @@ public class SqarTest {
         assertNotNull(result);
     }
     
+    @Test
+    public void testSqarPrefetch() throws IOException {
+        final CachedFile[] files;
+        final File dir;
+        
+        files = CachedFile.create("testData/test-archive/1/2/3").listFiles();
+        assertNotNull(files);
+        assertEquals(2, files.length);
+        CachedFile.prefetch(Arrays.asList(files));
+        
+        assertTrue(CachedFile.create("testData/test-archive/1/2/3/123.file").loadFile().exists());
+        /* a directory loaded before comes out of the cache */
+        dir = CachedFile.create("testData/test-archive/1/2/3/4").loadDirectory();
+        assertNotNull(dir);
+        assertEquals(dir, CachedFile.create("testData/test-archive/1/2/3/4").loadDirectory());
+        assertTrue(dir.list().length > 0);
+    }
+    
     @Test
     public void testExists() throws IOException {
         boolean result;
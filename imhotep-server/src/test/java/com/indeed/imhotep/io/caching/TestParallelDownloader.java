@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.io.caching;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestParallelDownloader {
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * In memory stand-in for a remote store that serves byte ranges, like a ranged S3 GET or a seek on HDFS.
+     */
+    private static class RemoteFiles implements ParallelDownloader.RangeReader {
+        private final Map<String, byte[]> files = Maps.newHashMap();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger concurrentRequests = new AtomicInteger();
+        private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+        @Override
+        public InputStream openRange(String remotePath, long offset, long length) throws IOException {
+            final byte[] data = files.get(remotePath);
+            if (data == null) {
+                throw new IOException("no such file " + remotePath);
+            }
+            requests.incrementAndGet();
+            final int concurrent = concurrentRequests.incrementAndGet();
+            while (true) {
+                final int max = maxConcurrentRequests.get();
+                if (concurrent <= max || maxConcurrentRequests.compareAndSet(max, concurrent)) break;
+            }
+            try {
+                // some latency, so that the parts overlap
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new ByteArrayInputStream(data, (int) offset, (int) Math.min(length, data.length - offset)) {
+                @Override
+                public void close() {
+                    concurrentRequests.decrementAndGet();
+                }
+            };
+        }
+
+        byte[] add(String remotePath, int size, long seed) {
+            final byte[] data = new byte[size];
+            new Random(seed).nextBytes(data);
+            files.put(remotePath, data);
+            return data;
+        }
+    }
+
+    @Test
+    public void testDownload() throws IOException {
+        final RemoteFiles remote = new RemoteFiles();
+        final List<ParallelDownloader.Download> downloads = Lists.newArrayList();
+        final int[] sizes = {0, 1, 999, 1000, 1001, 25000};
+        for (int i = 0; i < sizes.length; i++) {
+            remote.add("file" + i, sizes[i], i);
+            downloads.add(new ParallelDownloader.Download("file" + i, sizes[i], new File(dir, "sub/file" + i)));
+        }
+        ParallelDownloader.download(remote, downloads, 1000);
+
+        for (int i = 0; i < sizes.length; i++) {
+            assertArrayEquals(remote.files.get("file" + i), Files.toByteArray(new File(dir, "sub/file" + i)));
+        }
+        // one request per part, none for the empty file
+        assertEquals(0 + 1 + 1 + 1 + 2 + 25, remote.requests.get());
+        assertTrue(remote.maxConcurrentRequests.get() > 1);
+        assertEquals(0, remote.concurrentRequests.get());
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        final RemoteFiles remote = new RemoteFiles();
+        final byte[] data = remote.add("file", 2500, 0);
+        final File target = new File(dir, "file");
+        Files.write(new byte[10000], target);
+        ParallelDownloader.download(remote, Collections.singletonList(new ParallelDownloader.Download("file", data.length, target)), 1000);
+        assertArrayEquals(data, Files.toByteArray(target));
+    }
+
+    @Test
+    public void testFailureDeletesTargets() throws IOException {
+        final RemoteFiles remote = new RemoteFiles();
+        remote.add("file0", 5000, 0);
+        final List<ParallelDownloader.Download> downloads = Arrays.asList(
+                new ParallelDownloader.Download("file0", 5000, new File(dir, "file0")),
+                new ParallelDownloader.Download("missing", 5000, new File(dir, "missing")));
+        try {
+            ParallelDownloader.download(remote, downloads, 1000);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(new File(dir, "file0").exists());
+        assertFalse(new File(dir, "missing").exists());
+        assertEquals(0, remote.concurrentRequests.get());
+    }
+
+    @Test
+    public void testTruncatedRemoteFile() throws IOException {
+        final RemoteFiles remote = new RemoteFiles();
+        remote.add("file", 1500, 0);
+        try {
+            // the listing claims more bytes than the store has
+            ParallelDownloader.download(remote, Collections.singletonList(new ParallelDownloader.Download("file", 2500, new File(dir, "file"))), 1000);
+            fail();
+        } catch (EOFException e) {
+            // expected
+        }
+        assertFalse(new File(dir, "file").exists());
+    }
+}
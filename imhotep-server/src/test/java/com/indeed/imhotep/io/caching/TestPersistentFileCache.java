@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.io.caching;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestPersistentFileCache {
+    private static final Function<String, String> KEYS = new Function<String, String>() {
+        @Override
+        public String apply(String relativePath) {
+            return "/" + relativePath;
+        }
+    };
+
+    private File dir;
+    private final AtomicInteger downloads = new AtomicInteger();
+    // every file is 2KB
+    private final PersistentFileCache.Downloader downloader = new PersistentFileCache.Downloader() {
+        @Override
+        public void download(String key, File target) throws IOException {
+            downloads.incrementAndGet();
+            Files.write(new byte[2048], target);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private File get(PersistentFileCache cache, String key) throws IOException {
+        return cache.get(key, new File(dir, key.substring(1)), downloader);
+    }
+
+    @Test
+    public void testScanResistance() {
+        final TinyLfuPolicy policy = new TinyLfuPolicy(100, 1024);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.add("hot" + i, 5).isEmpty());
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                policy.recordAccess("hot" + i);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            policy.add("scan" + i, 5);
+            assertTrue(policy.getWeightedSize() <= 100);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.contains("hot" + i));
+        }
+    }
+
+    @Test
+    public void testDownloadsOnce() throws IOException {
+        final PersistentFileCache cache = new PersistentFileCache(dir, 100, KEYS);
+        final File file = get(cache, "/a/b");
+        assertEquals(new File(dir, "a/b"), file);
+        assertEquals(2048, file.length());
+        assertEquals(file, get(cache, "/a/b"));
+        assertEquals(1, downloads.get());
+        assertEquals(2, cache.getWeightKB());
+        cache.close();
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        // evicted files are deleted right away
+        final PersistentFileCache cache = new PersistentFileCache(dir, 10, KEYS, 0);
+        for (int i = 0; i < 20; i++) {
+            get(cache, "/f" + i);
+            assertTrue(cache.getWeightKB() <= 12);
+        }
+        int filesOnDisk = 0;
+        for (int i = 0; i < 20; i++) {
+            final boolean exists = new File(dir, "f" + i).exists();
+            assertEquals(cache.contains("/f" + i), exists);
+            if (exists) filesOnDisk++;
+        }
+        assertEquals(cache.size(), filesOnDisk);
+        cache.close();
+    }
+
+    @Test
+    public void testEvictedFilesStayWhilePinned() throws IOException {
+        final PersistentFileCache cache = new PersistentFileCache(dir, 10, KEYS);
+        // files that were just downloaded lose admission to the ones that are already cached
+        final List<File> handedOut = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            handedOut.add(get(cache, "/f" + i));
+        }
+        // the way a directory is loaded, all files are put before any of them is opened
+        for (int i = 0; i < 20; i++) {
+            final File file = new File(dir, "d/g" + i);
+            Files.createParentDirs(file);
+            Files.write(new byte[2048], file);
+            cache.put("/d/g" + i, file);
+            handedOut.add(file);
+        }
+        assertTrue(cache.getWeightKB() <= 12);
+        assertTrue(cache.size() < handedOut.size());
+        for (final File file : handedOut) {
+            assertEquals(2048, Files.toByteArray(file).length);
+        }
+        cache.close();
+        // nobody can be waiting to open them anymore
+        int filesOnDisk = 0;
+        for (final File file : handedOut) {
+            if (file.exists()) filesOnDisk++;
+        }
+        assertEquals(cache.size(), filesOnDisk);
+    }
+
+    @Test
+    public void testRestart() throws IOException {
+        PersistentFileCache cache = new PersistentFileCache(dir, 100, KEYS);
+        get(cache, "/a");
+        get(cache, "/b");
+        get(cache, "/c");
+        get(cache, "/a");
+        cache.close();
+
+        // a crashed download, a crashed directory download, a file the index never heard of, a file that went missing
+        // and a torn journal line
+        Files.write(new byte[10], new File(dir, "d.1234.cachetmp"));
+        assertTrue(new File(dir, "g.1234.cachetmp").mkdir());
+        Files.write(new byte[1024], new File(dir, "g.1234.cachetmp/h"));
+        Files.write(new byte[1024], new File(dir, "e"));
+        assertTrue(new File(dir, "c").delete());
+        Files.append("A\t2\tf", new File(dir, PersistentFileCache.INDEX_FILENAME), Charsets.UTF_8);
+
+        cache = new PersistentFileCache(dir, 100, KEYS);
+        assertTrue(cache.contains("/a"));
+        assertTrue(cache.contains("/b"));
+        assertFalse(cache.contains("/c"));
+        assertTrue(cache.contains("/e"));
+        assertFalse(new File(dir, "d.1234.cachetmp").exists());
+        assertFalse(new File(dir, "g.1234.cachetmp").exists());
+        assertEquals(5, cache.getWeightKB());
+
+        get(cache, "/a");
+        get(cache, "/b");
+        get(cache, "/e");
+        assertEquals(3, downloads.get());
+        get(cache, "/c");
+        assertEquals(4, downloads.get());
+        cache.close();
+
+        cache = new PersistentFileCache(dir, 100, KEYS);
+        assertEquals(4, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void testDirectoryRestart() throws IOException {
+        PersistentFileCache cache = new PersistentFileCache(dir, 100, KEYS);
+        get(cache, "/d/x");
+        get(cache, "/d/y");
+        cache.putDirectory("/d", Arrays.asList("/d/x", "/d/y"));
+        cache.putDirectory("/e", Collections.<String>emptyList());
+        assertEquals(Collections.<String>emptyList(), cache.getDirectory("/e"));
+        cache.close();
+
+        Files.append("D\t/f\t/f/x\t/f/", new File(dir, PersistentFileCache.INDEX_FILENAME), Charsets.UTF_8);
+
+        cache = new PersistentFileCache(dir, 100, KEYS);
+        assertEquals(Arrays.asList("/d/x", "/d/y"), cache.getDirectory("/d"));
+        // none of its files are cached, so it is dropped
+        assertNull(cache.getDirectory("/e"));
+        // the torn line
+        assertNull(cache.getDirectory("/f"));
+        cache.close();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.io.caching;
+
+import com.google.common.io.ByteStreams;
+import com.indeed.util.io.Files;
+import com.indeed.imhotep.archive.SquallArchiveWriter;
+import com.indeed.imhotep.archive.compression.SquallArchiveCompressor;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.BLOCK_DEFLATE;
+import static com.indeed.imhotep.archive.compression.SquallArchiveCompressor.GZIP;
+import static org.junit.Assert.assertArrayEquals;
+
+public class TestSqarRemoteFileSystem {
+    @Test
+    public void testRangesWithBlockIndex() throws IOException {
+        runRangeTest(BLOCK_DEFLATE);
+    }
+
+    @Test
+    public void testRangesWithoutBlockIndex() throws IOException {
+        runRangeTest(GZIP);
+    }
+
+    private static void runRangeTest(SquallArchiveCompressor compressor) throws IOException {
+        final String root = Files.getTempDirectory("sqar", "test");
+        try {
+            final Random rand = new Random(0);
+            final byte[] data = new byte[3 * (1 << 20) + 12345];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (i % 4096 < 2048 ? i % 13 : rand.nextInt(256));
+            }
+            final File file = new File(root, "datafile");
+            com.google.common.io.Files.write(data, file);
+
+            final RawLocalFileSystem fs = new RawLocalFileSystem();
+            fs.initialize(URI.create("file:///"), new Configuration());
+            final Path archive = new Path(root, "archive.sqar");
+            fs.mkdirs(archive);
+            new SquallArchiveWriter(fs, archive, true, compressor).batchAppend(Collections.singletonList(file));
+
+            final RemoteFileSystemMounter mounter = new RemoteFileSystemMounter(null, root, true);
+            final Map<String, Object> settings = new HashMap<String, Object>();
+            settings.put("mountpoint", "archive");
+            final SqarRemoteFileSystem sqar = new SqarRemoteFileSystem(settings, mounter.getTopFileSystem(), mounter);
+            final String path = sqar.getMountPoint() + "datafile";
+
+            final long[][] ranges = {{0, 10}, {0, -1}, {(1 << 20) - 5, 10}, {2 * (1 << 20), 1 << 20}, {data.length - 7, 100}, {data.length, 10}};
+            for (final long[] range : ranges) {
+                final int end = range[1] < 0 ? data.length : (int) Math.min(data.length, range[0] + range[1]);
+                final InputStream is = sqar.getInputStreamForFile(path, range[0], range[1]);
+                try {
+                    assertArrayEquals(Arrays.toString(range), Arrays.copyOfRange(data, (int) range[0], end), ByteStreams.toByteArray(is));
+                } finally {
+                    is.close();
+                }
+            }
+        } finally {
+            Files.delete(root);
+        }
+    }
+}
@@ -15,6 +15,7 @@
 
 import com.indeed.util.core.Pair;
 import com.indeed.flamdex.reader.MockFlamdexReader;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.GroupRemapRule;
 import com.indeed.imhotep.RegroupCondition;
 import com.indeed.imhotep.api.FTGSIterator;
@@ -167,6 +168,57 @@ public class TestFlamdexFTGSIterator {
         }
     }
 
+    @Test
+    public void testStatFilters() throws ImhotepOutOfMemoryException {
+        for (BitsetOptimizationLevel level : BitsetOptimizationLevel.values()) {
+            ImhotepLocalSession session = makeTestSession(level);
+            FTGSIterator ftgsIterator = session.getFTGSIterator(new String[]{INT_ITERATION_FIELD}, new String[]{}, Arrays.asList(FTGSStatFilter.atMost(0, 5)));
+            try {
+                final long[] stats = new long[1];
+                assertEquals(true, ftgsIterator.nextField());
+                assertEquals(true, ftgsIterator.nextTerm());
+                assertEquals(Integer.MIN_VALUE, ftgsIterator.termIntVal());
+                assertEquals(true, ftgsIterator.nextGroup());
+                assertEquals(2, ftgsIterator.group());
+                ftgsIterator.groupStats(stats);
+                assertArrayEquals(new long[]{1}, stats);
+                assertEquals(false, ftgsIterator.nextGroup());
+
+                assertEquals(true, ftgsIterator.nextTerm());
+                assertEquals(-1, ftgsIterator.termIntVal());
+                assertEquals(false, ftgsIterator.nextGroup());
+
+                // the dropped group from the previous term must not leak into this one
+                expectTerms(Arrays.asList(
+                        new IntTerm(0, Arrays.asList(Pair.of(1, new long[]{0}), Pair.of(2, new long[]{0})))
+                ), ftgsIterator);
+                assertEquals(false, ftgsIterator.nextGroup());
+
+                assertEquals(true, ftgsIterator.nextTerm());
+                assertEquals(1, ftgsIterator.termIntVal());
+                assertEquals(false, ftgsIterator.nextGroup());
+
+                expectTerms(Arrays.asList(
+                        new IntTerm(Integer.MAX_VALUE, Arrays.asList(Pair.of(2, new long[]{1})))
+                ), ftgsIterator);
+                assertEquals(false, ftgsIterator.nextTerm());
+            } finally {
+                ftgsIterator.close();
+                session.close();
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStatFilterOutOfRange() throws ImhotepOutOfMemoryException {
+        ImhotepLocalSession session = makeTestSession(BitsetOptimizationLevel.DONT_OPTIMIZE);
+        try {
+            session.getFTGSIterator(new String[]{INT_ITERATION_FIELD}, new String[]{}, Arrays.asList(FTGSStatFilter.atLeast(1, 0)));
+        } finally {
+            session.close();
+        }
+    }
+
     private ImhotepLocalSession makeTestSession(BitsetOptimizationLevel level) throws ImhotepOutOfMemoryException {
         MockFlamdexReader r = makeTestFlamdexReader();
         ImhotepLocalSession session = new ImhotepLocalSession(r, level == BitsetOptimizationLevel.OPTIMIZE);
@@ -20,21 +20,28 @@ import com.google.common.primitives.Longs;
 import com.indeed.flamdex.api.FlamdexReader;
 import com.indeed.flamdex.query.Query;
 import com.indeed.flamdex.query.Term;
+import com.indeed.flamdex.simple.SimpleFlamdexReader;
+import com.indeed.flamdex.simple.SimpleFlamdexWriter;
+import com.indeed.flamdex.writer.StringFieldWriter;
 import com.indeed.flamdex.reader.MockFlamdexReader;
 import com.indeed.imhotep.BucketStats;
 import com.indeed.imhotep.GroupMultiRemapRule;
 import com.indeed.imhotep.GroupRemapRule;
+import com.indeed.imhotep.HyperLogLog;
 import com.indeed.imhotep.ImhotepMemoryPool;
 import com.indeed.imhotep.MemoryReservationContext;
+import com.indeed.imhotep.QuantileSketch;
 import com.indeed.imhotep.QueryRemapRule;
 import com.indeed.imhotep.RegroupCondition;
 import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
 import com.indeed.flamdex.MakeAFlamdex;
 import com.indeed.imhotep.group.ImhotepChooser;
+import com.indeed.util.io.Files;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -391,6 +398,35 @@ public class TestImhotepLocalSession {
         session.close();
     }
 
+    @Test
+    public void testIntOrRegroupOnStringField() throws ImhotepOutOfMemoryException, IOException {
+        final String dir = Files.getTempDirectory("flamdex-test", "intorregroup");
+        try {
+            // no int terms, so the field is read from its string terms, and its int bloom filter is empty
+            final SimpleFlamdexWriter w = new SimpleFlamdexWriter(dir, 5L, true);
+            w.getIntFieldWriter("f").close();
+            final StringFieldWriter sfw = w.getStringFieldWriter("f");
+            sfw.nextTerm("1");
+            sfw.nextDoc(0);
+            sfw.nextDoc(1);
+            sfw.nextTerm("2");
+            sfw.nextDoc(2);
+            sfw.nextDoc(3);
+            sfw.nextTerm("3");
+            sfw.nextDoc(4);
+            sfw.close();
+            w.close();
+
+            final ImhotepLocalSession session = new ImhotepLocalSession(SimpleFlamdexReader.open(dir));
+            session.intOrRegroup("f", new long[] { 2, 3 }, 1, 1, 2);
+            session.pushStat("count()");
+            assertEquals(3, session.getGroupStats(0)[2]);
+            session.close();
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
     @Test
     public void testStuff() throws ImhotepOutOfMemoryException {
         final FlamdexReader r = MakeAFlamdex.make();
@@ -1586,6 +1622,30 @@ public class TestImhotepLocalSession {
         session.close();
     }
 
+    @Test
+    public void testPushStatMultiValued() throws ImhotepOutOfMemoryException {
+        final MockFlamdexReader r =
+                new MockFlamdexReader(Arrays.asList("mf"), Collections.<String> emptyList(),
+                                      Arrays.asList("mf"), 5);
+        // doc 0: {1, 5}, doc 1: {3}, doc 2: {}, doc 3: {-2, 7, 10}, doc 4: {5}
+        r.addIntTerm("mf", -2, 3);
+        r.addIntTerm("mf", 1, 0);
+        r.addIntTerm("mf", 3, 1);
+        r.addIntTerm("mf", 5, 0, 4);
+        r.addIntTerm("mf", 7, 3);
+        r.addIntTerm("mf", 10, 3);
+        final ImhotepLocalSession session = new ImhotepLocalSession(r);
+        session.pushStat("multisum mf");
+        session.pushStat("multimin mf");
+        session.pushStat("multimax mf");
+        session.pushStat("multicount mf");
+        assertEquals(Longs.asList(0, 29), Longs.asList(session.getGroupStats(0)));
+        assertEquals(Longs.asList(0, 7), Longs.asList(session.getGroupStats(1)));
+        assertEquals(Longs.asList(0, 23), Longs.asList(session.getGroupStats(2)));
+        assertEquals(Longs.asList(0, 7), Longs.asList(session.getGroupStats(3)));
+        session.close();
+    }
+
     @Test
     public void testGroup0Filtering() throws ImhotepOutOfMemoryException, IOException {
         /* make session 1 */
@@ -1949,4 +2009,282 @@ public class TestImhotepLocalSession {
         Assert.assertArrayEquals(new long[]{0, 0}, session.getGroupStats(0));
         session.popStat();
     }
+
+    @Test
+    public void testApproximateDistinctTerms() throws ImhotepOutOfMemoryException {
+        final MockFlamdexReader r =
+                new MockFlamdexReader(Arrays.asList("if1"), Arrays.asList("sf1"),
+                                      Arrays.asList("if1"), 10);
+        r.addIntTerm("if1", 1, 0, 1, 2, 3, 4);
+        r.addIntTerm("if1", 2, 0, 5);
+        r.addIntTerm("if1", 3, 6, 7, 8, 9);
+        r.addStringTerm("sf1", "a", 0, 1);
+        r.addStringTerm("sf1", "b", 2, 3, 4);
+        r.addStringTerm("sf1", "c", 5);
+
+        final ImhotepMemoryPool pool = new ImhotepMemoryPool(Long.MAX_VALUE);
+        final ImhotepLocalSession session =
+                new ImhotepLocalSession(r, null, new MemoryReservationContext(pool), false, null);
+        session.regroup(new GroupRemapRule[] { new GroupRemapRule(1,
+                                                                  new RegroupCondition("if1", true, 3, null, false),
+                                                                  1, 2) });
+        final long sessionMemory = pool.usedMemory();
+        final long sketchMemory = 3 * HyperLogLog.memoryUsage(HyperLogLog.DEFAULT_PRECISION);
+
+        final HyperLogLog[] intSketches = session.approximateDistinctTerms("if1", true, HyperLogLog.DEFAULT_PRECISION);
+        // the sketches stay reserved until the next request has replaced them
+        assertEquals(sessionMemory + sketchMemory, pool.usedMemory());
+        assertEquals(3, intSketches.length);
+        assertEquals(0, intSketches[0].cardinality());
+        assertEquals(2, intSketches[1].cardinality());
+        assertEquals(1, intSketches[2].cardinality());
+
+        final HyperLogLog[] stringSketches = session.approximateDistinctTerms("sf1", false, HyperLogLog.DEFAULT_PRECISION);
+        assertEquals(3, stringSketches[1].cardinality());
+        assertEquals(0, stringSketches[2].cardinality());
+        assertEquals(sessionMemory + sketchMemory, pool.usedMemory());
+        session.close();
+        assertEquals(0, pool.usedMemory());
+    }
+
+    @Test
+    public void testGroupQuantileSketches() throws ImhotepOutOfMemoryException {
+        final MockFlamdexReader r =
+                new MockFlamdexReader(Arrays.asList("if1", "metric"), Collections.<String>emptyList(),
+                                      Arrays.asList("if1", "metric"), 10);
+        r.addIntTerm("if1", 0, 0, 1, 2, 3, 4);
+        r.addIntTerm("if1", 1, 5, 6, 7, 8, 9);
+        for (int doc = 0; doc < 10; doc++) {
+            r.addIntTerm("metric", doc * 10, doc);
+        }
+
+        final ImhotepMemoryPool pool = new ImhotepMemoryPool(Long.MAX_VALUE);
+        final ImhotepLocalSession session =
+                new ImhotepLocalSession(r, null, new MemoryReservationContext(pool), false, null);
+        session.regroup(new GroupRemapRule[] { new GroupRemapRule(1,
+                                                                  new RegroupCondition("if1", true, 1, null, false),
+                                                                  1, 2) });
+        session.pushStat("metric");
+        final long sessionMemory = pool.usedMemory();
+
+        final QuantileSketch[] sketches = session.getGroupQuantileSketches(0, QuantileSketch.DEFAULT_K);
+        // the sketches stay reserved until the next request has replaced them
+        final long sketchMemory = pool.usedMemory() - sessionMemory;
+        assertEquals(QuantileSketch.memoryUsage(QuantileSketch.DEFAULT_K, 0)
+                             + 2 * QuantileSketch.memoryUsage(QuantileSketch.DEFAULT_K, 5), sketchMemory);
+        assertEquals(3, sketches.length);
+        assertEquals(0, sketches[0].getCount());
+        assertEquals(5, sketches[1].getCount());
+        assertEquals(20, sketches[1].quantile(0.5));
+        assertEquals(40, sketches[1].quantile(1));
+        assertEquals(5, sketches[2].getCount());
+        assertEquals(50, sketches[2].quantile(0));
+        assertEquals(90, sketches[2].quantile(0.9));
+        session.getGroupQuantileSketches(0, QuantileSketch.DEFAULT_K);
+        assertEquals(sessionMemory + sketchMemory, pool.usedMemory());
+        session.close();
+        assertEquals(0, pool.usedMemory());
+    }
+
+    @Test
+    public void testSpillAndUnspill() throws ImhotepOutOfMemoryException, IOException {
+        final MockFlamdexReader r =
+                new MockFlamdexReader(Arrays.asList("if1", "metric"), Collections.<String>emptyList(),
+                                      Arrays.asList("if1", "metric"), 10);
+        r.addIntTerm("if1", 1, 0, 1, 2, 3, 4);
+        r.addIntTerm("if1", 2, 5, 6, 7, 8, 9);
+        for (int doc = 0; doc < 10; doc++) {
+            r.addIntTerm("metric", doc, doc);
+        }
+
+        final String tempDir = Files.getTempDirectory("spill", "");
+        try {
+            final ImhotepMemoryPool pool = new ImhotepMemoryPool(Long.MAX_VALUE);
+            final ImhotepLocalSession session =
+                    new ImhotepLocalSession(r, tempDir, new MemoryReservationContext(pool), false, null);
+            session.regroup(new GroupRemapRule[] { new GroupRemapRule(1,
+                                                                      new RegroupCondition("if1", true, 1, null, false),
+                                                                      2, 3) });
+            session.pushStat("metric");
+            session.createDynamicMetric("dm");
+            session.updateDynamicMetric("dm", new int[] { 0, 0, 10, 100 });
+            final long[] metricStats = session.getGroupStats(0);
+            final long usedMemory = pool.usedMemory();
+
+            assertTrue(session.spill() > 0);
+            assertTrue(pool.usedMemory() < usedMemory);
+            assertEquals(1, new File(tempDir).list().length);
+            assertEquals(0, session.spill());
+
+            session.unspill();
+            assertEquals(0, new File(tempDir).list().length);
+            assertEquals(4, session.getNumGroups());
+            assertArrayEquals(metricStats, session.getGroupStats(0));
+            session.pushStat("dynamic dm");
+            assertArrayEquals(new long[] { 0, 0, 50, 500 }, session.getGroupStats(1));
+            session.close();
+            assertEquals(0, pool.usedMemory());
+        } finally {
+            Files.delete(tempDir);
+        }
+    }
+
+    @Test
+    public void testFork() throws ImhotepOutOfMemoryException {
+        final MockFlamdexReader r =
+                new MockFlamdexReader(Arrays.asList("if1", "metric"), Collections.<String>emptyList(),
+                                      Arrays.asList("if1", "metric"), 10);
+        r.addIntTerm("if1", 1, 0, 1, 2, 3, 4);
+        r.addIntTerm("if1", 2, 5, 6, 7, 8, 9);
+        for (int doc = 0; doc < 10; doc++) {
+            r.addIntTerm("metric", doc, doc);
+        }
+
+        final ImhotepMemoryPool pool = new ImhotepMemoryPool(Long.MAX_VALUE);
+        final ImhotepLocalSession session =
+                new ImhotepLocalSession(r, null, new MemoryReservationContext(pool), false, null);
+        session.regroup(new GroupRemapRule[] { new GroupRemapRule(1,
+                                                                  new RegroupCondition("if1", true, 1, null, false),
+                                                                  2, 3) });
+        session.pushStat("metric");
+        session.createDynamicMetric("dm");
+        session.updateDynamicMetric("dm", new int[] { 0, 0, 10, 100 });
+
+        final ImhotepLocalSession forked = session.fork();
+        assertEquals(4, forked.getNumGroups());
+        assertEquals(1, forked.getNumStats());
+        assertArrayEquals(new long[] { 0, 0, 35, 10 }, forked.getGroupStats(0));
+
+        forked.updateDynamicMetric("dm", new int[] { 0, 0, 1, 1 });
+        session.pushStat("dynamic dm");
+        forked.pushStat("dynamic dm");
+        assertArrayEquals(new long[] { 0, 0, 50, 500 }, session.getGroupStats(1));
+        assertArrayEquals(new long[] { 0, 0, 55, 505 }, forked.getGroupStats(1));
+
+        forked.resetGroups();
+        forked.regroup(new GroupRemapRule[] { new GroupRemapRule(1,
+                                                                 new RegroupCondition("if1", true, 2, null, false),
+                                                                 1, 2) });
+        assertArrayEquals(new long[] { 0, 10, 35 }, forked.getGroupStats(0));
+        assertArrayEquals(new long[] { 0, 0, 35, 10 }, session.getGroupStats(0));
+
+        session.close();
+        assertArrayEquals(new long[] { 0, 10, 35 }, forked.getGroupStats(0));
+        assertArrayEquals(new long[] { 0, 505, 55 }, forked.getGroupStats(1));
+        forked.close();
+        assertEquals(0, pool.usedMemory());
+    }
+
+    @Test
+    public void testForkRegroupWhileShared() throws ImhotepOutOfMemoryException {
+        final MockFlamdexReader r =
+                new MockFlamdexReader(Arrays.asList("if1", "metric"), Collections.<String>emptyList(),
+                                      Arrays.asList("if1", "metric"), 10);
+        r.addIntTerm("if1", 1, 0, 1, 2, 3, 4);
+        r.addIntTerm("if1", 2, 5, 6, 7, 8, 9);
+        for (int doc = 0; doc < 10; doc++) {
+            r.addIntTerm("metric", doc, doc);
+        }
+
+        final ImhotepMemoryPool pool = new ImhotepMemoryPool(Long.MAX_VALUE);
+        final ImhotepLocalSession session =
+                new ImhotepLocalSession(r, null, new MemoryReservationContext(pool), false, null);
+        final RegroupCondition condition = new RegroupCondition("if1", true, 1, null, false);
+        session.regroup(new GroupRemapRule[] { new GroupRemapRule(1, condition, 2, 3) });
+        session.pushStat("metric");
+        assertArrayEquals(new long[] { 0, 0, 35, 10 }, session.getGroupStats(0));
+
+        final GroupRemapRule[] swap = new GroupRemapRule[] {
+                new GroupRemapRule(2, condition, 1, 1),
+                new GroupRemapRule(3, condition, 2, 2) };
+        final GroupRemapRule[] merge = new GroupRemapRule[] {
+                new GroupRemapRule(2, condition, 1, 1),
+                new GroupRemapRule(3, condition, 1, 1) };
+
+        // the original regroups first, while its groups are still shared with the fork
+        final ImhotepLocalSession first = session.fork();
+        session.regroup(swap);
+        assertArrayEquals(new long[] { 0, 35, 10 }, session.getGroupStats(0));
+        assertArrayEquals(new long[] { 0, 0, 35, 10 }, first.getGroupStats(0));
+        first.regroup(merge);
+        assertArrayEquals(new long[] { 0, 45 }, first.getGroupStats(0));
+        assertArrayEquals(new long[] { 0, 35, 10 }, session.getGroupStats(0));
+        first.close();
+
+        // the fork regroups first, while its groups are still shared with the original
+        final ImhotepLocalSession second = session.fork();
+        second.regroup(new GroupRemapRule[] {
+                new GroupRemapRule(1, condition, 1, 1),
+                new GroupRemapRule(2, condition, 1, 1) });
+        assertArrayEquals(new long[] { 0, 45 }, second.getGroupStats(0));
+        assertArrayEquals(new long[] { 0, 35, 10 }, session.getGroupStats(0));
+        session.regroup(new GroupRemapRule[] {
+                new GroupRemapRule(1, condition, 2, 2),
+                new GroupRemapRule(2, condition, 1, 1) });
+        assertArrayEquals(new long[] { 0, 10, 35 }, session.getGroupStats(0));
+        assertArrayEquals(new long[] { 0, 45 }, second.getGroupStats(0));
+
+        session.close();
+        assertArrayEquals(new long[] { 0, 45 }, second.getGroupStats(0));
+        second.close();
+        assertEquals(0, pool.usedMemory());
+    }
+
+    @Test
+    public void testCheckpointAndRestore() throws ImhotepOutOfMemoryException, IOException {
+        final MockFlamdexReader r =
+                new MockFlamdexReader(Arrays.asList("if1", "metric"), Collections.<String>emptyList(),
+                                      Arrays.asList("if1", "metric"), 10);
+        r.addIntTerm("if1", 1, 0, 1, 2, 3, 4);
+        r.addIntTerm("if1", 2, 5, 6, 7, 8, 9);
+        for (int doc = 0; doc < 10; doc++) {
+            r.addIntTerm("metric", doc, doc);
+        }
+
+        final String tempDir = Files.getTempDirectory("checkpoint", "");
+        try {
+            final ImhotepMemoryPool pool = new ImhotepMemoryPool(Long.MAX_VALUE);
+            final ImhotepLocalSession session =
+                    new ImhotepLocalSession(r, tempDir, new MemoryReservationContext(pool), false, null);
+            session.regroup(new GroupRemapRule[] { new GroupRemapRule(1,
+                                                                      new RegroupCondition("if1", true, 1, null, false),
+                                                                      2, 3) });
+            session.createDynamicMetric("dm");
+            session.updateDynamicMetric("dm", new int[] { 0, 0, 10, 100 });
+            session.pushStat("metric");
+            session.pushStat("dynamic dm");
+            session.checkpoint("c1");
+            session.close();
+
+            final ImhotepLocalSession restored =
+                    new ImhotepLocalSession(r, tempDir, new MemoryReservationContext(pool), false, null);
+            assertEquals(2, restored.restore("c1"));
+            assertEquals(4, restored.getNumGroups());
+            assertArrayEquals(new long[] { 0, 0, 35, 10 }, restored.getGroupStats(0));
+            assertArrayEquals(new long[] { 0, 0, 50, 500 }, restored.getGroupStats(1));
+            try {
+                restored.restore("c1");
+                fail("restored twice");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            restored.close();
+
+            final ImhotepLocalSession other =
+                    new ImhotepLocalSession(r, tempDir, new MemoryReservationContext(pool), false, null);
+            try {
+                other.checkpoint("../c2");
+                fail("checkpoint id escapes the checkpoint directory");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            other.close();
+            assertEquals(0, pool.usedMemory());
+
+            ImhotepLocalSession.deleteExpiredCheckpoints(tempDir, -1000L);
+            assertEquals(0, new File(tempDir, "checkpoints").list().length);
+        } finally {
+            Files.delete(tempDir);
+        }
+    }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.service;
+
+import com.google.common.base.Charsets;
+import com.indeed.imhotep.api.DocIterator;
+import com.indeed.imhotep.api.OrdinalDocIterator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestDocOutputStreamWriter {
+    private static final String[] TERMS = {"", "a", "b", "some longer value", "\u00e9t\u00e9"};
+    // spans several columnar blocks, the last one partial
+    private static final int NUM_DOCS = 2 * ColumnarDocOutputStreamWriter.BLOCK_SIZE + 1000;
+
+    @Test
+    public void testPlainStrings() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DocOutputStreamWriter.writeNotThreadSafe(new ArrayDocIterator(false), 1, 2, out);
+        verify(new InputStreamDocIterator(new ByteArrayInputStream(out.toByteArray()), 1, 2));
+    }
+
+    @Test
+    public void testStringOrdinals() throws IOException {
+        final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        DocOutputStreamWriter.writeNotThreadSafe(new ArrayDocIterator(true), 1, 2, plain);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DocOutputStreamWriter.writeStringOrdinalsNotThreadSafe(new ArrayDocIterator(true), 1, 2, out);
+        verify(new InputStreamDocIterator(new ByteArrayInputStream(out.toByteArray()), 1, 2, true));
+        assertTrue(out.size() < plain.size());
+    }
+
+    @Test
+    public void testStringOrdinalsWithoutLookupOrdinals() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DocOutputStreamWriter.writeStringOrdinalsNotThreadSafe(new ArrayDocIterator(false), 1, 2, out);
+        verify(new InputStreamDocIterator(new ByteArrayInputStream(out.toByteArray()), 1, 2, true));
+    }
+
+    @Test
+    public void testStringOrdinalsDictionaryBudget() throws IOException {
+        final ByteArrayOutputStream unbounded = new ByteArrayOutputStream();
+        DocOutputStreamWriter.writeStringOrdinalsNotThreadSafe(new ArrayDocIterator(true), 1, 2, unbounded);
+        for (final boolean hasOrdinals : new boolean[]{true, false}) {
+            // no room for any entry, every value is sent as it is
+            final ByteArrayOutputStream none = new ByteArrayOutputStream();
+            DocOutputStreamWriter.writeStringOrdinalsNotThreadSafe(new ArrayDocIterator(hasOrdinals), 1, 2, none, 0);
+            verify(new InputStreamDocIterator(new ByteArrayInputStream(none.toByteArray()), 1, 2, true));
+            assertTrue(unbounded.size() < none.size());
+
+            // room for the repeated values of field 0 but not for all of the unique ones of field 1
+            final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+            DocOutputStreamWriter.writeStringOrdinalsNotThreadSafe(new ArrayDocIterator(hasOrdinals), 1, 2, partial, 4096);
+            verify(new InputStreamDocIterator(new ByteArrayInputStream(partial.toByteArray()), 1, 2, true));
+            assertTrue(partial.size() < none.size());
+        }
+    }
+
+    @Test
+    public void testColumnar() throws IOException {
+        final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        DocOutputStreamWriter.writeNotThreadSafe(new ArrayDocIterator(true), 1, 2, plain);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarDocOutputStreamWriter.writeNotThreadSafe(new ArrayDocIterator(true), 1, 2, out);
+        verify(new ColumnarInputStreamDocIterator(new ByteArrayInputStream(out.toByteArray()), 1, 2));
+        assertTrue(out.size() < plain.size());
+
+        final ByteArrayOutputStream withoutOrdinals = new ByteArrayOutputStream();
+        ColumnarDocOutputStreamWriter.writeNotThreadSafe(new ArrayDocIterator(false), 1, 2, withoutOrdinals);
+        verify(new ColumnarInputStreamDocIterator(new ByteArrayInputStream(withoutOrdinals.toByteArray()), 1, 2));
+    }
+
+    @Test
+    public void testColumnarDictionaryBudget() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarDocOutputStreamWriter.writeNotThreadSafe(new ArrayDocIterator(true), 1, 2, out);
+        // no room for the ordinal tables, the block dictionaries are keyed by value and come out the same
+        final ByteArrayOutputStream byValue = new ByteArrayOutputStream();
+        ColumnarDocOutputStreamWriter.writeNotThreadSafe(new ArrayDocIterator(true), 1, 2, byValue, 0);
+        verify(new ColumnarInputStreamDocIterator(new ByteArrayInputStream(byValue.toByteArray()), 1, 2));
+        assertArrayEquals(out.toByteArray(), byValue.toByteArray());
+    }
+
+    @Test
+    public void testColumnarBlocksAreCopied() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarDocOutputStreamWriter.writeNotThreadSafe(new ArrayDocIterator(true), 1, 2, out);
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        ColumnarDocOutputStreamWriter.writeNotThreadSafe(new ColumnarInputStreamDocIterator(new ByteArrayInputStream(out.toByteArray()), 1, 2), 1, 2, copy);
+        assertArrayEquals(out.toByteArray(), copy.toByteArray());
+    }
+
+    @Test
+    public void testMerger() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarDocOutputStreamWriter.writeNotThreadSafe(new ArrayDocIterator(true), 1, 2, out);
+        final DocIteratorMerger merger = new DocIteratorMerger(Arrays.<DocIterator>asList(
+                new ColumnarInputStreamDocIterator(new ByteArrayInputStream(out.toByteArray()), 1, 2),
+                new ArrayDocIterator(false)
+        ), 1, 2);
+        final int[] docsPerString = new int[NUM_DOCS];
+        int numDocs = 0;
+        while (merger.next()) {
+            final int doc = Integer.parseInt(merger.getString(1).substring("doc".length()));
+            assertEquals(1 + doc % 3, merger.getGroup());
+            assertEquals(doc % 2 == 0 ? doc * 1000L : -doc * 1000L, merger.getInt(0));
+            assertEquals(TERMS[doc % TERMS.length], merger.getString(0));
+            docsPerString[doc]++;
+            numDocs++;
+        }
+        merger.close();
+        assertEquals(2 * NUM_DOCS, numDocs);
+        for (final int count : docsPerString) {
+            assertEquals(2, count);
+        }
+    }
+
+    private static void verify(DocIterator iterator) throws IOException {
+        final ArrayDocIterator expected = new ArrayDocIterator(false);
+        while (expected.next()) {
+            assertTrue(iterator.next());
+            assertEquals(expected.getGroup(), iterator.getGroup());
+            assertEquals(expected.getInt(0), iterator.getInt(0));
+            assertEquals(expected.getString(0), iterator.getString(0));
+            assertEquals(expected.getString(1), iterator.getString(1));
+        }
+        assertFalse(iterator.next());
+        iterator.close();
+    }
+
+    // string field 0 cycles through TERMS, string field 1 is unique per doc
+    private static final class ArrayDocIterator implements OrdinalDocIterator {
+        private final boolean hasOrdinals;
+        private int doc = -1;
+
+        private ArrayDocIterator(boolean hasOrdinals) {
+            this.hasOrdinals = hasOrdinals;
+        }
+
+        @Override
+        public int getNumStringOrdinals(int index) {
+            return hasOrdinals && index == 0 ? TERMS.length : -1;
+        }
+
+        @Override
+        public int getStringOrdinal(int index) {
+            return doc % TERMS.length;
+        }
+
+        @Override
+        public byte[] getStringBytes(int index) {
+            return getString(index).getBytes(Charsets.UTF_8);
+        }
+
+        @Override
+        public boolean next() {
+            return ++doc < NUM_DOCS;
+        }
+
+        @Override
+        public int getGroup() {
+            return 1 + doc % 3;
+        }
+
+        @Override
+        public long getInt(int index) {
+            // alternating signs so that the deltas go both ways
+            return doc % 2 == 0 ? doc * 1000L : -doc * 1000L;
+        }
+
+        @Override
+        public String getString(int index) {
+            return index == 0 ? TERMS[doc % TERMS.length] : "doc" + doc;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
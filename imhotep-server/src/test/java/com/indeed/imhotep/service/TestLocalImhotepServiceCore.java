@@ -16,6 +16,7 @@
 import com.indeed.util.io.Files;
 import com.indeed.flamdex.api.FlamdexReader;
 import com.indeed.flamdex.reader.MockFlamdexReader;
+import com.indeed.imhotep.FTGSStatFilter;
 import com.indeed.imhotep.ShardInfo;
 import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
 
@@ -95,14 +96,14 @@ public class TestLocalImhotepServiceCore {
                 }
             }, new LocalImhotepServiceConfig());
 
-            final String sessionId = service.handleOpenSession("dataset", Arrays.asList("shard"), "", "", 0, 0, false, "", null);
+            final String sessionId = service.handleOpenSession("dataset", Arrays.asList("shard"), Collections.<String>emptyList(), "", "", 0, 0, false, "", null);
             service.handlePushStat(sessionId, "count()");
             final OutputStream os = new CloseableNullOutputStream();
             final Thread t = new Thread(new Runnable() {
                 @Override
                 public void run() {
                     try {
-                        service.handleGetFTGSIterator(sessionId, new String[]{"if1"}, new String[0], os);
+                        service.handleGetFTGSIterator(sessionId, new String[]{"if1"}, new String[0], Collections.<FTGSStatFilter>emptyList(), os);
                         fail();
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 Indeed Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.indeed.imhotep.service;
+
+import com.indeed.flamdex.simple.SimpleFlamdexDocWriter;
+import com.indeed.flamdex.simple.SimpleFlamdexReader;
+import com.indeed.flamdex.writer.FlamdexDocWriter;
+import com.indeed.flamdex.writer.FlamdexDocument;
+import com.indeed.imhotep.ImhotepMemoryPool;
+import com.indeed.imhotep.MemoryReservationContext;
+import com.indeed.imhotep.api.ImhotepOutOfMemoryException;
+import com.indeed.imhotep.local.ImhotepLocalSession;
+import com.indeed.util.core.reference.AtomicSharedReference;
+import com.indeed.util.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSessionPrefetcher {
+    private String shardDir;
+
+    @Before
+    public void setUp() throws IOException {
+        shardDir = Files.getTempDirectory("imhotep", "prefetch");
+        final FlamdexDocWriter w = new SimpleFlamdexDocWriter(shardDir, new SimpleFlamdexDocWriter.Config());
+        for (int i = 0; i < 1000; i++) {
+            final FlamdexDocument doc = new FlamdexDocument();
+            doc.setIntField("if1", i);
+            doc.setIntField("if2", i % 7);
+            w.addDocument(doc);
+        }
+        w.close();
+    }
+
+    @After
+    public void tearDown() {
+        Files.delete(shardDir);
+    }
+
+    @Test
+    public void testPrefetch() throws IOException, ImhotepOutOfMemoryException, InterruptedException {
+        final MemoryReservationContext readerMemory = new MemoryReservationContext(new ImhotepMemoryPool(Long.MAX_VALUE));
+        final CachedFlamdexReader cfr = new CachedFlamdexReader(readerMemory, SimpleFlamdexReader.open(shardDir), null, "test", "test", null);
+        final AtomicSharedReference<CachedFlamdexReader> resource = AtomicSharedReference.create(cfr);
+        final CachedFlamdexReaderReference reader = new CachedFlamdexReaderReference(resource.get());
+        final ImhotepLocalSession session = new ImhotepLocalSession(reader);
+        try {
+            // fields that are not in the shard are skipped
+            SessionPrefetcher.prefetch("session", Arrays.asList("if1", "missing"),
+                    new CachedFlamdexReaderReference[]{reader}, new ImhotepLocalSession[]{session});
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (cfr.getLoadedMetrics().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Collections.singleton("if1"), cfr.getLoadedMetrics());
+            final long loadedMemory = readerMemory.usedMemory();
+            assertTrue(loadedMemory > 0);
+
+            // the first pushStat finds the metric loaded
+            session.pushStat("if1");
+            assertEquals(loadedMemory, readerMemory.usedMemory());
+            assertEquals(1000L * 999 / 2, session.getGroupStats(0)[1]);
+            session.popStat();
+            assertEquals(Collections.singleton("if1"), cfr.getLoadedMetrics());
+
+            // metrics that were not requested are loaded by pushStat as before
+            session.pushStat("if2");
+            assertEquals(2, cfr.getLoadedMetrics().size());
+            session.popStat();
+        } finally {
+            session.close();
+        }
+        assertTrue(cfr.getLoadedMetrics().isEmpty());
+        assertEquals(0, readerMemory.usedMemory());
+        resource.unset();
+    }
+
+    @Test
+    public void testPrefetchAfterClose() throws IOException, ImhotepOutOfMemoryException {
+        final MemoryReservationContext readerMemory = new MemoryReservationContext(new ImhotepMemoryPool(Long.MAX_VALUE));
+        final CachedFlamdexReader cfr = new CachedFlamdexReader(readerMemory, SimpleFlamdexReader.open(shardDir), null, "test", "test", null);
+        final AtomicSharedReference<CachedFlamdexReader> resource = AtomicSharedReference.create(cfr);
+        final CachedFlamdexReaderReference reader = new CachedFlamdexReaderReference(resource.get());
+        final ImhotepLocalSession session = new ImhotepLocalSession(reader);
+        reader.prefetchField("if1");
+        session.close();
+        // a prefetch that finishes after the session is closed must not hold on to the metric
+        session.prefetchMetric("if1");
+        assertTrue(cfr.getLoadedMetrics().isEmpty());
+        assertEquals(0, readerMemory.usedMemory());
+        resource.unset();
+    }
+}